@@ -1,16 +1,16 @@
 package com.soundspace.cache.facade;
+import com.soundspace.cache.provider.CachedSongBaseProvider;
 import com.soundspace.dto.SongBaseDto;
-import com.soundspace.dto.SongDtoWithDetails;
-import com.soundspace.repository.SongRepository;
 import com.soundspace.service.song.CachedRecommendationsProvider;
-import com.soundspace.util.SongPaginationUtil;
+import com.soundspace.service.song.SongStatisticsService;
 import lombok.RequiredArgsConstructor;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Service;
 
-import java.time.Instant;
+import java.util.Arrays;
 import java.util.List;
 
 @Service
@@ -18,27 +18,29 @@ import java.util.List;
 public class RecommendationsFacade {
 
     private final CachedRecommendationsProvider cachedProvider;
-    private final SongRepository songRepo;
+    private final SongStatisticsService songStatisticsService;
+    private final CachedSongBaseProvider cachedSongBaseProvider;
 
     public Page<SongBaseDto> getRecommendations(UserDetails userDetails, Pageable pageable) {
         if (userDetails == null) {
             return getGlobalTopSongs(pageable);
         }
 
-        List<SongBaseDto> recommendedSongs = cachedProvider.getRecommendations(userDetails);
+        long[] recommendedIds = cachedProvider.getRecommendedSongIds(userDetails);
 
-        if (recommendedSongs.isEmpty()) {
+        if (recommendedIds.length == 0) {
             return getGlobalTopSongs(pageable);
         }
 
-        return SongPaginationUtil.toPage(recommendedSongs, pageable);
+        int from = (int) Math.min(pageable.getOffset(), recommendedIds.length);
+        int to = Math.min(from + pageable.getPageSize(), recommendedIds.length);
+        List<Long> pageIds = Arrays.stream(recommendedIds, from, to).boxed().toList();
+
+        // w cache sa tylko id - DTO strony ze wspolnego cache piosenek, widocznosc sprawdzana na biezaco
+        return new PageImpl<>(cachedSongBaseProvider.getPublicSongs(pageIds), pageable, recommendedIds.length);
     }
 
     private Page<SongBaseDto> getGlobalTopSongs(Pageable pageable) {
-        return songRepo.findTrendingSongs(
-                Instant.now().minusSeconds(60 * 60 * 24 * 7),
-                pageable,
-                3
-        ).map(SongBaseDto::toDto);
+        return songStatisticsService.getTrendingSongs(pageable);
     }
 }
\ No newline at end of file
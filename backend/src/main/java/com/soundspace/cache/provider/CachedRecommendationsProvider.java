@@ -1,22 +1,20 @@
 package com.soundspace.service.song;
 
-import com.soundspace.dto.SongBaseDto;
-import com.soundspace.dto.SongDtoWithDetails;
 import lombok.RequiredArgsConstructor;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Service;
 
-import java.util.List;
-
 @Service
 @RequiredArgsConstructor
 public class CachedRecommendationsProvider {
 
     private final RecommendationsService recommendationsService;
 
+    // w cache tylko posortowane id (~8B na piosenke) - DTO dociagane sa dla samej ogladanej strony.
+    // aktywnym uzytkownikom wpisy odswieza w tle RecommendationsPrecomputer
     @Cacheable(value = "recommendations", key = "(#userDetails == null ? 'ANON' : #userDetails.username)")
-    public List<SongBaseDto> getRecommendations(UserDetails userDetails) {
-        return recommendationsService.getRecommendations(userDetails);
+    public long[] getRecommendedSongIds(UserDetails userDetails) {
+        return recommendationsService.getRecommendedSongIds(userDetails);
     }
 }
\ No newline at end of file
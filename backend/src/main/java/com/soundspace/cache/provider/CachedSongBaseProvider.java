@@ -0,0 +1,65 @@
+package com.soundspace.cache.provider;
+
+import com.soundspace.dto.SongBaseDto;
+import com.soundspace.repository.SongRepository;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * SongBaseDto po id ze wspolnego cache "song-base" - dla list trzymanych w cache jako same id (rekomendacje,
+ * powiazane piosenki). Brakujace DTO sa ladowane jednym zapytaniem dla calej strony.
+ * <p>
+ * Widocznosc nie jest cachowana: kazda strona sprawdza w bazie (po PK), ktore id sa nadal publiczne, wiec ukryta
+ * piosenka znika od razu. Tytul/okladka/login autora sa czyszczone przy ich zmianie (SongCoreService.update,
+ * CoverProcessingQueue, AppUserService.update).
+ */
+@Service
+public class CachedSongBaseProvider {
+
+    private static final String CACHE_NAME = "song-base";
+
+    private final SongRepository songRepository;
+    private final Cache cache;
+
+    public CachedSongBaseProvider(SongRepository songRepository, CacheManager cacheManager) {
+        this.songRepository = songRepository;
+        this.cache = Objects.requireNonNull(cacheManager.getCache(CACHE_NAME));
+    }
+
+    /// publiczne piosenki w kolejnosci ids - ukryte/usuniete po prostu wypadaja
+    public List<SongBaseDto> getPublicSongs(List<Long> ids) {
+        if (ids.isEmpty()) return List.of();
+
+        Set<Long> publicIds = new HashSet<>(songRepository.findPublicIdsIn(ids));
+
+        Map<Long, SongBaseDto> songs = new HashMap<>();
+        List<Long> missing = new ArrayList<>();
+        for (Long id : publicIds) {
+            SongBaseDto cached = cache.get(id, SongBaseDto.class);
+            if (cached != null) songs.put(id, cached);
+            else missing.add(id);
+        }
+
+        if (!missing.isEmpty()) {
+            songRepository.findPublicBaseProjectionsByIds(missing).forEach(projection -> {
+                SongBaseDto dto = SongBaseDto.toDto(projection);
+                cache.put(dto.id(), dto);
+                songs.put(dto.id(), dto);
+            });
+        }
+
+        return ids.stream()
+                .map(songs::get)
+                .filter(Objects::nonNull)
+                .toList();
+    }
+}
@@ -0,0 +1,54 @@
+package com.soundspace.cache.provider;
+
+import com.soundspace.dto.StreamDescriptor;
+import com.soundspace.dto.projection.StreamDescriptorProjection;
+import com.soundspace.repository.SongRepository;
+import com.soundspace.service.storage.StorageService;
+import com.soundspace.util.ETagUtil;
+import lombok.RequiredArgsConstructor;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.NoSuchFileException;
+import java.util.NoSuchElementException;
+
+@Service
+@RequiredArgsConstructor
+public class CachedStreamDescriptorProvider {
+
+    private final SongRepository songRepository;
+    private final StorageService storageService;
+
+    /// jedno zapytanie (song + autor + storage key audio) i jeden stat() / HEAD na plik na piosenke, dalej juz z cache.
+    /// evict w SongCoreService.update/deleteSongById, AlbumService.update (widocznosc) i przy usuwaniu usera
+    @Cacheable(value = "stream-descriptor", key = "#songId")
+    public StreamDescriptor getStreamDescriptor(Long songId) {
+        StreamDescriptorProjection p = songRepository.findStreamDescriptorById(songId)
+                .orElseThrow(() -> new NoSuchElementException("Piosenka nie istnieje"));
+
+        if (p.getAudioKeyStr() == null || p.getAudioKeyStr().isBlank()) {
+            throw new NoSuchElementException("Brak przypisanego pliku audio dla piosenki");
+        }
+
+        try {
+            // stat() na dysku albo HEAD przy S3
+            long sizeBytes = storageService.size(p.getAudioKeyStr());
+            return new StreamDescriptor(
+                    p.getSongId(),
+                    Boolean.TRUE.equals(p.getPubliclyVisible()),
+                    p.getAuthorId(),
+                    p.getAudioKeyStr(),
+                    sizeBytes,
+                    p.getAudioMimeType(),
+                    ETagUtil.fromStorageKey(p.getAudioStorageKeyId(), sizeBytes),
+                    p.getAudioCreatedAt()
+            );
+        } catch (NoSuchFileException e) {
+            throw new NoSuchElementException("Plik fizyczny nie istnieje");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
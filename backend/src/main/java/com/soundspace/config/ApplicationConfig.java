@@ -82,6 +82,31 @@ public class ApplicationConfig {
         return config.media().audio();
     }
 
+    @Bean
+    public ApplicationConfigProperties.MediaConfig.ProcessingConfig processingConfig(ApplicationConfigProperties config) {
+        return config.media().processing();
+    }
+
+    @Bean
+    public ApplicationConfigProperties.StreamingConfig streamingConfig(ApplicationConfigProperties config) {
+        return config.streaming();
+    }
+
+    @Bean
+    public ApplicationConfigProperties.TrendingConfig trendingConfig(ApplicationConfigProperties config) {
+        return config.trending();
+    }
+
+    @Bean
+    public ApplicationConfigProperties.StatisticsConfig statisticsConfig(ApplicationConfigProperties config) {
+        return config.statistics();
+    }
+
+    @Bean
+    public ApplicationConfigProperties.RecommendationsConfig recommendationsConfig(ApplicationConfigProperties config) {
+        return config.recommendations();
+    }
+
     @Bean
     public ApplicationConfigProperties.CookieConfig cookieConfig(ApplicationConfigProperties config) {
         return config.cookie();
@@ -2,13 +2,20 @@ package com.soundspace.config;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
+import java.util.List;
+
 @ConfigurationProperties(prefix = "app")
 public record ApplicationConfigProperties(
         JwtConfig jwt,
         StorageConfig storage,
         ViewsConfig views,
         MediaConfig media,
-        CookieConfig cookie
+        CookieConfig cookie,
+        StreamingConfig streaming,
+        TrendingConfig trending,
+        ReactionsConfig reactions,
+        StatisticsConfig statistics,
+        RecommendationsConfig recommendations
 ) {
 
     public record JwtConfig(
@@ -18,18 +25,55 @@ public record ApplicationConfigProperties(
     ) {}
 
     public record StorageConfig(
-            String root
-    ) {}
+            String root,
+            boolean contentAddressed,
+            String backend, // local | s3
+            S3Config s3
+    ) {
+        public record S3Config(
+                String endpoint,
+                String region,
+                String bucket,
+                String accessKey,
+                String secretKey,
+                boolean pathStyleAccess
+        ) {}
+    }
 
     public record ViewsConfig(
             int cooldownSeconds,
-            long bufferFlushRateMs
-    ) {}
+            long cooldownIndexMaxSize,
+            long bufferFlushRateMs,
+            JournalConfig journal,
+            IngestionConfig ingestion,
+            RetentionConfig retention
+    ) {
+        public record JournalConfig(
+                boolean enabled,
+                String directory,
+                int segmentRecords,
+                long fsyncIntervalMs
+        ) {}
+
+        public record IngestionConfig(
+                int queueCapacity,
+                int batchSize,
+                long offerTimeoutMs
+        ) {}
+
+        public record RetentionConfig(
+                int rawDays,
+                int rollupLookbackDays,
+                int partitionsAhead,
+                String maintenanceCron
+        ) {}
+    }
 
     public record MediaConfig(
             AvatarConfig avatar,
             CoverConfig cover,
-            AudioConfig audio
+            AudioConfig audio,
+            ProcessingConfig processing
     ) {
         public record AvatarConfig(
                 String targetExtension,
@@ -48,7 +92,8 @@ public record ApplicationConfigProperties(
                 Long defaultCoverId,
                 String albumDirectory,
                 String playlistDirectory,
-                String songDirectory
+                String songDirectory,
+                List<Integer> renditionSizes // mniejsze wersje do miniatur (?size= w /api/images), oryginal zawsze jest
         ) {}
 
         public record AudioConfig(
@@ -57,6 +102,66 @@ public record ApplicationConfigProperties(
                 Long defaultAudioId,
                 Long uploadMaxBytes
         ) {}
+
+        public record ProcessingConfig(
+                int threads,
+                int queueCapacity,
+                String spoolDir
+        ) {}
+    }
+
+    public record StreamingConfig(
+            boolean zeroCopy,
+            long initialChunkBytes,
+            long maxChunkBytes,
+            long playbackIdleSeconds,
+            long multiRangeMaxBytes
+    ) {}
+
+    public record TrendingConfig(
+            double halfLifeHours,
+            int windowDays,
+            int likeWeight,
+            int maxSize,
+            long refreshIntervalMs,
+            String rebuildCron
+    ) {}
+
+    public record ReactionsConfig(
+            long bufferFlushRateMs,
+            String reconcileCron
+    ) {}
+
+    public record StatisticsConfig(
+            boolean shardedCounters,
+            int shardSlots,
+            long compactRateMs
+    ) {}
+
+    public record RecommendationsConfig(
+            long catalogRefreshMs,
+            int candidatePoolSize,
+            int resultSize,
+            SimilarityConfig similarity,
+            PrecomputeConfig precompute
+    ) {
+        public record SimilarityConfig(
+                String file,
+                int neighbours,
+                int maxItemsPerUser,
+                float viewWeight,
+                int seedSongs,
+                String rebuildCron
+        ) {}
+
+        public record PrecomputeConfig(
+                boolean batchEnabled,
+                long intervalMs,
+                long initialDelayMs,
+                int activeWindowHours,
+                int maxUsers,
+                int dbConcurrency
+        ) {}
     }
 
     public record CookieConfig(
@@ -0,0 +1,52 @@
+package com.soundspace.config;
+
+import com.soundspace.service.storage.BlobStore;
+import com.soundspace.service.storage.LocalBlobStore;
+import com.soundspace.service.storage.S3BlobStore;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3ClientBuilder;
+
+import java.net.URI;
+import java.nio.file.Paths;
+
+@Configuration
+public class BlobStoreConfig {
+
+    // app.storage.backend: local (domyslnie) - dysk pod app.storage.root, s3 - bucket S3 / MinIO
+    @Bean
+    public BlobStore blobStore(ApplicationConfigProperties.StorageConfig storageConfig) {
+        if ("s3".equalsIgnoreCase(storageConfig.backend())) {
+            ApplicationConfigProperties.StorageConfig.S3Config s3Config = storageConfig.s3();
+            return new S3BlobStore(s3Client(s3Config), s3Config.bucket());
+        }
+
+        String root = storageConfig.root() != null ? storageConfig.root() : "./data";
+        return new LocalBlobStore(Paths.get(root));
+    }
+
+    private S3Client s3Client(ApplicationConfigProperties.StorageConfig.S3Config s3Config) {
+        S3ClientBuilder builder = S3Client.builder()
+                .region(Region.of(s3Config.region()))
+                .forcePathStyle(s3Config.pathStyleAccess()); // MinIO nie ma bucketow w subdomenach
+
+        if (s3Config.endpoint() != null && !s3Config.endpoint().isBlank()) {
+            builder.endpointOverride(URI.create(s3Config.endpoint()));
+        }
+
+        // bez kluczy w configu - standardowy lancuch AWS (env, profil, IAM role)
+        if (s3Config.accessKey() != null && !s3Config.accessKey().isBlank()) {
+            builder.credentialsProvider(StaticCredentialsProvider.create(
+                    AwsBasicCredentials.create(s3Config.accessKey(), s3Config.secretKey())));
+        } else {
+            builder.credentialsProvider(DefaultCredentialsProvider.builder().build());
+        }
+
+        return builder.build();
+    }
+}
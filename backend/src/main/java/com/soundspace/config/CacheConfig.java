@@ -23,6 +23,9 @@ public class CacheConfig {
                 createCache("recommendations", 24, 20_000),
                 createCacheSeconds("song-stats", 20, 1_500),
                 createCache("song", 24, 100_000),
+                createCache("song-base", 1, 100_000),
+                createCache("song-exists", 1, 200_000),
+                createCache("stream-descriptor", 24, 50_000),
                 createCache("playlist", 24, 50_000),
                 createCache("album", 24, 25_000),
                 createCache("all-songs", 1, 10_000),
@@ -3,6 +3,7 @@ package com.soundspace.controller;
 import com.soundspace.entity.StorageKey;
 import com.soundspace.service.storage.ImageService;
 import com.soundspace.service.storage.StorageService;
+import com.soundspace.util.ETagUtil;
 import lombok.RequiredArgsConstructor;
 import org.springframework.core.io.Resource;
 import org.springframework.http.HttpHeaders;
@@ -12,7 +13,9 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 
 @RestController
 @RequestMapping("/api/images")
@@ -22,9 +25,21 @@ public class ImageController {
     private final StorageService storageService;
 
     @GetMapping("/{storageKeyId}")
-    public ResponseEntity<Resource> getFile(@PathVariable Long storageKeyId) {
+    public ResponseEntity<Resource> getFile(@PathVariable Long storageKeyId,
+                                            @RequestParam(required = false) Integer size, // np. ?size=64 do miniatur w listach
+                                            WebRequest webRequest) {
         StorageKey coverStorageKey = storageService.getStorageKey(storageKeyId);
-        Resource resource = imageService.loadImageResource(coverStorageKey);
+        int renditionSize = imageService.pickRenditionSize(size);
+
+        // StorageKey jest w cache, a obrazek pod danym id sie nie zmienia (nowy cover = nowy StorageKey),
+        // wiec rewalidacja po 12h konczy sie 304 bez otwierania pliku. ETag i Last-Modified dopisuje checkNotModified
+        String eTag = ETagUtil.fromStorageKey(coverStorageKey.getId(), coverStorageKey.getSizeBytes(), renditionSize);
+        long lastModified = coverStorageKey.getCreatedAt() != null ? coverStorageKey.getCreatedAt().toEpochMilli() : -1;
+        if (webRequest.checkNotModified(eTag, lastModified)) {
+            return null;
+        }
+
+        Resource resource = imageService.loadImageResource(coverStorageKey, renditionSize);
         String contentType = coverStorageKey.getMimeType();
 
         MediaType mediaType;
@@ -1,5 +1,6 @@
 package com.soundspace.controller.song;
 import com.soundspace.cache.facade.SongFacade;
+import com.soundspace.dto.CursorPage;
 import com.soundspace.dto.SongBaseDto;
 import com.soundspace.dto.SongDtoWithDetails;
 import com.soundspace.dto.SongStatslessDto;
@@ -58,6 +59,14 @@ public class SongCoreController {
         return ResponseEntity.ok(songCoreService.getAllSongs(extractUserDetails(authentication), pageable));
     }
 
+    // nieskonczony scroll - kolejna strona po nextCursor z poprzedniej, bez liczenia wszystkich piosenek
+    @GetMapping("/cursor")
+    public ResponseEntity<CursorPage<SongBaseDto>> getAllSongsByCursor(Authentication authentication,
+                                                                       @RequestParam(required = false) String cursor,
+                                                                       @RequestParam(required = false) Integer size) {
+        return ResponseEntity.ok(songCoreService.getAllSongsByCursor(extractUserDetails(authentication), cursor, size));
+    }
+
     @PostMapping(value = "/upload", consumes = "multipart/form-data")
     public ResponseEntity<SongStatslessDto> upload(
             @AuthenticationPrincipal UserDetails userDetails,
@@ -100,6 +109,15 @@ public class SongCoreController {
                 ));
     }
 
+    @GetMapping("/genre/{genreName}/cursor")
+    public ResponseEntity<CursorPage<SongBaseDto>> getSongsByGenreByCursor(@PathVariable String genreName,
+                                                                           @RequestParam(required = false) String cursor,
+                                                                           @RequestParam(required = false) Integer size,
+                                                                           Authentication authentication) {
+        return ResponseEntity.ok(
+                songCoreService.getSongsByGenreByCursor(genreName, extractUserDetails(authentication), cursor, size));
+    }
+
     @GetMapping("/favourites")
     public ResponseEntity<Page<SongBaseDto>> getFavouriteSongs(@PageableDefault Pageable pageable,
                                                                       @AuthenticationPrincipal UserDetails userDetails){
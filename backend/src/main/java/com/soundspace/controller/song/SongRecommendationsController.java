@@ -2,6 +2,7 @@ package com.soundspace.controller.song;
 
 import com.soundspace.cache.facade.RecommendationsFacade;
 import com.soundspace.dto.SongBaseDto;
+import com.soundspace.service.song.SongSimilarityService;
 import lombok.RequiredArgsConstructor;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
@@ -14,16 +15,26 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.List;
+
 @RestController
 @RequestMapping("/api/songs/recommendations")
 @RequiredArgsConstructor
 @Validated
 public class SongRecommendationsController {
     private final RecommendationsFacade recommendationsFacade;
+    private final SongSimilarityService songSimilarityService;
 
     @GetMapping
     public ResponseEntity<Page<SongBaseDto>> getRecommendations(@PageableDefault Pageable pageable,
                                                                 @AuthenticationPrincipal UserDetails userDetails){
         return ResponseEntity.ok(recommendationsFacade.getRecommendations(userDetails, pageable));
     }
+
+    // "sluchacze tez polubili" - publiczne, nie zalezy od zalogowanego uzytkownika
+    @GetMapping("/related/{songId}")
+    public ResponseEntity<List<SongBaseDto>> getRelatedSongs(@PathVariable Long songId,
+                                                             @RequestParam(defaultValue = "20") int limit) {
+        return ResponseEntity.ok(songSimilarityService.getRelatedSongs(songId, limit));
+    }
 }
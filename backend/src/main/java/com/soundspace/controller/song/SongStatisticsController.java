@@ -1,5 +1,6 @@
 package com.soundspace.controller.song;
 
+import com.soundspace.dto.CursorPage;
 import com.soundspace.dto.SongBaseDto;
 import com.soundspace.service.song.SongStatisticsService;
 import com.soundspace.service.song.ViewService;
@@ -50,6 +51,18 @@ public class SongStatisticsController {
         return ResponseEntity.ok(songStatisticsService.getTopLiked(pageable));
     }
 
+    @GetMapping("/top/liked/cursor")
+    public ResponseEntity<CursorPage<SongBaseDto>> getTopLikedSongsByCursor(@RequestParam(required = false) String cursor,
+                                                                           @RequestParam(required = false) Integer size) {
+        return ResponseEntity.ok(songStatisticsService.getTopLikedByCursor(cursor, size));
+    }
+
+    @GetMapping("/top/viewed/cursor")
+    public ResponseEntity<CursorPage<SongBaseDto>> getTopViewedSongsByCursor(@RequestParam(required = false) String cursor,
+                                                                            @RequestParam(required = false) Integer size) {
+        return ResponseEntity.ok(songStatisticsService.getTopViewedByCursor(cursor, size));
+    }
+
     @GetMapping("/top/viewed")
     public ResponseEntity<Page<SongBaseDto>> getTopViewedSongs(@PageableDefault Pageable pageable) {
         return ResponseEntity.ok(songStatisticsService.getTopViewed(pageable));
@@ -1,7 +1,12 @@
 package com.soundspace.controller.song;
+import com.soundspace.config.ApplicationConfigProperties;
+import com.soundspace.dto.AudioRegion;
+import com.soundspace.dto.StreamDescriptor;
 import com.soundspace.service.song.SongStreamingService;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import org.springframework.core.io.support.ResourceRegion;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -9,9 +14,14 @@ import org.springframework.security.core.Authentication;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Optional;
 
 @RestController
 @RequestMapping("/api/songs")
@@ -19,21 +29,72 @@ import java.util.NoSuchElementException;
 @Validated
 public class SongStreamController {
     private final SongStreamingService songStreamingService;
+    private final ApplicationConfigProperties.StreamingConfig streamingConfig;
+
+    // atrybuty requestu tomcata - jak sa ustawione, to tomcat po wyjsciu z kontrolera sam wysyla plik przez sendfile
+    // (FileChannel.transferTo), bez przepychania bajtow przez heap i bez kopiowania ich przez spring
+    private static final String SENDFILE_SUPPORT_ATTR = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
+    private static final String[] IP_HEADERS = {
+            "X-Forwarded-For",
+            "Proxy-Client-IP",
+            "WL-Proxy-Client-IP"
+    };
 
     @GetMapping("/stream/{songId}")
-    public ResponseEntity<ResourceRegion> streamSong(
+    public ResponseEntity<List<ResourceRegion>> streamSong(
             @PathVariable Long songId,
             @RequestHeader(value = "Range", required = false) String rangeHeader,
-            Authentication authentication) {
+            @RequestHeader(value = "If-Range", required = false) String ifRangeHeader,
+            Authentication authentication,
+            HttpServletRequest request,
+            WebRequest webRequest) {
 
         try {
+            UserDetails userDetails = extractUserDetails(authentication);
+            StreamDescriptor descriptor = songStreamingService.getStreamDescriptor(songId, userDetails);
+
+            // If-None-Match / If-Modified-Since - walidatory sa w cache, wiec 304 nie dotyka ani bazy ani pliku.
+            // checkNotModified sam ustawia status (304 albo 412 przy If-Match), a ETag i Last-Modified dopisuje
+            // do kazdej odpowiedzi GET - dlatego nie ma ich nizej w ResponseEntity (bylyby zdublowane)
+            if (webRequest.checkNotModified(descriptor.eTag(), lastModifiedMillis(descriptor))) {
+                return null;
+            }
+
+            List<AudioRegion> regions = songStreamingService.getAudioRegions(descriptor, rangeHeader, ifRangeHeader, userDetails, extractClientIp(request));
+            MediaType mediaType = MediaType.parseMediaType(regions.getFirst().mimeType());
 
-            ResourceRegion region = songStreamingService.getSongRegion(songId, rangeHeader, extractUserDetails(authentication));
-            String mimeType = songStreamingService.getSongMimeType(songId);
+            // sendfile obsluguje tylko jeden ciagly zakres pliku z lokalnego dysku -
+            // multipart/byteranges i S3 (ranged GET) ida przez ResourceRegion
+            Optional<Path> localFile = regions.size() == 1 ? songStreamingService.localFile(regions.getFirst()) : Optional.empty();
+            if (localFile.isPresent() && streamingConfig.zeroCopy() && isSendfileSupported(request)) {
+                AudioRegion region = regions.getFirst();
+
+                // body zostaje puste - tomcat dopisze plik sam (koniec zakresu u tomcata jest exclusive)
+                request.setAttribute(SENDFILE_FILENAME_ATTR, localFile.get().toAbsolutePath().toString());
+                request.setAttribute(SENDFILE_START_ATTR, region.start());
+                request.setAttribute(SENDFILE_END_ATTR, region.start() + region.length());
+
+                return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
+                        .contentType(mediaType)
+                        .contentLength(region.length())
+                        .header(HttpHeaders.CONTENT_RANGE, region.contentRange())
+                        .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                        .build();
+            }
+
+            // ResourceRegionHttpMessageConverter: jeden region -> zwykle 206, kilka -> multipart/byteranges
+            List<ResourceRegion> resourceRegions = new ArrayList<>(regions.size());
+            for (AudioRegion region : regions) {
+                resourceRegions.add(songStreamingService.toResourceRegion(region));
+            }
 
             return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
-                    .contentType(MediaType.parseMediaType(mimeType))
-                    .body(region);
+                    .contentType(mediaType)
+                    .body(resourceRegions);
 
         } catch (NoSuchElementException e) {
             return ResponseEntity.notFound().build();
@@ -51,4 +112,24 @@ public class SongStreamController {
         } else return null;
     }
 
+    private String extractClientIp(HttpServletRequest request) {
+        for (String header : IP_HEADERS) {
+            String ip = request.getHeader(header);
+
+            if (ip != null && !ip.isEmpty() && !"unknown".equalsIgnoreCase(ip)) {
+                return ip.split(",")[0].trim();
+            }
+        }
+        return request.getRemoteAddr();
+    }
+
+    private long lastModifiedMillis(StreamDescriptor descriptor) {
+        return descriptor.lastModified() != null ? descriptor.lastModified().toEpochMilli() : -1;
+    }
+
+    // tomcat ustawia ten atrybut tylko gdy connector ma wlaczone sendfile (nio), w testach (MockMvc) go nie ma
+    private boolean isSendfileSupported(HttpServletRequest request) {
+        return Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTR));
+    }
+
 }
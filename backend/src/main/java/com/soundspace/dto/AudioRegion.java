@@ -0,0 +1,13 @@
+package com.soundspace.dto;
+
+/// fragment pliku audio do wyslania w odpowiedzi 206 - start i length juz przyciete do rozmiaru pliku
+public record AudioRegion(String storageKey, long start, long length, long totalLength, String mimeType) {
+
+    public long end() {
+        return start + length - 1;
+    }
+
+    public String contentRange() {
+        return "bytes " + start + "-" + end() + "/" + totalLength;
+    }
+}
@@ -0,0 +1,15 @@
+package com.soundspace.dto;
+
+import java.util.List;
+import java.util.function.Function;
+
+/// strona dla nieskonczonego scrolla - bez liczenia wszystkich wynikow, kolejna strona po nextCursor (null = koniec)
+public record CursorPage<T>(
+        List<T> content,
+        String nextCursor,
+        boolean hasNext
+) {
+    public <R> CursorPage<R> map(Function<? super T, ? extends R> mapper) {
+        return new CursorPage<>(content.stream().<R>map(mapper).toList(), nextCursor, hasNext);
+    }
+}
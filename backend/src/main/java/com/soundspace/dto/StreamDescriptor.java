@@ -0,0 +1,16 @@
+package com.soundspace.dto;
+
+import java.time.Instant;
+
+/// wszystko czego potrzebuje pojedynczy range request do piosenki - trzymane w cache "stream-descriptor",
+/// zeby kolejne chunki tej samej piosenki nie robily zadnego zapytania do bazy ani stat() / HEAD na pliku
+public record StreamDescriptor(
+        Long songId,
+        boolean publiclyVisible,
+        Long authorId, // id, nie email - email da sie zmienic, a wpis zyje 24h
+        String storageKey,
+        long sizeBytes,
+        String mimeType,
+        String eTag,
+        Instant lastModified
+) {}
@@ -0,0 +1,7 @@
+package com.soundspace.dto.projection;
+
+/// SongBaseProjection + klucze sortowania rankingow (do kursora paginacji keyset)
+public interface SongRankedProjection extends SongBaseProjection {
+    Long getLikesCount();
+    Long getViewCount();
+}
@@ -0,0 +1,13 @@
+package com.soundspace.dto.projection;
+
+import java.time.Instant;
+
+public interface StreamDescriptorProjection {
+    Long getSongId();
+    Boolean getPubliclyVisible();
+    Long getAuthorId();
+    String getAudioKeyStr();
+    String getAudioMimeType();
+    Long getAudioStorageKeyId();
+    Instant getAudioCreatedAt();
+}
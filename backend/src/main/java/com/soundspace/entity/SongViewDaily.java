@@ -0,0 +1,37 @@
+package com.soundspace.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.io.Serializable;
+import java.time.LocalDate;
+
+/// dzienny agregat wyswietlen z song_views - surowe wiersze sa trzymane tylko kilka dni, potem zostaje tylko to
+@Entity
+@Table(name = "song_view_daily", indexes = @Index(name = "idx_song_view_daily_song", columnList = "song_id"))
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class SongViewDaily {
+
+    @EmbeddedId
+    private Key id;
+
+    @Column(name = "view_count", nullable = false)
+    private Long viewCount = 0L;
+
+    @Embeddable
+    @Getter
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @EqualsAndHashCode
+    public static class Key implements Serializable {
+
+        @Column(name = "view_day", nullable = false)
+        private LocalDate viewDay;
+
+        @Column(name = "song_id", nullable = false)
+        private Long songId;
+    }
+}
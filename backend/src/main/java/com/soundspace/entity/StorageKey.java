@@ -27,4 +27,11 @@ public class StorageKey {
 
     @Column(name = "created_at", nullable = false)
     private Instant createdAt = Instant.now();
+
+    @Column(name = "content_hash", length = 64)
+    private String contentHash;
+
+    // ile encji wskazuje na ten plik (>1 tylko przy app.storage.content-addressed)
+    @Column(name = "ref_count", nullable = false)
+    private int refCount = 1;
 }
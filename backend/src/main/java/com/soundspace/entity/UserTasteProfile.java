@@ -0,0 +1,95 @@
+package com.soundspace.entity;
+
+import com.soundspace.enums.Genre;
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.function.Function;
+
+/**
+ * Profil gustu uzytkownika do rekomendacji: nieznormalizowane sumy wag gatunkow i autorow (like/favourite dodatnie,
+ * dislike ujemne) oraz total mass, przez ktory sa dzielone przy scoringu. Aktualizowany przyrostowo przy kazdej
+ * reakcji, wiec rekomendacje czytaja jeden wiersz zamiast calej historii reakcji.
+ */
+@Entity
+@Table(name = "user_taste_profiles")
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class UserTasteProfile {
+
+    @Id
+    @Column(name = "user_id")
+    private Long userId;
+
+    @Builder.Default
+    @Convert(converter = GenreWeightsConverter.class)
+    @Column(name = "genre_weights", nullable = false, columnDefinition = "TEXT")
+    private Map<Genre, Double> genreWeights = new HashMap<>();
+
+    // tylko top-N autorow po |wadze| (TasteProfileService.MAX_AUTHORS)
+    @Builder.Default
+    @Convert(converter = AuthorWeightsConverter.class)
+    @Column(name = "author_weights", nullable = false, columnDefinition = "TEXT")
+    private Map<Long, Double> authorWeights = new HashMap<>();
+
+    @Column(name = "total_mass", nullable = false)
+    private double totalMass;
+
+    // kiedy profil byl ostatnio przeliczony z calej historii reakcji
+    @Column(name = "built_at", nullable = false)
+    private Instant builtAt;
+
+    @Column(name = "updated_at", nullable = false)
+    private Instant updatedAt;
+
+    /// "POP=0.5;ROCK=-0.25" - po nazwach, wiec zmiana kolejnosci w enumie nic nie psuje
+    @Converter
+    public static class GenreWeightsConverter implements AttributeConverter<Map<Genre, Double>, String> {
+        @Override
+        public String convertToDatabaseColumn(Map<Genre, Double> weights) {
+            return write(weights);
+        }
+
+        @Override
+        public Map<Genre, Double> convertToEntityAttribute(String column) {
+            return read(column, Genre::valueOf);
+        }
+    }
+
+    @Converter
+    public static class AuthorWeightsConverter implements AttributeConverter<Map<Long, Double>, String> {
+        @Override
+        public String convertToDatabaseColumn(Map<Long, Double> weights) {
+            return write(weights);
+        }
+
+        @Override
+        public Map<Long, Double> convertToEntityAttribute(String column) {
+            return read(column, Long::valueOf);
+        }
+    }
+
+    private static String write(Map<?, Double> weights) {
+        StringJoiner joiner = new StringJoiner(";");
+        if (weights != null) weights.forEach((key, weight) -> joiner.add(key + "=" + weight));
+        return joiner.toString();
+    }
+
+    private static <K> Map<K, Double> read(String column, Function<String, K> keyParser) {
+        Map<K, Double> weights = new HashMap<>();
+        if (column == null || column.isBlank()) return weights;
+
+        for (String entry : column.split(";")) {
+            int separator = entry.indexOf('=');
+            weights.put(keyParser.apply(entry.substring(0, separator)), Double.valueOf(entry.substring(separator + 1)));
+        }
+        return weights;
+    }
+}
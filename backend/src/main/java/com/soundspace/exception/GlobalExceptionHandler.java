@@ -1,5 +1,6 @@
 package com.soundspace.exception;
 
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.MethodArgumentNotValidException;
@@ -55,4 +56,11 @@ public class GlobalExceptionHandler {
     public ResponseEntity<?> handleSongNotFoundException(SongNotFoundException ex) {
         return ResponseEntity.status(HttpStatus.NOT_FOUND).body(ex.getMessage());
     }
+
+    @ExceptionHandler(ImageProcessingQueueFullException.class)
+    public ResponseEntity<?> handleImageProcessingQueueFull(ImageProcessingQueueFullException ex) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE) // 503
+                .header(HttpHeaders.RETRY_AFTER, "5")
+                .body(Map.of("error", ex.getMessage()));
+    }
 }
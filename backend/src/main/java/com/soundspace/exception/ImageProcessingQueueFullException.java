@@ -0,0 +1,5 @@
+package com.soundspace.exception;
+
+public class ImageProcessingQueueFullException extends RuntimeException {
+    public ImageProcessingQueueFullException(String message) { super(message); }
+}
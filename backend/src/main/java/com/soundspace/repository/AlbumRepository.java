@@ -2,6 +2,7 @@ package com.soundspace.repository;
 
 import com.soundspace.dto.projection.AlbumProjection;
 import com.soundspace.entity.Album;
+import com.soundspace.entity.StorageKey;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
@@ -224,4 +225,10 @@ public interface AlbumRepository extends JpaRepository<Album, Long> {
             @Param("containsQuery") String containsQuery,
             Pageable pageable
     );
+
+    /// podmiana okladki po przetworzeniu w tle - tylko jezeli album dalej wskazuje na okladke sprzed uploadu
+    /// (0 = album usuniety albo okladka w miedzyczasie zmieniona, nowy plik do wyrzucenia)
+    @Modifying
+    @Query("UPDATE Album a SET a.coverStorageKey = :newKey WHERE a.id = :id AND a.coverStorageKey.id = :expectedKeyId")
+    int swapCoverStorageKey(@Param("id") Long id, @Param("expectedKeyId") Long expectedKeyId, @Param("newKey") StorageKey newKey);
 }
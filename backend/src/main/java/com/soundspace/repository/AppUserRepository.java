@@ -19,6 +19,10 @@ public interface AppUserRepository extends JpaRepository<AppUser, Long> {
     @Query("select u.id from AppUser u where u.email = :email")
     Optional<Long> findUserIdByEmail(String email);
 
+    /// blokada wiersza uzytkownika - serializuje budowanie profilu gustu z historii i przyrostowe zmiany z reakcji
+    @Query(value = "SELECT id FROM app_users WHERE id = :id FOR UPDATE", nativeQuery = true)
+    Optional<Long> lockById(@Param("id") Long id);
+
     @Query(value = """
             SELECT u.id,
                    u.login,
@@ -1,6 +1,7 @@
 package com.soundspace.repository;
 import com.soundspace.dto.projection.PlaylistProjection;
 import com.soundspace.entity.Playlist;
+import com.soundspace.entity.StorageKey;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
@@ -163,4 +164,10 @@ public interface PlaylistRepository extends JpaRepository<Playlist, Long> {
             @Param("containsQuery") String containsQuery,
             Pageable pageable
     );
+
+    /// podmiana okladki po przetworzeniu w tle - tylko jezeli playlista dalej wskazuje na okladke sprzed uploadu
+    /// (0 = playlista usunieta albo okladka w miedzyczasie zmieniona, nowy plik do wyrzucenia)
+    @Modifying
+    @Query("UPDATE Playlist p SET p.coverStorageKey = :newKey WHERE p.id = :id AND p.coverStorageKey.id = :expectedKeyId")
+    int swapCoverStorageKey(@Param("id") Long id, @Param("expectedKeyId") Long expectedKeyId, @Param("newKey") StorageKey newKey);
 }
@@ -3,13 +3,16 @@ package com.soundspace.repository;
 import com.soundspace.entity.Song;
 import com.soundspace.entity.SongReaction;
 import com.soundspace.enums.ReactionType;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 public interface SongReactionRepository extends JpaRepository<SongReaction, Long> {
 
@@ -36,7 +39,7 @@ public interface SongReactionRepository extends JpaRepository<SongReaction, Long
 
     @Modifying
     @Query("DELETE FROM SongReaction s WHERE s.song.id = :songId AND s.user.id = :userId AND s.reactionType = 'FAVOURITE'")
-    void deleteFavouriteBySongIdAndUserId(@Param("songId")Long songId, @Param("userId")Long userId);
+    int deleteFavouriteBySongIdAndUserId(@Param("songId")Long songId, @Param("userId")Long userId);
 
     @Query("""
             SELECT s.reactionType
@@ -59,6 +62,16 @@ public interface SongReactionRepository extends JpaRepository<SongReaction, Long
     """)
     void deleteAllRelatedToUser(@Param("userId") Long userId);
 
+    @Query("""
+            SELECT r.song.id FROM SongReaction r
+            WHERE r.user.id = :userId AND r.reactionType IN ('LIKE', 'FAVOURITE')
+            ORDER BY r.reactedAt DESC
+            """)
+    List<Long> findRecentlyLikedSongIds(@Param("userId") Long userId, Pageable pageable);
+
+    @Query("SELECT DISTINCT r.song.id FROM SongReaction r WHERE r.user.id = :userId AND r.song.id IN :songIds")
+    Set<Long> findReactedSongIdsAmong(@Param("userId") Long userId, @Param("songIds") Collection<Long> songIds);
+
     @Modifying
     @Query("DELETE FROM SongReaction r WHERE r.song.id = :songId")
     void deleteAllBySongId(@Param("songId") Long songId);
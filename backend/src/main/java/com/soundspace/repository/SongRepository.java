@@ -2,7 +2,10 @@ package com.soundspace.repository;
 
 import com.soundspace.dto.projection.RecommendationsSongProjection;
 import com.soundspace.dto.projection.SongBaseProjection;
+import com.soundspace.dto.projection.SongRankedProjection;
+import com.soundspace.dto.projection.StreamDescriptorProjection;
 import com.soundspace.entity.Song;
+import com.soundspace.entity.StorageKey;
 import com.soundspace.enums.Genre;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
@@ -14,6 +17,7 @@ import org.springframework.data.repository.query.Param;
 import java.time.Instant;
 import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 // todo pozmieniac niepotrzebne left joiny w inner joiny kiedy relacja i tak jest obowiazkowa
 public interface SongRepository extends JpaRepository<Song, Long> {
@@ -155,6 +159,142 @@ public interface SongRepository extends JpaRepository<Song, Long> {
             Pageable pageable
     );
 
+    /// KEYSET - kolejne strony po kursorze (id ostatniej piosenki), bez OFFSET i bez countQuery.
+    /// pobieraja limit = size + 1 wierszy, nadmiarowy oznacza kolejna strone
+
+    @Query(value = """
+            SELECT s.id,
+                   s.title,
+                   u.id AS author_id,
+                   u.login AS author_username,
+                   sk.id AS cover_storage_key_id,
+                   CAST(s.created_at AS TEXT) AS created_at
+            FROM songs s
+            LEFT JOIN app_users u ON u.id = s.user_id
+            LEFT JOIN storage_keys sk ON sk.id = s.cover_storage_key_id
+            WHERE s.publicly_visible = true
+              AND s.id < :afterId
+            ORDER BY s.id DESC
+            LIMIT :limit
+            """,
+            nativeQuery = true)
+    List<SongBaseProjection> findAllPublicAfter(@Param("afterId") long afterId, @Param("limit") int limit);
+
+    @Query(value = """
+            SELECT s.id,
+                   s.title,
+                   u.id AS author_id,
+                   u.login AS author_username,
+                   sk.id AS cover_storage_key_id,
+                   CAST(s.created_at AS TEXT) AS created_at
+            FROM songs s
+            LEFT JOIN app_users u ON u.id = s.user_id
+            LEFT JOIN storage_keys sk ON sk.id = s.cover_storage_key_id
+            WHERE (s.user_id = :userId OR s.publicly_visible = true)
+              AND s.id < :afterId
+            ORDER BY s.id DESC
+            LIMIT :limit
+            """,
+            nativeQuery = true)
+    List<SongBaseProjection> findAllPublicOrOwnedByUserAfter(@Param("userId") Long userId,
+                                                             @Param("afterId") long afterId,
+                                                             @Param("limit") int limit);
+
+    @Query(value = """
+            SELECT s.id,
+                   s.title,
+                   u.id AS author_id,
+                   u.login AS author_username,
+                   sk.id AS cover_storage_key_id,
+                   CAST(s.created_at AS TEXT) AS created_at
+            FROM songs s
+            LEFT JOIN app_users u ON u.id = s.user_id
+            LEFT JOIN storage_keys sk ON sk.id = s.cover_storage_key_id
+            WHERE s.id IN (
+                SELECT g.song_id FROM song_genres g
+                WHERE g.genre = :#{#genre.name()} AND g.song_id < :afterId
+            )
+              AND s.publicly_visible = true
+            ORDER BY s.id DESC
+            LIMIT :limit
+            """,
+            nativeQuery = true)
+    List<SongBaseProjection> findPublicByGenreAfter(@Param("genre") Genre genre,
+                                                    @Param("afterId") long afterId,
+                                                    @Param("limit") int limit);
+
+    @Query(value = """
+            SELECT s.id,
+                   s.title,
+                   u.id AS author_id,
+                   u.login AS author_username,
+                   sk.id AS cover_storage_key_id,
+                   CAST(s.created_at AS TEXT) AS created_at
+            FROM songs s
+            LEFT JOIN app_users u ON u.id = s.user_id
+            LEFT JOIN storage_keys sk ON sk.id = s.cover_storage_key_id
+            WHERE s.id IN (
+                SELECT g.song_id FROM song_genres g
+                WHERE g.genre = :#{#genre.name()} AND g.song_id < :afterId
+            )
+              AND (s.user_id = :userId OR s.publicly_visible = true)
+            ORDER BY s.id DESC
+            LIMIT :limit
+            """,
+            nativeQuery = true)
+    List<SongBaseProjection> findPublicOrOwnedByUserByGenreAfter(@Param("genre") Genre genre,
+                                                                 @Param("userId") Long userId,
+                                                                 @Param("afterId") long afterId,
+                                                                 @Param("limit") int limit);
+
+    // (likes, views, id) < kursor - porownanie krotek idzie po indeksie idx_song_statistics_likes_views_song
+    @Query(value = """
+            SELECT s.id,
+                   s.title,
+                   u.id AS author_id,
+                   u.login AS author_username,
+                   sk.id AS cover_storage_key_id,
+                   CAST(s.created_at AS TEXT) AS created_at,
+                   ss.likes_count AS likes_count,
+                   ss.view_count AS view_count
+            FROM song_statistics ss
+            JOIN songs s ON s.id = ss.song_id
+            LEFT JOIN app_users u ON u.id = s.user_id
+            LEFT JOIN storage_keys sk ON sk.id = s.cover_storage_key_id
+            WHERE s.publicly_visible = true
+              AND (ss.likes_count, ss.view_count, ss.song_id) < (:afterLikes, :afterViews, :afterId)
+            ORDER BY ss.likes_count DESC, ss.view_count DESC, ss.song_id DESC
+            LIMIT :limit
+            """,
+            nativeQuery = true)
+    List<SongRankedProjection> findTopLikedSongsAfter(@Param("afterLikes") long afterLikes,
+                                                      @Param("afterViews") long afterViews,
+                                                      @Param("afterId") long afterId,
+                                                      @Param("limit") int limit);
+
+    @Query(value = """
+            SELECT s.id,
+                   s.title,
+                   u.id AS author_id,
+                   u.login AS author_username,
+                   sk.id AS cover_storage_key_id,
+                   CAST(s.created_at AS TEXT) AS created_at,
+                   ss.likes_count AS likes_count,
+                   ss.view_count AS view_count
+            FROM song_statistics ss
+            JOIN songs s ON s.id = ss.song_id
+            LEFT JOIN app_users u ON u.id = s.user_id
+            LEFT JOIN storage_keys sk ON sk.id = s.cover_storage_key_id
+            WHERE s.publicly_visible = true
+              AND (ss.view_count, ss.song_id) < (:afterViews, :afterId)
+            ORDER BY ss.view_count DESC, ss.song_id DESC
+            LIMIT :limit
+            """,
+            nativeQuery = true)
+    List<SongRankedProjection> findTopViewedSongsAfter(@Param("afterViews") long afterViews,
+                                                       @Param("afterId") long afterId,
+                                                       @Param("limit") int limit);
+
     /// bulk delete wszystkich songow nalezacych do usera - do bulk delete calego usera.
     /// zeby uzyc gdzies indziej trzeba miec na uwadze, ze to nie usuwa storagekeys ani plikow piosenek
     @Modifying
@@ -235,6 +375,7 @@ public interface SongRepository extends JpaRepository<Song, Long> {
                               @Param("userId") Long userId,
                               Pageable pageable);
 
+    // strona rankingu trending (kolejnosc ustala TrendingLeaderboard)
     @Query(value = """
             SELECT s.id,
                    s.title,
@@ -242,55 +383,16 @@ public interface SongRepository extends JpaRepository<Song, Long> {
                    u.login AS author_username,
                    sk.id AS cover_storage_key_id,
                    CAST(s.created_at AS TEXT) AS created_at
-            
             FROM songs s
             LEFT JOIN app_users u ON u.id = s.user_id
             LEFT JOIN storage_keys sk ON sk.id = s.cover_storage_key_id
-            LEFT JOIN (
-              SELECT song_id, COUNT(*) AS views
-              FROM song_views
-              WHERE viewed_at > :cutoffDate
-              GROUP BY song_id
-            ) vv ON vv.song_id = s.id
-            
-            LEFT JOIN (
-              SELECT song_id, COUNT(*) AS likes
-              FROM song_reactions
-              WHERE reaction_type = 'LIKE' AND reacted_at > :cutoffDate
-              GROUP BY song_id
-            ) rr ON rr.song_id = s.id
-            
-            WHERE s.publicly_visible = true
-            AND (COALESCE(vv.views, 0) + COALESCE(rr.likes, 0)) > 0
-            
-            ORDER BY (COALESCE(vv.views, 0) + COALESCE(rr.likes, 0) * :likeWage) DESC, s.created_at DESC
-            """,
-            countQuery = """
-            SELECT COUNT(*) FROM (
-              SELECT s.id
-              FROM songs s
-              LEFT JOIN (
-                SELECT song_id, COUNT(*) AS views
-                FROM song_views
-                WHERE viewed_at > :cutoffDate
-                GROUP BY song_id
-              ) vv ON vv.song_id = s.id
-              LEFT JOIN (
-                SELECT song_id, COUNT(*) AS likes
-                FROM song_reactions
-                WHERE reaction_type = 'LIKE' AND reacted_at > :cutoffDate
-                GROUP BY song_id
-              ) rr ON rr.song_id = s.id
-              WHERE s.publicly_visible = true
-              AND (COALESCE(vv.views, 0) + COALESCE(rr.likes, 0)) > 0
-            ) t
+            WHERE s.id IN (:ids) AND s.publicly_visible = true
             """,
             nativeQuery = true)
-    Page<SongBaseProjection> findTrendingSongs(
-            @Param("cutoffDate") Instant cutoffDate,
-            Pageable pageable,
-            @Param("likeWage") int likeWage
-    );
+    List<SongBaseProjection> findPublicBaseProjectionsByIds(@Param("ids") Collection<Long> ids);
+
+    @Query("SELECT s.id FROM Song s WHERE s.id IN :ids AND s.publiclyVisible = true")
+    List<Long> findPublicIdsIn(@Param("ids") Collection<Long> ids);
 
     @Query(value = """
             SELECT s.id,
@@ -426,9 +528,32 @@ public interface SongRepository extends JpaRepository<Song, Long> {
             Pageable pageable
     );
 
+    /// wszystko co potrzebne do streamingu w jednym zapytaniu (zamiast findById + lazy author + lazy audioStorageKey)
+    @Query("""
+            SELECT s.id AS songId,
+                   s.publiclyVisible AS publiclyVisible,
+                   a.id AS authorId,
+                   k.keyStr AS audioKeyStr,
+                   k.mimeType AS audioMimeType,
+                   k.id AS audioStorageKeyId,
+                   k.createdAt AS audioCreatedAt
+            FROM Song s
+            JOIN s.author a
+            JOIN s.audioStorageKey k
+            WHERE s.id = :songId
+            """)
+    Optional<StreamDescriptorProjection> findStreamDescriptorById(@Param("songId") Long songId);
+
     boolean existsByAuthorId(Long authorId);
 
     List<Song> findByAuthorId(Long authorId);
 
-}
+    /// podmiana okladki po przetworzeniu w tle - tylko jezeli piosenka dalej wskazuje na okladke sprzed uploadu
+    /// (0 = piosenka usuniety albo okladka w miedzyczasie zmieniona, nowy plik do wyrzucenia)
+    @Modifying
+    @Query("UPDATE Song s SET s.coverStorageKey = :newKey WHERE s.id = :id AND s.coverStorageKey.id = :expectedKeyId")
+    int swapCoverStorageKey(@Param("id") Long id, @Param("expectedKeyId") Long expectedKeyId, @Param("newKey") StorageKey newKey);
 
+    @Query("SELECT s.id FROM Song s WHERE s.album.id = :albumId")
+    List<Long> findIdsByAlbumId(@Param("albumId") Long albumId);
+}
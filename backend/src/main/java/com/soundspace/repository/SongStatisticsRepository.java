@@ -10,29 +10,40 @@ import org.springframework.stereotype.Repository;
 import java.util.Optional;
 
 @Repository
-public interface SongStatisticsRepository extends JpaRepository<SongStatistics, Long> {
+public interface SongStatisticsRepository extends JpaRepository<SongStatistics, Long>, SongStatisticsRepositoryCustom {
 
+    /// przeliczenie licznikow reakcji z song_reactions (zrodlo prawdy) - tylko wiersze, ktore sie rozjechaly.
+    /// song_reactions jest grupowane raz (jeden przebieg zamiast podzapytan COUNT dla kazdego wiersza), a MERGE
+    /// dziala tak samo na PostgreSQL (15+) i H2
     @Modifying(clearAutomatically = true, flushAutomatically = true)
-    @Query("UPDATE SongStatistics s SET s.viewCount = s.viewCount + :count WHERE s.id = :id")
-    void incrementViewCountBy(@Param("id") Long id, @Param("count") Long count);
-
-    @Modifying(clearAutomatically = true, flushAutomatically = true)
-    @Query("""
-           UPDATE SongStatistics s
-           SET s.likesCount = s.likesCount + (CASE WHEN :reactionType = 'LIKE' THEN 1 ELSE 0 END),
-               s.dislikesCount = s.dislikesCount + (CASE WHEN :reactionType = 'DISLIKE' THEN 1 ELSE 0 END)
-           WHERE s.id = :songId
-           """)
-    void incrementReactionCount(@Param("songId") Long songId, @Param("reactionType") String reactionType);
-
+    @Query(value = """
+            MERGE INTO song_statistics ss
+            USING (
+                SELECT s.song_id, COALESCE(c.likes, 0) AS likes, COALESCE(c.dislikes, 0) AS dislikes
+                FROM song_statistics s
+                LEFT JOIN (
+                    SELECT r.song_id,
+                           SUM(CASE WHEN r.reaction_type = 'LIKE' THEN 1 ELSE 0 END) AS likes,
+                           SUM(CASE WHEN r.reaction_type = 'DISLIKE' THEN 1 ELSE 0 END) AS dislikes
+                    FROM song_reactions r
+                    WHERE r.reaction_type IN ('LIKE', 'DISLIKE')
+                    GROUP BY r.song_id
+                ) c ON c.song_id = s.song_id
+                WHERE s.likes_count <> COALESCE(c.likes, 0) OR s.dislikes_count <> COALESCE(c.dislikes, 0)
+            ) t ON ss.song_id = t.song_id
+            WHEN MATCHED THEN UPDATE SET likes_count = t.likes, dislikes_count = t.dislikes
+            """, nativeQuery = true)
+    int reconcileReactionCounts();
+
+    /// przeliczenie z song_reactions uwzglednia juz zmiany reakcji czekajace w slotach - nie moga byc dodane drugi raz.
+    /// poprawne tylko, gdy inne nody nie maja w buforach niezapisanych reakcji (ReactionBufferingService.reconcile)
     @Modifying(clearAutomatically = true, flushAutomatically = true)
-    @Query("""
-            UPDATE SongStatistics s
-            SET s.likesCount = GREATEST(0, s.likesCount - (CASE WHEN :reactionType = 'LIKE' THEN 1 ELSE 0 END)),
-                s.dislikesCount = GREATEST(0, s.dislikesCount - (CASE WHEN :reactionType = 'DISLIKE' THEN 1 ELSE 0 END))
-            WHERE s.id = :songId
-            """)
-    void decrementReactionCount(@Param("songId") Long songId, @Param("reactionType") String reactionType);
+    @Query(value = """
+            UPDATE song_statistics_shards
+            SET likes_count = 0, dislikes_count = 0
+            WHERE likes_count <> 0 OR dislikes_count <> 0
+            """, nativeQuery = true)
+    void discardShardReactionDeltas();
 
     @Query(value = "SELECT percentile_disc(0.9) WITHIN GROUP (ORDER BY view_count) FROM song_statistics", nativeQuery = true)
     Optional<Long> findViewCountPercentile90();
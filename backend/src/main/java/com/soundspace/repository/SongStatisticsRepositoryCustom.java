@@ -0,0 +1,21 @@
+package com.soundspace.repository;
+
+import com.soundspace.entity.SongStatistics;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface SongStatisticsRepositoryCustom {
+
+    /// dodanie wyswietlen dla wielu piosenek naraz (ids[i] dostaje counts[i]) - zwraca ilosc zaktualizowanych wierszy
+    int incrementViewCounts(long[] ids, long[] counts);
+
+    /// dodanie zmian licznikow reakcji (ze znakiem, liczniki nie schodza ponizej 0) dla wielu piosenek naraz
+    int applyReactionDeltas(long[] ids, long[] likeDeltas, long[] dislikeDeltas);
+
+    /// statystyki razem ze zmianami w slotach, ktorych kompaktor jeszcze nie przeniosl (bez shardingu = findAllById)
+    List<SongStatistics> findAllByIdWithShards(Collection<Long> ids);
+
+    /// przeniesienie sum slotow do song_statistics - zwraca ilosc zaktualizowanych piosenek
+    int compactShards();
+}
@@ -0,0 +1,300 @@
+package com.soundspace.repository;
+
+import com.soundspace.config.ApplicationConfigProperties;
+import com.soundspace.entity.SongStatistics;
+import jakarta.persistence.EntityManager;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import java.sql.Array;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+/**
+ * Zbiorczy zapis wyswietlen (i zmian licznikow reakcji) z buforow. Na PostgreSQL caly snapshot idzie jednym UPDATE ... FROM unnest(tablica id,
+ * tablica ilosci) - jeden round trip niezaleznie od ilosci piosenek. Na innych bazach (H2 w testach) zwykly batch
+ * JDBC z tym samym UPDATE dla kazdej piosenki. Bez JPA, wiec nie ma flush/clear persistence contextu.
+ * <p>
+ * Przy app.statistics.sharded-counters zmiany nie ida do song_statistics, tylko do losowego slotu piosenki
+ * w song_statistics_shards (kilka nodow nie czeka na lock tego samego wiersza). Odczyty przez *WithShards dodaja
+ * niezlozone jeszcze sloty, a {@link #compactShards} przenosi je do song_statistics.
+ */
+@Slf4j
+public class SongStatisticsRepositoryCustomImpl implements SongStatisticsRepositoryCustom {
+
+    private static final String UNNEST_UPDATE = """
+            UPDATE song_statistics s
+            SET view_count = s.view_count + v.view_count
+            FROM unnest(?::bigint[], ?::bigint[]) AS v(song_id, view_count)
+            WHERE s.song_id = v.song_id
+            """;
+
+    private static final String BATCH_UPDATE = "UPDATE song_statistics SET view_count = view_count + ? WHERE song_id = ?";
+
+    private static final String REACTIONS_UNNEST_UPDATE = """
+            UPDATE song_statistics s
+            SET likes_count = GREATEST(0, s.likes_count + v.likes),
+                dislikes_count = GREATEST(0, s.dislikes_count + v.dislikes)
+            FROM unnest(?::bigint[], ?::bigint[], ?::bigint[]) AS v(song_id, likes, dislikes)
+            WHERE s.song_id = v.song_id
+            """;
+
+    private static final String REACTIONS_BATCH_UPDATE = """
+            UPDATE song_statistics
+            SET likes_count = GREATEST(0, likes_count + ?),
+                dislikes_count = GREATEST(0, dislikes_count + ?)
+            WHERE song_id = ?
+            """;
+
+    private static final String SHARDS_UNNEST_UPSERT = """
+            INSERT INTO song_statistics_shards (song_id, slot, view_count, likes_count, dislikes_count)
+            SELECT v.song_id, v.slot, v.views, v.likes, v.dislikes
+            FROM unnest(?::bigint[], ?::bigint[], ?::bigint[], ?::bigint[], ?::bigint[]) AS v(song_id, slot, views, likes, dislikes)
+            ON CONFLICT (song_id, slot) DO UPDATE
+            SET view_count = song_statistics_shards.view_count + EXCLUDED.view_count,
+                likes_count = song_statistics_shards.likes_count + EXCLUDED.likes_count,
+                dislikes_count = song_statistics_shards.dislikes_count + EXCLUDED.dislikes_count
+            """;
+
+    // H2 (tryb PostgreSQL) nie ma ON CONFLICT - MERGE robi to samo jednym atomowym poleceniem (bez UPDATE i osobnego INSERT)
+    private static final String SHARDS_BATCH_MERGE = """
+            MERGE INTO song_statistics_shards s
+            USING (VALUES (CAST(? AS BIGINT), CAST(? AS INTEGER), CAST(? AS BIGINT), CAST(? AS BIGINT), CAST(? AS BIGINT)))
+                AS v(song_id, slot, views, likes, dislikes)
+            ON s.song_id = v.song_id AND s.slot = v.slot
+            WHEN MATCHED THEN UPDATE
+                SET view_count = s.view_count + v.views,
+                    likes_count = s.likes_count + v.likes,
+                    dislikes_count = s.dislikes_count + v.dislikes
+            WHEN NOT MATCHED THEN INSERT (song_id, slot, view_count, likes_count, dislikes_count)
+                VALUES (v.song_id, v.slot, v.views, v.likes, v.dislikes)
+            """;
+
+    private static final String SHARDS_BATCH_UPDATE = """
+            UPDATE song_statistics_shards
+            SET view_count = view_count + ?, likes_count = likes_count + ?, dislikes_count = dislikes_count + ?
+            WHERE song_id = ? AND slot = ?
+            """;
+
+    // wyjecie wszystkich slotow i dodanie ich sum w jednym zapytaniu - kazdy wiersz slotu jest przeniesiony dokladnie raz,
+    // nawet gdy kompaktor chodzi na kilku nodach naraz
+    private static final String SHARDS_COMPACT = """
+            WITH moved AS (
+                DELETE FROM song_statistics_shards
+                RETURNING song_id, view_count, likes_count, dislikes_count
+            ), totals AS (
+                SELECT song_id, SUM(view_count) AS views, SUM(likes_count) AS likes, SUM(dislikes_count) AS dislikes
+                FROM moved
+                GROUP BY song_id
+            )
+            UPDATE song_statistics s
+            SET view_count = s.view_count + t.views,
+                likes_count = GREATEST(0, s.likes_count + t.likes),
+                dislikes_count = GREATEST(0, s.dislikes_count + t.dislikes)
+            FROM totals t
+            WHERE s.song_id = t.song_id
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final EntityManager entityManager;
+    private final ApplicationConfigProperties.StatisticsConfig statisticsConfig;
+    private volatile Boolean postgres;
+
+    public SongStatisticsRepositoryCustomImpl(JdbcTemplate jdbcTemplate,
+                                              EntityManager entityManager,
+                                              ApplicationConfigProperties.StatisticsConfig statisticsConfig) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.entityManager = entityManager;
+        this.statisticsConfig = statisticsConfig;
+    }
+
+    @Override
+    public int incrementViewCounts(long[] ids, long[] counts) {
+        if (ids.length != counts.length) throw new IllegalArgumentException("ids i counts musza miec ta sama dlugosc");
+        if (ids.length == 0) return 0;
+
+        if (isSharded()) return addToShards(ids, counts, new long[ids.length], new long[ids.length]);
+        return isPostgres() ? unnestUpdate(UNNEST_UPDATE, ids, counts) : batchUpdate(ids, counts);
+    }
+
+    @Override
+    public int applyReactionDeltas(long[] ids, long[] likeDeltas, long[] dislikeDeltas) {
+        if (ids.length != likeDeltas.length || ids.length != dislikeDeltas.length)
+            throw new IllegalArgumentException("ids, likeDeltas i dislikeDeltas musza miec ta sama dlugosc");
+        if (ids.length == 0) return 0;
+
+        if (isSharded()) return addToShards(ids, new long[ids.length], likeDeltas, dislikeDeltas);
+        if (isPostgres()) return unnestUpdate(REACTIONS_UNNEST_UPDATE, ids, likeDeltas, dislikeDeltas);
+
+        return sum(jdbcTemplate.batchUpdate(REACTIONS_BATCH_UPDATE, LongStream.range(0, ids.length).boxed().toList(), 500,
+                (statement, i) -> {
+                    statement.setLong(1, likeDeltas[i.intValue()]);
+                    statement.setLong(2, dislikeDeltas[i.intValue()]);
+                    statement.setLong(3, ids[i.intValue()]);
+                }));
+    }
+
+    @Override
+    public List<SongStatistics> findAllByIdWithShards(Collection<Long> ids) {
+        if (ids.isEmpty()) return List.of();
+
+        List<SongStatistics> statistics = entityManager
+                .createQuery("SELECT s FROM SongStatistics s WHERE s.id IN :ids", SongStatistics.class)
+                .setParameter("ids", ids)
+                .getResultList();
+        if (!isSharded()) return statistics;
+
+        Map<Long, long[]> pending = shardTotals(ids);
+        if (pending.isEmpty()) return statistics;
+
+        // kopie zamiast zmiany encji - te w persistence context maja zostac zgodne z baza
+        return statistics.stream()
+                .map(stats -> withPending(stats, pending.get(stats.getId())))
+                .toList();
+    }
+
+    @Override
+    public int compactShards() {
+        // jak flushAutomatically/clearAutomatically przy @Modifying - zaladowane SongStatistics maja juz nieaktualne liczniki
+        entityManager.flush();
+        entityManager.clear();
+        if (isPostgres()) return jdbcTemplate.update(SHARDS_COMPACT);
+
+        // bez DELETE ... RETURNING: przenosimy to, co odczytalismy, i odejmujemy dokladnie to samo od slotow -
+        // zmiany dopisane w miedzyczasie zostaja w slocie do nastepnego przebiegu
+        List<long[]> slots = new ArrayList<>();
+        jdbcTemplate.query("SELECT song_id, slot, view_count, likes_count, dislikes_count FROM song_statistics_shards",
+                (RowCallbackHandler) rs -> slots.add(new long[]{
+                        rs.getLong(1), rs.getLong(2), rs.getLong(3), rs.getLong(4), rs.getLong(5)}));
+        if (slots.isEmpty()) return 0;
+
+        Map<Long, long[]> totals = new HashMap<>();
+        for (long[] slot : slots) {
+            long[] total = totals.computeIfAbsent(slot[0], id -> new long[3]);
+            total[0] += slot[2];
+            total[1] += slot[3];
+            total[2] += slot[4];
+        }
+
+        List<Map.Entry<Long, long[]>> entries = new ArrayList<>(totals.entrySet());
+        int updated = sum(jdbcTemplate.batchUpdate("""
+                        UPDATE song_statistics
+                        SET view_count = view_count + ?,
+                            likes_count = GREATEST(0, likes_count + ?),
+                            dislikes_count = GREATEST(0, dislikes_count + ?)
+                        WHERE song_id = ?
+                        """, entries, 500,
+                (statement, entry) -> {
+                    statement.setLong(1, entry.getValue()[0]);
+                    statement.setLong(2, entry.getValue()[1]);
+                    statement.setLong(3, entry.getValue()[2]);
+                    statement.setLong(4, entry.getKey());
+                }));
+
+        jdbcTemplate.batchUpdate(SHARDS_BATCH_UPDATE, slots, 500, (statement, slot) -> {
+            statement.setLong(1, -slot[2]);
+            statement.setLong(2, -slot[3]);
+            statement.setLong(3, -slot[4]);
+            statement.setLong(4, slot[0]);
+            statement.setLong(5, slot[1]);
+        });
+        jdbcTemplate.update("DELETE FROM song_statistics_shards WHERE view_count = 0 AND likes_count = 0 AND dislikes_count = 0");
+        return updated;
+    }
+
+    /// HELPERY
+
+    private boolean isSharded() {
+        return statisticsConfig != null && statisticsConfig.shardedCounters();
+    }
+
+    // kazda piosenka z flusha trafia do losowego slotu - rozne nody (i kolejne flushe) rzadko biora ten sam wiersz
+    private int addToShards(long[] ids, long[] views, long[] likes, long[] dislikes) {
+        long[] slots = new long[ids.length];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < slots.length; i++) slots[i] = random.nextInt(Math.max(1, statisticsConfig.shardSlots()));
+
+        if (isPostgres()) return unnestUpdate(SHARDS_UNNEST_UPSERT, ids, slots, views, likes, dislikes);
+
+        jdbcTemplate.batchUpdate(SHARDS_BATCH_MERGE, IntStream.range(0, ids.length).boxed().toList(), 500,
+                (statement, i) -> {
+                    statement.setLong(1, ids[i]);
+                    statement.setLong(2, slots[i]);
+                    statement.setLong(3, views[i]);
+                    statement.setLong(4, likes[i]);
+                    statement.setLong(5, dislikes[i]);
+                });
+        return ids.length;
+    }
+
+    private Map<Long, long[]> shardTotals(Collection<Long> ids) {
+        Map<Long, long[]> totals = new HashMap<>();
+        new NamedParameterJdbcTemplate(jdbcTemplate).query("""
+                        SELECT song_id, SUM(view_count), SUM(likes_count), SUM(dislikes_count)
+                        FROM song_statistics_shards
+                        WHERE song_id IN (:ids)
+                        GROUP BY song_id
+                        """, Map.of("ids", ids),
+                (RowCallbackHandler) rs -> totals.put(rs.getLong(1), new long[]{rs.getLong(2), rs.getLong(3), rs.getLong(4)}));
+        return totals;
+    }
+
+    private static SongStatistics withPending(SongStatistics stats, long[] pending) {
+        if (pending == null) return stats;
+        return SongStatistics.builder()
+                .id(stats.getId())
+                .viewCount(stats.getViewCount() + pending[0])
+                .likesCount((int) Math.max(0, stats.getLikesCount() + pending[1]))
+                .dislikesCount((int) Math.max(0, stats.getDislikesCount() + pending[2]))
+                .build();
+    }
+
+    // kazda tablica to jeden parametr ?::bigint[] w kolejnosci
+    private int unnestUpdate(String sql, long[]... columns) {
+        Integer updated = jdbcTemplate.execute((ConnectionCallback<Integer>) connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                for (int i = 0; i < columns.length; i++) {
+                    Array array = connection.createArrayOf("bigint", LongStream.of(columns[i]).boxed().toArray());
+                    statement.setArray(i + 1, array);
+                }
+                return statement.executeUpdate();
+            }
+        });
+        return updated == null ? 0 : updated;
+    }
+
+    private int batchUpdate(long[] ids, long[] counts) {
+        int[][] results = jdbcTemplate.batchUpdate(BATCH_UPDATE, LongStream.range(0, ids.length).boxed().toList(), 500,
+                (statement, i) -> {
+                    statement.setLong(1, counts[i.intValue()]);
+                    statement.setLong(2, ids[i.intValue()]);
+                });
+        return sum(results);
+    }
+
+    private static int sum(int[][] results) {
+        int updated = 0;
+        for (int[] batch : results)
+            for (int rows : batch) updated += Math.max(rows, 0);
+        return updated;
+    }
+
+    private boolean isPostgres() {
+        if (postgres == null) {
+            postgres = Boolean.TRUE.equals(jdbcTemplate.execute((ConnectionCallback<Boolean>) connection ->
+                    "PostgreSQL".equalsIgnoreCase(connection.getMetaData().getDatabaseProductName())));
+            log.info("Zbiorczy zapis liczników: {}", postgres ? "UPDATE ... FROM unnest" : "batch JDBC");
+        }
+        return postgres;
+    }
+}
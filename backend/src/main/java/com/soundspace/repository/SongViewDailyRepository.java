@@ -0,0 +1,41 @@
+package com.soundspace.repository;
+
+import com.soundspace.entity.SongViewDaily;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Optional;
+
+public interface SongViewDailyRepository extends JpaRepository<SongViewDaily, SongViewDaily.Key> {
+
+    // ostatni dzien zagregowany przez SongViewMaintenanceService - nowsze wyswietlenia sa tylko w song_views
+    @Query("SELECT MAX(d.id.viewDay) FROM SongViewDaily d")
+    Optional<LocalDate> findLastRolledUpDay();
+
+    // przeliczenie dnia od nowa (idempotentne - mozna odpalic kilka razy, np. po spoznionych wierszach z kolejki)
+    @Modifying
+    @Query(value = "DELETE FROM song_view_daily WHERE view_day = :day", nativeQuery = true)
+    void deleteDay(@Param("day") LocalDate day);
+
+    @Modifying
+    @Query(value = """
+            INSERT INTO song_view_daily (view_day, song_id, view_count)
+            SELECT :day, song_id, COUNT(*)
+            FROM song_views
+            WHERE viewed_at >= :from AND viewed_at < :to AND song_id IS NOT NULL
+            GROUP BY song_id
+            """, nativeQuery = true)
+    int rollUpDay(@Param("day") LocalDate day, @Param("from") Instant from, @Param("to") Instant to);
+
+    @Modifying
+    @Query("DELETE FROM SongViewDaily d WHERE d.id.songId = :songId")
+    void deleteAllBySongId(@Param("songId") Long songId);
+
+    @Modifying
+    @Query("DELETE FROM SongViewDaily d WHERE d.id.songId IN (SELECT s.id FROM Song s WHERE s.author.id = :userId)")
+    void deleteAllBySongAuthorId(@Param("userId") Long userId);
+}
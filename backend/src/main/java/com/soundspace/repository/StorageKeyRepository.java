@@ -6,6 +6,8 @@ import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
+import java.util.Optional;
+
 
 public interface StorageKeyRepository extends JpaRepository<StorageKey, Long> {
     @Modifying
@@ -16,6 +18,18 @@ public interface StorageKeyRepository extends JpaRepository<StorageKey, Long> {
            OR sk.keyStr LIKE CONCAT('playlists/covers/', :userId, '/%')
            OR sk.keyStr LIKE CONCAT('songs/covers/', :userId, '/%')
            OR sk.keyStr LIKE CONCAT('songs/audio/', :userId, '/%')
+           OR sk.keyStr LIKE CONCAT('content/', :userId, '/%')
     """)
     void deleteAllByUserId(@Param("userId") Long userId);
+
+    Optional<StorageKey> findByKeyStr(String keyStr);
+
+    @Modifying
+    @Query("UPDATE StorageKey sk SET sk.refCount = sk.refCount + 1 WHERE sk.id = :id")
+    void incrementRefCount(@Param("id") Long id);
+
+    // 0 = to byla ostatnia referencja, plik i wpis do usuniecia
+    @Modifying
+    @Query("UPDATE StorageKey sk SET sk.refCount = sk.refCount - 1 WHERE sk.id = :id AND sk.refCount > 1")
+    int decrementRefCountIfShared(@Param("id") Long id);
 }
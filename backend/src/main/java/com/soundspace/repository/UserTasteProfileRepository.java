@@ -0,0 +1,16 @@
+package com.soundspace.repository;
+
+import com.soundspace.entity.UserTasteProfile;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface UserTasteProfileRepository extends JpaRepository<UserTasteProfile, Long> {
+
+    @Modifying(clearAutomatically = true, flushAutomatically = true)
+    @Query("DELETE FROM UserTasteProfile p WHERE p.userId = :userId")
+    void deleteByUserId(@Param("userId") Long userId);
+}
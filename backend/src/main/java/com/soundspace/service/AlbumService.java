@@ -2,7 +2,6 @@ package com.soundspace.service;
 
 import com.soundspace.config.ApplicationConfigProperties;
 import com.soundspace.dto.AlbumDto;
-import com.soundspace.dto.ProcessedImage;
 import com.soundspace.dto.SongBaseDto;
 import com.soundspace.dto.SongDtoWithDetails;
 import com.soundspace.dto.projection.SongBaseProjection;
@@ -21,11 +20,12 @@ import com.soundspace.repository.AlbumRepository;
 import com.soundspace.repository.SongRepository;
 import com.soundspace.repository.StorageKeyRepository;
 import com.soundspace.service.song.SongCoreService;
-import com.soundspace.service.storage.ImageService;
+import com.soundspace.service.storage.CoverProcessingQueue;
 import com.soundspace.service.storage.StorageService;
 import com.soundspace.service.user.AppUserService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
@@ -35,9 +35,6 @@ import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
 
 
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
@@ -52,7 +49,7 @@ public class AlbumService {
     private final SongCoreService songCoreService;
     private final SongRepository songRepository;
     private final StorageService storageService;
-    private final ImageService imageService;
+    private final CoverProcessingQueue coverProcessingQueue;
     private final StorageKeyRepository storageKeyRepository;
     private final ApplicationConfigProperties.MediaConfig.CoverConfig coverConfig;
 
@@ -150,50 +147,29 @@ public class AlbumService {
         AppUser author = appUserService.getUserByEmail(userEmail);
 
 
-        Path tmpCoverPath = null;
-        StorageKey coverStorageKeyEntity = null;
+        // okladka jest skalowana w tle - do tego czasu album ma domyslna
+        StorageKey coverStorageKeyEntity = storageKeyRepository.getReferenceById(coverConfig.defaultCoverId());
 
-        try {
-            MultipartFile coverFile = request.getCoverFile();
-            if (coverFile == null || coverFile.isEmpty()) {
-                coverStorageKeyEntity = storageKeyRepository.getReferenceById(coverConfig.defaultCoverId());
-
-            } else {
-                tmpCoverPath = processCoverAndSaveToTemp(coverFile);
-
-                coverStorageKeyEntity = processAndSaveCoverFile(tmpCoverPath, author);
-            }
-
-
-            List<Genre> validatedGenres = parseGenres(request.getGenre());
-
-            Album album = Album.builder()
-                    .title(request.getTitle())
-                    .description(request.getDescription())
-                    .author(author)
-                    .publiclyVisible(request.isPubliclyVisible())
-                    .createdAt(Instant.now())
-                    .coverStorageKey(coverStorageKeyEntity)
-                    .genres(validatedGenres)
-                    .build();
-            album = albumRepository.save(album);
-            return AlbumDto.toDto(album);
-
-        } catch (Exception e) {
-            log.error("Błąd podczas tworzenia albumu", e);
+        List<Genre> validatedGenres = parseGenres(request.getGenre());
 
-            rollbackStorage(coverStorageKeyEntity);
+        Album album = Album.builder()
+                .title(request.getTitle())
+                .description(request.getDescription())
+                .author(author)
+                .publiclyVisible(request.isPubliclyVisible())
+                .createdAt(Instant.now())
+                .coverStorageKey(coverStorageKeyEntity)
+                .genres(validatedGenres)
+                .build();
+        album = albumRepository.save(album);
 
-            if (e instanceof IOException) {
-                throw new StorageException("Błąd I/O podczas przetwarzania okładki albumu", e);
-            }
-            throw (RuntimeException) e;
-
-        } finally {
-            tryDeleteTempFile(tmpCoverPath);
+        MultipartFile coverFile = request.getCoverFile();
+        if (coverFile != null && !coverFile.isEmpty()) {
+            coverProcessingQueue.submit(CoverProcessingQueue.Target.ALBUM, album.getId(), coverConfig.defaultCoverId(),
+                    coverFile, author.getId(), coverConfig.albumDirectory());
         }
 
-
+        return AlbumDto.toDto(album);
     }
 
     @Transactional
@@ -238,16 +214,11 @@ public class AlbumService {
         try {
             if (coverKey != null && !coverKey.getId().equals(coverConfig.defaultCoverId()) && coverKey.getKeyStr() != null && !coverKey.getKeyStr().isBlank()) {
                 try {
-                    storageService.delete(coverKey.getKeyStr());
+                    storageService.release(coverKey);
                 } catch (Exception ex) {
                     log.warn("Nie udało się usunąć pliku cover z storage: {}", coverKey.getKeyStr(), ex);
                     throw ex;
                 }
-                try {
-                    storageKeyRepository.deleteById(coverKey.getId());
-                } catch (Exception ex) {
-                    log.warn("Nie udało się usunąć rekordu storage_keys (album cover) id={}: {}", coverKey.getId(), ex.getMessage());
-                }
             }
 
 
@@ -262,6 +233,8 @@ public class AlbumService {
     }
 
     @Transactional
+    // zmiana widocznosci albumu zmienia widocznosc wszystkich jego piosenek
+    @CacheEvict(value = "stream-descriptor", allEntries = true, condition = "#request.publiclyVisible() != null")
     public AlbumDto update(Long albumId, AlbumUpdateRequest request, UserDetails userDetails) { // @AuthenticationPrincipal userDetails jest NotNull
         Album updatedAlbum = albumRepository.findById(albumId).orElseThrow(); //narazie wszytkie pola takie same, a pozniej beda zmieniane zeby zapisac po update
 
@@ -269,20 +242,11 @@ public class AlbumService {
         if (!updatedAlbum.getAuthor().getId().equals(user.getId()))
             throw new AccessDeniedException("Brak dostępu do edycji piosenki");
 
+        // nowa okladka jest skalowana w tle i podmieniana (razem z okladkami piosenek albumu) po commicie
         MultipartFile coverFile = request.coverFile();
-        StorageKey storageKeyToDelete = null;
         if (coverFile != null && !coverFile.isEmpty()) {
-            storageKeyToDelete = updatedAlbum.getCoverStorageKey();
-            updatedAlbum.setCoverStorageKey(imageService.processAndSaveNewImage(
-                    coverFile,
-                    user,
-                    coverConfig.width(),
-                    coverConfig.height(),
-                    coverConfig.quality(),
-                    coverConfig.targetExtension(),
-                    coverConfig.albumDirectory(),
-                    "cover"
-            ));
+            coverProcessingQueue.submit(CoverProcessingQueue.Target.ALBUM, albumId, updatedAlbum.getCoverStorageKey().getId(),
+                    coverFile, user.getId(), coverConfig.albumDirectory());
         }
 
         if (request.title() != null) {
@@ -299,44 +263,9 @@ public class AlbumService {
         }
 
         albumRepository.save(updatedAlbum);
-        albumRepository.flush();
-        albumRepository.refreshCoverStorageKeyInAlbumSongs(albumId);
-        if (storageKeyToDelete != null) {
-            imageService.cleanUpOldImage(storageKeyToDelete, "cover");
-        }
         return AlbumDto.toDto(updatedAlbum);
     }
 
-    private Path processCoverAndSaveToTemp(MultipartFile coverFile) throws IOException {
-        ProcessedImage processedCover =
-                imageService.resizeImageAndConvert(coverFile, coverConfig.width(), coverConfig.height(), coverConfig.targetExtension(), coverConfig.quality());
-
-        Path tmpCoverPath = Files.createTempFile("album-cover-", "." + coverConfig.targetExtension());
-        Files.write(tmpCoverPath, processedCover.bytes());
-        return tmpCoverPath;
-    }
-
-    private StorageKey processAndSaveCoverFile(Path tmpCoverPath, AppUser appUser) throws IOException {
-        long coverFileSize = Files.size(tmpCoverPath);
-        String mimeType = "image/" + coverConfig.targetExtension();
-
-        // zapis fizyczny do storage
-        String coverStorageKeyString = storageService.saveFromPath(
-                tmpCoverPath,
-                appUser.getId(),
-                coverConfig.targetExtension(),
-                coverConfig.albumDirectory()
-        );
-        log.info("Zapisano okładkę albumu: key={}", coverStorageKeyString);
-
-        StorageKey storageKeyEntity = new StorageKey();
-        storageKeyEntity.setKeyStr(coverStorageKeyString);
-        storageKeyEntity.setMimeType(mimeType);
-        storageKeyEntity.setSizeBytes(coverFileSize);
-
-        return storageKeyRepository.save(storageKeyEntity);
-    }
-
     private List<Genre> parseGenres(List<String> genreStrings) {
         List<Genre> validatedGenreList = new ArrayList<>();
         if (genreStrings == null) return validatedGenreList;
@@ -352,32 +281,6 @@ public class AlbumService {
         return validatedGenreList;
     }
 
-    private void rollbackStorage(StorageKey keyEntity) {
-        if (keyEntity == null) return;
-        cleanUpStorageKey(keyEntity);
-    }
-
-    private void cleanUpStorageKey(StorageKey keyEntity) {
-        try {
-            storageService.delete(keyEntity.getKeyStr());
-        } catch (Exception ex) {
-            log.warn("Nie udało się usunąć pliku ze storage: {}", keyEntity.getKeyStr(), ex);
-        }
-        try {
-            storageKeyRepository.delete(keyEntity);
-        } catch (Exception ex) {
-            log.warn("Nie udało się usunąć wpisu StorageKey", ex);
-        }
-    }
-
-    private void tryDeleteTempFile(Path tmpPath) {
-        try {
-            if (tmpPath != null) Files.deleteIfExists(tmpPath);
-        } catch (IOException e) {
-            log.warn("Nie udało się usunąć pliku tymczasowego", e);
-        }
-    }
-
     @Transactional(readOnly = true)
     @Cacheable(
             value = "all-albums",
@@ -3,7 +3,6 @@ package com.soundspace.service;
 import com.soundspace.config.ApplicationConfigProperties;
 import com.soundspace.dto.PlaylistDto;
 import com.soundspace.dto.PlaylistSongViewDto;
-import com.soundspace.dto.ProcessedImage;
 import com.soundspace.dto.request.PlaylistCreateRequest;
 import com.soundspace.dto.request.PlaylistUpdateRequest;
 import com.soundspace.entity.*;
@@ -14,7 +13,7 @@ import com.soundspace.repository.PlaylistRepository;
 import com.soundspace.repository.SongRepository;
 import com.soundspace.repository.StorageKeyRepository;
 import com.soundspace.service.song.SongCoreService;
-import com.soundspace.service.storage.ImageService;
+import com.soundspace.service.storage.CoverProcessingQueue;
 import com.soundspace.service.storage.StorageService;
 import com.soundspace.service.user.AppUserService;
 import lombok.AllArgsConstructor;
@@ -27,9 +26,6 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.time.Instant;
 import java.util.List;
 
@@ -40,7 +36,7 @@ public class PlaylistService {
     private final PlaylistRepository playlistRepository;
     private final AppUserService appUserService;
     private final StorageService storageService;
-    private final ImageService imageService;
+    private final CoverProcessingQueue coverProcessingQueue;
     private final StorageKeyRepository storageKeyRepository;
     private final SongCoreService songCoreService;
     private final SongRepository songRepository;
@@ -103,50 +99,26 @@ public class PlaylistService {
 
         AppUser creator = appUserService.getUserByEmail(userEmail);
 
-        Path tmpCoverPath = null;
-        StorageKey coverStorageKeyEntity = null;
-
-        try {
-            MultipartFile coverFile = request.coverFile();
-            if (coverFile == null || coverFile.isEmpty()) {
-                coverStorageKeyEntity = storageKeyRepository.getReferenceById(coverConfig.defaultCoverId());
-
-            } else {
-                // resize, convert i zapis cover image do temp file
-                tmpCoverPath = processCoverAndSaveToTemp(coverFile);
-
-                // docelowy zapis cover image
-                coverStorageKeyEntity = processAndSaveCoverFile(tmpCoverPath, creator);
-            }
-
-            Playlist playlist = new Playlist();
-            playlist.setTitle(request.title());
-            playlist.setCreator(creator);
-            playlist.setPubliclyVisible(request.publiclyVisible());
-            playlist.setCreatedAt(Instant.now());
-            playlist.setUpdatedAt(Instant.now());
-            playlist.setCoverStorageKey(coverStorageKeyEntity);
-
-            Playlist savedPlaylist = playlistRepository.save(playlist);
-
-            log.info("Utworzono playlistę id={} dla usera={}", savedPlaylist.getId(), creator.getLogin());
-
-            return PlaylistDto.toDto(savedPlaylist);
+        // okladka jest skalowana w tle - do tego czasu playlista ma domyslna
+        Playlist playlist = new Playlist();
+        playlist.setTitle(request.title());
+        playlist.setCreator(creator);
+        playlist.setPubliclyVisible(request.publiclyVisible());
+        playlist.setCreatedAt(Instant.now());
+        playlist.setUpdatedAt(Instant.now());
+        playlist.setCoverStorageKey(storageKeyRepository.getReferenceById(coverConfig.defaultCoverId()));
 
-        } catch (Exception e) {
-            log.error("Błąd podczas tworzenia playlisty", e);
+        Playlist savedPlaylist = playlistRepository.save(playlist);
 
-            // rollback
-            rollbackStorage(coverStorageKeyEntity);
+        MultipartFile coverFile = request.coverFile();
+        if (coverFile != null && !coverFile.isEmpty()) {
+            coverProcessingQueue.submit(CoverProcessingQueue.Target.PLAYLIST, savedPlaylist.getId(), coverConfig.defaultCoverId(),
+                    coverFile, creator.getId(), coverConfig.playlistDirectory());
+        }
 
-            if (e instanceof IOException) {
-                throw new StorageException("Błąd I/O podczas przetwarzania okładki playlisty", e);
-            }
-            throw (RuntimeException) e;
+        log.info("Utworzono playlistę id={} dla usera={}", savedPlaylist.getId(), creator.getLogin());
 
-        } finally {
-            tryDeleteTempFile(tmpCoverPath);
-        }
+        return PlaylistDto.toDto(savedPlaylist);
     }
 
     @Transactional
@@ -227,16 +199,11 @@ public class PlaylistService {
         try {
             if (coverKey != null && !coverKey.getId().equals(coverConfig.defaultCoverId()) && coverKey.getKeyStr() != null && !coverKey.getKeyStr().isBlank()) {
                 try {
-                    storageService.delete(coverKey.getKeyStr());
+                    storageService.release(coverKey);
                 } catch (Exception ex) {
                     log.warn("Nie udało się usunąć pliku cover z storage (playlist cover) storage key id={}", coverKey.getKeyStr(), ex);
                     throw ex;
                 }
-                try {
-                    storageKeyRepository.deleteById(coverKey.getId());
-                } catch (Exception ex) {
-                    log.warn("Nie udało się usunąć rekordu storage_keys (playlist cover) storagekey id={}: {}", coverKey.getId(), ex.getMessage());
-                }
             }
 
         } catch (AccessDeniedException e) {
@@ -257,20 +224,11 @@ public class PlaylistService {
         if (!updatedPlaylist.getCreator().getId().equals(user.getId()))
             throw new AccessDeniedException("Brak dostępu do edycji piosenki");
 
+        // nowa okladka jest skalowana w tle i podmieniana po commicie
         MultipartFile coverFile = request.coverFile();
-        StorageKey storageKeyToDelete = null;
         if (coverFile != null && !coverFile.isEmpty()) {
-            storageKeyToDelete = updatedPlaylist.getCoverStorageKey();
-            updatedPlaylist.setCoverStorageKey(imageService.processAndSaveNewImage(
-                    coverFile,
-                    user,
-                    coverConfig.width(),
-                    coverConfig.height(),
-                    coverConfig.quality(),
-                    coverConfig.targetExtension(),
-                    coverConfig.playlistDirectory(),
-                    "cover"
-            ));
+            coverProcessingQueue.submit(CoverProcessingQueue.Target.PLAYLIST, playlistId, updatedPlaylist.getCoverStorageKey().getId(),
+                    coverFile, user.getId(), coverConfig.playlistDirectory());
         }
 
         if (request.title() != null) {
@@ -282,9 +240,6 @@ public class PlaylistService {
         }
 
         playlistRepository.save(updatedPlaylist);
-        if (storageKeyToDelete != null) {
-            imageService.cleanUpOldImage(storageKeyToDelete, "cover");
-        }
         return PlaylistDto.toDto(updatedPlaylist);
     }
 
@@ -336,63 +291,4 @@ public class PlaylistService {
         if (requester != null && !(requester.getId().equals(playlist.getCreator().getId()) || isAdmin))
             throw new AccessDeniedException("Brak dostępu do playlisty.");
     }
-
-    private Path processCoverAndSaveToTemp(MultipartFile coverFile) throws IOException {
-        ProcessedImage processedCover = imageService.resizeImageAndConvert(
-                coverFile,
-                coverConfig.width(),
-                coverConfig.height(),
-                coverConfig.targetExtension(),
-                coverConfig.quality()
-        );
-
-        Path tmpCoverPath = Files.createTempFile("playlist-cover-", "." + coverConfig.targetExtension());
-        Files.write(tmpCoverPath, processedCover.bytes());
-        return tmpCoverPath;
-    }
-
-    //  zapis pliku z temp file, utworzenie i zapisanie opdpowiadajacej plikowi encji StorageKey
-    private StorageKey processAndSaveCoverFile(Path tmpCoverPath, AppUser appUser) throws IOException {
-        long coverFileSize = Files.size(tmpCoverPath);
-        String mimeType = "image/" + coverConfig.targetExtension();
-
-        String coverStorageKeyString = storageService.saveFromPath(
-                tmpCoverPath,
-                appUser.getId(),
-                coverConfig.targetExtension(),
-                coverConfig.playlistDirectory()
-        );
-        log.info("Zapisano okładkę playlisty: key={}", coverStorageKeyString);
-
-        StorageKey storageKeyEntity = new StorageKey();
-        storageKeyEntity.setKeyStr(coverStorageKeyString);
-        storageKeyEntity.setMimeType(mimeType);
-        storageKeyEntity.setSizeBytes(coverFileSize);
-
-        return storageKeyRepository.save(storageKeyEntity);
-    }
-
-    private void rollbackStorage(StorageKey keyEntity) {
-        if (keyEntity == null) return;
-        try {
-            storageService.delete(keyEntity.getKeyStr());
-        } catch (Exception ex) {
-            log.warn("Nie udało się usunąć pliku ze storage (rollback): {}", keyEntity.getKeyStr(), ex);
-        }
-        try {
-            storageKeyRepository.delete(keyEntity);
-        } catch (Exception ex) {
-            log.warn("Nie udało się usunąć wpisu StorageKey (rollback)", ex);
-        }
-    }
-
-    private void tryDeleteTempFile(Path tmpPath) {
-        try {
-            if (tmpPath != null) Files.deleteIfExists(tmpPath);
-        } catch (IOException e) {
-            log.warn("Nie udało się usunąć pliku tymczasowego", e);
-        }
-    }
-
-
 }
@@ -0,0 +1,150 @@
+package com.soundspace.service.song;
+
+import com.soundspace.config.ApplicationConfigProperties;
+import com.soundspace.repository.SongStatisticsRepository;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Liczniki likes/dislikes w song_statistics aktualizowane zbiorczo zamiast UPDATE w transakcji kazdej reakcji -
+ * przy popularnej piosence wszyscy lajkujacy czekaliby w kolejce na lock tego samego wiersza.
+ * <p>
+ * Zrodlem prawdy jest song_reactions: zmiana trafia do bufora dopiero po commicie reakcji, a co jakis czas liczniki
+ * sa przeliczane z song_reactions (zeruje to dryf np. po crashu z niezapisanym buforem).
+ * <p>
+ * Przeliczenie i transakcje reakcji rozdziela reconcileLock: transakcja trzyma read lock od pierwszej zmiany licznika
+ * do wrzucenia jej do bufora po commicie, a przeliczenie bierze write lock na drain + UPDATE. Reakcja jest wiec albo
+ * w buforze przed drainem (odrzucana, bo przeliczenie ja widzi), albo commituje sie dopiero po przeliczeniu (zostaje
+ * w buforze) - nigdy nie jest policzona dwa razy.
+ */
+@Service
+@Slf4j
+public class ReactionBufferingService {
+
+    private final ReactionCounterBuffer buffer = new ReactionCounterBuffer();
+    private final ReentrantReadWriteLock reconcileLock = new ReentrantReadWriteLock();
+    private final SongStatisticsRepository songStatisticsRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final Timer flushTimer;
+    private final DistributionSummary flushSongsSummary;
+
+    public ReactionBufferingService(SongStatisticsRepository songStatisticsRepository,
+                                    PlatformTransactionManager transactionManager,
+                                    MeterRegistry meterRegistry) {
+        this.songStatisticsRepository = songStatisticsRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.flushTimer = Timer.builder("soundspace.reactions.flush.duration")
+                .description("Czas zapisu bufora reakcji do bazy")
+                .register(meterRegistry);
+        this.flushSongsSummary = DistributionSummary.builder("soundspace.reactions.flush.songs")
+                .description("Ilosc piosenek w jednym flushu reakcji")
+                .register(meterRegistry);
+        meterRegistry.gauge("soundspace.reactions.buffer.songs", buffer, ReactionCounterBuffer::size);
+    }
+
+    /// zmiana licznikow piosenki (ze znakiem) - w transakcji trafia do bufora dopiero po commicie
+    public void bufferReaction(long songId, int likes, int dislikes) {
+        // czeka, jezeli wlasnie trwa przeliczenie - ta transakcja jeszcze sie nie zacommitowala, wiec go nie zaburzy
+        reconcileLock.readLock().lock();
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            try {
+                buffer.add(songId, likes, dislikes);
+            } finally {
+                reconcileLock.readLock().unlock();
+            }
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                buffer.add(songId, likes, dislikes);
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                reconcileLock.readLock().unlock();
+            }
+        });
+    }
+
+    @Scheduled(fixedRateString = "${app.reactions.buffer-flush-rate-ms}")
+    public synchronized void flushReactionsToDatabase() {
+        if (buffer.isEmpty()) return;
+
+        Map<Long, ReactionCounterBuffer.Delta> drained = buffer.drain();
+        if (drained.isEmpty()) return;
+
+        long[] ids = new long[drained.size()];
+        long[] likes = new long[drained.size()];
+        long[] dislikes = new long[drained.size()];
+        int i = 0;
+        for (Map.Entry<Long, ReactionCounterBuffer.Delta> entry : drained.entrySet()) {
+            ids[i] = entry.getKey();
+            likes[i] = entry.getValue().likes();
+            dislikes[i++] = entry.getValue().dislikes();
+        }
+
+        Timer.Sample sample = Timer.start();
+        try {
+            Integer updated = transactionTemplate.execute(status ->
+                    songStatisticsRepository.applyReactionDeltas(ids, likes, dislikes));
+            log.debug("Zapisano zmiany reakcji dla {} piosenek.", updated);
+        } catch (RuntimeException e) {
+            buffer.rollback(drained);
+            log.warn("Flush reakcji nie powiódł się, {} piosenek wraca do bufora", drained.size(), e);
+            return;
+        } finally {
+            sample.stop(flushTimer);
+        }
+        flushSongsSummary.record(ids.length);
+    }
+
+    /**
+     * przeliczenie licznikow z song_reactions. zawartosc bufora (i zmiany reakcji w slotach) jest odrzucana - pod
+     * write lockiem nie ma transakcji reakcji w trakcie, wiec kazda zmiana w buforze pochodzi z juz zacommitowanej
+     * reakcji i przeliczenie ja uwzglednia.
+     * <p>
+     * reconcileLock dziala tylko w obrebie jednego noda. Przy kilku nodach bufory pozostalych maja zmiany reakcji, ktore
+     * przeliczenie juz policzylo - po ich flushu liczniki bylyby zawyzone (a wyzerowane sloty nic tu nie pomoga).
+     * Dokladne przeliczenie wymaga wiec jednego noda albo wygaszenia zapisow reakcji na pozostalych
+     * (app.reactions.reconcile-cron: "-" wylacza je na nodach, ktore nie maja go robic)
+     */
+    @Scheduled(cron = "${app.reactions.reconcile-cron}", zone = "UTC")
+    public synchronized void reconcile() {
+        reconcileLock.writeLock().lock();
+        try {
+            Map<Long, ReactionCounterBuffer.Delta> drained = buffer.drain();
+            try {
+                Integer fixed = transactionTemplate.execute(status -> {
+                    songStatisticsRepository.discardShardReactionDeltas();
+                    return songStatisticsRepository.reconcileReactionCounts();
+                });
+                if (fixed != null && fixed > 0) log.info("Przeliczono liczniki reakcji dla {} piosenek", fixed);
+            } catch (RuntimeException e) {
+                buffer.rollback(drained);
+                log.error("Przeliczanie liczników reakcji nie powiodło się", e);
+            }
+        } finally {
+            reconcileLock.writeLock().unlock();
+        }
+    }
+
+    // bufor nie ma dziennika - przy normalnym zamknieciu zapisujemy go do konca
+    @PreDestroy
+    public void flushOnShutdown() {
+        flushReactionsToDatabase();
+    }
+}
@@ -0,0 +1,55 @@
+package com.soundspace.service.song;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bufor zmian licznikow reakcji: songId -> (zmiana likes, zmiana dislikes), ze znakiem.
+ * <p>
+ * Zmiany tej samej piosenki sa sklejane (like +1, swap like -> dislike = likes -1 / dislikes +1 itd.), wiec flush
+ * wysyla jedna roznice na piosenke zamiast UPDATE na kazda reakcje. Dodanie i wyjecie piosenki z mapy sa atomowe
+ * per klucz (compute / remove), dlatego drain niczego nie gubi i niczego nie liczy dwa razy.
+ */
+public class ReactionCounterBuffer {
+
+    private final ConcurrentHashMap<Long, Delta> deltas = new ConcurrentHashMap<>();
+
+    public void add(long songId, long likes, long dislikes) {
+        if (likes == 0 && dislikes == 0) return;
+        deltas.merge(songId, new Delta(likes, dislikes), Delta::plus);
+    }
+
+    /// wyjecie wszystkiego, co zebralo sie od ostatniego flusha - zmiany, ktore sie wyzerowaly, sa pomijane
+    public Map<Long, Delta> drain() {
+        Map<Long, Delta> drained = new HashMap<>();
+        for (Long songId : deltas.keySet()) {
+            Delta delta = deltas.remove(songId);
+            if (delta != null && !delta.isZero()) drained.put(songId, delta);
+        }
+        return drained;
+    }
+
+    /// zapis do bazy sie nie udal - zmiany wracaja do bufora (sklejaja sie z tymi, ktore przyszly w miedzyczasie)
+    public void rollback(Map<Long, Delta> drained) {
+        drained.forEach((songId, delta) -> add(songId, delta.likes(), delta.dislikes()));
+    }
+
+    public boolean isEmpty() {
+        return deltas.isEmpty();
+    }
+
+    public int size() {
+        return deltas.size();
+    }
+
+    public record Delta(long likes, long dislikes) {
+        Delta plus(Delta other) {
+            return new Delta(likes + other.likes, dislikes + other.dislikes);
+        }
+
+        boolean isZero() {
+            return likes == 0 && dislikes == 0;
+        }
+    }
+}
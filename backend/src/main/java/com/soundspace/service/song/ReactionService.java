@@ -4,11 +4,10 @@ import com.soundspace.entity.AppUser;
 import com.soundspace.entity.SongReaction;
 import com.soundspace.enums.ReactionType;
 import com.soundspace.repository.SongReactionRepository;
-import com.soundspace.repository.SongStatisticsRepository;
+import com.soundspace.service.song.TasteProfileService.ReactionState;
 import com.soundspace.service.user.AppUserService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -23,10 +22,12 @@ public class ReactionService {
     private final SongReactionRepository songReactionRepository;
     private final SongCoreService songCoreService;
     private final AppUserService appUserService;
-    private final SongStatisticsRepository songStatisticsRepository;
+    private final ReactionBufferingService reactionBufferingService;
+    private final TrendingLeaderboard trendingLeaderboard;
+    private final TasteProfileService tasteProfileService;
+    private final RecommendationsPrecomputer recommendationsPrecomputer;
 
     @Transactional
-    @CacheEvict(value = "recommendations", key ="#userDetails.username")
     public void addReaction(Long songId, ReactionType requestReactionType, UserDetails userDetails) {
         AppUser appUser = appUserService.getUserByEmail(userDetails.getUsername());
         Long appUserId = appUser.getId();
@@ -47,7 +48,19 @@ public class ReactionService {
             songReaction.setUser(appUser);
             // reactedAt automatycznie sie ustawi
             songReactionRepository.save(songReaction);
-            songStatisticsRepository.incrementReactionCount(songId, requestReactionType.toString());
+            // licznik w song_statistics zbiorczo po commicie - bez locka na wierszu statystyk w tej transakcji
+            bufferCountChange(songId, requestReactionType, 1);
+            if (requestReactionType == ReactionType.LIKE) trendingLeaderboard.recordLike(songId, 1);
+            // stan drugiej reakcji (favourite obok like/dislike) z tej transakcji - profil gustu liczy z niego wage
+            ReactionState before = requestReactionType == ReactionType.FAVOURITE
+                    ? new ReactionState(likeOrDislikeType(songId, appUserId), false)
+                    : new ReactionState(null, hasFavourite(songId, appUserId));
+            ReactionState after = requestReactionType == ReactionType.FAVOURITE
+                    ? before.withFavourite(true)
+                    : before.withLikeOrDislike(requestReactionType);
+            tasteProfileService.reactionChanged(appUserId, songId, before, after);
+            // zamiast czyszczenia cache - nowa lista jest liczona w tle, pierwsze wejscie dalej trafia w cache
+            recommendationsPrecomputer.refreshAfterCommit(appUserId, userDetails.getUsername());
             return;
         }
 
@@ -66,14 +79,17 @@ public class ReactionService {
 
             songReactionRepository.save(songReaction);
 
-            songStatisticsRepository.decrementReactionCount(songId, existingReactionType.toString());
-            songStatisticsRepository.incrementReactionCount(songId, requestReactionType.toString());
+            bufferCountChange(songId, existingReactionType, -1);
+            bufferCountChange(songId, requestReactionType, 1);
+            trendingLeaderboard.recordLike(songId, requestReactionType == ReactionType.LIKE ? 1 : -1);
+            ReactionState before = new ReactionState(existingReactionType, hasFavourite(songId, appUserId));
+            tasteProfileService.reactionChanged(appUserId, songId, before, before.withLikeOrDislike(requestReactionType));
+            recommendationsPrecomputer.refreshAfterCommit(appUserId, userDetails.getUsername());
         }
 
     }
 
     @Transactional
-    @CacheEvict(value = "recommendations", key ="#userDetails.username")
     public void deleteLikeOrDislike(Long songId, UserDetails userDetails) {
         AppUser appUser = appUserService.getUserByEmail(userDetails.getUsername());
         Long appUserId = appUser.getId();
@@ -84,16 +100,23 @@ public class ReactionService {
 
         if (reactionType != ReactionType.FAVOURITE){
         songReactionRepository.deleteLikeOrDislikeBySongIdAndUserId(songId, appUserId);
-        songStatisticsRepository.decrementReactionCount(songId, reactionType.toString());
+        bufferCountChange(songId, reactionType, -1);
+        if (reactionType == ReactionType.LIKE) trendingLeaderboard.recordLike(songId, -1);
+        ReactionState before = new ReactionState(reactionType, hasFavourite(songId, appUserId));
+        tasteProfileService.reactionChanged(appUserId, songId, before, before.withLikeOrDislike(null));
+        recommendationsPrecomputer.refreshAfterCommit(appUserId, userDetails.getUsername());
         }
     }
 
     @Transactional
-    @CacheEvict(value = "recommendations", key ="#userDetails.username")
     public void deleteFavourite(Long songId, UserDetails userDetails) {
         AppUser appUser = appUserService.getUserByEmail(userDetails.getUsername());
         Long appUserId = appUser.getId();
-        songReactionRepository.deleteFavouriteBySongIdAndUserId(songId, appUserId);
+        if (songReactionRepository.deleteFavouriteBySongIdAndUserId(songId, appUserId) > 0) {
+            ReactionState before = new ReactionState(likeOrDislikeType(songId, appUserId), true);
+            tasteProfileService.reactionChanged(appUserId, songId, before, before.withFavourite(false));
+            recommendationsPrecomputer.refreshAfterCommit(appUserId, userDetails.getUsername());
+        }
     }
 
 
@@ -104,6 +127,24 @@ public class ReactionService {
 
     // helpers
 
+    private void bufferCountChange(Long songId, ReactionType reactionType, int delta) {
+        switch (reactionType) {
+            case LIKE -> reactionBufferingService.bufferReaction(songId, delta, 0);
+            case DISLIKE -> reactionBufferingService.bufferReaction(songId, 0, delta);
+            case FAVOURITE -> {} // favourite nie ma licznika
+        }
+    }
+
+    private boolean hasFavourite(Long songId, Long userId) {
+        return songReactionRepository.findFavoriteBySongIdAndUserId(songId, userId).isPresent();
+    }
+
+    private ReactionType likeOrDislikeType(Long songId, Long userId) {
+        return songReactionRepository.findLikeOrDislikeBySongIdAndUserId(songId, userId)
+                .map(SongReaction::getReactionType)
+                .orElse(null);
+    }
+
     private ReactionType revertReactionType(ReactionType reactionType) {
         return switch (reactionType) {
             case LIKE -> ReactionType.DISLIKE;
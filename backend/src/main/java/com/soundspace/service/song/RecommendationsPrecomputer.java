@@ -0,0 +1,228 @@
+package com.soundspace.service.song;
+
+import com.soundspace.config.ApplicationConfigProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Przelicza rekomendacje w tle i wpisuje posortowane id do cache "recommendations" (ten sam klucz co
+ * {@link CachedRecommendationsProvider}) - zeby pierwsze wejscie na strone glowna nie liczylo ich w requescie.
+ * <p>
+ * Co precompute.interval-ms przeliczani sa aktywni uzytkownicy (reakcja albo wyswietlenie w active-window-hours),
+ * a po kazdej reakcji - ten jeden uzytkownik, zaraz po commicie. Kazde przeliczenie to osobny wirtualny watek,
+ * a ile z nich naraz trzyma polaczenie z bazy ogranicza semafor db-concurrency (reszta czeka bez zajmowania puli).
+ * <p>
+ * Przeliczenia tego samego uzytkownika sa serializowane (lock per uzytkownik), wiec wynik policzony przed reakcja
+ * nie nadpisze juz wyniku policzonego po niej. Seria reakcji jednego uzytkownika daje najwyzej jedno czekajace
+ * przeliczenie - to, ktore jeszcze nie wystartowalo, i tak zobaczy wszystkie wczesniejsze reakcje.
+ * <p>
+ * Cache jest lokalny, wiec przebieg co interval-ms idzie na kazdym nodzie osobno (batch-enabled: false go wylacza).
+ */
+@Service
+@Slf4j
+public class RecommendationsPrecomputer {
+
+    private static final String CACHE_NAME = "recommendations";
+    private static final int LOCK_STRIPES = 64;
+
+    private final RecommendationsService recommendationsService;
+    private final JdbcTemplate jdbcTemplate;
+    private final Cache cache;
+    private final ApplicationConfigProperties.RecommendationsConfig.PrecomputeConfig precomputeConfig;
+
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("recommendations-precompute-", 0).factory());
+    private final Semaphore dbBudget;
+    private final ReentrantLock[] userLocks = new ReentrantLock[LOCK_STRIPES]; // nie synchronized - przypina wirtualny watek
+    private final AtomicBoolean batchRunning = new AtomicBoolean();
+    private final ConcurrentHashMap<Long, Boolean> pendingRefreshes = new ConcurrentHashMap<>(); // userId -> czeka na start
+
+    private final Timer batchTimer;
+    private final Counter refreshedCounter;
+    private final Counter failedCounter;
+
+    public RecommendationsPrecomputer(RecommendationsService recommendationsService,
+                                      JdbcTemplate jdbcTemplate,
+                                      CacheManager cacheManager,
+                                      ApplicationConfigProperties.RecommendationsConfig recommendationsConfig,
+                                      MeterRegistry meterRegistry) {
+        this.recommendationsService = recommendationsService;
+        this.jdbcTemplate = jdbcTemplate;
+        this.cache = Objects.requireNonNull(cacheManager.getCache(CACHE_NAME));
+        this.precomputeConfig = recommendationsConfig.precompute();
+        this.dbBudget = new Semaphore(precomputeConfig.dbConcurrency());
+        for (int i = 0; i < LOCK_STRIPES; i++) userLocks[i] = new ReentrantLock();
+
+        this.batchTimer = Timer.builder("soundspace.recommendations.precompute.duration")
+                .description("Czas przeliczenia rekomendacji wszystkich aktywnych uzytkownikow")
+                .register(meterRegistry);
+        this.refreshedCounter = Counter.builder("soundspace.recommendations.precompute.refreshed")
+                .description("Listy rekomendacji przeliczone w tle")
+                .register(meterRegistry);
+        this.failedCounter = Counter.builder("soundspace.recommendations.precompute.failed")
+                .description("Nieudane przeliczenia rekomendacji w tle")
+                .register(meterRegistry);
+    }
+
+    /// tylko start przebiegu - watek schedulera jest wspolny dla wszystkich @Scheduled, wiec nie czeka na koniec
+    @Scheduled(fixedDelayString = "${app.recommendations.precompute.interval-ms}",
+            initialDelayString = "${app.recommendations.precompute.initial-delay-ms}")
+    public void precomputeActiveUsers() {
+        if (!precomputeConfig.batchEnabled() || !batchRunning.compareAndSet(false, true)) return;
+
+        try {
+            executor.execute(() -> {
+                try {
+                    runBatch();
+                } finally {
+                    batchRunning.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            batchRunning.set(false); // zamykanie aplikacji
+        }
+    }
+
+    /// przeliczenie po reakcji - stary wpis zostaje w cache, dopoki nowy nie jest gotowy
+    public void refreshAfterCommit(Long userId, String email) {
+        Runnable submit = () -> {
+            if (pendingRefreshes.putIfAbsent(userId, Boolean.TRUE) != null) return; // juz czeka - policzy i te reakcje
+            try {
+                executor.execute(() -> refresh(userId, email, true));
+            } catch (RejectedExecutionException e) {
+                pendingRefreshes.remove(userId);
+                cache.evict(email);
+            }
+        };
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            submit.run();
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                submit.run();
+            }
+        });
+    }
+
+    /// przelicza i wpisuje do cache. przy bledzie wpis jest usuwany - nastepne wejscie policzy rekomendacje na zywo
+    public boolean refresh(Long userId, String email) {
+        return refresh(userId, email, false);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /// HELPERY
+
+    // marker zdejmowany dopiero pod lockiem - reakcja w trakcie liczenia zleca kolejne przeliczenie,
+    // a reakcje w czasie czekania na lock dolaczaja do tego
+    private boolean refresh(Long userId, String email, boolean pendingRefresh) {
+        ReentrantLock lock = userLocks[Math.floorMod(userId.hashCode(), LOCK_STRIPES)];
+        lock.lock();
+        try {
+            if (pendingRefresh) pendingRefreshes.remove(userId);
+            dbBudget.acquireUninterruptibly();
+            try {
+                cache.put(email, recommendationsService.getRecommendedSongIds(userId));
+            } finally {
+                dbBudget.release();
+            }
+            refreshedCounter.increment();
+            return true;
+        } catch (RuntimeException e) {
+            cache.evict(email);
+            failedCounter.increment();
+            log.warn("Nie udało się przeliczyć rekomendacji w tle: userId={}", userId, e);
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void runBatch() {
+        Timer.Sample sample = Timer.start();
+        List<ActiveUser> users = findActiveUsers();
+
+        List<Future<Boolean>> results = new ArrayList<>(users.size());
+        try {
+            for (ActiveUser user : users) results.add(executor.submit(() -> refresh(user.id(), user.email())));
+        } catch (RejectedExecutionException e) {
+            return; // zamykanie aplikacji
+        }
+
+        int failed = 0;
+        for (Future<Boolean> result : results) {
+            try {
+                if (!result.get()) failed++;
+            } catch (ExecutionException e) {
+                failed++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+
+        long millis = TimeUnit.NANOSECONDS.toMillis(sample.stop(batchTimer));
+        log.info("Przeliczono rekomendacje dla {} aktywnych użytkowników ({} błędów) w {} ms", users.size(), failed, millis);
+    }
+
+    // viewed_at i reacted_at to czas w strefie JVM bez strefy (jak zapisuje Hibernate). przy wiecej niz max-users aktywnych przeliczani sa ostatnio aktywni
+    private List<ActiveUser> findActiveUsers() {
+        LocalDateTime activeSince = LocalDateTime.now().minusHours(precomputeConfig.activeWindowHours());
+        return jdbcTemplate.query("""
+                        SELECT u.id, u.email
+                        FROM app_users u
+                        JOIN (
+                            SELECT activity.user_id, MAX(activity.active_at) AS last_active
+                            FROM (
+                                SELECT user_id, reacted_at AS active_at FROM song_reactions WHERE reacted_at >= ?
+                                UNION ALL
+                                SELECT user_id, viewed_at FROM song_views WHERE user_id IS NOT NULL AND viewed_at >= ?
+                            ) activity
+                            GROUP BY activity.user_id
+                        ) active ON active.user_id = u.id
+                        ORDER BY active.last_active DESC, u.id
+                        LIMIT ?
+                        """,
+                (rs, rowNum) -> new ActiveUser(rs.getLong(1), rs.getString(2)),
+                activeSince, activeSince, precomputeConfig.maxUsers());
+    }
+
+    private record ActiveUser(Long id, String email) {}
+}
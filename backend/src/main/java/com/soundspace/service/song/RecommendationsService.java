@@ -1,12 +1,13 @@
 package com.soundspace.service.song;
 
-import com.soundspace.dto.SongBaseDto;
-import com.soundspace.dto.projection.RecommendationsSongProjection;
+import com.soundspace.config.ApplicationConfigProperties;
 import com.soundspace.entity.Song;
 import com.soundspace.enums.Genre;
 import com.soundspace.repository.AppUserRepository;
+import com.soundspace.repository.SongReactionRepository;
 import com.soundspace.repository.SongRepository;
 import com.soundspace.repository.SongStatisticsRepository;
+import com.soundspace.util.TopK;
 import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -16,7 +17,6 @@ import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import java.util.*;
-import java.util.stream.Collectors;
 
 @Slf4j
 @Service
@@ -25,24 +25,24 @@ public class RecommendationsService {
     private final SongRepository songRepo;
     private final AppUserRepository appUserRepository;
 
-    // zeby zmienic to 200 to juz lepiej - todo zrobic cachowanie
-    // zeby przy kazdym odswiezeniu mainpage nie lecial request na milion songow (cachowanie i tak sie przyda nawet przy mniejszej ilosci)
+    // tylko dla sciezki z bazy (zanim zaladuje sie katalog) - encje Song z gatunkami, autorem i statystykami,
+    // wiec wiecej niz 200 to juz za duzo. z katalogu leci app.recommendations.candidate-pool-size
     private static final int CANDIDATE_POOL_SIZE = 200;
     private static final int MINIMUM_CANDIDATES = 10;
 
-    // wagi po ktorych przeliczane jest 'znaczenie' danych gatunkow i autorow
-    // default 1.0 dla like
-    // default 1.0 ustawia wage dislike tak, że dislike kasuje like (1:1)
-    // default 1.5 robi ze favourite jest troche silniejszy niz like
-    private static final double W_LIKE = 1.0;
-    private static final double W_DISLIKE = 1.0;
-    private static final double W_FAVOURITE = 1.5;
-
     // wagi bazowe, przez ktore mnozone sa wagi wyliczone po like, dislike, favourite
     private static final double W_GENRE = 0.5;
     private static final double W_AUTHOR = 0.3;
     private static final double W_VIEWS = 0.2;
+    // premia za podobienstwo do ostatnio polubionych ("sluchacze tez polubili") - poza srednia wazona, bo model
+    // podobienstwa moze jeszcze nie istniec i wtedy wyniki maja byc takie jak bez niego
+    private static final double W_SIMILAR = 0.3;
     private final SongStatisticsRepository songStatisticsRepository;
+    private final SongReactionRepository songReactionRepository;
+    private final TasteProfileService tasteProfileService;
+    private final SongCatalogSnapshot songCatalogSnapshot;
+    private final SongSimilarityService songSimilarityService;
+    private final ApplicationConfigProperties.RecommendationsConfig recommendationsConfig;
 
     /*
         view cap liczony po 90 percentylu zeby same most-viewed piosenki nie zapychaly rekomendacji, tylko po
@@ -51,25 +51,37 @@ public class RecommendationsService {
     private volatile double cachedViewCap;
     private volatile double cachedLogCap;
 
-    @Transactional(readOnly = true)
-    public List<SongBaseDto> getRecommendations(UserDetails userDetails) {
-
+    @Transactional
+    public long[] getRecommendedSongIds(UserDetails userDetails) {
         Long userId = appUserRepository.findByEmail(userDetails.getUsername()).orElseThrow().getId();
-        List<RecommendationsSongProjection> likedSongs = songRepo.findAllLikedByAppUserIdForRecommendations(userId);
-        List<RecommendationsSongProjection> dislikedSongs = songRepo.findAllDislikedByAppUserIdForRecommendations(userId);
-        List<RecommendationsSongProjection> favouriteSongs = songRepo.findAllFavouriteByAppUserIdForRecommendations(userId);
+        return getRecommendedSongIds(userId);
+    }
+
+    /// id rekomendowanych piosenek od najlepszej - to trafia do cache "recommendations"
+    // nie readOnly - przy pierwszym uzyciu (i raz na jakis czas) profil gustu jest przeliczany i zapisywany
+    @Transactional
+    public long[] getRecommendedSongIds(Long userId) {
+
+        // jeden wiersz z user_taste_profiles zamiast calej historii reakcji
+        TasteProfileService.TasteProfile profile = tasteProfileService.getProfile(userId);
 
         /*
             COLD START - jak user nic nie polubil ani nie nie-polubil to po prostu
             te z najwieksza iloscia wyswietlen (obsluzone w [RecommendationFacade])
          */
-        if (likedSongs.isEmpty() && dislikedSongs.isEmpty() && favouriteSongs.isEmpty()) {
-            return List.of();
+        if (profile.isEmpty()) {
+            return new long[0];
         }
 
 
-        Map<Genre, Double> genreWeights = calculateGenreProfile(likedSongs, dislikedSongs, favouriteSongs);
-        Map<Long, Double> authorWeights = calculateAuthorProfile(likedSongs, dislikedSongs, favouriteSongs);
+        Map<Genre, Double> genreWeights = profile.genreWeights();
+        Map<Long, Double> authorWeights = profile.authorWeights();
+
+        // scoring po kolumnach katalogu w pamieci - z bazy tylko sprawdzenie, czy user nie reagowal na zwyciezcow top-k
+        SongCatalogSnapshot.Catalog catalog = songCatalogSnapshot.current();
+        if (catalog != null) {
+            return recommendFromCatalog(catalog, userId, genreWeights, authorWeights);
+        }
 
         // przekazywane genre to wszystkie ktore sa przynajmniej w jednej piosence ktora polubil
         List<Song> candidates = songRepo.findCandidates(
@@ -84,21 +96,15 @@ public class RecommendationsService {
             // do wypelnienia
             List<Song> fillers = songRepo.findTopPopularSongs(PageRequest.of(0, 50));
 
-            // do wyfiltrowania znanych (juz zareagowanych) piosenek z fillers
-            Set<Long> dislikedIds = dislikedSongs.stream().map(RecommendationsSongProjection::getId).collect(Collectors.toSet());
-            Set<Long> likedIds = likedSongs.stream().map(RecommendationsSongProjection::getId).collect(Collectors.toSet());
-            Set<Long> favIds = favouriteSongs.stream().map(RecommendationsSongProjection::getId).collect(Collectors.toSet());
+            // do wyfiltrowania znanych (juz zareagowanych) piosenek z fillers - tylko sposrod samych fillers
+            Set<Long> reactedIds = fillers.isEmpty()
+                    ? Set.of()
+                    : songReactionRepository.findReactedSongIdsAmong(userId, fillers.stream().map(Song::getId).toList());
 
             for (Song s : fillers) {
                 if (candidates.size() >= MINIMUM_CANDIDATES) break;
 
-                // %Ids zamiast %Songs.contains(s), bo pozniej likedSongs, dislikedSongs, favouriteSongs zwraca projekcje
-                // fillers nie posiada takich samych projekcji, tylko cale songi (cos niecos trzeba zwrocic) wiec porownanie calych obiektow nie zadziala
-                // = po id bedzie g
-                if (!candidates.contains(s)
-                        && !dislikedIds.contains(s.getId())
-                        && !likedIds.contains(s.getId())
-                        && !favIds.contains(s.getId())) {
+                if (!candidates.contains(s) && !reactedIds.contains(s.getId())) {
                     candidates.add(s);
                 }
             }
@@ -114,12 +120,128 @@ public class RecommendationsService {
                     return new ScoredSong(song, score);
                 })
                 .sorted(Comparator.comparingDouble(ScoredSong::score).reversed())
-                .map(scoredSong -> SongBaseDto.toDto(scoredSong.song()))
-                .toList();
+                .mapToLong(scoredSong -> scoredSong.song().getId())
+                .toArray();
     }
 
     /// helpery
 
+    /// to samo co sciezka z bazy ponizej (najnowsi pasujacy kandydaci, backfill popularnymi, scoring), tylko na
+    /// tablicach prymitywow i z top-k zamiast sortowania calej puli. juz zareagowane sa odrzucane dopiero wsrod
+    /// zwyciezcow top-k (i fillerow backfillu) - zapytanie o kilkadziesiat id zamiast calej historii reakcji, kosztem
+    /// tego, ze zareagowane zajmuja miejsca w puli kandydatow
+    private long[] recommendFromCatalog(SongCatalogSnapshot.Catalog catalog, Long userId,
+                                        Map<Genre, Double> genreWeights, Map<Long, Double> authorWeights) {
+        // wagi gatunkow po ordinal() i maska gatunkow profilu
+        double[] genreWeightByOrdinal = new double[Genre.values().length];
+        long profileMask = 0L;
+        for (Map.Entry<Genre, Double> entry : genreWeights.entrySet()) {
+            genreWeightByOrdinal[entry.getKey().ordinal()] = entry.getValue();
+            profileMask |= SongCatalogSnapshot.genreBit(entry.getKey());
+        }
+
+        // autorzy profilu posortowani po id (binarySearch), wagi na tych samych indeksach
+        long[] profileAuthors = authorWeights.keySet().stream().mapToLong(Long::longValue).sorted().toArray();
+        double[] profileAuthorWeights = new double[profileAuthors.length];
+        for (int i = 0; i < profileAuthors.length; i++) profileAuthorWeights[i] = authorWeights.get(profileAuthors[i]);
+
+        SimilarSongs similar = findSimilarSongs(userId);
+
+        long[] ids = catalog.ids();
+        long[] authorIds = catalog.authorIds();
+        long[] genreMasks = catalog.genreMasks();
+
+        // kandydaci - najnowsze pasujace po gatunku albo autorze. podobne do polubionych wchodza zawsze, takze po
+        // zapelnieniu puli
+        int pool = recommendationsConfig.candidatePoolSize();
+        int[] candidates = new int[Math.min(Math.max(pool, MINIMUM_CANDIDATES) + similar.ids().length, catalog.size())];
+        int n = 0;
+        for (int i = 0; i < ids.length && (n < pool || similar.ids().length > 0); i++) {
+            boolean isSimilar = Arrays.binarySearch(similar.ids(), ids[i]) >= 0;
+            if (n >= pool && !isSimilar) continue;
+
+            boolean matches = isSimilar
+                    || (genreMasks[i] & profileMask) != 0
+                    || Arrays.binarySearch(profileAuthors, authorIds[i]) >= 0;
+            if (matches) candidates[n++] = i;
+        }
+
+        // BACKFILL - najczesciej wyswietlane z katalogu, do MINIMUM_CANDIDATES (zareagowane sprawdzane tylko wsrod fillerow)
+        Set<Long> reacted = new HashSet<>();
+        if (n < MINIMUM_CANDIDATES) {
+            reacted.addAll(songReactionRepository.findReactedSongIdsAmong(userId,
+                    Arrays.stream(catalog.popular()).mapToObj(i -> ids[i]).toList()));
+            for (int i : catalog.popular()) {
+                if (n >= MINIMUM_CANDIDATES) break;
+                if (reacted.contains(ids[i]) || contains(candidates, n, i)) continue;
+                candidates[n++] = i;
+            }
+        }
+
+        long[] candidateIds = new long[n];
+        double[] scores = new double[n];
+        double logCap = cachedLogCap;
+        for (int j = 0; j < n; j++) {
+            int i = candidates[j];
+            candidateIds[j] = ids[i];
+
+            int author = Arrays.binarySearch(profileAuthors, authorIds[i]);
+            int similarIndex = Arrays.binarySearch(similar.ids(), ids[i]);
+            scores[j] = weightedScore(
+                    averageGenreWeight(genreMasks[i], genreWeightByOrdinal),
+                    author >= 0 ? profileAuthorWeights[author] : 0.0,
+                    catalog.viewCounts()[i],
+                    logCap)
+                    + (similarIndex >= 0 ? similar.scores()[similarIndex] * W_SIMILAR : 0.0);
+        }
+
+        return topNotReacted(userId, candidateIds, scores, n, recommendationsConfig.resultSize(), reacted);
+    }
+
+    /**
+     * top resultSize kandydatow bez juz zareagowanych. reakcje sprawdzane tylko dla zwyciezcow top-k - jezeli czesc
+     * odpadla, k rosnie o tyle, ile odpadlo, az wystarczy (albo skoncza sie kandydaci)
+     */
+    private long[] topNotReacted(Long userId, long[] candidateIds, double[] scores, int n, int resultSize, Set<Long> reacted) {
+        Set<Long> checked = new HashSet<>(reacted);
+        int k = Math.min(n, resultSize);
+        while (true) {
+            int[] top = TopK.indices(candidateIds, scores, n, k);
+
+            List<Long> unchecked = new ArrayList<>();
+            for (int index : top) if (checked.add(candidateIds[index])) unchecked.add(candidateIds[index]);
+            if (!unchecked.isEmpty()) reacted.addAll(songReactionRepository.findReactedSongIdsAmong(userId, unchecked));
+
+            long[] topIds = new long[Math.min(resultSize, top.length)];
+            int size = 0;
+            for (int index = 0; index < top.length && size < topIds.length; index++) {
+                if (!reacted.contains(candidateIds[top[index]])) topIds[size++] = candidateIds[top[index]];
+            }
+            if (size == topIds.length || k == n) return Arrays.copyOf(topIds, size);
+
+            k = Math.min(n, k + (topIds.length - size));
+        }
+    }
+
+    /// sasiedzi ostatnio polubionych piosenek (suma podobienstw, przeskalowana do 0..1), posortowani po id
+    private SimilarSongs findSimilarSongs(Long userId) {
+        ApplicationConfigProperties.RecommendationsConfig.SimilarityConfig similarity = recommendationsConfig.similarity();
+        List<Long> seeds = songReactionRepository.findRecentlyLikedSongIds(userId, PageRequest.of(0, similarity.seedSongs()));
+
+        Map<Long, Double> sums = new HashMap<>();
+        for (Long seed : new LinkedHashSet<>(seeds)) { // like i favourite tej samej piosenki to jeden seed
+            SongSimilarityIndex.Neighbours neighbours = songSimilarityService.neighbours(seed, similarity.neighbours());
+            for (int i = 0; i < neighbours.size(); i++) sums.merge(neighbours.ids()[i], (double) neighbours.scores()[i], Double::sum);
+        }
+        if (sums.isEmpty()) return SimilarSongs.EMPTY;
+
+        long[] ids = sums.keySet().stream().mapToLong(Long::longValue).sorted().toArray();
+        double max = Collections.max(sums.values());
+        double[] scores = new double[ids.length];
+        for (int i = 0; i < ids.length; i++) scores[i] = sums.get(ids[i]) / max;
+        return new SimilarSongs(ids, scores);
+    }
+
     @PostConstruct
     @Scheduled(cron = "0 0 * * * *")
     public void updateViewCap() {
@@ -148,7 +270,22 @@ public class RecommendationsService {
 
         double authorScore = authorProfile.getOrDefault(song.getAuthor().getId(), 0.0);
 
-        double rawViewScore = Math.log10(1 + song.getStatistics().getViewCount()) / logCap;
+        return weightedScore(genreScore, authorScore, song.getStatistics().getViewCount(), logCap);
+    }
+
+    // srednia wag gatunkow z maski piosenki - to samo co average() w calculateScore
+    private static double averageGenreWeight(long genreMask, double[] genreWeightByOrdinal) {
+        if (genreMask == 0L) return 0.0;
+
+        double sum = 0.0;
+        for (long mask = genreMask; mask != 0L; mask &= mask - 1) {
+            sum += genreWeightByOrdinal[Long.numberOfTrailingZeros(mask)];
+        }
+        return sum / Long.bitCount(genreMask);
+    }
+
+    private static double weightedScore(double genreScore, double authorScore, long viewCount, double logCap) {
+        double rawViewScore = Math.log10(1 + viewCount) / logCap;
         double viewScore = Math.min(rawViewScore, 1.0); // 1.0 to uciecie 10% wyzszych (90 percentyl)
 
         // docelowe wyliczenie średniej ważonej / score
@@ -157,113 +294,16 @@ public class RecommendationsService {
                 (viewScore * W_VIEWS);
     }
 
-
-    /// Tworzy mapę (Gatunek -> Waga Gatunku),
-    /// gdzie waga każdego gatunku wyliczana jest po tym jak duży udział dany gatunek ma w polubionych/nie-polubionych/ulubionych piosenkach użytkownika
-    private Map<Genre, Double> calculateGenreProfile(List<RecommendationsSongProjection> likedSongs,
-                                                     List<RecommendationsSongProjection> dislikedSongs,
-                                                     List<RecommendationsSongProjection> favouriteSongs) {
-        // na wszelki mimo ze w getRecoomendations wtedy i tak pojdzie topsongs
-        if (likedSongs.isEmpty() && dislikedSongs.isEmpty() && favouriteSongs.isEmpty()) return Collections.emptyMap();
-
-        Map<Genre, Double> scores = new HashMap<>();
-
-        // zeby pominac favourite przy iteracji po likedSongs
-        Set<Long> favIds = favouriteSongs.stream().map(RecommendationsSongProjection::getId).collect(Collectors.toSet());
-
-        // do normalizacji
-        double currentTotalMass = 0.0;
-
-        // liczy wagi dla konkretnych gatunkow po favourite
-        for (RecommendationsSongProjection song : favouriteSongs) {
-            double contribution = (1.0 / song.getGenres().size()) * W_FAVOURITE;
-            for (Genre g : song.getGenres()) {
-                scores.merge(g, contribution, Double::sum);
-            }
-            currentTotalMass += W_FAVOURITE;
-        }
-
-        // liczy wagi dla konkretnych gatunkow po like, pomijajac songi ktore juz sa favourite
-        for (RecommendationsSongProjection song : likedSongs) {
-            if (favIds.contains(song.getId())) continue; // jak song jest tez favourite to nara
-
-            double contribution = (1.0 / song.getGenres().size()) * W_LIKE;
-            for (Genre g : song.getGenres()) {
-                scores.merge(g, contribution, Double::sum);
-            }
-            currentTotalMass += W_LIKE;
-        }
-
-        // liczy UJEMNE wagi dla konkretnych gatunkow po dislike
-        for (RecommendationsSongProjection song : dislikedSongs) {
-            // Waga ujemna
-            double contribution = (1.0 / song.getGenres().size()) * W_DISLIKE;
-            for (Genre g : song.getGenres()) {
-                scores.merge(g, -contribution, Double::sum);
-            }
-            currentTotalMass += W_DISLIKE;
-        }
-
-
-
-        if (currentTotalMass == 0) return Collections.emptyMap();
-        final double finalMass = currentTotalMass; // do mapowania przejdzie tylko final
-
-        // liczy wagi ujemne dla konkretnych gatunkow po dislike + normalizacja dzielac przez total mass
-        return scores.entrySet().stream()
-                .collect(Collectors.toMap(
-                        Map.Entry::getKey,
-                        entry -> entry.getValue() / finalMass
-                ));
+    private static boolean contains(int[] values, int size, int value) {
+        for (int i = 0; i < size; i++) if (values[i] == value) return true;
+        return false;
     }
 
-    /// Tworzy mapę (Autor -> Waga Autora),
-    /// gdzie waga każdego autora wyliczana jest po tym jak duży udział dany autor ma w polubionych/nie-polubionych/ulubionych piosenkach użytkownika.
-    private Map<Long, Double> calculateAuthorProfile(List<RecommendationsSongProjection> likedSongs,
-                                                     List<RecommendationsSongProjection> dislikedSongs,
-                                                     List<RecommendationsSongProjection> favouriteSongs) {
-        // na wszelki mimo ze w getRecoomendations wtedy i tak pojdzie topsongs
-        if (likedSongs.isEmpty() && dislikedSongs.isEmpty() && favouriteSongs.isEmpty()) return Collections.emptyMap();
-
-        Map<Long, Double> scores = new HashMap<>();
-
-        // zeby pominac favourite przy iteracji po likedSongs
-        Set<Long> favIds = favouriteSongs.stream().map(RecommendationsSongProjection::getId).collect(Collectors.toSet());
-
-        // do normalizacji
-        double currentTotalMass = 0.0;
-
-        // liczy wagi dla konkretnych autorow po favourite
-        for (RecommendationsSongProjection song : favouriteSongs) {
-            scores.merge(song.getAuthorId(), W_FAVOURITE, Double::sum);
-            currentTotalMass += W_FAVOURITE;
-        }
-
-        // liczy wagi dla konkretnych autorow po like, pomijajac songi ktore juz sa favourite
-        for (RecommendationsSongProjection song : likedSongs) {
-            if (favIds.contains(song.getId())) continue;
-
-            scores.merge(song.getAuthorId(), W_LIKE, Double::sum);
-            currentTotalMass += W_LIKE;
-        }
 
-        for (RecommendationsSongProjection song : dislikedSongs) {
-            scores.merge(song.getAuthorId(), -W_DISLIKE, Double::sum);
-            currentTotalMass += W_DISLIKE;
-        }
-
-        if (currentTotalMass == 0) return Collections.emptyMap();
-        final double finalMass = currentTotalMass; // do mapowania przejdzie tylko final
-
-        // liczy wagi ujemne dla konkretnych autorow po dislike + normalizacja dzielac przez total mass
-        return scores.entrySet().stream()
-                .collect(Collectors.toMap(
-                        Map.Entry::getKey,
-                        entry -> entry.getValue() / finalMass
-                ));
+    private record SimilarSongs(long[] ids, double[] scores) {
+        static final SimilarSongs EMPTY = new SimilarSongs(new long[0], new double[0]);
     }
 
-
     // w sumie to mapa <Song, Double>
     private record ScoredSong(Song song, double score) {}
 }
\ No newline at end of file
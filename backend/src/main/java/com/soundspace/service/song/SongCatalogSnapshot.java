@@ -0,0 +1,155 @@
+package com.soundspace.service.song;
+
+import com.soundspace.enums.Genre;
+import com.soundspace.util.TopK;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Katalog publicznych piosenek w pamieci jako kolumny prymitywow (id, autor, maska gatunkow, wyswietlenia), od
+ * najnowszej - scoring rekomendacji leci po tablicach zamiast po encjach Song z leniwie ladowanymi gatunkami,
+ * autorem i statystykami.
+ * <p>
+ * Snapshot jest niezmienny i podmieniany w calosci co app.recommendations.catalog-refresh-ms, wiec nowe piosenki
+ * i liczniki sa w nim opoznione o ten czas. Ukryte/usuniete od ostatniego odswiezenia odpadaja przy ladowaniu DTO
+ * (findPublicBaseProjectionsByIds filtruje po publicly_visible).
+ */
+@Service
+@Slf4j
+public class SongCatalogSnapshot {
+
+    // ile najczesciej wyswietlanych piosenek trzymamy jako backfill rekomendacji
+    private static final int POPULAR_SIZE = 50;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final Timer refreshTimer;
+
+    private volatile Catalog catalog; // null do pierwszego zaladowania - wtedy rekomendacje ida stara sciezka z bazy
+
+    public SongCatalogSnapshot(JdbcTemplate jdbcTemplate, MeterRegistry meterRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.refreshTimer = Timer.builder("soundspace.recommendations.catalog.refresh")
+                .description("Czas ladowania katalogu piosenek do pamieci")
+                .register(meterRegistry);
+        Gauge.builder("soundspace.recommendations.catalog.songs", this, snapshot -> {
+                    Catalog current = snapshot.catalog;
+                    return current == null ? 0 : current.size();
+                })
+                .description("Ilosc publicznych piosenek w katalogu rekomendacji")
+                .register(meterRegistry);
+    }
+
+    public Catalog current() {
+        return catalog;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onStartup() {
+        refresh();
+    }
+
+    @Scheduled(fixedDelayString = "${app.recommendations.catalog-refresh-ms}", initialDelayString = "${app.recommendations.catalog-refresh-ms}")
+    public void refresh() {
+        try {
+            Catalog loaded = refreshTimer.record(this::load);
+            catalog = loaded;
+            log.debug("Załadowano katalog rekomendacji: {} piosenek", loaded.size());
+        } catch (RuntimeException e) {
+            // zostaje poprzedni snapshot (albo stara sciezka z bazy, jezeli jeszcze zadnego nie bylo)
+            log.warn("Ładowanie katalogu rekomendacji nie powiodło się", e);
+        }
+    }
+
+    /// HELPERY
+
+    private Catalog load() {
+        Columns columns = new Columns();
+        jdbcTemplate.query("""
+                        SELECT s.id, s.user_id, COALESCE(ss.view_count, 0)
+                        FROM songs s
+                        LEFT JOIN song_statistics ss ON ss.song_id = s.id
+                        WHERE s.publicly_visible = true
+                        ORDER BY s.created_at DESC, s.id DESC
+                        """,
+                (RowCallbackHandler) rs -> columns.add(rs.getLong(1), rs.getLong(2), rs.getLong(3)));
+
+        int n = columns.size;
+        long[] ids = Arrays.copyOf(columns.ids, n);
+        Map<Long, Integer> indexById = new HashMap<>(n * 2);
+        for (int i = 0; i < n; i++) indexById.put(ids[i], i);
+
+        long[] genreMasks = new long[n];
+        jdbcTemplate.query("""
+                        SELECT sg.song_id, sg.genre
+                        FROM song_genres sg
+                        JOIN songs s ON s.id = sg.song_id
+                        WHERE s.publicly_visible = true
+                        """,
+                (RowCallbackHandler) rs -> {
+                    Integer index = indexById.get(rs.getLong(1));
+                    if (index == null) return; // piosenka dodana miedzy zapytaniami - wejdzie w nastepnym odswiezeniu
+                    genreMasks[index] |= genreBit(Genre.valueOf(rs.getString(2)));
+                });
+
+        long[] viewCounts = Arrays.copyOf(columns.viewCounts, n);
+        double[] views = new double[n];
+        for (int i = 0; i < n; i++) views[i] = viewCounts[i];
+
+        return new Catalog(
+                ids,
+                Arrays.copyOf(columns.authorIds, n),
+                genreMasks,
+                viewCounts,
+                TopK.indices(ids, views, n, POPULAR_SIZE));
+    }
+
+    public static long genreBit(Genre genre) {
+        return 1L << genre.ordinal();
+    }
+
+    /**
+     * kolumny publicznych piosenek, od najnowszej (created_at DESC, id DESC) - i-ty element kazdej tablicy to ta sama
+     * piosenka. popular to indeksy top 50 po wyswietleniach, malejaco. tablic nie wolno modyfikowac
+     */
+    public record Catalog(long[] ids,
+                          long[] authorIds,
+                          long[] genreMasks,
+                          long[] viewCounts,
+                          int[] popular) {
+        public int size() {
+            return ids.length;
+        }
+    }
+
+    // rosnace bufory na czas ladowania - ilosci wierszy nie znamy z gory
+    private static final class Columns {
+        long[] ids = new long[1024];
+        long[] authorIds = new long[1024];
+        long[] viewCounts = new long[1024];
+        int size;
+
+        void add(long id, long authorId, long views) {
+            if (size == ids.length) {
+                int capacity = size * 2;
+                ids = Arrays.copyOf(ids, capacity);
+                authorIds = Arrays.copyOf(authorIds, capacity);
+                viewCounts = Arrays.copyOf(viewCounts, capacity);
+            }
+            ids[size] = id;
+            authorIds[size] = authorId;
+            viewCounts[size++] = views;
+        }
+    }
+}
@@ -1,9 +1,11 @@
 package com.soundspace.service.song;
 
 import com.soundspace.config.ApplicationConfigProperties;
+import com.soundspace.dto.CursorPage;
 import com.soundspace.dto.SongBaseDto;
 import com.soundspace.dto.SongDtoWithDetails;
 import com.soundspace.dto.SongStatslessDto;
+import com.soundspace.dto.projection.SongBaseProjection;
 import com.soundspace.dto.projection.SongProjectionWithDetails;
 import com.soundspace.dto.request.SongUpdateRequest;
 import com.soundspace.entity.AppUser;
@@ -12,16 +14,18 @@ import com.soundspace.entity.StorageKey;
 import com.soundspace.exception.*;
 import com.soundspace.repository.SongReactionRepository;
 import com.soundspace.repository.SongRepository;
+import com.soundspace.repository.SongViewDailyRepository;
 import com.soundspace.repository.SongViewRepository;
-import com.soundspace.repository.StorageKeyRepository;
 import com.soundspace.enums.Genre;
 import com.soundspace.service.user.AppUserService;
-import com.soundspace.service.storage.ImageService;
+import com.soundspace.service.storage.CoverProcessingQueue;
 import com.soundspace.service.storage.StorageService;
+import com.soundspace.util.CursorUtil;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.cache.annotation.Cacheable;
+import org.springframework.cache.annotation.Caching;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.security.core.userdetails.UserDetails;
@@ -38,12 +42,12 @@ public class SongCoreService {
     private final SongRepository songRepository;
     private final AppUserService appUserService;
     private final StorageService storageService;
-    private final StorageKeyRepository storageKeyRepository;
-    private final ImageService imageService;
+    private final CoverProcessingQueue coverProcessingQueue;
     private final ApplicationConfigProperties.MediaConfig.CoverConfig coverConfig;
     private final ApplicationConfigProperties.MediaConfig.AudioConfig audioConfig;
     private final SongReactionRepository songReactionRepository;
     private final SongViewRepository songViewRepository;
+    private final SongViewDailyRepository songViewDailyRepository;
 
 
     public Song getSongById(Long id) {
@@ -131,7 +135,41 @@ public class SongCoreService {
                 ).map(SongBaseDto::toDto);
     }
 
+    // wersja keyset dla nieskonczonego scrolla - od najnowszych, stala cena strony niezaleznie od glebokosci
+    public CursorPage<SongBaseDto> getAllSongsByCursor(UserDetails userDetails, String cursor, Integer size) {
+        long afterId = CursorUtil.decode(cursor, 1)[0];
+        int pageSize = CursorUtil.size(size);
+
+        List<SongBaseProjection> rows = userDetails == null
+                ? songRepository.findAllPublicAfter(afterId, pageSize + 1)
+                : songRepository.findAllPublicOrOwnedByUserAfter(
+                        appUserService.getUserByEmail(userDetails.getUsername()).getId(), afterId, pageSize + 1);
+
+        return CursorUtil.toCursorPage(rows, pageSize, song -> CursorUtil.encode(song.getId()))
+                .map(SongBaseDto::toDto);
+    }
+
+    public CursorPage<SongBaseDto> getSongsByGenreByCursor(String genreName, UserDetails userDetails, String cursor, Integer size) {
+        Genre genre;
+        try {
+            genre = Genre.valueOf(genreName.toUpperCase().trim());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Nieprawidłowy gatunek: " + genreName);
+        }
+        long afterId = CursorUtil.decode(cursor, 1)[0];
+        int pageSize = CursorUtil.size(size);
+
+        List<SongBaseProjection> rows = userDetails == null
+                ? songRepository.findPublicByGenreAfter(genre, afterId, pageSize + 1)
+                : songRepository.findPublicOrOwnedByUserByGenreAfter(
+                        genre, appUserService.getUserByEmail(userDetails.getUsername()).getId(), afterId, pageSize + 1);
+
+        return CursorUtil.toCursorPage(rows, pageSize, song -> CursorUtil.encode(song.getId()))
+                .map(SongBaseDto::toDto);
+    }
+
     @Transactional
+    @CacheEvict(value = {"stream-descriptor", "song-exists"}, key = "#id")
     public void deleteSongById(Long id, String requesterEmail) {
         Song song = getSongById(id);
         AppUser requester = null;
@@ -147,6 +185,7 @@ public class SongCoreService {
 
 
         songViewRepository.deleteAllBySongId(id);
+        songViewDailyRepository.deleteAllBySongId(id);
         songReactionRepository.deleteAllBySongId(id);
         songRepository.delete(song);
 
@@ -155,32 +194,21 @@ public class SongCoreService {
             StorageKey audioKey = song.getAudioStorageKey();
             if (audioKey != null && !audioKey.getId().equals(audioConfig.defaultAudioId()) && audioKey.getKeyStr() != null && !audioKey.getKeyStr().isBlank()) {
                 try {
-                    storageService.delete(audioKey.getKeyStr());
+                    storageService.release(audioKey);
                 } catch (Exception ex) {
                     log.warn("Nie udało się usunąć pliku audio z storage: {}", audioKey.getKeyStr(), ex);
                     throw ex;
                 }
-
-                try {
-                    storageKeyRepository.deleteById(audioKey.getId());
-                } catch (Exception ex) {
-                    log.warn("Nie udało się usunąć rekordu storage_keys (song audio) id={}: {}", audioKey.getId(), ex.getMessage());
-                }
             }
 
             StorageKey coverKey = song.getCoverStorageKey();
             if (song.getAlbum() == null && coverKey != null && !coverKey.getId().equals(coverConfig.defaultCoverId()) && coverKey.getKeyStr() != null && !coverKey.getKeyStr().isBlank()) {
                 try {
-                    storageService.delete(coverKey.getKeyStr());
+                    storageService.release(coverKey);
                 } catch (Exception ex) {
                     log.warn("Nie udało się usunąć pliku cover z storage: {}", coverKey.getKeyStr(), ex);
                     throw ex;
                 }
-                try {
-                    storageKeyRepository.deleteById(coverKey.getId());
-                } catch (Exception ex) {
-                    log.warn("Nie udało się usunąć rekordu storage_keys (song cover) id={}: {}", coverKey.getId(), ex.getMessage());
-                }
             }
 
         } catch (AccessDeniedException e) {
@@ -193,7 +221,11 @@ public class SongCoreService {
     }
 
     @Transactional
-    @CacheEvict(value = "song", key = "#songId")
+    @Caching(evict = {
+            @CacheEvict(value = "song", key = "#songId"),
+            @CacheEvict(value = "song-base", key = "#songId"),
+            @CacheEvict(value = "stream-descriptor", key = "#songId")
+    })
     public SongDtoWithDetails update(Long songId, SongUpdateRequest request, UserDetails userDetails) { // @AuthenticationPrincipal userDetails jest NotNull
         Song updatedSong = getSongById(songId); //narazie wszytkie pola takie same, a pozniej beda zmieniane zeby zapisac po update
 
@@ -201,20 +233,11 @@ public class SongCoreService {
         if (!updatedSong.getAuthor().getId().equals(user.getId()))
             throw new AccessDeniedException("Brak dostępu do edycji piosenki");
 
+        // nowa okladka jest skalowana w tle i podmieniana po commicie
         MultipartFile coverFile = request.coverFile();
-        StorageKey storageKeyToDelete = null;
         if (coverFile != null && !coverFile.isEmpty() && updatedSong.getAlbum() == null) {
-            storageKeyToDelete = updatedSong.getCoverStorageKey();
-            updatedSong.setCoverStorageKey(imageService.processAndSaveNewImage(
-                    coverFile,
-                    user,
-                    coverConfig.width(),
-                    coverConfig.height(),
-                    coverConfig.quality(),
-                    coverConfig.targetExtension(),
-                    coverConfig.songDirectory(),
-                    "cover"
-            ));
+            coverProcessingQueue.submit(CoverProcessingQueue.Target.SONG, songId, updatedSong.getCoverStorageKey().getId(),
+                    coverFile, user.getId(), coverConfig.songDirectory());
         }
 
         if (request.title() != null) {
@@ -226,9 +249,6 @@ public class SongCoreService {
         }
 
         songRepository.save(updatedSong);
-        if (storageKeyToDelete != null) {
-            imageService.cleanUpOldImage(storageKeyToDelete, "cover");
-        }
         return SongDtoWithDetails.toDto(updatedSong);
     }
 
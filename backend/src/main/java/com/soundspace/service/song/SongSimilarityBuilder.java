@@ -0,0 +1,191 @@
+package com.soundspace.service.song;
+
+import com.soundspace.util.TopK;
+
+import java.util.Arrays;
+
+/**
+ * Macierz podobienstwa piosenek item-item z interakcji uzytkownikow (like/favourite i wyswietlenia zalogowanych).
+ * <p>
+ * Podobienstwo a-b to cosinus wektorow uzytkownikow (waga reakcji 1, wyswietlenia viewWeight), sciagany do zera
+ * przy malej ilosci wspolnych uzytkownikow (cnt / (cnt + {@link #SHRINKAGE})) - inaczej dwie niszowe piosenki
+ * z jednym wspolnym sluchaczem mialyby podobienstwo 1.
+ * <p>
+ * Wszystko na tablicach prymitywow: interakcje sa upakowane w long i posortowane, potem dwie macierze CSR
+ * (uzytkownik -> piosenki i piosenka -> uzytkownicy) i wiersz po wierszu akumulacja w jednej tablicy float[piosenki]
+ * zamiast mapy par - pamiec rosnie z iloscia interakcji, a nie z iloscia par.
+ */
+public final class SongSimilarityBuilder {
+
+    // ilu wspolnych uzytkownikow daje polowe pelnego podobienstwa
+    private static final float SHRINKAGE = 5f;
+
+    private static final byte VIEW = 0;
+    private static final byte REACTION = 1;
+
+    private long[] users = new long[1024];
+    private long[] songs = new long[1024];
+    private byte[] kinds = new byte[1024];
+    private int size;
+
+    public void addReaction(long userId, long songId) {
+        add(userId, songId, REACTION);
+    }
+
+    public void addView(long userId, long songId) {
+        add(userId, songId, VIEW);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * top neighbours sasiadow kazdej piosenki. uzytkownik z wiecej niz maxItemsPerUser piosenkami jest probkowany
+     * co k-ta piosenke - koszt to suma kwadratow ilosci piosenek uzytkownikow
+     */
+    public SongSimilarityIndex.Table build(int neighbours, int maxItemsPerUser, float viewWeight) {
+        long[] songIds = distinctSorted(songs, size);
+        long[] userIds = distinctSorted(users, size);
+
+        // (uzytkownik, piosenka, rodzaj) w jednym long - sortowanie grupuje po uzytkowniku, a reakcja jest za
+        // wyswietleniem tej samej piosenki, wiec ostatni z serii ma najwieksza wage
+        long[] keys = new long[size];
+        for (int i = 0; i < size; i++) {
+            long user = Arrays.binarySearch(userIds, users[i]);
+            long song = Arrays.binarySearch(songIds, songs[i]);
+            keys[i] = (user << 32) | (song << 1) | kinds[i];
+        }
+        Arrays.sort(keys);
+
+        // CSR uzytkownik -> piosenki (bez duplikatow, z probkowaniem)
+        int[] userOffsets = new int[userIds.length + 1];
+        int[] userItems = new int[size];
+        float[] userWeights = new float[size];
+        int m = 0;
+        int start = 0;
+        while (start < size) {
+            int user = (int) (keys[start] >>> 32);
+            int end = start;
+            while (end < size && (int) (keys[end] >>> 32) == user) end++;
+
+            int runStart = m;
+            for (int i = start; i < end; i++) {
+                if (i + 1 < end && keys[i + 1] >>> 1 == keys[i] >>> 1) continue; // ta sama piosenka - bierzemy ostatni
+                userItems[m] = (int) ((keys[i] & 0xFFFFFFFFL) >>> 1);
+                userWeights[m++] = (keys[i] & 1) == REACTION ? 1f : viewWeight;
+            }
+            m = runStart + sample(userItems, userWeights, runStart, m - runStart, maxItemsPerUser);
+
+            userOffsets[user + 1] = m;
+            start = end;
+        }
+
+        // transpozycja: piosenka -> uzytkownicy, plus norma wektora piosenki
+        int songCount = songIds.length;
+        int[] songOffsets = new int[songCount + 1];
+        for (int i = 0; i < m; i++) songOffsets[userItems[i] + 1]++;
+        for (int s = 0; s < songCount; s++) songOffsets[s + 1] += songOffsets[s];
+
+        int[] songUsers = new int[m];
+        float[] songUserWeights = new float[m];
+        int[] fill = Arrays.copyOf(songOffsets, songCount);
+        double[] norms = new double[songCount];
+        for (int u = 0; u < userIds.length; u++) {
+            for (int i = userOffsets[u]; i < userOffsets[u + 1]; i++) {
+                int song = userItems[i];
+                int at = fill[song]++;
+                songUsers[at] = u;
+                songUserWeights[at] = userWeights[i];
+                norms[song] += (double) userWeights[i] * userWeights[i];
+            }
+        }
+
+        // wiersz po wierszu: sasiedzi a to piosenki uzytkownikow a
+        float[] dot = new float[songCount];
+        int[] support = new int[songCount];
+        int[] touched = new int[songCount];
+        long[] candidateIds = new long[songCount];
+        double[] candidateScores = new double[songCount];
+
+        int[] offsets = new int[songCount + 1];
+        long[] neighbourIds = new long[(int) Math.min((long) songCount * neighbours, 1 << 20)];
+        float[] scores = new float[neighbourIds.length];
+        int total = 0;
+
+        for (int a = 0; a < songCount; a++) {
+            int t = 0;
+            for (int i = songOffsets[a]; i < songOffsets[a + 1]; i++) {
+                int u = songUsers[i];
+                float wa = songUserWeights[i];
+                for (int j = userOffsets[u]; j < userOffsets[u + 1]; j++) {
+                    int b = userItems[j];
+                    if (b == a) continue;
+                    if (support[b]++ == 0) touched[t++] = b;
+                    dot[b] += wa * userWeights[j];
+                }
+            }
+
+            for (int k = 0; k < t; k++) {
+                int b = touched[k];
+                double cosine = dot[b] / Math.sqrt(norms[a] * norms[b]);
+                candidateIds[k] = songIds[b];
+                candidateScores[k] = cosine * support[b] / (support[b] + SHRINKAGE);
+                dot[b] = 0f;
+                support[b] = 0;
+            }
+
+            int[] top = TopK.indices(candidateIds, candidateScores, t, neighbours);
+            if (total + top.length > neighbourIds.length) {
+                int capacity = Math.max(neighbourIds.length * 2, total + top.length);
+                neighbourIds = Arrays.copyOf(neighbourIds, capacity);
+                scores = Arrays.copyOf(scores, capacity);
+            }
+            for (int k : top) {
+                neighbourIds[total] = candidateIds[k];
+                scores[total++] = (float) candidateScores[k];
+            }
+            offsets[a + 1] = total;
+        }
+
+        return new SongSimilarityIndex.Table(songIds, offsets,
+                Arrays.copyOf(neighbourIds, total), Arrays.copyOf(scores, total), m);
+    }
+
+    /// HELPERY
+
+    private void add(long userId, long songId, byte kind) {
+        if (size == users.length) {
+            int capacity = size * 2;
+            users = Arrays.copyOf(users, capacity);
+            songs = Arrays.copyOf(songs, capacity);
+            kinds = Arrays.copyOf(kinds, capacity);
+        }
+        users[size] = userId;
+        songs[size] = songId;
+        kinds[size++] = kind;
+    }
+
+    // co step-ta piosenka uzytkownika (rownomiernie po calej historii, deterministycznie) - zwraca nowa dlugosc
+    private static int sample(int[] items, float[] weights, int from, int length, int max) {
+        if (length <= max) return length;
+
+        int step = (length + max - 1) / max;
+        int kept = 0;
+        for (int i = 0; i < length; i += step) {
+            items[from + kept] = items[from + i];
+            weights[from + kept++] = weights[from + i];
+        }
+        return kept;
+    }
+
+    private static long[] distinctSorted(long[] values, int size) {
+        long[] sorted = Arrays.copyOf(values, size);
+        Arrays.sort(sorted);
+        int distinct = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) sorted[distinct++] = sorted[i];
+        }
+        return Arrays.copyOf(sorted, distinct);
+    }
+}
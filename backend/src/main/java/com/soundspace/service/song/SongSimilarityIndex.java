@@ -0,0 +1,137 @@
+package com.soundspace.service.song;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Plik z sasiadami piosenek (wynik {@link SongSimilarityBuilder}) zmapowany w pamieci tylko do odczytu - nie zajmuje
+ * heapu, a po restarcie jest od razu gotowy bez przeliczania.
+ * <p>
+ * Uklad (big-endian): naglowek [magic, songCount, neighbours, total] jako int, potem posortowane songIds (long),
+ * offsets (int, songCount + 1), neighbourIds (long, total) i scores (float, total). Sasiedzi piosenki songIds[i]
+ * to zakres offsets[i]..offsets[i + 1], malejaco po podobienstwie.
+ * <p>
+ * Nowy plik jest zapisywany obok i podmieniany przez rename - stare mapowanie dalej czyta stara wersje pliku, wiec
+ * odczyty w trakcie podmiany sa bezpieczne.
+ */
+public final class SongSimilarityIndex {
+
+    private static final int MAGIC = 0x53494D31; // "SIM1"
+    private static final int HEADER_BYTES = 4 * Integer.BYTES;
+
+    private final MappedByteBuffer buffer;
+    private final int songCount;
+    private final int total;
+    private final long offsetsAt;
+    private final long neighboursAt;
+    private final long scoresAt;
+
+    private SongSimilarityIndex(MappedByteBuffer buffer) throws IOException {
+        if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Niepoprawny plik podobieństwa piosenek");
+        }
+        this.buffer = buffer;
+        this.songCount = buffer.getInt(4);
+        this.total = buffer.getInt(12);
+        this.offsetsAt = HEADER_BYTES + (long) songCount * Long.BYTES;
+        this.neighboursAt = offsetsAt + (long) (songCount + 1) * Integer.BYTES;
+        this.scoresAt = neighboursAt + (long) total * Long.BYTES;
+        if (scoresAt + (long) total * Float.BYTES != buffer.capacity()) {
+            throw new IOException("Uszkodzony plik podobieństwa piosenek (zły rozmiar)");
+        }
+    }
+
+    public static SongSimilarityIndex open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) throw new IOException("Plik podobieństwa piosenek > 2GB: " + file);
+            // mapowanie zostaje wazne po zamknieciu kanalu
+            return new SongSimilarityIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public static void write(Table table, Path file) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(table.songIds().length);
+            out.writeInt(table.maxNeighbours());
+            out.writeInt(table.neighbourIds().length);
+            for (long songId : table.songIds()) out.writeLong(songId);
+            for (int offset : table.offsets()) out.writeInt(offset);
+            for (long neighbourId : table.neighbourIds()) out.writeLong(neighbourId);
+            for (float score : table.scores()) out.writeFloat(score);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /// sasiedzi piosenki malejaco po podobienstwie (najwyzej limit) - pusty wynik dla piosenki spoza modelu
+    public Neighbours neighbours(long songId, int limit) {
+        int index = indexOf(songId);
+        if (index < 0) return Neighbours.EMPTY;
+
+        int from = buffer.getInt((int) (offsetsAt + (long) index * Integer.BYTES));
+        int to = buffer.getInt((int) (offsetsAt + (long) (index + 1) * Integer.BYTES));
+        int n = Math.min(to - from, limit);
+
+        long[] ids = new long[n];
+        float[] scores = new float[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = buffer.getLong((int) (neighboursAt + (long) (from + i) * Long.BYTES));
+            scores[i] = buffer.getFloat((int) (scoresAt + (long) (from + i) * Float.BYTES));
+        }
+        return new Neighbours(ids, scores);
+    }
+
+    public int songCount() {
+        return songCount;
+    }
+
+    public int sizeBytes() {
+        return buffer.capacity();
+    }
+
+    /// HELPERY
+
+    // binarySearch po posortowanych songIds w pliku
+    private int indexOf(long songId) {
+        int low = 0;
+        int high = songCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midId = buffer.getLong(HEADER_BYTES + mid * Long.BYTES);
+            if (midId < songId) low = mid + 1;
+            else if (midId > songId) high = mid - 1;
+            else return mid;
+        }
+        return -1;
+    }
+
+    /**
+     * wynik budowania przed zapisem do pliku. offsets[i]..offsets[i + 1] to sasiedzi songIds[i],
+     * interactions = ilosc interakcji (po deduplikacji i probkowaniu), z ktorych policzono podobienstwa
+     */
+    public record Table(long[] songIds, int[] offsets, long[] neighbourIds, float[] scores, int interactions) {
+        int maxNeighbours() {
+            int max = 0;
+            for (int i = 0; i < songIds.length; i++) max = Math.max(max, offsets[i + 1] - offsets[i]);
+            return max;
+        }
+    }
+
+    public record Neighbours(long[] ids, float[] scores) {
+        static final Neighbours EMPTY = new Neighbours(new long[0], new float[0]);
+
+        public int size() {
+            return ids.length;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.soundspace.service.song;
+
+import com.soundspace.cache.provider.CachedSongBaseProvider;
+import com.soundspace.config.ApplicationConfigProperties;
+import com.soundspace.dto.SongBaseDto;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * "Sluchacze tez polubili" - sasiedzi piosenek z {@link SongSimilarityIndex}, uzywani przez endpoint powiazanych
+ * piosenek i jako dodatkowi kandydaci w {@link RecommendationsService}.
+ * <p>
+ * Model jest budowany w nocy z song_reactions (LIKE/FAVOURITE) i song_views zalogowanych uzytkownikow (tylko
+ * ostatnie app.views.retention.raw-days dni - starsze wyswietlenia sa juz zagregowane w song_view_daily bez
+ * uzytkownikow, wiec zmiana retencji zmienia tez ten model). Przy starcie noda
+ * otwierany jest plik z poprzedniego budowania, a jak go nie ma - model jest budowany w tle (start aplikacji na to
+ * nie czeka), a do tego czasu powiazanych piosenek po prostu nie ma.
+ */
+@Service
+@Slf4j
+public class SongSimilarityService {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final CachedSongBaseProvider cachedSongBaseProvider;
+    private final ApplicationConfigProperties.RecommendationsConfig.SimilarityConfig similarityConfig;
+    private final Path file;
+    private final Timer buildTimer;
+
+    private volatile SongSimilarityIndex index; // null dopoki nie ma pliku - wtedy brak powiazanych piosenek
+
+    public SongSimilarityService(JdbcTemplate jdbcTemplate,
+                                 CachedSongBaseProvider cachedSongBaseProvider,
+                                 ApplicationConfigProperties.RecommendationsConfig recommendationsConfig,
+                                 MeterRegistry meterRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.cachedSongBaseProvider = cachedSongBaseProvider;
+        this.similarityConfig = recommendationsConfig.similarity();
+        this.file = Path.of(similarityConfig.file());
+        this.buildTimer = Timer.builder("soundspace.recommendations.similarity.build")
+                .description("Czas budowania modelu podobienstwa piosenek")
+                .register(meterRegistry);
+        Gauge.builder("soundspace.recommendations.similarity.songs", this, service -> {
+                    SongSimilarityIndex current = service.index;
+                    return current == null ? 0 : current.songCount();
+                })
+                .description("Ilosc piosenek z sasiadami w modelu podobienstwa")
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onStartup() {
+        if (Files.exists(file)) {
+            try {
+                index = SongSimilarityIndex.open(file);
+                log.info("Otwarto model podobieństwa piosenek: {} piosenek", index.songCount());
+                return;
+            } catch (IOException e) {
+                log.warn("Nie udało się otworzyć modelu podobieństwa piosenek {}, budowanie od nowa", file, e);
+            }
+        }
+        // watek platformowy - rebuild jest synchronized i siedzi w JDBC, wirtualny przypialby nosnik na cale budowanie
+        Thread.ofPlatform().daemon().name("song-similarity-initial-build").start(this::buildIfMissing);
+    }
+
+    @Scheduled(cron = "${app.recommendations.similarity.rebuild-cron}", zone = "UTC")
+    public synchronized void rebuild() {
+        try {
+            buildTimer.record(() -> {
+                long started = System.nanoTime();
+                SongSimilarityBuilder builder = loadInteractions();
+                SongSimilarityIndex.Table table = builder.build(
+                        similarityConfig.neighbours(), similarityConfig.maxItemsPerUser(), similarityConfig.viewWeight());
+                long builtAt = System.nanoTime();
+
+                try {
+                    SongSimilarityIndex.write(table, file);
+                    index = SongSimilarityIndex.open(file);
+                } catch (IOException e) {
+                    throw new IllegalStateException("Nie udało się zapisać modelu podobieństwa piosenek: " + file, e);
+                }
+
+                log.info("Zbudowano model podobieństwa: {} interakcji, {} piosenek, {} sąsiadów, {} MB, budowanie {} ms, zapis {} ms",
+                        table.interactions(), table.songIds().length, table.neighbourIds().length,
+                        index.sizeBytes() / (1024 * 1024), (builtAt - started) / 1_000_000, (System.nanoTime() - builtAt) / 1_000_000);
+            });
+        } catch (RuntimeException e) {
+            // zostaje poprzedni model - kolejna proba przy nastepnym cronie
+            log.error("Budowanie modelu podobieństwa piosenek nie powiodło się", e);
+        }
+    }
+
+    /// sasiedzi piosenki malejaco po podobienstwie - pusty wynik jak model nie jest gotowy albo piosenki w nim nie ma
+    public SongSimilarityIndex.Neighbours neighbours(long songId, int limit) {
+        SongSimilarityIndex current = index;
+        return current == null ? SongSimilarityIndex.Neighbours.EMPTY : current.neighbours(songId, limit);
+    }
+
+    public List<SongBaseDto> getRelatedSongs(Long songId, int limit) {
+        long[] ids = neighbours(songId, Math.clamp(limit, 1, similarityConfig.neighbours())).ids();
+        if (ids.length == 0) return List.of();
+
+        // kolejnosc z modelu, piosenki ukryte/usuniete od ostatniego budowania po prostu wypadaja
+        return cachedSongBaseProvider.getPublicSongs(Arrays.stream(ids).boxed().toList());
+    }
+
+    /// HELPERY
+
+    // cron albo reczne budowanie moglo byc pierwsze - wtedy nie nadpisujemy nowszego modelu
+    private synchronized void buildIfMissing() {
+        if (index == null) rebuild();
+    }
+
+    private SongSimilarityBuilder loadInteractions() {
+        SongSimilarityBuilder builder = new SongSimilarityBuilder();
+
+        jdbcTemplate.query("""
+                        SELECT r.user_id, r.song_id
+                        FROM song_reactions r
+                        JOIN songs s ON s.id = r.song_id
+                        WHERE r.reaction_type IN ('LIKE', 'FAVOURITE') AND s.publicly_visible = true
+                        """,
+                (RowCallbackHandler) rs -> builder.addReaction(rs.getLong(1), rs.getLong(2)));
+
+        jdbcTemplate.query("""
+                        SELECT DISTINCT v.user_id, v.song_id
+                        FROM song_views v
+                        JOIN songs s ON s.id = v.song_id
+                        WHERE v.user_id IS NOT NULL AND s.publicly_visible = true
+                        """,
+                (RowCallbackHandler) rs -> builder.addView(rs.getLong(1), rs.getLong(2)));
+
+        return builder;
+    }
+}
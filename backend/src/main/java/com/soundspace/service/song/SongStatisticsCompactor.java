@@ -0,0 +1,52 @@
+package com.soundspace.service.song;
+
+import com.soundspace.config.ApplicationConfigProperties;
+import com.soundspace.repository.SongStatisticsRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Przenosi sumy z song_statistics_shards do song_statistics (tylko przy app.statistics.sharded-counters).
+ * Jeden UPDATE wiersza piosenki na przebieg zamiast jednego na kazdy flush z kazdego noda - do tego czasu odczyty
+ * przez SongAssembler i tak widza sloty, a rankingi top liked/viewed sa opoznione o compact-rate-ms.
+ */
+@Service
+@Slf4j
+public class SongStatisticsCompactor {
+
+    private final SongStatisticsRepository songStatisticsRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final ApplicationConfigProperties.StatisticsConfig statisticsConfig;
+    private final Timer compactTimer;
+
+    public SongStatisticsCompactor(SongStatisticsRepository songStatisticsRepository,
+                                   PlatformTransactionManager transactionManager,
+                                   ApplicationConfigProperties.StatisticsConfig statisticsConfig,
+                                   MeterRegistry meterRegistry) {
+        this.songStatisticsRepository = songStatisticsRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.statisticsConfig = statisticsConfig;
+        this.compactTimer = Timer.builder("soundspace.statistics.compact.duration")
+                .description("Czas przenoszenia slotow licznikow do song_statistics")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${app.statistics.compact-rate-ms}")
+    public void compact() {
+        if (statisticsConfig == null || !statisticsConfig.shardedCounters()) return;
+
+        try {
+            Integer songs = compactTimer.record(() ->
+                    transactionTemplate.execute(status -> songStatisticsRepository.compactShards()));
+            if (songs != null && songs > 0) log.debug("Przeniesiono sloty liczników dla {} piosenek", songs);
+        } catch (RuntimeException e) {
+            // sloty zostaja w bazie - kolejny przebieg przeniesie je razem z nowymi
+            log.warn("Kompaktowanie slotów liczników nie powiodło się", e);
+        }
+    }
+}
@@ -1,28 +1,27 @@
 package com.soundspace.service.song;
 
+import com.soundspace.dto.CursorPage;
 import com.soundspace.dto.SongBaseDto;
 import com.soundspace.dto.SongDtoWithDetails;
+import com.soundspace.dto.projection.SongRankedProjection;
 import com.soundspace.repository.SongRepository;
+import com.soundspace.util.CursorUtil;
 import lombok.RequiredArgsConstructor;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 
-import java.time.Instant;
+import java.util.List;
+
 @Service
 @RequiredArgsConstructor
 public class SongStatisticsService {
 
     private final SongRepository songRepository;
-
-    private static final int LIKE_WAGE_IN_TRENDING = 3;
+    private final TrendingLeaderboard trendingLeaderboard;
 
     public Page<SongBaseDto> getTrendingSongs(Pageable pageable) {
-        return songRepository.findTrendingSongs(
-                Instant.now().minusSeconds(60 * 60 * 24 * 7), //tydzien
-                pageable,
-                LIKE_WAGE_IN_TRENDING
-        ).map(SongBaseDto::toDto);
+        return trendingLeaderboard.page(pageable).map(SongBaseDto::toDto);
     }
 
     public Page<SongBaseDto> getTopLiked(Pageable pageable) {
@@ -34,4 +33,24 @@ public class SongStatisticsService {
         return songRepository.findTopViewedSongs(pageable)
                 .map(SongBaseDto::toDto);
     }
+
+    // wersje keyset - kursor to (likes, views, id) / (views, id) ostatniej piosenki strony
+    public CursorPage<SongBaseDto> getTopLikedByCursor(String cursor, Integer size) {
+        long[] after = CursorUtil.decode(cursor, 3);
+        int pageSize = CursorUtil.size(size);
+
+        List<SongRankedProjection> rows = songRepository.findTopLikedSongsAfter(after[0], after[1], after[2], pageSize + 1);
+        return CursorUtil.toCursorPage(rows, pageSize,
+                        song -> CursorUtil.encode(song.getLikesCount(), song.getViewCount(), song.getId()))
+                .map(SongBaseDto::toDto);
+    }
+
+    public CursorPage<SongBaseDto> getTopViewedByCursor(String cursor, Integer size) {
+        long[] after = CursorUtil.decode(cursor, 2);
+        int pageSize = CursorUtil.size(size);
+
+        List<SongRankedProjection> rows = songRepository.findTopViewedSongsAfter(after[0], after[1], pageSize + 1);
+        return CursorUtil.toCursorPage(rows, pageSize, song -> CursorUtil.encode(song.getViewCount(), song.getId()))
+                .map(SongBaseDto::toDto);
+    }
 }
@@ -1,90 +1,119 @@
 package com.soundspace.service.song;
 
-import com.soundspace.entity.Song;
-import com.soundspace.entity.StorageKey;
-import com.soundspace.repository.SongRepository;
+import com.soundspace.cache.provider.CachedStreamDescriptorProvider;
+import com.soundspace.config.ApplicationConfigProperties;
+import com.soundspace.dto.AudioRegion;
+import com.soundspace.dto.StreamDescriptor;
+import com.soundspace.entity.AppUser;
+import com.soundspace.repository.AppUserRepository;
 import com.soundspace.service.storage.StorageService;
+import com.soundspace.util.ETagUtil;
 import lombok.RequiredArgsConstructor;
-import org.springframework.core.io.UrlResource;
 import org.springframework.core.io.support.ResourceRegion;
 import org.springframework.http.HttpRange;
 import org.springframework.security.access.AccessDeniedException;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.NoSuchElementException;
+import java.util.Optional;
 
 @Service
 @RequiredArgsConstructor
 public class SongStreamingService {
 
-    private final SongRepository songRepository;
+    private final CachedStreamDescriptorProvider streamDescriptorProvider;
+    private final StreamChunkPolicy streamChunkPolicy;
+    private final ApplicationConfigProperties.StreamingConfig streamingConfig;
     private final StorageService storageService;
+    private final AppUserRepository appUserRepository;
+
+    /// metadane piosenki z cache + sprawdzenie dostepu. kontroler bierze stad ETag / Last-Modified
+    /// i moze odpowiedziec 304 zanim w ogole policzy zakresy
+    public StreamDescriptor getStreamDescriptor(Long songId, UserDetails userDetails) {
+        StreamDescriptor descriptor = streamDescriptorProvider.getStreamDescriptor(songId);
+        validateAccess(descriptor, userDetails);
+        return descriptor;
+    }
 
-    private static final long CHUNK_SIZE = 1024 * 1024; // 1MB
+    /**
+     * wylicza same fragmenty pliku (sciezka + zakres) bez tworzenia Resource,
+     * dzieki temu kontroler moze oddac plik do wyslania przez sendfile zamiast kopiowac go przez heap.
+     * <p>
+     * jeden zakres - rozmiar fragmentu dobiera {@link StreamChunkPolicy} po kliencie (email albo ip) i piosence.
+     * kilka zakresow (np. poczatek pliku + atom moov z konca) - wszystkie razem mieszcza sie w multiRangeMaxBytes,
+     * kontroler odda je jako multipart/byteranges w jednej odpowiedzi.
+     * <p>
+     * If-Range niepasujacy do ETag / Last-Modified = plik sie zmienil, Range jest ignorowany i leci od poczatku pliku
+     * <p>
+     * metadane (widocznosc, autor, sciezka, rozmiar, mime) ida z cache - chunk nie robi zadnego zapytania do bazy
+     */
+    public List<AudioRegion> getAudioRegions(StreamDescriptor descriptor, String rangeHeader, String ifRangeHeader,
+                                             UserDetails userDetails, String clientIp) throws IOException {
+        Long songId = descriptor.songId();
+        if (!ETagUtil.isIfRangeSatisfied(ifRangeHeader, descriptor.eTag(), descriptor.lastModified())) {
+            rangeHeader = null;
+        }
 
-    @Transactional(readOnly = true)
-    public ResourceRegion getSongRegion(Long songId, String rangeHeader, UserDetails userDetails) throws IOException {
-        Song song = songRepository.findById(songId)
-                .orElseThrow(() -> new NoSuchElementException("Piosenka nie istnieje"));
+        // obliczanie range
+        String storageKey = descriptor.storageKey();
+        long contentLength = descriptor.sizeBytes();
+        String mimeType = descriptor.mimeType();
 
-        validateAccess(song, userDetails);
+        List<HttpRange> ranges = (rangeHeader == null || rangeHeader.isBlank())
+                ? List.of()
+                : HttpRange.parseRanges(rangeHeader);
 
-        StorageKey audioKey = song.getAudioStorageKey();
-        if (audioKey == null || audioKey.getKeyStr() == null || audioKey.getKeyStr().isBlank()) {
-            throw new NoSuchElementException("Brak przypisanego pliku audio dla piosenki");
-        }
+        if (ranges.size() <= 1) {
+            String clientKey = userDetails != null ? userDetails.getUsername() : String.valueOf(clientIp);
+            long start = ranges.isEmpty() ? 0 : ranges.getFirst().getRangeStart(contentLength);
+            long end = ranges.isEmpty() ? contentLength - 1 : ranges.getFirst().getRangeEnd(contentLength);
 
-        Path path = storageService.resolvePath(audioKey.getKeyStr());
-        if (!Files.exists(path)) {
-            throw new NoSuchElementException("Plik fizyczny nie istnieje");
+            long rangeLength = streamChunkPolicy.regionLength(clientKey, songId, start, end - start + 1);
+            return List.of(new AudioRegion(storageKey, start, rangeLength, contentLength, mimeType));
         }
 
-        // obliczanie range
-        UrlResource resource = new UrlResource(path.toUri());
-        long contentLength = Files.size(path);
-
-        if (rangeHeader == null || rangeHeader.isBlank()) {
-            long rangeLength = Math.min(CHUNK_SIZE, contentLength);
-            return new ResourceRegion(resource, 0, rangeLength);
-        } else {
-            List<HttpRange> ranges = HttpRange.parseRanges(rangeHeader);
-            if (ranges.isEmpty()) {
-                long rangeLength = Math.min(CHUNK_SIZE, contentLength);
-                return new ResourceRegion(resource, 0, rangeLength);
-            }
-            HttpRange range = ranges.getFirst();
+        List<AudioRegion> regions = new ArrayList<>(ranges.size());
+        for (HttpRange range : ranges) {
             long start = range.getRangeStart(contentLength);
             long end = range.getRangeEnd(contentLength);
-            long rangeLength = Math.min(CHUNK_SIZE, end - start + 1);
-            return new ResourceRegion(resource, start, rangeLength);
+
+            long rangeLength = streamChunkPolicy.multiRangeRegionLength(end - start + 1, ranges.size(), streamingConfig.multiRangeMaxBytes());
+            regions.add(new AudioRegion(storageKey, start, rangeLength, contentLength, mimeType));
         }
+        return regions;
     }
 
-    private void validateAccess(Song song, UserDetails userDetails) {
-        if (Boolean.TRUE.equals(song.getPubliclyVisible())) {
+    // gdy nie ma pliku do sendfile. lokalny store - zwykly plik, S3 - ranged GET dokladnie na ten fragment
+    public ResourceRegion toResourceRegion(AudioRegion region) throws IOException {
+        return storageService.loadRegion(region.storageKey(), region.start(), region.length(), region.totalLength());
+    }
+
+    /// sciezka do wyslania przez sendfile - pusta gdy pliki nie leza na lokalnym dysku (S3)
+    public Optional<Path> localFile(AudioRegion region) {
+        return storageService.localPath(region.storageKey());
+    }
+
+    private void validateAccess(StreamDescriptor descriptor, UserDetails userDetails) {
+        if (descriptor.publiclyVisible()) {
             return;
         }
 
         if (userDetails == null) throw new AccessDeniedException("Brak dostępu do piosenki");
 
-        String authorEmail = song.getAuthor().getEmail();
-
-        if (!authorEmail.equals(userDetails.getUsername()) ||
+        if (!descriptor.authorId().equals(resolveUserId(userDetails)) ||
                 userDetails.getAuthorities().stream().anyMatch(
                         authority -> authority.getAuthority().equals("ROLE_ADMIN"))) {
             throw new AccessDeniedException("Brak dostępu");
         }
     }
 
-    public String getSongMimeType(Long songId) {
-        return songRepository.findById(songId)
-                .map(s -> s.getAudioStorageKey().getMimeType())
-                .orElse("application/octet-stream"); //fallback
+    // z filtra JWT przychodzi AppUser z id - zapytanie tylko dla innych implementacji UserDetails
+    private Long resolveUserId(UserDetails userDetails) {
+        if (userDetails instanceof AppUser appUser) return appUser.getId();
+        return appUserRepository.findByEmail(userDetails.getUsername()).map(AppUser::getId).orElse(null);
     }
 }
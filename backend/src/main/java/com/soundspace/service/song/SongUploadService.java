@@ -1,7 +1,6 @@
 package com.soundspace.service.song;
 
 import com.soundspace.config.ApplicationConfigProperties;
-import com.soundspace.dto.ProcessedImage;
 import com.soundspace.dto.SongStatslessDto;
 import com.soundspace.dto.request.AlbumSongUploadRequest;
 import com.soundspace.entity.Album;
@@ -14,7 +13,7 @@ import com.soundspace.repository.SongRepository;
 import com.soundspace.repository.StorageKeyRepository;
 import com.soundspace.dto.request.SongUploadRequest;
 import com.soundspace.service.AlbumService;
-import com.soundspace.service.storage.ImageService;
+import com.soundspace.service.storage.CoverProcessingQueue;
 import com.soundspace.service.storage.StorageService;
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -23,11 +22,10 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
@@ -37,11 +35,14 @@ import java.util.List;
 @Slf4j
 public class SongUploadService {
 
+    // tika do wykrycia mp4 potrzebuje tylko poczatku pliku, bufor i tak urosnie jezeli bedzie trzeba wiecej
+    private static final int MIME_SNIFF_BUFFER_BYTES = 8 * 1024;
+
     private final StorageService storage;
     private final SongRepository songRepository;
     private final StorageKeyRepository storageKeyRepository;
     private final Tika tika;
-    private final ImageService imageService;
+    private final CoverProcessingQueue coverProcessingQueue;
     private final AlbumService albumService;
     private final ApplicationConfigProperties.MediaConfig.CoverConfig coverConfig;
     private final ApplicationConfigProperties.MediaConfig.AudioConfig audioConfig;
@@ -52,28 +53,14 @@ public class SongUploadService {
         MultipartFile audioFile = request.getAudioFile();
         MultipartFile coverFile = request.getCoverFile();
 
-        Path tmpAudioPath = null;
-        Path tmpCoverPath = null;
         StorageKey audioStorageKeyEntity = null;
-        StorageKey coverStorageKeyEntity = null;
 
         try {
-            // walidacja audio i zapis do temp file
-            tmpAudioPath = validateSongFileAndSaveToTemp(audioFile);
-
-            // docelowy zapis audio
-            audioStorageKeyEntity = validateAndSaveAudioFile(tmpAudioPath, appUser);
-
-            if(coverFile == null || coverFile.isEmpty()){
-                coverStorageKeyEntity = storageKeyRepository.getReferenceById(coverConfig.defaultCoverId());
+            // walidacja i zapis audio prosto do storage
+            audioStorageKeyEntity = validateAndSaveAudioFile(audioFile, appUser);
 
-            } else {
-                // resize, convert i zapis cover image do temp file
-                tmpCoverPath = processCoverAndSaveToTemp(coverFile);
-
-                // docelowy zapis cover image
-                coverStorageKeyEntity = processAndSaveCoverFile(tmpCoverPath, appUser);
-            }
+            // okladka jest skalowana w tle - do tego czasu piosenka ma domyslna
+            StorageKey coverStorageKeyEntity = storageKeyRepository.getReferenceById(coverConfig.defaultCoverId());
 
             Song s = validateAndBuildSong(
                     request,
@@ -83,22 +70,23 @@ public class SongUploadService {
             );
 
             Song saved = songRepository.save(s);
+
+            if (coverFile != null && !coverFile.isEmpty()) {
+                coverProcessingQueue.submit(CoverProcessingQueue.Target.SONG, saved.getId(), coverConfig.defaultCoverId(),
+                        coverFile, appUser.getId(), coverConfig.songDirectory());
+            }
+
             return SongStatslessDto.toDto(saved);
 
         } catch (Exception e) {
             log.error("Błąd I/O podczas uploadu pliku", e);
 
             rollbackStorage(audioStorageKeyEntity);
-            rollbackStorage(coverStorageKeyEntity);
 
             if (e instanceof IOException) {
                 throw new SongUploadException("Błąd I/O podczas uploadu pliku", e);
             }
             throw (RuntimeException) e;
-
-        } finally {
-            tryDeleteTempFile(tmpAudioPath);
-            tryDeleteTempFile(tmpCoverPath);
         }
     }
 
@@ -107,15 +95,11 @@ public class SongUploadService {
     public SongStatslessDto upload(Long albumId, AlbumSongUploadRequest request, AppUser appUser) {
         MultipartFile audioFile = request.getAudioFile();
 
-        Path tmpAudioPath = null;
         StorageKey audioStorageKeyEntity = null;
 
         try {
-            // walidacja audio i zapis do temp file
-            tmpAudioPath = validateSongFileAndSaveToTemp(audioFile);
-
-            // docelowy zapis audio
-            audioStorageKeyEntity = validateAndSaveAudioFile(tmpAudioPath, appUser);
+            // walidacja i zapis audio prosto do storage
+            audioStorageKeyEntity = validateAndSaveAudioFile(audioFile, appUser);
 
             Song s = validateAndBuildSong(
                     albumId,
@@ -136,9 +120,6 @@ public class SongUploadService {
             }
 
             throw (RuntimeException) e;
-
-        } finally {
-            tryDeleteTempFile(tmpAudioPath);
         }
     }
 
@@ -187,16 +168,25 @@ public class SongUploadService {
         return s;
     }
 
-    private Path processCoverAndSaveToTemp(MultipartFile coverFile) throws IOException {
-        ProcessedImage processedCover =
-                imageService.resizeImageAndConvert(coverFile, coverConfig.width(), coverConfig.height(), coverConfig.targetExtension(), coverConfig.quality());
+    // tika czyta tylko poczatek pliku i robi reset() - strumien musi wspierac mark (BufferedInputStream)
+    private String detectAndValidateAudioFileMimeType(InputStream markableIn) throws IOException {
+        String detected = tika.detect(markableIn);
+        boolean okDetected = detected != null && detected.startsWith("audio") &&
+                (detected.contains("mp4") || detected.contains("m4a") ||
+                        detected.equalsIgnoreCase("audio/mp4")); // tylko .m4a
 
-        Path tmpCoverPath = Files.createTempFile("cover-", "." + coverConfig.targetExtension());
-        Files.write(tmpCoverPath, processedCover.bytes());
-        return tmpCoverPath;
+        if (!okDetected) {
+            throw new IllegalArgumentException("Niespójna zawartość pliku");
+        }
+        return detected;
     }
 
-    private Path validateSongFileAndSaveToTemp(MultipartFile file) throws IOException {
+    /**
+     * upload w jednym przejsciu, bez temp file: multipart -> limit rozmiaru -> sniffing mime na poczatku pliku
+     * (mark/reset w buforze) -> SHA-256 -> docelowy klucz w storage. zla zawartosc odpada zanim cokolwiek
+     * trafi do storage, a przerwany zapis sprzata StorageService
+     */
+    private StorageKey validateAndSaveAudioFile(MultipartFile file, AppUser appUser) throws IOException {
         if (file == null || file.isEmpty()) {
             throw new IllegalArgumentException("Brak pliku w żądaniu");
         }
@@ -205,85 +195,55 @@ public class SongUploadService {
             throw new IllegalArgumentException("Plik jest za duży");
         }
 
-        Path tmp = Files.createTempFile("audio-", "." + audioConfig.targetExtension() /* i tak service wpuszcza tylko .m4a */);
+        try (InputStream in = new BufferedInputStream(new SizeLimitedInputStream(file.getInputStream(), audioConfig.uploadMaxBytes()), MIME_SNIFF_BUFFER_BYTES)) {
+            String audioFileMimeType = detectAndValidateAudioFileMimeType(in);
 
-        try (InputStream in = file.getInputStream()) {
-            Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+            // docelowy zapis audio + StorageKey dla audio
+            StorageKey audioStorageKeyEntity = storage.store(in, file.getSize(), appUser.getId(),
+                    audioConfig.targetExtension() /* i tak service wpuszcza tylko .m4a */, audioConfig.targetDirectory(), audioFileMimeType);
+            log.info("Zapisano plik: audioStorageKey={}", audioStorageKeyEntity.getKeyStr());
+            return audioStorageKeyEntity;
         }
-
-        return tmp;
-    }
-
-    private String detectAndValidateAudioFileMimeType(Path tmp) throws IOException {
-        String detected = tika.detect(tmp.toFile());
-        boolean okDetected = detected != null && detected.startsWith("audio") &&
-                (detected.contains("mp4") || detected.contains("m4a") ||
-                        detected.equalsIgnoreCase("audio/mp4")); // tylko .m4a
-
-        if (!okDetected) {
-            throw new IllegalArgumentException("Niespójna zawartość pliku");
-        }
-        return detected;
-    }
-
-    private StorageKey validateAndSaveAudioFile(Path tmpAudioPath, AppUser appUser) throws IOException {
-        // walidacja audio i zapis do temp file
-        String audioFileMimeType = detectAndValidateAudioFileMimeType(tmpAudioPath);
-        long audioFileSize = Files.size(tmpAudioPath);
-
-        // docelowy zapis audio
-        String audioStorageKey = storage.saveFromPath(tmpAudioPath, appUser.getId(), audioConfig.targetExtension(), audioConfig.targetDirectory());
-        log.info("Zapisano plik: audioStorageKey={}", audioStorageKey);
-
-        // StorageKey dla audio
-        StorageKey audioStorageKeyEntity = new StorageKey();
-        audioStorageKeyEntity.setKeyStr(audioStorageKey);
-        audioStorageKeyEntity.setMimeType(audioFileMimeType);
-        audioStorageKeyEntity.setSizeBytes(audioFileSize);
-        audioStorageKeyEntity = storageKeyRepository.save(audioStorageKeyEntity);
-        return audioStorageKeyEntity;
-    }
-
-    private StorageKey processAndSaveCoverFile(Path tmpCoverPath, AppUser appUser) throws IOException {
-        // resize i convert cover image i zapis do temp file
-        String coverFileMimeType = tika.detect(tmpCoverPath.toFile());
-        long coverFileSize = Files.size(tmpCoverPath);
-
-        // docelowy zapis cove
-        String coverStorageKey = storage.saveFromPath(tmpCoverPath, appUser.getId(), coverConfig.targetExtension(), coverConfig.songDirectory());
-        log.info("Zapisano plik: coverStorageKey={}", coverStorageKey);
-
-        // StorageKey dla cover
-        StorageKey coverStorageKeyEntity = new StorageKey();
-        coverStorageKeyEntity.setKeyStr(coverStorageKey);
-        coverStorageKeyEntity.setMimeType(coverFileMimeType);
-        coverStorageKeyEntity.setSizeBytes(coverFileSize);
-        coverStorageKeyEntity = storageKeyRepository.save(coverStorageKeyEntity);
-        return coverStorageKeyEntity;
     }
 
     private void rollbackStorage(StorageKey... keys) {
         for (StorageKey keyEntity : keys) {
             if (keyEntity == null) continue;
             try {
-                storage.delete(keyEntity.getKeyStr());
+                storage.release(keyEntity);
             } catch (Exception ex) {
                 log.warn("Nie udało się usunąć pliku ze storage podczas rollbacku: {}", keyEntity.getKeyStr(), ex);
             }
-            try {
-                storageKeyRepository.delete(keyEntity);
-            } catch (Exception ex) {
-                log.warn("Nie udało się usunąć wpisu StorageKey podczas rollbacku", ex);
-            }
         }
     }
 
-    private void tryDeleteTempFile(Path tmpPath) {
-        try {
-            if (tmpPath != null) Files.deleteIfExists(tmpPath);
+    // multipart moze miec wiecej bajtow niz deklaruje getSize() - limit pilnowany tez w trakcie czytania
+    private static class SizeLimitedInputStream extends FilterInputStream {
+        private final long limit;
+        private long count;
+
+        SizeLimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) checkLimit(1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) checkLimit(n);
+            return n;
+        }
 
-        } catch (IOException e) {
-            log.warn("Nie udało się usunąć pliku tymczasowego", e);
+        private void checkLimit(long n) {
+            count += n;
+            if (count > limit) throw new IllegalArgumentException("Plik jest za duży");
         }
     }
 
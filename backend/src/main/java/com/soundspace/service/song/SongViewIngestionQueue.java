@@ -0,0 +1,166 @@
+package com.soundspace.service.song;
+
+import com.soundspace.config.ApplicationConfigProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Kolejka zapisu historii wyswietlen (song_views). registerView tylko wrzuca zdarzenie do ograniczonej kolejki,
+ * a jeden watek w tle zapisuje je paczkami jednym wielowierszowym INSERT - SongView ma IDENTITY, wiec Hibernate
+ * i tak nie umialby tego zbatchowac.
+ * <p>
+ * Przy pelnej kolejce zgloszenie czeka najwyzej offerTimeoutMs, potem zdarzenie jest odrzucane i liczone
+ * (licznik wyswietlen piosenki i tak rosnie - ginie tylko wiersz historii).
+ * <p>
+ * Kolejka jest tylko w pamieci. Przy normalnym zamknieciu {@link #shutdown()} zapisuje wszystko, co w niej zostalo,
+ * ale po crashu procesu (kill -9, OOM) wiersze historii z kolejki (najwyzej queueCapacity) przepadaja. Liczniki
+ * wyswietlen to nie dotyczy - te ida przez dziennik ViewBufferingService.
+ */
+@Service
+@Slf4j
+public class SongViewIngestionQueue {
+
+    private static final String INSERT_PREFIX = "INSERT INTO song_views (song_id, user_id, ip_address, viewed_at) VALUES ";
+    private static final String ROW = "(?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ApplicationConfigProperties.ViewsConfig.IngestionConfig ingestionConfig;
+    private final BlockingQueue<ViewEvent> queue;
+    private final Thread writer;
+    private final String fullBatchSql;
+    private volatile boolean running = true;
+
+    private final Counter droppedCounter;
+    private final Counter writtenCounter;
+
+    public SongViewIngestionQueue(JdbcTemplate jdbcTemplate,
+                                  ApplicationConfigProperties.ViewsConfig viewsConfig,
+                                  MeterRegistry meterRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.ingestionConfig = viewsConfig.ingestion();
+        this.queue = new ArrayBlockingQueue<>(ingestionConfig.queueCapacity());
+        this.fullBatchSql = insertSql(ingestionConfig.batchSize());
+
+        Gauge.builder("soundspace.views.ingestion.queue.depth", queue, BlockingQueue::size)
+                .description("Ilosc wyswietlen czekajacych na zapis do song_views")
+                .register(meterRegistry);
+        this.droppedCounter = Counter.builder("soundspace.views.ingestion.dropped")
+                .description("Wyswietlenia, ktore nie trafily do song_views (pelna kolejka albo blad zapisu)")
+                .register(meterRegistry);
+        this.writtenCounter = Counter.builder("soundspace.views.ingestion.written")
+                .description("Wyswietlenia zapisane do song_views")
+                .register(meterRegistry);
+
+        this.writer = new Thread(this::run, "song-view-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /// false gdy kolejka byla pelna przez caly offerTimeoutMs i zdarzenie zostalo odrzucone
+    public boolean enqueue(Long songId, Long userId, String ipAddress) {
+        ViewEvent event = new ViewEvent(songId, userId, ipAddress, Instant.now());
+        try {
+            if (queue.offer(event, ingestionConfig.offerTimeoutMs(), TimeUnit.MILLISECONDS)) return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        droppedCounter.increment();
+        return false;
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        // zapis tego, co zostalo w kolejce, zanim zamknie sie pula polaczen. bez interrupt - przerwany watek w srodku zapisu JDBC potrafi zepsuc polaczenie z puli,
+        // writer sam konczy po oproznieniu kolejki (najpozniej po sekundzie czekania na poll)
+        running = false;
+        writer.join(TimeUnit.SECONDS.toMillis(10));
+    }
+
+    /// HELPERY
+
+    private void run() {
+        List<ViewEvent> batch = new ArrayList<>(ingestionConfig.batchSize());
+        while (running || !queue.isEmpty()) {
+            try {
+                ViewEvent first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                queue.drainTo(batch, ingestionConfig.batchSize() - 1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            if (!batch.isEmpty()) {
+                write(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void write(List<ViewEvent> batch) {
+        try {
+            String sql = batch.size() == ingestionConfig.batchSize() ? fullBatchSql : insertSql(batch.size());
+            jdbcTemplate.update(sql, statement -> {
+                int index = 1;
+                for (ViewEvent event : batch) index = bind(statement, index, event);
+            });
+            writtenCounter.increment(batch.size());
+        } catch (DataAccessException e) {
+            // np. piosenka usunieta zanim paczka poszla do bazy - jeden zly wiersz nie moze zabrac calej paczki
+            log.warn("Zapis paczki wyświetleń nie powiódł się, zapis pojedynczo: {}", e.getMessage());
+            batch.forEach(this::writeSingle);
+        } catch (RuntimeException e) {
+            log.error("Błąd zapisu paczki wyświetleń, odrzucono {} wyświetleń", batch.size(), e);
+            droppedCounter.increment(batch.size());
+        }
+    }
+
+    private void writeSingle(ViewEvent event) {
+        try {
+            jdbcTemplate.update(insertSql(1), statement -> bind(statement, 1, event));
+            writtenCounter.increment();
+        } catch (DataAccessException e) {
+            log.debug("Odrzucono wyświetlenie: songId={}", event.songId(), e);
+            droppedCounter.increment();
+        }
+    }
+
+    private static int bind(PreparedStatement statement, int index, ViewEvent event) throws SQLException {
+        statement.setLong(index++, event.songId());
+        if (event.userId() != null) statement.setLong(index++, event.userId());
+        else statement.setNull(index++, Types.BIGINT);
+        statement.setString(index++, event.ipAddress());
+        // bez Calendar - w strefie JVM, tak samo jak Hibernate zapisuje Instant do kolumny bez strefy
+        statement.setTimestamp(index++, Timestamp.from(event.viewedAt()));
+        return index;
+    }
+
+    private static String insertSql(int rows) {
+        StringBuilder sql = new StringBuilder(INSERT_PREFIX.length() + rows * (ROW.length() + 2)).append(INSERT_PREFIX);
+        for (int i = 0; i < rows; i++) {
+            if (i > 0) sql.append(", ");
+            sql.append(ROW);
+        }
+        return sql.toString();
+    }
+
+    private record ViewEvent(Long songId, Long userId, String ipAddress, Instant viewedAt) {}
+}
@@ -0,0 +1,237 @@
+package com.soundspace.service.song;
+
+import com.soundspace.config.ApplicationConfigProperties;
+import com.soundspace.repository.SongViewDailyRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Utrzymanie song_views: surowe wiersze sa potrzebne tylko do cooldownu i do dni, ktorych jeszcze nie ma w agregacie.
+ * <p>
+ * Codziennie (i przy starcie):
+ * <ul>
+ *     <li>zakonczone dni z ostatnich rollupLookbackDays sa przeliczane do song_view_daily (od nowa, wiec spoznione
+ *     wiersze z kolejki zapisu tez wchodza),</li>
+ *     <li>dni starsze niz rawDays sa agregowane ostatni raz i usuwane - na PostgreSQL przez DETACH PARTITION
+ *     CONCURRENTLY i DROP calej partycji (bez vacuum, bez puchnacych indeksow i bez blokowania zapisow do song_views),
+ *     na innych bazach zwyklym DELETE,</li>
+ *     <li>na PostgreSQL dokladane sa partycje na partitionsAhead dni w przod.</li>
+ * </ul>
+ * song_views nie ma partycji DEFAULT (V34) - CONCURRENTLY jej nie dopuszcza, a wiersze w niej blokowalyby tworzenie
+ * partycji na ich dzien. Wiersz spoza utworzonych partycji jest odrzucany przy zapisie, dlatego gauge
+ * soundspace.views.partitions.ahead pokazuje na ile dni w przod sa partycje (0 = alert).
+ * <p>
+ * rawDays to tez okno wyswietlen, z ktorego SongSimilarityService buduje model "sluchacze tez polubili" - skrocenie
+ * retencji zmniejsza wage wyswietlen w tym modelu.
+ * <p>
+ * Dni liczone w strefie JVM - w niej Hibernate i SongViewIngestionQueue zapisuja viewed_at do kolumny bez strefy.
+ */
+@Service
+@Slf4j
+public class SongViewMaintenanceService {
+
+    private static final String PARTITION_PREFIX = "song_views_p";
+    private static final DateTimeFormatter PARTITION_DATE = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+    // DDL partycji skladane tylko przez partitionDdl z LocalDate
+    private static final String CREATE_PARTITION =
+            "CREATE TABLE IF NOT EXISTS {partition} PARTITION OF song_views FOR VALUES FROM ('{from}') TO ('{to}')";
+    private static final String DETACH_PARTITION = "ALTER TABLE song_views DETACH PARTITION {partition} CONCURRENTLY";
+    private static final String FINALIZE_DETACH = "ALTER TABLE song_views DETACH PARTITION {partition} FINALIZE";
+    private static final String DROP_PARTITION = "DROP TABLE IF EXISTS {partition}";
+
+    private final SongViewDailyRepository songViewDailyRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ApplicationConfigProperties.ViewsConfig.RetentionConfig retentionConfig;
+    private final Clock clock = Clock.systemDefaultZone();
+    private final AtomicInteger partitionsAhead = new AtomicInteger(-1); // -1 = nie sprawdzane (nie PostgreSQL)
+    private volatile Boolean postgres;
+
+    public SongViewMaintenanceService(SongViewDailyRepository songViewDailyRepository,
+                                      JdbcTemplate jdbcTemplate,
+                                      PlatformTransactionManager transactionManager,
+                                      ApplicationConfigProperties.ViewsConfig viewsConfig,
+                                      MeterRegistry meterRegistry) {
+        this.songViewDailyRepository = songViewDailyRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.retentionConfig = viewsConfig.retention();
+
+        // przeliczenie dnia zaczyna sie od usuniecia jego agregatu - dzien bez surowych wierszy stracilby wyswietlenia
+        if (retentionConfig.rollupLookbackDays() > retentionConfig.rawDays()) {
+            throw new IllegalStateException("app.views.retention.rollup-lookback-days (" + retentionConfig.rollupLookbackDays()
+                    + ") nie może być większe niż raw-days (" + retentionConfig.rawDays() + ")");
+        }
+
+        Gauge.builder("soundspace.views.partitions.ahead", partitionsAhead, AtomicInteger::get)
+                .description("Na ile kolejnych dni (od dzisiaj) sa partycje song_views")
+                .register(meterRegistry);
+    }
+
+    // po dluzszym postoju aplikacji partycji na dzisiaj moglo nie byc - bez niej wyswietlenia nie trafilyby do song_views
+    @EventListener(ApplicationReadyEvent.class)
+    public void onStartup() {
+        maintain();
+    }
+
+    @Scheduled(cron = "${app.views.retention.maintenance-cron}")
+    public void maintain() {
+        LocalDate today = LocalDate.now(clock);
+
+        try {
+            if (isPostgres()) {
+                createPartitions(today);
+                checkPartitionsAhead(today);
+            }
+
+            for (int i = retentionConfig.rollupLookbackDays(); i >= 1; i--)
+                rollUp(today.minusDays(i));
+
+            dropExpired(today.minusDays(retentionConfig.rawDays()));
+        } catch (RuntimeException e) {
+            log.error("Błąd podczas utrzymania tabeli song_views", e);
+        }
+    }
+
+    /// HELPERY
+
+    private void rollUp(LocalDate day) {
+        transactionTemplate.executeWithoutResult(status -> rollUpInTransaction(day));
+    }
+
+    private int rollUpInTransaction(LocalDate day) {
+        songViewDailyRepository.deleteDay(day);
+        return songViewDailyRepository.rollUpDay(day, startOf(day), startOf(day.plusDays(1)));
+    }
+
+    private void dropExpired(LocalDate cutoff) {
+        if (isPostgres()) {
+            for (Partition partition : partitions()) {
+                if (partition.day().isBefore(cutoff)) dropPartition(partition);
+            }
+            return;
+        }
+
+        // viewed_at to czas w strefie JVM bez strefy, wiec granice dni porownujemy na LocalDateTime
+        LocalDateTime oldest = jdbcTemplate.queryForObject("SELECT MIN(viewed_at) FROM song_views", LocalDateTime.class);
+        if (oldest == null) return;
+
+        for (LocalDate day = oldest.toLocalDate(); day.isBefore(cutoff); day = day.plusDays(1)) {
+            LocalDate expiredDay = day;
+            transactionTemplate.executeWithoutResult(status -> {
+                rollUpInTransaction(expiredDay);
+                jdbcTemplate.update("DELETE FROM song_views WHERE viewed_at >= ? AND viewed_at < ?",
+                        expiredDay.atStartOfDay(), expiredDay.plusDays(1).atStartOfDay());
+            });
+        }
+    }
+
+    /**
+     * agregat zapisany przed odpieciem partycji - dzien nigdy nie znika z obu miejsc naraz. DETACH CONCURRENTLY nie moze
+     * isc w transakcji; przerwany zostawia partycje "detach pending" (juz niewidoczna w song_views), ktora przy
+     * kolejnym przebiegu konczy FINALIZE bez ponownego agregowania. partycja odpieta, ale nieusunieta (crash przed
+     * DROP) jest juz zagregowana, wiec zostaje tylko DROP
+     */
+    private void dropPartition(Partition partition) {
+        LocalDate day = partition.day();
+        if (partition.attached() && !partition.detachPending()) {
+            int songs = transactionTemplate.execute(status -> rollUpInTransaction(day));
+            log.info("Zagregowano partycję wyświetleń {} ({} piosenek)", day, songs);
+        }
+        if (partition.attached()) {
+            jdbcTemplate.execute(partitionDdl(partition.detachPending() ? FINALIZE_DETACH : DETACH_PARTITION, day));
+        }
+        jdbcTemplate.execute(partitionDdl(DROP_PARTITION, day));
+        log.info("Usunięto partycję wyświetleń {}", day);
+    }
+
+    private void createPartitions(LocalDate today) {
+        for (int i = 0; i <= retentionConfig.partitionsAhead(); i++) {
+            jdbcTemplate.execute(partitionDdl(CREATE_PARTITION, today.plusDays(i)));
+        }
+    }
+
+    private void checkPartitionsAhead(LocalDate today) {
+        Set<LocalDate> attached = partitions().stream()
+                .filter(partition -> partition.attached() && !partition.detachPending())
+                .map(Partition::day)
+                .collect(Collectors.toSet());
+
+        int days = 0;
+        while (attached.contains(today.plusDays(days))) days++;
+        partitionsAhead.set(days);
+
+        if (days <= retentionConfig.partitionsAhead()) {
+            log.error("Partycje song_views są tylko na {} dni od dzisiaj (oczekiwano {}) - wyświetlenia z brakujących dni nie zostaną zapisane",
+                    days, retentionConfig.partitionsAhead() + 1);
+        }
+    }
+
+    // partycje (podpiete i odpiete, ale jeszcze nieusuniete) - nazwa z katalogu jest tylko parsowana do daty
+    private List<Partition> partitions() {
+        List<Partition> partitions = new ArrayList<>();
+        jdbcTemplate.query("""
+                        SELECT c.relname, i.inhrelid IS NOT NULL, COALESCE(i.inhdetachpending, false)
+                        FROM pg_class c
+                        LEFT JOIN pg_inherits i ON i.inhrelid = c.oid AND i.inhparent = 'song_views'::regclass
+                        WHERE c.relkind = 'r' AND c.relname LIKE 'song\\_views\\_p%' AND pg_table_is_visible(c.oid)
+                        """,
+                (RowCallbackHandler) rs -> {
+                    String name = rs.getString(1);
+                    try {
+                        LocalDate day = LocalDate.parse(name.substring(PARTITION_PREFIX.length()), PARTITION_DATE);
+                        partitions.add(new Partition(day, rs.getBoolean(2), rs.getBoolean(3)));
+                    } catch (DateTimeParseException e) {
+                        log.warn("Pominięto tabelę o nazwie partycji wyświetleń bez daty: {}", name);
+                    }
+                });
+        partitions.sort(Comparator.comparing(Partition::day));
+        return partitions;
+    }
+
+    private static String partitionDdl(String statement, LocalDate day) {
+        return statement
+                .replace("{partition}", PARTITION_PREFIX + PARTITION_DATE.format(day))
+                .replace("{from}", DateTimeFormatter.ISO_LOCAL_DATE.format(day))
+                .replace("{to}", DateTimeFormatter.ISO_LOCAL_DATE.format(day.plusDays(1)));
+    }
+
+    private static Instant startOf(LocalDate day) {
+        return day.atStartOfDay(ZoneId.systemDefault()).toInstant();
+    }
+
+    private record Partition(LocalDate day, boolean attached, boolean detachPending) {}
+
+    private boolean isPostgres() {
+        if (postgres == null) {
+            postgres = Boolean.TRUE.equals(jdbcTemplate.execute((ConnectionCallback<Boolean>) connection ->
+                    "PostgreSQL".equalsIgnoreCase(connection.getMetaData().getDatabaseProductName())));
+        }
+        return postgres;
+    }
+}
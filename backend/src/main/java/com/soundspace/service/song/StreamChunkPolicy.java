@@ -0,0 +1,86 @@
+package com.soundspace.service.song;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.soundspace.config.ApplicationConfigProperties;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+
+/**
+ * Dobiera rozmiar chunka dla range requestow streamingu.
+ * Pierwszy request danego klienta do piosenki (zwykle probe naglowkow) i kazdy seek dostaja {@code initialChunkBytes},
+ * a kazdy kolejny sekwencyjny request (start = koniec poprzedniego) dostaje 2x wiecej, az do {@code maxChunkBytes}.
+ */
+@Service
+public class StreamChunkPolicy {
+
+    private final ApplicationConfigProperties.StreamingConfig streamingConfig;
+    private final DistributionSummary regionSizeSummary;
+    private final DistributionSummary requestsPerPlaybackSummary;
+
+    // (key: klient + songId, value: stan odtwarzania) - wygasa po playbackIdleSeconds bez requestu
+    private final Cache<String, Playback> playbacks;
+
+    public StreamChunkPolicy(ApplicationConfigProperties.StreamingConfig streamingConfig, MeterRegistry meterRegistry) {
+        this.streamingConfig = streamingConfig;
+
+        this.regionSizeSummary = DistributionSummary.builder("soundspace.stream.region.size")
+                .description("Rozmiar fragmentu audio wyslanego w jednym range requescie")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+
+        this.requestsPerPlaybackSummary = DistributionSummary.builder("soundspace.stream.requests.per.playback")
+                .description("Ilosc range requestow na jedno odtworzenie piosenki")
+                .register(meterRegistry);
+
+        this.playbacks = Caffeine.newBuilder()
+                .expireAfterAccess(Duration.ofSeconds(streamingConfig.playbackIdleSeconds()))
+                .maximumSize(100_000)
+                .removalListener((String key, Playback playback, RemovalCause cause) -> {
+                    if (playback != null && cause.wasEvicted()) requestsPerPlaybackSummary.record(playback.requests());
+                })
+                .build();
+    }
+
+    /**
+     * zwraca ile bajtow wyslac od {@code start}, nigdy wiecej niz {@code requestedLength}
+     * (czyli to o co prosil klient, przyciete do konca pliku)
+     */
+    public long regionLength(String clientKey, Long songId, long start, long requestedLength) {
+        Playback playback = playbacks.asMap().compute(clientKey + ":" + songId, (key, previous) -> {
+            long chunkSize = nextChunkSize(previous, start);
+            long length = Math.min(chunkSize, requestedLength);
+            int requests = previous == null ? 1 : previous.requests() + 1;
+            return new Playback(start + length, chunkSize, length, requests);
+        });
+
+        regionSizeSummary.record(playback.lastLength());
+        return playback.lastLength();
+    }
+
+    /**
+     * dla requestow z kilkoma zakresami - kazdy zakres dostaje rowna czesc z {@code totalBudget},
+     * nie rusza stanu odtwarzania (to zwykle jednorazowe doczytanie naglowkow przy starcie utworu)
+     */
+    public long multiRangeRegionLength(long requestedLength, int rangesCount, long totalBudget) {
+        long length = Math.min(requestedLength, Math.max(totalBudget / rangesCount, 1));
+        regionSizeSummary.record(length);
+        return length;
+    }
+
+    /// HELPERY
+
+    private long nextChunkSize(Playback previous, long start) {
+        // pierwszy request albo seek
+        if (previous == null || previous.nextStart() != start) return streamingConfig.initialChunkBytes();
+
+        // sekwencyjne czytanie - rosnie 2x
+        return Math.min(previous.chunkSize() * 2, streamingConfig.maxChunkBytes());
+    }
+
+    private record Playback(long nextStart, long chunkSize, long lastLength, int requests) {}
+}
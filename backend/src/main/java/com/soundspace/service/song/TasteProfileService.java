@@ -0,0 +1,246 @@
+package com.soundspace.service.song;
+
+import com.soundspace.dto.projection.RecommendationsSongProjection;
+import com.soundspace.entity.Song;
+import com.soundspace.entity.UserTasteProfile;
+import com.soundspace.enums.Genre;
+import com.soundspace.enums.ReactionType;
+import com.soundspace.repository.AppUserRepository;
+import com.soundspace.repository.SongRepository;
+import com.soundspace.repository.UserTasteProfileRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Profil gustu uzytkownika (tabela user_taste_profiles) dla {@link RecommendationsService}.
+ * <p>
+ * Reakcje zmieniaja profil o roznice wag miedzy stanem reakcji uzytkownika na piosence przed i po zmianie (wagi
+ * gatunkow piosenki + waga autora + total mass), po commicie reakcji i we wlasnej transakcji. Oba stany podaje
+ * ReactionService z transakcji reakcji - bez ponownego czytania song_reactions, ktore po commicie moze juz zawierac
+ * kolejne zmiany. Profil budowany jest z calej historii reakcji tylko przy pierwszym uzyciu i co
+ * {@link #MAX_AGE} (zeruje dryf po usunietych piosenkach, zmianie gatunkow i obcietych autorach).
+ * <p>
+ * Budowanie i zmiany blokuja wiersz uzytkownika, wiec reakcja zacommitowana w trakcie budowania albo juz jest
+ * w historii, albo jej zmiana trafia do gotowego profilu - nigdy oba naraz i nigdy zadne.
+ */
+@Service
+@Slf4j
+public class TasteProfileService {
+
+    // wagi po ktorych przeliczane jest 'znaczenie' danych gatunkow i autorow
+    // default 1.0 dla like
+    // default 1.0 ustawia wage dislike tak, że dislike kasuje like (1:1)
+    // default 1.5 robi ze favourite jest troche silniejszy niz like
+    private static final double W_LIKE = 1.0;
+    private static final double W_DISLIKE = 1.0;
+    private static final double W_FAVOURITE = 1.5;
+
+    // ilu autorow trzyma profil (po |wadze|) - reszta i tak prawie nie wplywa na score
+    private static final int MAX_AUTHORS = 200;
+    private static final Duration MAX_AGE = Duration.ofDays(7);
+    private static final double EPSILON = 1e-9;
+
+    private final UserTasteProfileRepository userTasteProfileRepository;
+    private final AppUserRepository appUserRepository;
+    private final SongRepository songRepository;
+    private final TransactionTemplate newTransaction;
+
+    public TasteProfileService(UserTasteProfileRepository userTasteProfileRepository,
+                               AppUserRepository appUserRepository,
+                               SongRepository songRepository,
+                               PlatformTransactionManager transactionManager) {
+        this.userTasteProfileRepository = userTasteProfileRepository;
+        this.appUserRepository = appUserRepository;
+        this.songRepository = songRepository;
+        this.newTransaction = new TransactionTemplate(transactionManager);
+        this.newTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /// znormalizowane (podzielone przez total mass) wagi do scoringu - pusty profil = cold start
+    @Transactional
+    public TasteProfile getProfile(Long userId) {
+        UserTasteProfile profile = userTasteProfileRepository.findById(userId)
+                .filter(p -> p.getBuiltAt().plus(MAX_AGE).isAfter(Instant.now()))
+                .orElseGet(() -> rebuild(userId));
+
+        if (profile.getTotalMass() <= EPSILON) return TasteProfile.EMPTY;
+
+        double mass = profile.getTotalMass();
+        return new TasteProfile(
+                normalize(profile.getGenreWeights(), mass),
+                normalize(profile.getAuthorWeights(), mass));
+    }
+
+    /// zmiana reakcji uzytkownika na piosence - profil zmieni sie po commicie transakcji reakcji
+    public void reactionChanged(Long userId, Long songId, ReactionState before, ReactionState after) {
+        if (before.equals(after)) return;
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            newTransaction.executeWithoutResult(status -> applyReaction(userId, songId, before, after));
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                try {
+                    newTransaction.executeWithoutResult(status -> applyReaction(userId, songId, before, after));
+                } catch (RuntimeException e) {
+                    // reakcja jest juz zapisana - profil dogoni ja przy najblizszym przebudowaniu
+                    log.warn("Nie udało się zaktualizować profilu gustu: userId={}, songId={}", userId, songId, e);
+                }
+            }
+        });
+    }
+
+    /// przyrostowa zmiana profilu o roznice wag stanu reakcji na piosence (before -> after)
+    @Transactional
+    public void applyReaction(Long userId, Long songId, ReactionState before, ReactionState after) {
+        double weight = weight(after) - weight(before);
+        double mass = mass(after) - mass(before);
+        if (weight == 0.0 && mass == 0.0) return;
+
+        appUserRepository.lockById(userId);
+
+        // brak profilu - zbuduje sie z historii (juz z ta reakcja) przy pierwszych rekomendacjach
+        Optional<UserTasteProfile> profileOpt = userTasteProfileRepository.findById(userId);
+        if (profileOpt.isEmpty()) return;
+
+        Optional<Song> songOpt = songRepository.findById(songId);
+        if (songOpt.isEmpty()) return;
+        Song song = songOpt.get();
+
+        UserTasteProfile profile = profileOpt.get();
+        Map<Genre, Double> genres = new HashMap<>(profile.getGenreWeights());
+        Map<Long, Double> authors = new HashMap<>(profile.getAuthorWeights());
+
+        addSong(genres, authors, song.getGenres(), song.getAuthor().getId(), weight);
+        profile.setGenreWeights(dropZeros(genres));
+        profile.setAuthorWeights(topAuthors(dropZeros(authors)));
+        profile.setTotalMass(Math.max(0.0, profile.getTotalMass() + mass));
+        profile.setUpdatedAt(Instant.now());
+    }
+
+    /// HELPERY
+
+    private UserTasteProfile rebuild(Long userId) {
+        appUserRepository.lockById(userId);
+
+        // projekcje z JOIN po gatunkach - jedna piosenka moze wrocic kilka razy
+        Collection<RecommendationsSongProjection> liked = distinct(songRepository.findAllLikedByAppUserIdForRecommendations(userId));
+        Collection<RecommendationsSongProjection> disliked = distinct(songRepository.findAllDislikedByAppUserIdForRecommendations(userId));
+        Collection<RecommendationsSongProjection> favourites = distinct(songRepository.findAllFavouriteByAppUserIdForRecommendations(userId));
+
+        Map<Genre, Double> genres = new HashMap<>();
+        Map<Long, Double> authors = new HashMap<>();
+        double mass = 0.0;
+
+        // zeby pominac favourite przy iteracji po liked
+        Set<Long> favIds = favourites.stream().map(RecommendationsSongProjection::getId).collect(Collectors.toSet());
+
+        for (RecommendationsSongProjection song : favourites) {
+            addSong(genres, authors, song.getGenres(), song.getAuthorId(), W_FAVOURITE);
+            mass += W_FAVOURITE;
+        }
+        for (RecommendationsSongProjection song : liked) {
+            if (favIds.contains(song.getId())) continue; // jak song jest tez favourite to nara
+            addSong(genres, authors, song.getGenres(), song.getAuthorId(), W_LIKE);
+            mass += W_LIKE;
+        }
+        for (RecommendationsSongProjection song : disliked) {
+            addSong(genres, authors, song.getGenres(), song.getAuthorId(), -W_DISLIKE);
+            mass += W_DISLIKE;
+        }
+
+        Instant now = Instant.now();
+        UserTasteProfile profile = userTasteProfileRepository.findById(userId)
+                .orElseGet(() -> UserTasteProfile.builder().userId(userId).build());
+        profile.setGenreWeights(dropZeros(genres));
+        profile.setAuthorWeights(topAuthors(dropZeros(authors)));
+        profile.setTotalMass(mass);
+        profile.setBuiltAt(now);
+        profile.setUpdatedAt(now);
+        return userTasteProfileRepository.save(profile);
+    }
+
+    // tak jak przy budowaniu z historii: favourite zastepuje like tej samej piosenki, dislike jest ujemny
+    private static double weight(ReactionState state) {
+        return positiveWeight(state) - (state.likeOrDislike() == ReactionType.DISLIKE ? W_DISLIKE : 0.0);
+    }
+
+    private static double mass(ReactionState state) {
+        return positiveWeight(state) + (state.likeOrDislike() == ReactionType.DISLIKE ? W_DISLIKE : 0.0);
+    }
+
+    private static double positiveWeight(ReactionState state) {
+        if (state.favourite()) return W_FAVOURITE;
+        return state.likeOrDislike() == ReactionType.LIKE ? W_LIKE : 0.0;
+    }
+
+    // gatunki dziela wage piosenki po rowno, autor dostaje cala
+    private static void addSong(Map<Genre, Double> genres, Map<Long, Double> authors,
+                                Collection<Genre> songGenres, Long authorId, double weight) {
+        if (!songGenres.isEmpty()) {
+            double contribution = weight / songGenres.size();
+            for (Genre genre : songGenres) genres.merge(genre, contribution, Double::sum);
+        }
+        if (authorId != null) authors.merge(authorId, weight, Double::sum);
+    }
+
+    private static Collection<RecommendationsSongProjection> distinct(List<RecommendationsSongProjection> songs) {
+        Map<Long, RecommendationsSongProjection> byId = new LinkedHashMap<>();
+        for (RecommendationsSongProjection song : songs) byId.putIfAbsent(song.getId(), song);
+        return byId.values();
+    }
+
+    private static <K> Map<K, Double> dropZeros(Map<K, Double> weights) {
+        weights.values().removeIf(weight -> Math.abs(weight) <= EPSILON);
+        return weights;
+    }
+
+    private static Map<Long, Double> topAuthors(Map<Long, Double> authors) {
+        if (authors.size() <= MAX_AUTHORS) return authors;
+
+        return authors.entrySet().stream()
+                .sorted(Comparator.comparingDouble((Map.Entry<Long, Double> e) -> Math.abs(e.getValue())).reversed())
+                .limit(MAX_AUTHORS)
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (a, b) -> a, HashMap::new));
+    }
+
+    private static <K> Map<K, Double> normalize(Map<K, Double> weights, double mass) {
+        return weights.entrySet().stream()
+                .collect(Collectors.toMap(Map.Entry::getKey, entry -> entry.getValue() / mass));
+    }
+
+    /// reakcje uzytkownika na jednej piosence: like albo dislike (null = brak) i favourite
+    public record ReactionState(ReactionType likeOrDislike, boolean favourite) {
+        public static final ReactionState NONE = new ReactionState(null, false);
+
+        public ReactionState withLikeOrDislike(ReactionType reactionType) {
+            return new ReactionState(reactionType, favourite);
+        }
+
+        public ReactionState withFavourite(boolean favourite) {
+            return new ReactionState(likeOrDislike, favourite);
+        }
+    }
+
+    public record TasteProfile(Map<Genre, Double> genreWeights, Map<Long, Double> authorWeights) {
+        static final TasteProfile EMPTY = new TasteProfile(Map.of(), Map.of());
+
+        public boolean isEmpty() {
+            return genreWeights.isEmpty() && authorWeights.isEmpty();
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package com.soundspace.service.song;
+
+import com.soundspace.config.ApplicationConfigProperties;
+import com.soundspace.dto.projection.SongBaseProjection;
+import com.soundspace.repository.SongRepository;
+import com.soundspace.repository.SongViewDailyRepository;
+import com.soundspace.util.TopK;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Ranking trending trzymany w pamieci zamiast agregacji song_views + song_reactions przy kazdym wejsciu na strone.
+ * <p>
+ * Wynik piosenki to suma wyswietlen i like (* likeWeight) wygaszanych wykladniczo z polowicznym czasem halfLifeHours.
+ * Zeby nie przeliczac wszystkich wynikow co chwile, kazde zdarzenie jest dodawane z waga exp(lambda * (t - t0))
+ * wzgledem stalego punktu t0 - kolejnosc jest taka sama jak dla wynikow wygaszonych do "teraz", a zdarzenie kosztuje
+ * jedno DoubleAdder.add. Strony leca z posortowanego snapshotu (long[] id) przeliczanego co refreshIntervalMs.
+ * <p>
+ * Zdarzenia przychodza z bufora wyswietlen i z ReactionService (tylko z tego noda), dlatego co godzine (i przy
+ * starcie) ranking jest odbudowywany z bazy: pelne dni z song_view_daily, reszta z song_views i like
+ * z song_reactions w godzinowych kubelkach.
+ * <p>
+ * Odbudowa najpierw podmienia stan na pusty (zdarzenia z jej trakcia ida juz do niego), a wyniki z bazy sa do niego
+ * dokladane na koncu - nic nie ginie miedzy odczytem z bazy a podmiana. Zdarzenie z tych kilku sekund, ktore zdazylo
+ * juz trafic do song_views, moze byc policzone dwa razy - do nastepnej odbudowy. W trakcie odbudowy refresh zostawia
+ * poprzedni snapshot. Wpisy z mapy nie sa usuwane poza odbudowa (usuniecie DoubleAdder w trakcie add gubiloby
+ * zdarzenie) - te z wynikiem ponizej progu sa tylko pomijane.
+ */
+@Service
+@Slf4j
+public class TrendingLeaderboard {
+
+    private static final double MIN_SCORE = 0.05; // ponizej tego (po wygaszeniu) piosenka wypada z mapy
+
+    private final SongRepository songRepository;
+    private final SongViewDailyRepository songViewDailyRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final ApplicationConfigProperties.TrendingConfig trendingConfig;
+    private final Clock clock = Clock.systemUTC();
+    private final double lambda; // na sekunde
+
+    private volatile State state;
+    private volatile long[] snapshot = new long[0];
+    private volatile boolean rebuilding;
+
+    public TrendingLeaderboard(SongRepository songRepository,
+                               SongViewDailyRepository songViewDailyRepository,
+                               JdbcTemplate jdbcTemplate,
+                               ApplicationConfigProperties.TrendingConfig trendingConfig,
+                               MeterRegistry meterRegistry) {
+        this.songRepository = songRepository;
+        this.songViewDailyRepository = songViewDailyRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.trendingConfig = trendingConfig;
+        this.lambda = Math.log(2) / (trendingConfig.halfLifeHours() * 3600);
+        this.state = new State(clock.instant().getEpochSecond());
+
+        Gauge.builder("soundspace.trending.songs", this, leaderboard -> leaderboard.state.scores.size())
+                .description("Ilosc piosenek z niezerowym wynikiem w rankingu trending")
+                .register(meterRegistry);
+    }
+
+    public void recordView(long songId) {
+        state.add(songId, 1, clock.instant().getEpochSecond());
+    }
+
+    /// +1 = nowy like, -1 = like cofniety albo zamieniony na dislike. liczy sie dopiero po commicie
+    public void recordLike(long songId, int delta) {
+        Runnable record = () -> state.add(songId, (double) delta * trendingConfig.likeWeight(), clock.instant().getEpochSecond());
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            record.run();
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                record.run();
+            }
+        });
+    }
+
+    public Page<SongBaseProjection> page(Pageable pageable) {
+        long[] ids = snapshot;
+        int from = (int) Math.min(pageable.getOffset(), ids.length);
+        int to = Math.min(from + pageable.getPageSize(), ids.length);
+        if (from == to) return new PageImpl<>(List.of(), pageable, ids.length);
+
+        List<Long> pageIds = Arrays.stream(ids, from, to).boxed().toList();
+        Map<Long, SongBaseProjection> songs = songRepository.findPublicBaseProjectionsByIds(pageIds).stream()
+                .collect(Collectors.toMap(SongBaseProjection::getId, Function.identity()));
+
+        // kolejnosc z rankingu, piosenki ukryte/usuniete od ostatniego snapshotu po prostu wypadaja
+        List<SongBaseProjection> content = pageIds.stream().map(songs::get).filter(Objects::nonNull).toList();
+        if (content.size() == pageIds.size()) return new PageImpl<>(content, pageable, ids.length);
+
+        // ...i od razu ze snapshotu, zeby totalElements (i kolejne strony) sie z nimi zgadzaly
+        Set<Long> hidden = pageIds.stream().filter(id -> !songs.containsKey(id)).collect(Collectors.toSet());
+        long[] visible = Arrays.stream(ids).filter(id -> !hidden.contains(id)).toArray();
+        if (snapshot == ids) snapshot = visible;
+        return new PageImpl<>(content, pageable, visible.length);
+    }
+
+    /// przeliczenie posortowanego snapshotu - top maxSize publicznych piosenek
+    @Scheduled(fixedRateString = "${app.trending.refresh-interval-ms}")
+    public void refresh() {
+        if (rebuilding) return; // stan ma na razie tylko zdarzenia z trakcie odbudowy - zostaje poprzedni snapshot
+
+        State current = state;
+        double decay = Math.exp(-lambda * (clock.instant().getEpochSecond() - current.t0));
+
+        int size = current.scores.size();
+        long[] ids = new long[size];
+        double[] scores = new double[size];
+        int n = 0;
+        for (Map.Entry<Long, DoubleAdder> entry : current.scores.entrySet()) {
+            double score = entry.getValue().sum();
+            if (score * decay < MIN_SCORE) continue; // wypadnie przy najblizszej odbudowie
+            if (n == ids.length) break; // mapa urosla w trakcie iteracji - nowe wejda w nastepnym odswiezeniu
+            ids[n] = entry.getKey();
+            scores[n++] = score;
+        }
+
+        // z zapasem, bo czesc moze byc prywatna
+        int[] top = TopK.indices(ids, scores, n, trendingConfig.maxSize() * 2);
+        List<Long> candidates = new ArrayList<>(top.length);
+        for (int index : top) candidates.add(ids[index]);
+
+        Set<Long> visible = candidates.isEmpty() ? Set.of() : new HashSet<>(songRepository.findPublicIdsIn(candidates));
+        snapshot = candidates.stream()
+                .filter(visible::contains)
+                .limit(trendingConfig.maxSize())
+                .mapToLong(Long::longValue)
+                .toArray();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onStartup() {
+        rebuild();
+        refresh();
+    }
+
+    /**
+     * odbudowa z bazy od zera, z nowym t0 (przy okazji wynik nie rosnie w nieskonczonosc).
+     * nowy stan jest podpinany przed odczytem z bazy, a wyniki z bazy dokladane do niego na koncu
+     */
+    @Scheduled(cron = "${app.trending.rebuild-cron}", zone = "UTC")
+    public synchronized void rebuild() {
+        Instant now = clock.instant();
+        State previous = state;
+        State live = new State(now.getEpochSecond());
+        rebuilding = true;
+        state = live;
+
+        try {
+            LocalDate today = LocalDate.ofInstant(now, ZoneId.systemDefault());
+            LocalDate windowStart = today.minusDays(trendingConfig.windowDays());
+            LocalDate rawFromDay = songViewDailyRepository.findLastRolledUpDay()
+                    .map(day -> day.plusDays(1))
+                    .filter(day -> day.isAfter(windowStart))
+                    .orElse(windowStart);
+
+            State rebuilt = new State(live.t0);
+
+            // pelne dni - srodek dnia jako czas zdarzenia
+            jdbcTemplate.query("""
+                            SELECT song_id, view_day, view_count
+                            FROM song_view_daily
+                            WHERE view_day >= ? AND view_day < ?
+                            """,
+                    (RowCallbackHandler) rs -> {
+                        long at = rs.getObject(2, LocalDate.class).atTime(12, 0).atZone(ZoneId.systemDefault()).toEpochSecond();
+                        rebuilt.add(rs.getLong(1), rs.getLong(3), at);
+                    },
+                    windowStart, rawFromDay);
+
+            // dni jeszcze niezagregowane - w godzinowych kubelkach (viewed_at i reacted_at to czas w strefie JVM bez strefy)
+            jdbcTemplate.query("""
+                            SELECT song_id, DATE_TRUNC('hour', viewed_at), COUNT(*)
+                            FROM song_views
+                            WHERE viewed_at >= ? AND song_id IS NOT NULL
+                            GROUP BY song_id, DATE_TRUNC('hour', viewed_at)
+                            """,
+                    (RowCallbackHandler) rs -> rebuilt.add(rs.getLong(1), rs.getLong(3), bucketMiddle(rs.getObject(2, LocalDateTime.class))),
+                    rawFromDay.atStartOfDay());
+
+            jdbcTemplate.query("""
+                            SELECT song_id, DATE_TRUNC('hour', reacted_at), COUNT(*)
+                            FROM song_reactions
+                            WHERE reaction_type = 'LIKE' AND reacted_at >= ?
+                            GROUP BY song_id, DATE_TRUNC('hour', reacted_at)
+                            """,
+                    (RowCallbackHandler) rs -> rebuilt.add(rs.getLong(1), (double) rs.getLong(3) * trendingConfig.likeWeight(),
+                            bucketMiddle(rs.getObject(2, LocalDateTime.class))),
+                    windowStart.atStartOfDay());
+
+            live.addAll(rebuilt);
+            log.info("Odbudowano ranking trending: {} piosenek", live.scores.size());
+        } catch (RuntimeException e) {
+            // poprzedni stan juz nie dostaje zdarzen, wiec wraca razem z tymi z trakcie odbudowy
+            live.addAll(previous);
+            log.error("Nie udało się odbudować rankingu trending, zostaje poprzedni", e);
+        } finally {
+            rebuilding = false;
+        }
+    }
+
+    /// HELPERY
+
+    private static long bucketMiddle(LocalDateTime hour) {
+        return hour.plusMinutes(30).atZone(ZoneId.systemDefault()).toEpochSecond();
+    }
+
+    private final class State {
+        final long t0; // epoch seconds
+        final ConcurrentHashMap<Long, DoubleAdder> scores = new ConcurrentHashMap<>();
+
+        State(long t0) {
+            this.t0 = t0;
+        }
+
+        void add(long songId, double weight, long at) {
+            scores.computeIfAbsent(songId, id -> new DoubleAdder()).add(weight * Math.exp(lambda * (at - t0)));
+        }
+
+        // dolozenie wynikow innego stanu (przeliczonych na nasze t0)
+        void addAll(State other) {
+            double scale = Math.exp(lambda * (other.t0 - t0));
+            other.scores.forEach((songId, score) ->
+                    scores.computeIfAbsent(songId, id -> new DoubleAdder()).add(score.sum() * scale));
+        }
+    }
+}
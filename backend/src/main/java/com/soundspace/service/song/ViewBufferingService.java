@@ -1,33 +1,66 @@
 package com.soundspace.service.song;
 
-import com.soundspace.repository.SongRepository;
+import com.soundspace.config.ApplicationConfigProperties;
+import com.soundspace.exception.StorageException;
 import com.soundspace.repository.SongStatisticsRepository;
-import lombok.RequiredArgsConstructor;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.io.IOException;
+import java.nio.file.Path;
 
 @Service
-@RequiredArgsConstructor
 @Slf4j
 public class ViewBufferingService {
-    private final SongRepository songRepository;
 
-    // (key: songId, value: viewCount)
-    private final ConcurrentHashMap<Long, Long> viewBuffer = new ConcurrentHashMap<>();
+    // (songId -> viewCount) w epokach: flush zabiera cala poprzednia epoke, bufferView nigdy nie czeka
+    private final ViewCounterBuffer viewBuffer;
     private final SongStatisticsRepository songStatisticsRepository;
+    private final TrendingLeaderboard trendingLeaderboard;
+    private final Timer flushTimer;
+    private final DistributionSummary flushSongsSummary;
+
+    public ViewBufferingService(SongStatisticsRepository songStatisticsRepository,
+                                ApplicationConfigProperties.ViewsConfig viewsConfig,
+                                TrendingLeaderboard trendingLeaderboard,
+                                MeterRegistry meterRegistry) {
+        this.songStatisticsRepository = songStatisticsRepository;
+        this.trendingLeaderboard = trendingLeaderboard;
+        this.flushTimer = Timer.builder("soundspace.views.flush.duration")
+                .description("Czas flusha bufora wyswietlen (drain + zapis do bazy)")
+                .register(meterRegistry);
+        this.flushSongsSummary = DistributionSummary.builder("soundspace.views.flush.songs")
+                .description("Ilosc piosenek w jednym flushu wyswietlen")
+                .register(meterRegistry);
+
+        // dziennik (WAL) bufora - wyswietlenia sprzed restartu trafia do bazy z najblizszym flushem
+        ApplicationConfigProperties.ViewsConfig.JournalConfig journalConfig = viewsConfig.journal();
+        try {
+            ViewJournal journal = journalConfig == null || !journalConfig.enabled()
+                    ? null
+                    : new ViewJournal(Path.of(journalConfig.directory()), journalConfig.segmentRecords());
+            this.viewBuffer = new ViewCounterBuffer(journal);
+        } catch (IOException e) {
+            throw new StorageException("Nie można otworzyć dziennika wyświetleń", e);
+        }
+    }
 
     /**
      *  dzieki temu elegancko tymczasowo do viewBuffer zapisuja sie wszystkie wyswietlenia
      *  a pozniej z niego wyciaga zeby wywolac zapytania, czyli tymczasowo wszystko jest trzymane w RAM
+     *  (i w dzienniku na dysku, zeby restart ich nie zgubil)
      */
     public void bufferView(Long songId) {
-        viewBuffer.merge(songId, 1L, Long::sum);
+        viewBuffer.increment(songId);
+        trendingLeaderboard.recordView(songId);
     }
 
 
@@ -37,18 +70,56 @@ public class ViewBufferingService {
     public void flushViewsToDatabase() {
         if (viewBuffer.isEmpty()) return;
 
-        Map<Long, Long> snapshot = new HashMap<>(viewBuffer);
-        // po wyjeciu czyscimy zeby w kolejnym odpaleniu metody znowu nie dodawac tego samego
-        snapshot.keySet().forEach(viewBuffer::remove);
-
-        // i elegancko zamiast po x zapytan (na kazde oddzielne wyswietlenie) dla kadzej piosenki, leci jedno na kazda piosenke
-        for (Map.Entry<Long, Long> entry : snapshot.entrySet()) {
-            Long songId = entry.getKey();
-            Long countToAdd = entry.getValue();
+        // czas calego flusha: podmiana epoki (z czekaniem na watki w starej) + zapis do bazy
+        Timer.Sample sample = Timer.start();
 
-            songStatisticsRepository.incrementViewCountBy(songId, countToAdd);
+        // po wyjeciu bufor zaczyna nowa epoke, zeby w kolejnym odpaleniu metody znowu nie dodawac tego samego
+        ViewCounterBuffer.Batch batch;
+        try {
+            batch = viewBuffer.drain();
+        } catch (IOException e) {
+            throw new StorageException("Nie udało się otworzyć nowego segmentu dziennika wyświetleń", e);
         }
 
-        log.info("Zapisano wyświetlenia dla {} piosenek.", snapshot.size());
+        // dziennik jest czyszczony dopiero po commicie - przy rollbacku wyswietlenia wracaja do bufora.
+        // crash miedzy commitem a usunieciem segmentow = te wyswietlenia zostana doliczone ponownie (at-least-once)
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_COMMITTED) {
+                    viewBuffer.commit(batch);
+                } else {
+                    viewBuffer.rollback(batch);
+                    log.warn("Flush wyświetleń nie powiódł się, {} piosenek wraca do bufora", batch.size());
+                }
+            }
+        });
+
+        // i elegancko zamiast po x zapytan (na kazde oddzielne wyswietlenie) dla kadzej piosenki,
+        // leci jedno zapytanie na caly snapshot (unnest na postgresie, batch JDBC gdzie indziej)
+        long[] ids = new long[batch.size()];
+        long[] counts = new long[batch.size()];
+        int[] next = {0};
+        batch.forEach((songId, count) -> {
+            ids[next[0]] = songId;
+            counts[next[0]++] = count;
+        });
+
+        int updated = songStatisticsRepository.incrementViewCounts(ids, counts);
+        sample.stop(flushTimer);
+        flushSongsSummary.record(ids.length);
+
+        log.info("Zapisano wyświetlenia dla {} piosenek.", updated);
+    }
+
+    // group commit - jeden fsync dziennika na wszystkie wyswietlenia z ostatniego okna
+    @Scheduled(fixedRateString = "${app.views.journal.fsync-interval-ms:200}")
+    public void forceJournal() {
+        viewBuffer.force();
+    }
+
+    @PreDestroy
+    public void closeJournal() {
+        viewBuffer.close();
     }
-}
\ No newline at end of file
+}
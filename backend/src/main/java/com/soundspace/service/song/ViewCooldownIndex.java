@@ -0,0 +1,96 @@
+package com.soundspace.service.song;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.soundspace.config.ApplicationConfigProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Indeks w pamieci "kto ostatnio wyswietlil dana piosenke" - zastepuje zapytanie exists do song_views przy kazdym
+ * registerView. Klucz (songId, userId albo ip) wygasa po cooldownSeconds od zapisu.
+ * <p>
+ * Indeks wie wszystko dopiero po pelnym oknie cooldownu od startu (wczesniejsze wyswietlenia sa tylko w bazie),
+ * a po wyrzuceniu klucza przez maximumSize przez kolejne okno moze nie wiedziec o czesci z nich - w tym czasie
+ * {@link #isComplete()} zwraca false i ViewService dopytuje baze jak wczesniej.
+ * <p>
+ * Indeks jest per node: przy kilku instancjach za load balancerem bez sticky sessions to samo wyswietlenie moze
+ * byc policzone raz na kazdym nodzie w oknie cooldownu (najwyzej N razy przy N nodach). Dla licznika wyswietlen
+ * to akceptowalne - gdyby mialo byc scisle, dedup musi isc przez baze (albo wspolny cache), nie przez ten indeks.
+ * <p>
+ * Wygasanie kluczy liczy Caffeine z tego samego {@link Clock} co reszta klasy (ticker), wiec okno cooldownu
+ * da sie testowac bez czekania.
+ */
+@Service
+public class ViewCooldownIndex {
+
+    private final Clock clock;
+    private final Duration cooldown;
+    private final Counter dbFallbackCounter;
+
+    // (key: songId + user/ip, value: kiedy wyswietlono) - wygasa po cooldownSeconds od zapisu
+    private final Cache<String, Instant> recentViews;
+
+    // do kiedy indeks moze nie znac wszystkich wyswietlen z okna cooldownu
+    private volatile Instant incompleteUntil;
+
+    @Autowired
+    public ViewCooldownIndex(ApplicationConfigProperties.ViewsConfig viewsConfig, MeterRegistry meterRegistry) {
+        this(viewsConfig, meterRegistry, Clock.systemUTC());
+    }
+
+    public ViewCooldownIndex(ApplicationConfigProperties.ViewsConfig viewsConfig, MeterRegistry meterRegistry, Clock clock) {
+        this.clock = clock;
+        this.cooldown = Duration.ofSeconds(viewsConfig.cooldownSeconds());
+        this.incompleteUntil = clock.instant().plus(cooldown);
+
+        this.dbFallbackCounter = Counter.builder("soundspace.views.cooldown.db.fallback")
+                .description("Ilosc sprawdzen cooldownu wyswietlenia, ktore musialy isc do bazy")
+                .register(meterRegistry);
+
+        this.recentViews = Caffeine.newBuilder()
+                .expireAfterWrite(cooldown)
+                .ticker(() -> TimeUnit.MILLISECONDS.toNanos(clock.millis()))
+                .maximumSize(viewsConfig.cooldownIndexMaxSize())
+                .removalListener((String key, Instant viewedAt, RemovalCause cause) -> {
+                    if (cause == RemovalCause.SIZE) incompleteUntil = clock.instant().plus(cooldown);
+                })
+                .build();
+    }
+
+    public static String userKey(Long songId, Long userId) {
+        return songId + ":u:" + userId;
+    }
+
+    public static String ipKey(Long songId, String clientIp) {
+        return songId + ":ip:" + clientIp;
+    }
+
+    /**
+     * atomowo zajmuje klucz na okno cooldownu.
+     * true gdy w indeksie nie bylo wyswietlenia z tego okna, false gdy ktos juz je zarejestrowal
+     */
+    public boolean tryClaim(String key) {
+        return recentViews.asMap().putIfAbsent(key, clock.instant()) == null;
+    }
+
+    /// zwolnienie klucza gdy wyswietlenie jednak nie zostalo zapisane (rollback transakcji)
+    public void release(String key) {
+        recentViews.invalidate(key);
+    }
+
+    /// false = indeks moze nie znac wszystkich wyswietlen z okna cooldownu, trzeba sprawdzic baze
+    public boolean isComplete() {
+        boolean complete = clock.instant().isAfter(incompleteUntil);
+        if (!complete) dbFallbackCounter.increment();
+        return complete;
+    }
+}
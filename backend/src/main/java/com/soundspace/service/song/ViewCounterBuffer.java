@@ -0,0 +1,168 @@
+package com.soundspace.service.song;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * Bufor licznikow wyswietlen z podwojnym buforowaniem (epoki).
+ * <p>
+ * Wyswietlenia trafiaja do biezacej epoki: mapa songId -> {@link LongAdder} (striped, bez rywalizacji o jeden licznik)
+ * i jej wlasne segmenty dziennika. Flush podmienia epoke jednym zapisem volatile, czeka az wyjda z niej watki, ktore
+ * zdazyly do niej wejsc (trwa to tyle co jedno increment) i oddaje jej liczniki w calosci - bez kopiowania mapy,
+ * bez locka po stronie {@link #increment} i bez gubienia wyswietlen miedzy snapshotem a czyszczeniem.
+ * <p>
+ * Segmenty dziennika naleza do epoki, wiec po udanym flushu usuwane sa dokladnie te rekordy, ktore weszly do bazy.
+ */
+@Slf4j
+public class ViewCounterBuffer {
+
+    private final ViewJournal journal; // null = bez dziennika
+    private volatile Epoch current;
+
+    // segmenty, ktorych wyswietlen jeszcze nie ma w bazie, a nie naleza do zadnej epoki (odtworzone przy starcie,
+    // z nieudanego flusha) - usuwane przy najblizszym udanym flushu
+    private final List<ViewJournal.Segment> pendingSegments = new ArrayList<>();
+
+    public ViewCounterBuffer(ViewJournal journal) throws IOException {
+        this.journal = journal;
+        this.current = new Epoch(journal != null ? journal.newSegment() : null);
+
+        if (journal != null) {
+            journal.recovered().forEach(this::add);
+            pendingSegments.addAll(journal.recoveredSegments());
+        }
+    }
+
+    public void increment(long songId) {
+        Epoch epoch = enter();
+        try {
+            if (epoch.segment != null) appendToJournal(epoch, songId);
+            epoch.counts.computeIfAbsent(songId, id -> new LongAdder()).increment();
+        } finally {
+            epoch.writers.decrementAndGet();
+        }
+    }
+
+    /**
+     * podmiana epoki i oddanie wszystkiego, co zostalo policzone w poprzedniej. wynik trzeba zakonczyc
+     * {@link #commit} (zapisane w bazie) albo {@link #rollback} (wraca do bufora)
+     */
+    public synchronized Batch drain() throws IOException {
+        Epoch drained = current;
+        current = new Epoch(journal != null ? journal.newSegment() : null);
+
+        // watki, ktore weszly do starej epoki przed podmiana - po tym juz nikt jej nie zmieni
+        while (drained.writers.get() != 0) Thread.onSpinWait();
+
+        List<ViewJournal.Segment> segments = new ArrayList<>(pendingSegments);
+        segments.addAll(drained.segments);
+        pendingSegments.clear();
+        drained.segments.forEach(ViewJournal.Segment::force);
+        return new Batch(drained.counts, segments);
+    }
+
+    /// liczniki z batcha sa w bazie - dziennik nie jest juz potrzebny
+    public void commit(Batch batch) {
+        batch.segments().forEach(ViewJournal.Segment::delete);
+    }
+
+    /// zapis do bazy sie nie udal - liczniki wracaja do biezacej epoki, segmenty czekaja na kolejny flush
+    public synchronized void rollback(Batch batch) {
+        batch.forEach(this::add);
+        pendingSegments.addAll(0, batch.segments());
+    }
+
+    /// group commit - jeden fsync na wszystkie wyswietlenia z ostatniego okna
+    public void force() {
+        ViewJournal.Segment segment = current.segment;
+        if (segment != null) segment.force();
+    }
+
+    public synchronized void close() {
+        current.segments.forEach(ViewJournal.Segment::force);
+        current.segments.forEach(ViewJournal.Segment::close);
+        pendingSegments.forEach(ViewJournal.Segment::close);
+    }
+
+    public boolean isEmpty() {
+        return current.counts.isEmpty();
+    }
+
+    /// HELPERY
+
+    // wejscie do biezacej epoki - jezeli flush podmienil ja w miedzyczasie, wchodzimy do nowej
+    private Epoch enter() {
+        while (true) {
+            Epoch epoch = current;
+            epoch.writers.incrementAndGet();
+            if (epoch == current) return epoch;
+            epoch.writers.decrementAndGet();
+        }
+    }
+
+    // liczniki bez dziennika (odtworzone albo z rollbacku - ich rekordy sa juz w segmentach)
+    private void add(long songId, long count) {
+        Epoch epoch = enter();
+        try {
+            epoch.counts.computeIfAbsent(songId, id -> new LongAdder()).add(count);
+        } finally {
+            epoch.writers.decrementAndGet();
+        }
+    }
+
+    private void appendToJournal(Epoch epoch, long songId) {
+        while (true) {
+            ViewJournal.Segment segment = epoch.segment;
+            if (segment.tryAppend(songId)) return;
+
+            synchronized (epoch) {
+                if (epoch.segment != segment) continue; // inny watek juz dolozyl segment
+                try {
+                    ViewJournal.Segment next = journal.newSegment();
+                    segment.force();
+                    epoch.segments.add(next);
+                    epoch.segment = next;
+                } catch (IOException e) {
+                    // wyswietlenie i tak jest liczone, tylko bez ochrony przed restartem
+                    log.warn("Nie udało się zapisać wyświetlenia do dziennika: songId={}", songId, e);
+                    return;
+                }
+            }
+        }
+    }
+
+    private static final class Epoch {
+        final ConcurrentHashMap<Long, LongAdder> counts = new ConcurrentHashMap<>();
+        final AtomicInteger writers = new AtomicInteger();
+        final List<ViewJournal.Segment> segments = new CopyOnWriteArrayList<>();
+        volatile ViewJournal.Segment segment;
+
+        Epoch(ViewJournal.Segment segment) {
+            this.segment = segment;
+            if (segment != null) segments.add(segment);
+        }
+    }
+
+    public record Batch(Map<Long, LongAdder> counts, List<ViewJournal.Segment> segments) {
+        public void forEach(BiConsumer<Long, Long> action) {
+            counts.forEach((songId, count) -> action.accept(songId, count.sum()));
+        }
+
+        public int size() {
+            return counts.size();
+        }
+
+        public boolean isEmpty() {
+            return counts.isEmpty();
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.soundspace.service.song;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lokalny, append-only dziennik wyswietlen z bufora (write-ahead log) - zeby restart albo crash noda nie gubil
+ * wyswietlen czekajacych na flush do bazy.
+ * <p>
+ * Dziennik to segmenty views-{nr}.journal zmapowane w pamieci (mmap). Kazde wyswietlenie to jeden rekord 8B (songId)
+ * zapisany pod zarezerwowana atomowo pozycja - bez locka i bez syscalla, wiec append kosztuje tyle co zapis do RAM.
+ * Zapis do zmapowanej strony przezywa crash procesu (strona jest w page cache), a przed crashem calego systemu chroni
+ * {@link Segment#force()} wolane cyklicznie (group commit - jeden fsync na wszystkie wyswietlenia z danego okna).
+ * <p>
+ * Ktore segmenty naleza do ktorego flusha i kiedy je usunac decyduje {@link ViewCounterBuffer} - tu jest tylko
+ * tworzenie segmentow i odtworzenie tego, co zostalo na dysku po poprzednim uruchomieniu.
+ * <p>
+ * Odtworzenie jest "at-least-once": segmenty sa usuwane dopiero po commicie flusha, wiec crash miedzy commitem
+ * w bazie a usunieciem plikow sprawi, ze te wyswietlenia zostana po restarcie doliczone drugi raz. Okno jest
+ * krotkie (kilka unlinkow) i dla licznikow wyswietlen to swiadomy wybor - odwrotna kolejnosc gubilaby wyswietlenia
+ * przy crashu przed commitem.
+ */
+@Slf4j
+public class ViewJournal {
+
+    private static final String PREFIX = "views-";
+    private static final String SUFFIX = ".journal";
+    private static final int RECORD_BYTES = Long.BYTES;
+
+    private final Path directory;
+    private final int segmentRecords;
+    private final Map<Long, Long> recovered = new HashMap<>();
+    private final List<Segment> recoveredSegments = new ArrayList<>();
+    private long nextSegmentNumber;
+
+    public ViewJournal(Path directory, int segmentRecords) throws IOException {
+        this.directory = directory;
+        this.segmentRecords = segmentRecords;
+        Files.createDirectories(directory);
+
+        for (Path file : existingSegments()) {
+            Segment segment = Segment.open(file, segmentRecords);
+            segment.replayInto(recovered);
+            recoveredSegments.add(segment);
+            nextSegmentNumber = Math.max(nextSegmentNumber, segmentNumber(file) + 1);
+        }
+        if (!recovered.isEmpty()) {
+            log.info("Odtworzono z dziennika wyświetlenia dla {} piosenek ({} segmentów)", recovered.size(), recoveredSegments.size());
+        }
+    }
+
+    /// wyswietlenia z dziennika znalezionego przy starcie (czyli niezapisane w bazie przed restartem)
+    public Map<Long, Long> recovered() {
+        return recovered;
+    }
+
+    /// segmenty z tymi wyswietleniami - do usuniecia po pierwszym udanym flushu
+    public List<Segment> recoveredSegments() {
+        return recoveredSegments;
+    }
+
+    public synchronized Segment newSegment() throws IOException {
+        Path file = directory.resolve(String.format("%s%020d%s", PREFIX, nextSegmentNumber++, SUFFIX));
+        return Segment.open(file, segmentRecords);
+    }
+
+    /// HELPERY
+
+    private List<Path> existingSegments() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        files.sort(null);
+        return files;
+    }
+
+    private static long segmentNumber(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+
+    public static final class Segment {
+        private final Path path;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private final int capacity;
+        private final AtomicInteger nextRecord = new AtomicInteger();
+
+        private Segment(Path path, FileChannel channel, MappedByteBuffer buffer, int capacity) {
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+            this.capacity = capacity;
+        }
+
+        static Segment open(Path path, int capacity) throws IOException {
+            FileChannel channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long size = (long) capacity * RECORD_BYTES;
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, channel.size()));
+            return new Segment(path, channel, buffer, (int) (buffer.capacity() / RECORD_BYTES));
+        }
+
+        public boolean tryAppend(long songId) {
+            int record = nextRecord.getAndIncrement();
+            if (record >= capacity) return false;
+            buffer.putLong(record * RECORD_BYTES, songId);
+            return true;
+        }
+
+        // caly plik, nie do pierwszego zera - watek mogl zarezerwowac rekord i nie zdazyc go zapisac przed crashem
+        void replayInto(Map<Long, Long> counts) {
+            for (int record = 0; record < capacity; record++) {
+                long songId = buffer.getLong(record * RECORD_BYTES);
+                if (songId > 0) counts.merge(songId, 1L, Long::sum);
+            }
+            nextRecord.set(capacity); // odtworzony segment jest tylko do odczytu
+        }
+
+        public void force() {
+            try {
+                buffer.force();
+            } catch (Exception e) {
+                log.warn("Nie udało się zrobić fsync dziennika wyświetleń: {}", path, e);
+            }
+        }
+
+        public void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.warn("Nie udało się zamknąć segmentu dziennika wyświetleń: {}", path, e);
+            }
+        }
+
+        public void delete() {
+            close();
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                log.warn("Nie udało się usunąć segmentu dziennika wyświetleń: {}", path, e);
+            }
+        }
+    }
+}
@@ -2,13 +2,18 @@ package com.soundspace.service.song;
 
 import com.soundspace.config.ApplicationConfigProperties;
 import com.soundspace.entity.AppUser;
-import com.soundspace.entity.SongView;
+import com.soundspace.exception.SongNotFoundException;
+import com.soundspace.repository.SongRepository;
 import com.soundspace.repository.SongViewRepository;
 import com.soundspace.service.user.AppUserService;
 import lombok.RequiredArgsConstructor;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.time.Instant;
 
@@ -17,47 +22,50 @@ import java.time.Instant;
 public class ViewService {
 
     private final SongViewRepository viewRepository;
+    private final SongRepository songRepository;
     private final AppUserService appUserService;
-    private final SongCoreService songCoreService;
+    private final SongViewIngestionQueue songViewIngestionQueue;
     private final ViewBufferingService viewBufferingService;
+    private final ViewCooldownIndex viewCooldownIndex;
     private final ApplicationConfigProperties.ViewsConfig viewsConfig;
+    private final CacheManager cacheManager;
 
     /*
         true gdy udalo sie dodac nowe wyswietlenie,
         false gdy istnieje już młodsze niż viewRegisterCooldownInSeconds (15 min)
+        cooldown sprawdza ViewCooldownIndex, baza tylko przez pierwsze okno cooldownu po starcie
      */
     @Transactional
     public boolean registerView(Long songId, UserDetails userDetails, String clientIp) {
+        // wiersz song_views idzie w tle, wiec FK juz nie odrzuci nieistniejacej piosenki - sprawdzamy przed cooldownem i buforem
+        if (!songExists(songId)) throw new SongNotFoundException(songId);
+
         Instant cutoff = Instant.now().minusSeconds(viewsConfig.cooldownSeconds());
         AppUser appUser;
 
         if (userDetails != null) {
             appUser = appUserService.getUserByEmail(userDetails.getUsername());
             Long userId = appUser.getId();
-            if (viewRepository.existsBySongIdAndUserIdAndViewedAtAfter(songId, userId, cutoff))
+            if (!claimCooldown(ViewCooldownIndex.userKey(songId, userId)))
                 return false; //istnieje juz
+            if (!viewCooldownIndex.isComplete() && viewRepository.existsBySongIdAndUserIdAndViewedAtAfter(songId, userId, cutoff))
+                return false; //istnieje juz (sprzed restartu)
 
-            // nowe wyswietlenie dla zalogowanego usera + ip przy okazji
-            SongView view = new SongView();
-            view.setSong(songCoreService.getReferenceById(songId));
-            view.setIpAddress(clientIp);
-            view.setUser(appUser);
-            viewRepository.save(view);
+            // nowe wyswietlenie dla zalogowanego usera + ip przy okazji (zapis do song_views w tle)
+            songViewIngestionQueue.enqueue(songId, userId, clientIp);
 
         } else {
             // jezeli nie zalogowany, to sprawdzamy po ip, a jak nie udalo sie wyciagnac ip to nara łaski bez
             if (clientIp == null || clientIp.isBlank())
                 return false; // brak ip - nie udalo sie zarejestrowac wyswietlenia
 
-            if (viewRepository.existsBySongIdAndIpAddressAndViewedAtAfter(songId, clientIp, cutoff))
+            if (!claimCooldown(ViewCooldownIndex.ipKey(songId, clientIp)))
                 return false; //istnieje juz
+            if (!viewCooldownIndex.isComplete() && viewRepository.existsBySongIdAndIpAddressAndViewedAtAfter(songId, clientIp, cutoff))
+                return false; //istnieje juz (sprzed restartu)
 
-            // nowe wyswietlenie dla anonimowego usera o danym ip
-            SongView view = new SongView();
-            view.setSong(songCoreService.getReferenceById(songId));
-            view.setIpAddress(clientIp);
-            view.setUser(null);
-            viewRepository.save(view);
+            // nowe wyswietlenie dla anonimowego usera o danym ip (zapis do song_views w tle)
+            songViewIngestionQueue.enqueue(songId, null, clientIp);
 
         }
 
@@ -65,4 +73,30 @@ public class ViewService {
         viewBufferingService.bufferView(songId);
         return true;
     }
-}
\ No newline at end of file
+
+    /// HELPERY
+
+    // w "song-exists" tylko trafienia - piosenka dodana po zapytaniu o jej id nie czeka na wygasniecie "nie ma".
+    // evict przy usuwaniu piosenki (SongCoreService.deleteSongById) i usera (AppUserDeletionService)
+    private boolean songExists(Long songId) {
+        Cache cache = cacheManager.getCache("song-exists");
+        if (cache != null && cache.get(songId) != null) return true;
+
+        boolean exists = songRepository.existsById(songId);
+        if (exists && cache != null) cache.put(songId, Boolean.TRUE);
+        return exists;
+    }
+
+    // cooldown sprawdzany w pamieci zamiast w song_views - jezeli transakcja sie nie uda, klucz jest zwalniany
+    private boolean claimCooldown(String key) {
+        if (!viewCooldownIndex.tryClaim(key)) return false;
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status != STATUS_COMMITTED) viewCooldownIndex.release(key);
+            }
+        });
+        return true;
+    }
+}
@@ -0,0 +1,94 @@
+package com.soundspace.service.storage;
+
+import org.springframework.core.io.AbstractResource;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Resource nad plikiem z {@link BlobStore} bez lokalnej sciezki (S3).
+ * <p>
+ * ResourceRegionHttpMessageConverter robi skip(start) i czyta count bajtow - skip tutaj tylko przesuwa pozycje,
+ * a dopiero pierwszy read otwiera ranged GET od tej pozycji do {@code readEnd}. dzieki temu fragment audio
+ * to jeden GET z Range zamiast sciagania pliku od poczatku
+ */
+public class BlobResource extends AbstractResource {
+
+    private final BlobStore blobStore;
+    private final String key;
+    private final long contentLength;
+    private final long readEnd; // exclusive
+
+    public BlobResource(BlobStore blobStore, String key, long contentLength) {
+        this(blobStore, key, contentLength, contentLength);
+    }
+
+    public BlobResource(BlobStore blobStore, String key, long contentLength, long readEnd) {
+        this.blobStore = blobStore;
+        this.key = key;
+        this.contentLength = contentLength;
+        this.readEnd = Math.min(readEnd, contentLength);
+    }
+
+    @Override
+    public String getDescription() {
+        return "Blob [" + key + "]";
+    }
+
+    @Override
+    public String getFilename() {
+        return key.substring(key.lastIndexOf('/') + 1);
+    }
+
+    @Override
+    public long contentLength() {
+        return contentLength;
+    }
+
+    @Override
+    public boolean exists() {
+        return blobStore.exists(key);
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return new LazyRangeInputStream();
+    }
+
+    private class LazyRangeInputStream extends InputStream {
+        private long position;
+        private InputStream delegate;
+
+        @Override
+        public long skip(long n) throws IOException {
+            if (delegate != null) return delegate.skip(n);
+
+            long skipped = Math.max(0, Math.min(n, contentLength - position));
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return open().read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return open().read(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (delegate != null) delegate.close();
+        }
+
+        private InputStream open() throws IOException {
+            if (delegate == null) {
+                long end = position < readEnd ? readEnd : contentLength;
+                delegate = blobStore.openRange(key, position, end - position);
+            }
+            return delegate;
+        }
+    }
+}
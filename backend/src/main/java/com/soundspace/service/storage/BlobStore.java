@@ -0,0 +1,36 @@
+package com.soundspace.service.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Optional;
+
+/**
+ * fizyczne miejsce trzymania plikow pod kluczem (StorageKey.keyStr) - lokalny dysk albo bucket S3.
+ * StorageService trzyma na tym cala logike StorageKey (ref_count, klucze), a tu sa tylko operacje na bajtach
+ */
+public interface BlobStore {
+
+    /// zwraca ile bajtow zapisano. {@code contentLength} musi byc znany dla S3 (multipart zna rozmiar z gory)
+    long save(String key, InputStream in, long contentLength) throws IOException;
+
+    /// przeniesienie pod nowy klucz - lokalnie rename, przy S3 kopia po stronie serwera + delete
+    void move(String fromKey, String toKey) throws IOException;
+
+    /// {@code length} bajtow od {@code start} - przy S3 to ranged GET, wiec nie ciagnie calego pliku
+    InputStream openRange(String key, long start, long length) throws IOException;
+
+    long size(String key) throws IOException;
+
+    boolean exists(String key);
+
+    void delete(String key) throws IOException;
+
+    /// usuwa wszystko pod prefixem (np. songs/audio/{userId}/)
+    void deleteAll(String prefix) throws IOException;
+
+    /// sciezka na lokalnym dysku - tylko dla lokalnego store, pozwala wyslac plik przez sendfile
+    default Optional<Path> localPath(String key) {
+        return Optional.empty();
+    }
+}
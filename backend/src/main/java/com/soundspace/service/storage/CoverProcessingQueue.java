@@ -0,0 +1,393 @@
+package com.soundspace.service.storage;
+
+import com.soundspace.config.ApplicationConfigProperties;
+import com.soundspace.dto.ProcessedImage;
+import com.soundspace.entity.StorageKey;
+import com.soundspace.exception.ImageProcessingQueueFullException;
+import com.soundspace.exception.StorageException;
+import com.soundspace.repository.AlbumRepository;
+import com.soundspace.repository.PlaylistRepository;
+import com.soundspace.repository.SongRepository;
+import com.soundspace.repository.StorageKeyRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Skalowanie i zapis okladek (piosenka, album, playlista) w tle, poza watkiem requestu i poza transakcja.
+ * Encja commituje sie od razu z obecna okladka (przy tworzeniu - domyslna), a job po commicie skaluje obrazek,
+ * zapisuje go do storage i podmienia okladke warunkowym UPDATE (tylko jezeli encja dalej wskazuje na okladke sprzed uploadu).
+ * <p>
+ * Kolejka jest ograniczona semaforem (threads + queueCapacity miejsc) - miejsce jest rezerwowane jeszcze w requescie,
+ * wiec przy pelnej kolejce upload od razu dostaje 503 zamiast czekac.
+ * <p>
+ * Oryginal obrazka i opis joba leza w processing.spool-dir, a nie na heapie. Opis joba (.job) pojawia sie dopiero
+ * po commicie, a znika po zakonczeniu joba - joby przerwane restartem albo crashem sa wznawiane przy starcie,
+ * wiec encja nie zostaje na zawsze z domyslna okladka. Ponowne wykonanie jest bezpieczne (warunkowy UPDATE).
+ * Spool jest per node - przy wspoldzielonym katalogu job moze sie wykonac dwa razy, drugi raz nic nie podmieni.
+ */
+@Service
+@Slf4j
+public class CoverProcessingQueue {
+
+    public enum Target { SONG, ALBUM, PLAYLIST }
+
+    private final ImageService imageService;
+    private final StorageService storageService;
+    private final StorageKeyRepository storageKeyRepository;
+    private final SongRepository songRepository;
+    private final AlbumRepository albumRepository;
+    private final PlaylistRepository playlistRepository;
+    private final ApplicationConfigProperties.MediaConfig.CoverConfig coverConfig;
+    private final CacheManager cacheManager;
+    private final TransactionTemplate transactionTemplate;
+
+    private final ThreadPoolExecutor executor;
+    private final Semaphore slots;
+    private final Counter rejectedCounter;
+
+    private final Path spoolDir;
+    private final List<Job> recoveredJobs;
+
+    public CoverProcessingQueue(ImageService imageService,
+                                StorageService storageService,
+                                StorageKeyRepository storageKeyRepository,
+                                SongRepository songRepository,
+                                AlbumRepository albumRepository,
+                                PlaylistRepository playlistRepository,
+                                ApplicationConfigProperties.MediaConfig.CoverConfig coverConfig,
+                                ApplicationConfigProperties.MediaConfig.ProcessingConfig processingConfig,
+                                CacheManager cacheManager,
+                                PlatformTransactionManager transactionManager,
+                                MeterRegistry meterRegistry) {
+        this.imageService = imageService;
+        this.storageService = storageService;
+        this.storageKeyRepository = storageKeyRepository;
+        this.songRepository = songRepository;
+        this.albumRepository = albumRepository;
+        this.playlistRepository = playlistRepository;
+        this.coverConfig = coverConfig;
+        this.cacheManager = cacheManager;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(
+                processingConfig.threads(), processingConfig.threads(),
+                0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), // ograniczona przez semafor
+                r -> {
+                    Thread t = new Thread(r, "cover-processing-" + threadNumber.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        this.slots = new Semaphore(processingConfig.threads() + processingConfig.queueCapacity());
+
+        Gauge.builder("soundspace.image.queue.depth", executor, e -> e.getQueue().size())
+                .description("Ilosc okladek czekajacych na przetworzenie")
+                .register(meterRegistry);
+        this.rejectedCounter = Counter.builder("soundspace.image.queue.rejected")
+                .description("Uploady okladek odrzucone przez pelna kolejke (503)")
+                .register(meterRegistry);
+
+        // skan przed startem serwera - zaden request nie pisze jeszcze do spoola
+        this.spoolDir = Path.of(processingConfig.spoolDir());
+        this.recoveredJobs = scanSpool();
+    }
+
+    /**
+     * walidacja obrazka jeszcze w requescie (zly plik = 400 od razu), rezerwacja miejsca w kolejce (pelna = 503)
+     * i start joba po commicie transakcji, w ktorej encja zostala zapisana. przy rollbacku miejsce wraca do puli
+     */
+    public void submit(Target target, Long entityId, Long currentCoverId, MultipartFile coverFile, Long ownerId, String directory) {
+        byte[] imageBytes = imageService.readValidatedImage(coverFile);
+
+        if (!slots.tryAcquire()) {
+            rejectedCounter.increment();
+            throw new ImageProcessingQueueFullException("Za dużo okładek w kolejce do przetworzenia, spróbuj ponownie za chwilę");
+        }
+
+        Job job = new Job(UUID.randomUUID().toString(), target, entityId, currentCoverId,
+                coverFile.getOriginalFilename(), ownerId, directory);
+        try {
+            spool(job, imageBytes);
+        } catch (IOException | RuntimeException e) {
+            discard(job);
+            slots.release();
+            throw new StorageException("Nie udało się zapisać okładki do kolejki przetwarzania", e);
+        }
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            commitAndRun(job);
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                commitAndRun(job);
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status != STATUS_COMMITTED) {
+                    discard(job);
+                    slots.release();
+                }
+            }
+        });
+    }
+
+    /// joby, ktore nie skonczyly sie przed restartem - poza limitem kolejki, bo ich uploady juz dawno dostaly odpowiedz
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeSpooledJobs() {
+        if (recoveredJobs.isEmpty()) return;
+
+        log.info("Wznawianie {} niedokończonych jobów okładek ze spoola", recoveredJobs.size());
+        for (Job job : recoveredJobs) run(job, false);
+        recoveredJobs.clear();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /// HELPERY
+
+    private void commitAndRun(Job job) {
+        try {
+            Files.move(pendingFile(job), jobFile(job), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // job dalej sie wykona, tylko nie zostanie wznowiony po ewentualnym restarcie
+            log.warn("Nie udało się zatwierdzić joba okładki w spoolu: {} id={}", job.target(), job.entityId(), e);
+        }
+        run(job, true);
+    }
+
+    private void run(Job job, boolean holdsSlot) {
+        try {
+            executor.execute(() -> {
+                try {
+                    process(job);
+                } finally {
+                    discard(job);
+                    if (holdsSlot) slots.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // zamykanie aplikacji - plik zostaje w spoolu i job wykona sie po starcie
+            if (holdsSlot) slots.release();
+        }
+    }
+
+    private void process(Job job) {
+        Target target = job.target();
+        Long entityId = job.entityId();
+        AtomicReference<StorageKey> stored = new AtomicReference<>();
+        try {
+            byte[] imageBytes = Files.readAllBytes(imageFile(job));
+
+            // skalowanie (CPU) poza transakcja, polaczenie z baza jest brane dopiero do zapisu i podmiany
+            ProcessedImage processed = imageService.resizeImageAndConvert(imageBytes, job.originalName(),
+                    coverConfig.width(), coverConfig.height(), coverConfig.targetExtension(), coverConfig.quality());
+
+            SwapResult swap = transactionTemplate.execute(status -> {
+                StorageKey newKey = store(processed, job.ownerId(), job.directory());
+                stored.set(newKey);
+                return swap(target, entityId, job.expectedCoverId(), newKey);
+            });
+            StorageKey newKey = stored.getAndSet(null);
+
+            // pliki zwalniane dopiero po commicie - wycofana transakcja nie zostawi encji z okladka bez pliku
+            if (swap == null || !swap.swapped()) {
+                log.info("Okładka nie została podmieniona ({} id={} usunięty albo okładka zmieniona w międzyczasie)", target, entityId);
+                releaseCover(newKey);
+                return;
+            }
+
+            log.info("Podmieniono okładkę: {} id={}, key={}", target, entityId, newKey.getKeyStr());
+            evictCache(target, entityId);
+            if (swap.oldKey() != null) releaseCover(swap.oldKey());
+            // miniatury z bajtow, ktore juz sa w pamieci - bez ponownego czytania pliku przy pierwszym ?size=
+            imageService.generateRenditions(newKey, processed.bytes());
+
+        } catch (Exception e) {
+            // transakcja wycofana po zapisie pliku - wpis StorageKey zniknal, plik trzeba zwolnic recznie
+            if (stored.get() != null) storageService.discardUncommitted(stored.get());
+            log.error("Błąd podczas przetwarzania okładki w tle: {} id={}", target, entityId, e);
+        }
+    }
+
+    private StorageKey store(ProcessedImage processed, Long ownerId, String directory) {
+        try {
+            return storageService.store(new ByteArrayInputStream(processed.bytes()), processed.bytes().length,
+                    ownerId, coverConfig.targetExtension(), directory, processed.contentType());
+        } catch (IOException e) {
+            throw new StorageException("Błąd zapisu pliku {cover}", e);
+        }
+    }
+
+    // stary klucz tylko odczytany - zwalniany po commicie przez releaseCover
+    private SwapResult swap(Target target, Long entityId, Long expectedCoverId, StorageKey newKey) {
+        int updated = switch (target) {
+            case SONG -> songRepository.swapCoverStorageKey(entityId, expectedCoverId, newKey);
+            case ALBUM -> albumRepository.swapCoverStorageKey(entityId, expectedCoverId, newKey);
+            case PLAYLIST -> playlistRepository.swapCoverStorageKey(entityId, expectedCoverId, newKey);
+        };
+        if (updated == 0) return new SwapResult(false, null);
+
+        // piosenki albumu maja kopie okladki albumu
+        if (target == Target.ALBUM) albumRepository.refreshCoverStorageKeyInAlbumSongs(entityId);
+
+        StorageKey oldKey = expectedCoverId.equals(coverConfig.defaultCoverId())
+                ? null
+                : storageKeyRepository.findById(expectedCoverId).orElse(null);
+        return new SwapResult(true, oldKey);
+    }
+
+    // release zmienia ref_count i usuwa wpis StorageKey, wiec w swojej transakcji
+    private void releaseCover(StorageKey storageKey) {
+        transactionTemplate.executeWithoutResult(status -> imageService.cleanUpOldImage(storageKey, "cover"));
+    }
+
+    private void evictCache(Target target, Long entityId) {
+        String cacheName = switch (target) {
+            case SONG -> "song";
+            case ALBUM -> "album";
+            case PLAYLIST -> "playlist";
+        };
+        evict(cacheName, entityId);
+
+        // okladka jest tez w SongBaseDto (rekomendacje, powiazane piosenki), a piosenki albumu dostaly jego okladke
+        if (target == Target.SONG) evict("song-base", entityId);
+        if (target == Target.ALBUM) {
+            for (Long songId : songRepository.findIdsByAlbumId(entityId)) {
+                evict("song", songId);
+                evict("song-base", songId);
+            }
+        }
+    }
+
+    private void evict(String cacheName, Long key) {
+        Cache cache = cacheManager.getCache(cacheName);
+        if (cache != null) cache.evict(key);
+    }
+
+    /// SPOOL
+
+    // {id}.img - oryginal, {id}.pending - opis joba przed commitem, {id}.job - po commicie (do wznowienia)
+    private void spool(Job job, byte[] imageBytes) throws IOException {
+        Files.createDirectories(spoolDir);
+        Files.write(imageFile(job), imageBytes);
+
+        Properties properties = new Properties();
+        properties.setProperty("target", job.target().name());
+        properties.setProperty("entityId", job.entityId().toString());
+        properties.setProperty("expectedCoverId", job.expectedCoverId().toString());
+        properties.setProperty("ownerId", job.ownerId().toString());
+        properties.setProperty("directory", job.directory());
+        if (job.originalName() != null) properties.setProperty("originalName", job.originalName());
+        try (OutputStream out = Files.newOutputStream(pendingFile(job))) {
+            properties.store(out, null);
+        }
+    }
+
+    // .pending bez commita (crash w trakcie requestu) i osierocone obrazki sa usuwane, .job wraca do kolejki
+    private List<Job> scanSpool() {
+        List<Job> jobs = new ArrayList<>();
+        if (!Files.isDirectory(spoolDir)) return jobs;
+
+        try (Stream<Path> listing = Files.list(spoolDir)) {
+            List<Path> files = listing.toList();
+            for (Path file : files) {
+                if (!file.getFileName().toString().endsWith(".job")) continue;
+                try {
+                    jobs.add(readJob(spoolId(file), file));
+                } catch (IOException | RuntimeException e) {
+                    log.warn("Pominięto uszkodzony job okładki w spoolu: {}", file, e);
+                }
+            }
+
+            Set<String> liveIds = jobs.stream().map(Job::id).collect(Collectors.toSet());
+            for (Path file : files) {
+                if (!liveIds.contains(spoolId(file))) Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            log.warn("Nie udało się odczytać spoola okładek: {}", spoolDir, e);
+        }
+        return jobs;
+    }
+
+    private Job readJob(String id, Path file) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+        }
+        return new Job(id,
+                Target.valueOf(properties.getProperty("target")),
+                Long.valueOf(properties.getProperty("entityId")),
+                Long.valueOf(properties.getProperty("expectedCoverId")),
+                properties.getProperty("originalName"),
+                Long.valueOf(properties.getProperty("ownerId")),
+                properties.getProperty("directory"));
+    }
+
+    private void discard(Job job) {
+        try {
+            Files.deleteIfExists(jobFile(job));
+            Files.deleteIfExists(pendingFile(job));
+            Files.deleteIfExists(imageFile(job));
+        } catch (IOException e) {
+            log.warn("Nie udało się usunąć joba okładki ze spoola: {}", job.id(), e);
+        }
+    }
+
+    private static String spoolId(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? name : name.substring(0, dot);
+    }
+
+    private Path imageFile(Job job) { return spoolDir.resolve(job.id() + ".img"); }
+    private Path pendingFile(Job job) { return spoolDir.resolve(job.id() + ".pending"); }
+    private Path jobFile(Job job) { return spoolDir.resolve(job.id() + ".job"); }
+
+    private record SwapResult(boolean swapped, StorageKey oldKey) {}
+
+    private record Job(String id, Target target, Long entityId, Long expectedCoverId, String originalName,
+                       Long ownerId, String directory) {}
+}
@@ -1,12 +1,12 @@
 package com.soundspace.service.storage;
 
+import com.soundspace.config.ApplicationConfigProperties;
 import com.soundspace.dto.ProcessedImage;
 import com.soundspace.entity.AppUser;
 import com.soundspace.entity.StorageKey;
 import com.soundspace.exception.ImageProcessingException;
 import com.soundspace.exception.InvalidStorageLocationException;
 import com.soundspace.exception.StorageException;
-import com.soundspace.repository.StorageKeyRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import net.coobird.thumbnailator.Thumbnails;
@@ -19,10 +19,12 @@ import org.springframework.web.multipart.MultipartFile;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.io.InputStream;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Service
 @RequiredArgsConstructor
@@ -31,7 +33,10 @@ public class ImageService {
 
     private final Tika tika;
     private final StorageService storageService;
-    private final StorageKeyRepository storageKeyRepository;
+    private final ApplicationConfigProperties.MediaConfig.CoverConfig coverConfig;
+
+    // klucz rendition -> trwajace generowanie (zeby kilka requestow naraz nie skalowalo tego samego)
+    private final ConcurrentHashMap<String, CompletableFuture<Void>> renditionsInProgress = new ConcurrentHashMap<>();
 
     private static final int MAX_BYTES = 100 * 1024 * 1024;
 
@@ -50,10 +55,14 @@ public class ImageService {
 
 
     public ProcessedImage resizeImageAndConvert(MultipartFile imageFile, int width, int height, String outputFormat, double quality) {
+        return resizeImageAndConvert(readValidatedImage(imageFile), imageFile.getOriginalFilename(), width, height, outputFormat, quality);
+    }
+
+    /// wersja na samych bajtach - do przetwarzania w tle, kiedy MultipartFile (i jego temp file) juz nie istnieje
+    public ProcessedImage resizeImageAndConvert(byte[] inputBytes, String originalName, int width, int height, String outputFormat, double quality) {
         if (outputFormat == null || outputFormat.isBlank()) {
             throw new IllegalArgumentException("outputFormat nie może być null/empty");
         }
-        validateImage(imageFile);
 
         String validatedOutFormat = outputFormat.toLowerCase();
         String contentType = mimeFromFormat(validatedOutFormat);
@@ -63,9 +72,8 @@ public class ImageService {
         }
 
         try {
-            byte[] outBytes = resizeToBytes(imageFile, width, height, validatedOutFormat, quality);
+            byte[] outBytes = resizeToBytes(inputBytes, width, height, validatedOutFormat, quality);
 
-            String originalName = imageFile.getOriginalFilename();
             String baseName = (originalName == null) ? "image" : originalName.replaceAll("\\.[^.]+$", "");
             String newFilename = baseName + "." + validatedOutFormat;
 
@@ -75,27 +83,8 @@ public class ImageService {
         }
     }
 
-    private byte[] resizeToBytes(MultipartFile imageFile,
-                                int width,
-                                int height,
-                                String outputFormat,
-                                double quality) throws IOException {
-        byte[] inputBytes = imageFile.getBytes();
-
-        try (ByteArrayInputStream in = new ByteArrayInputStream(inputBytes);
-             ByteArrayOutputStream out = new ByteArrayOutputStream()) {
-
-            Thumbnails.of(in)
-                    .size(width, height)
-                    .outputFormat(outputFormat)
-                    .outputQuality(quality)
-                    .toOutputStream(out);
-
-            return out.toByteArray();
-        }
-    }
-
-    private void validateImage(MultipartFile imageFile) {
+    /// walidacja (rozmiar, mime wykryty przez tike) i bajty obrazka - tanie, wiec moze byc jeszcze w requescie
+    public byte[] readValidatedImage(MultipartFile imageFile) {
         try {
             byte[] inputBytes = imageFile.getBytes();
 
@@ -113,20 +102,124 @@ public class ImageService {
             if (!ALLOWED_MIMES.contains(detected)) {
                 throw new IllegalArgumentException("Niedozwolony format wejściowy: " + detected);
             }
+            return inputBytes;
         } catch (IOException e) {
             throw new ImageProcessingException("Błąd podczas przetwarzania pliku w trakcie walidacji", e);
         }
     }
 
+    private byte[] resizeToBytes(byte[] inputBytes,
+                                int width,
+                                int height,
+                                String outputFormat,
+                                double quality) throws IOException {
+        try (ByteArrayInputStream in = new ByteArrayInputStream(inputBytes);
+             ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+
+            Thumbnails.of(in)
+                    .size(width, height)
+                    .outputFormat(outputFormat)
+                    .outputQuality(quality)
+                    .toOutputStream(out);
+
+            return out.toByteArray();
+        }
+    }
+
     private String mimeFromFormat(String format) {
         if (format == null) return null;
         return FORMAT_TO_MIME.get(format.toLowerCase());
     }
 
     public Resource loadImageResource(StorageKey storageKey) {
-        Resource resource = storageService.loadAsResource(storageKey.getKeyStr());
+        return loadImageResource(storageKey, 0);
+    }
 
+    /**
+     * obrazek w danym rozmiarze (0 = oryginal). rendition ktorej jeszcze nie ma (stary upload, avatar, nowy rozmiar
+     * w configu) jest generowana z oryginalu przy pierwszym requescie i zapisywana w storage - kolejne ida prosto z pliku.
+     * rownolegle requesty o ta sama brakujaca rendition czekaja na jedno generowanie
+     */
+    public Resource loadImageResource(StorageKey storageKey, int renditionSize) {
         String storageKeyStr = storageKey.getKeyStr();
+        validateImageLocation(storageKeyStr);
+
+        if (renditionSize <= 0) {
+            return storageService.loadAsResource(storageKeyStr);
+        }
+
+        String renditionKey = StorageService.renditionKey(storageKeyStr, renditionSize, coverConfig.targetExtension());
+        if (!storageService.exists(renditionKey)) {
+            generateRendition(storageKeyStr, renditionKey, renditionSize);
+        }
+        return storageService.loadAsResource(renditionKey);
+    }
+
+    /// najmniejsza rendition >= zadanego rozmiaru (bez rozmycia przy skalowaniu w przegladarce),
+    /// 0 = oryginal, gdy rozmiar nie podany albo wiekszy niz wszystkie rendition
+    public int pickRenditionSize(Integer requestedSize) {
+        if (requestedSize == null || requestedSize <= 0 || coverConfig.renditionSizes() == null) return 0;
+
+        int best = 0;
+        for (int size : coverConfig.renditionSizes()) {
+            if (size >= requestedSize && size < coverConfig.width() && (best == 0 || size < best)) best = size;
+        }
+        return best;
+    }
+
+    /// rendition od razu po zapisie okladki, z bajtow ktore i tak sa w pamieci - bledy tylko logowane, brakujaca wygeneruje sie leniwie
+    public void generateRenditions(StorageKey storageKey, byte[] imageBytes) {
+        if (coverConfig.renditionSizes() == null) return;
+
+        for (int size : coverConfig.renditionSizes()) {
+            if (size >= coverConfig.width()) continue;
+            try {
+                byte[] rendition = resizeToBytes(imageBytes, size, size, coverConfig.targetExtension(), coverConfig.quality());
+                storageService.storeDerived(StorageService.renditionKey(storageKey.getKeyStr(), size, coverConfig.targetExtension()), rendition);
+            } catch (Exception e) {
+                log.warn("Nie udało się wygenerować rendition {} dla: {}", size, storageKey.getKeyStr(), e);
+            }
+        }
+    }
+
+    private void generateRendition(String originalKey, String renditionKey, int size) {
+        CompletableFuture<Void> generation = new CompletableFuture<>();
+        CompletableFuture<Void> inProgress = renditionsInProgress.putIfAbsent(renditionKey, generation);
+        if (inProgress != null) {
+            awaitRendition(inProgress, renditionKey);
+            return;
+        }
+
+        try (InputStream in = storageService.loadAsResource(originalKey).getInputStream()) {
+            byte[] rendition = resizeToBytes(in.readAllBytes(), size, size, coverConfig.targetExtension(), coverConfig.quality());
+            storageService.storeDerived(renditionKey, rendition);
+            log.info("Wygenerowano rendition: {}", renditionKey);
+            generation.complete(null);
+
+        } catch (IOException e) {
+            ImageProcessingException ex = new ImageProcessingException("Błąd podczas generowania mniejszej wersji obrazka", e);
+            generation.completeExceptionally(ex);
+            throw ex;
+        } catch (RuntimeException e) {
+            generation.completeExceptionally(e);
+            throw e;
+        } finally {
+            renditionsInProgress.remove(renditionKey);
+        }
+    }
+
+    /// czekanie na generowanie z innego requestu - join() owija blad w CompletionException, wiec go odpakowujemy
+    private void awaitRendition(CompletableFuture<Void> inProgress, String renditionKey) {
+        try {
+            inProgress.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof ImageProcessingException ex) throw ex;
+            throw new ImageProcessingException("Błąd podczas generowania mniejszej wersji obrazka: " + renditionKey,
+                    e.getCause() != null ? e.getCause() : e);
+        }
+    }
+
+    private void validateImageLocation(String storageKeyStr) {
         if (
                 !storageKeyStr.endsWith(".jpg") ||
 
@@ -135,39 +228,26 @@ public class ImageService {
                 storageKeyStr.startsWith("users/avatars") ||
                 storageKeyStr.startsWith("albums/covers") ||
                 storageKeyStr.startsWith("placeholders") ||
+                storageKeyStr.startsWith(StorageService.CONTENT_DIRECTORY + "/") ||
                 storageKeyStr.startsWith("playlists/covers")
                 )
 
         )
             throw new InvalidStorageLocationException
                     ("Nie można pobrać pliku: niedozwolona ścieżka lub nieobsługiwany typ pliku (wymagany .jpg).");
-
-        return resource;
     }
 
     public StorageKey processAndSaveNewImage(MultipartFile file, AppUser user,
                                              int width, int height, double quality,
                                              String targetExtension, String targetDirectory, String prefix) { // prefix np "avatar"
-        Path tmpAvatar = null;
-
         try {
             // resize/convert -> ProcessedImage
             var processed = resizeImageAndConvert(file, width, height, targetExtension, quality);
 
-            // zapis do temp file
-            tmpAvatar = Files.createTempFile(prefix+"-", "." + targetExtension);
-            Files.write(tmpAvatar, processed.bytes());
-
-            // zapis do storage
-            String storageKey = storageService.saveFromPath(tmpAvatar, user.getId(), targetExtension, targetDirectory);
-            log.info("Zapisano do storage: {}", storageKey);
-
-            // zapis encji StorageKey
-            StorageKey sk = new StorageKey();
-            sk.setKeyStr(storageKey);
-            sk.setMimeType(processed.contentType());
-            sk.setSizeBytes(processed.bytes().length);
-            sk = storageKeyRepository.save(sk);
+            // zapis do storage (bez temp file) + encja StorageKey
+            StorageKey sk = storageService.store(new ByteArrayInputStream(processed.bytes()), processed.bytes().length,
+                    user.getId(), targetExtension, targetDirectory, processed.contentType());
+            log.info("Zapisano do storage: {}", sk.getKeyStr());
 
             return sk;
 
@@ -175,15 +255,6 @@ public class ImageService {
 
         } catch (IOException e) {
             throw new StorageException("Błąd zapisu pliku"+" {"+prefix+"}", e);
-
-        } finally {
-            if (tmpAvatar != null) {
-                try {
-                    Files.deleteIfExists(tmpAvatar);
-                } catch (IOException ex) {
-                    log.warn("Nie udalo sie usunac temp file"+" {"+prefix+"}", ex);
-                }
-            }
         }
     }
 
@@ -191,15 +262,10 @@ public class ImageService {
         // usuwanie poprzedniego image jezeli to nie default
         if (imageStorageKey != null && !imageStorageKey.getId().equals(6767L)) { // 6767L = DEFAULT_AVATAR_IMAGE_STORAGE_KEY_ID
             try {
-                storageService.delete(imageStorageKey.getKeyStr());
+                storageService.release(imageStorageKey);
             } catch (Exception ex) {
                 log.warn("Nie udało się usunąć pliku starego image "+" {"+prefix+")"+" z storage: {}", imageStorageKey.getKeyStr(), ex);
             }
-            try {
-                storageKeyRepository.delete(imageStorageKey);
-            } catch (Exception ex) {
-                log.warn("Nie udało się usunąć wpisu StorageKey starego image "+" ("+prefix+")"+": id={}", imageStorageKey.getId(), ex);
-            }
         }
     }
 }
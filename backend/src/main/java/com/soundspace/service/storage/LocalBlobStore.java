@@ -0,0 +1,119 @@
+package com.soundspace.service.storage;
+
+import com.soundspace.exception.StorageException;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.Optional;
+
+/// pliki na lokalnym dysku pod app.storage.root - dotychczasowe zachowanie StorageService
+public class LocalBlobStore implements BlobStore {
+
+    private final Path rootPath;
+
+    public LocalBlobStore(Path rootPath) {
+        try {
+            this.rootPath = rootPath.toAbsolutePath().normalize();
+            Files.createDirectories(this.rootPath);
+        } catch (IOException e) {
+            throw new StorageException("Nie można zainicjować folderu storage", e);
+        }
+    }
+
+    @Override
+    public long save(String key, InputStream in, long contentLength) throws IOException {
+        Path target = resolve(key);
+        Files.createDirectories(target.getParent());
+        return Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Override
+    public void move(String fromKey, String toKey) throws IOException {
+        Path target = resolve(toKey);
+        Files.createDirectories(target.getParent());
+        try {
+            Files.move(resolve(fromKey), target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(resolve(fromKey), target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    @Override
+    public InputStream openRange(String key, long start, long length) throws IOException {
+        FileChannel channel = FileChannel.open(resolve(key), StandardOpenOption.READ);
+        channel.position(start);
+        return new BoundedInputStream(Channels.newInputStream(channel), length);
+    }
+
+    @Override
+    public long size(String key) throws IOException {
+        return Files.size(resolve(key));
+    }
+
+    @Override
+    public boolean exists(String key) {
+        return Files.exists(resolve(key));
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        Files.deleteIfExists(resolve(key));
+    }
+
+    @Override
+    public void deleteAll(String prefix) throws IOException {
+        // FileSystemUtils.deleteRecursively usuwa folder razem z zawartością (rm -rf)
+        FileSystemUtils.deleteRecursively(resolve(prefix));
+    }
+
+    @Override
+    public Optional<Path> localPath(String key) {
+        return Optional.of(resolve(key));
+    }
+
+    private Path resolve(String key) {
+        Path path = rootPath.resolve(key).normalize();
+        if (!path.startsWith(rootPath)) {
+            throw new StorageException("Niedozwolona ścieżka: " + key);
+        }
+        return path;
+    }
+
+    // czyta najwyzej remaining bajtow
+    private static class BoundedInputStream extends FilterInputStream {
+        private long remaining;
+
+        BoundedInputStream(InputStream in, long remaining) {
+            super(in);
+            this.remaining = remaining;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) return -1;
+            int b = super.read();
+            if (b != -1) remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) return -1;
+            int n = super.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) remaining -= n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+    }
+}
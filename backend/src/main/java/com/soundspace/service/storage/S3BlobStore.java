@@ -0,0 +1,147 @@
+package com.soundspace.service.storage;
+
+import com.soundspace.exception.StorageException;
+import lombok.extern.slf4j.Slf4j;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * pliki w buckecie S3 (albo czymkolwiek S3-kompatybilnym, lokalnie MinIO z docker-compose --profile s3).
+ * kazdy node backendu widzi te same pliki, wiec nie trzeba wspoldzielonego dysku
+ */
+@Slf4j
+public class S3BlobStore implements BlobStore, AutoCloseable {
+
+    private static final int DELETE_BATCH_SIZE = 1000; // limit DeleteObjects
+
+    private final S3Client s3;
+    private final String bucket;
+
+    public S3BlobStore(S3Client s3, String bucket) {
+        this.s3 = s3;
+        this.bucket = bucket;
+        createBucketIfMissing();
+    }
+
+    @Override
+    public long save(String key, InputStream in, long contentLength) throws IOException {
+        try {
+            s3.putObject(PutObjectRequest.builder().bucket(bucket).key(key).build(),
+                    RequestBody.fromInputStream(in, contentLength));
+            return contentLength;
+        } catch (SdkException e) {
+            throw new IOException("Nie udało się zapisać obiektu w S3: " + key, e);
+        }
+    }
+
+    @Override
+    public void move(String fromKey, String toKey) throws IOException {
+        try {
+            s3.copyObject(CopyObjectRequest.builder()
+                    .sourceBucket(bucket).sourceKey(fromKey)
+                    .destinationBucket(bucket).destinationKey(toKey)
+                    .build());
+            s3.deleteObject(DeleteObjectRequest.builder().bucket(bucket).key(fromKey).build());
+        } catch (SdkException e) {
+            throw new IOException("Nie udało się przenieść obiektu w S3: " + fromKey + " -> " + toKey, e);
+        }
+    }
+
+    @Override
+    public InputStream openRange(String key, long start, long length) throws IOException {
+        if (length <= 0) return InputStream.nullInputStream();
+
+        try {
+            return s3.getObject(GetObjectRequest.builder()
+                    .bucket(bucket)
+                    .key(key)
+                    .range("bytes=" + start + "-" + (start + length - 1))
+                    .build());
+        } catch (NoSuchKeyException e) {
+            throw new NoSuchFileException(key);
+        } catch (SdkException e) {
+            throw new IOException("Nie udało się odczytać obiektu z S3: " + key, e);
+        }
+    }
+
+    @Override
+    public long size(String key) throws IOException {
+        try {
+            return s3.headObject(HeadObjectRequest.builder().bucket(bucket).key(key).build()).contentLength();
+        } catch (NoSuchKeyException e) {
+            throw new NoSuchFileException(key);
+        } catch (SdkException e) {
+            throw new IOException("Nie udało się odczytać metadanych obiektu z S3: " + key, e);
+        }
+    }
+
+    @Override
+    public boolean exists(String key) {
+        try {
+            s3.headObject(HeadObjectRequest.builder().bucket(bucket).key(key).build());
+            return true;
+        } catch (NoSuchKeyException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        try {
+            s3.deleteObject(DeleteObjectRequest.builder().bucket(bucket).key(key).build());
+        } catch (SdkException e) {
+            throw new IOException("Nie udało się usunąć obiektu z S3: " + key, e);
+        }
+    }
+
+    @Override
+    public void deleteAll(String prefix) throws IOException {
+        try {
+            List<ObjectIdentifier> batch = new ArrayList<>(DELETE_BATCH_SIZE);
+            for (S3Object object : s3.listObjectsV2Paginator(ListObjectsV2Request.builder().bucket(bucket).prefix(prefix).build()).contents()) {
+                batch.add(ObjectIdentifier.builder().key(object.key()).build());
+                if (batch.size() == DELETE_BATCH_SIZE) {
+                    deleteBatch(batch);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) deleteBatch(batch);
+
+        } catch (SdkException e) {
+            throw new IOException("Nie udało się usunąć obiektów z S3 pod prefixem: " + prefix, e);
+        }
+    }
+
+    @Override
+    public void close() {
+        s3.close();
+    }
+
+    /// HELPERY
+
+    private void deleteBatch(List<ObjectIdentifier> batch) {
+        s3.deleteObjects(DeleteObjectsRequest.builder()
+                .bucket(bucket)
+                .delete(Delete.builder().objects(batch).quiet(true).build())
+                .build());
+    }
+
+    private void createBucketIfMissing() {
+        try {
+            s3.headBucket(HeadBucketRequest.builder().bucket(bucket).build());
+        } catch (NoSuchBucketException e) {
+            log.info("Bucket {} nie istnieje - tworzenie", bucket);
+            s3.createBucket(CreateBucketRequest.builder().bucket(bucket).build());
+        } catch (SdkException e) {
+            throw new StorageException("Nie można połączyć się z bucketem S3: " + bucket, e);
+        }
+    }
+}
@@ -1,63 +1,152 @@
 package com.soundspace.service.storage;
 
+import com.soundspace.config.ApplicationConfigProperties;
 import com.soundspace.entity.StorageKey;
 import com.soundspace.exception.StorageException;
 import com.soundspace.exception.StorageFileNotFoundException;
 import com.soundspace.repository.StorageKeyRepository;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.core.io.UrlResource;
 import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.ResourceRegion;
 import org.springframework.stereotype.Service;
-import org.springframework.util.FileSystemUtils;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.nio.file.*;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
 
 @Service
 @Slf4j
 public class StorageService {
 
-    private final Path rootPath;
+    // katalog plikow adresowanych trescia: content/{ownerId}/{sha256}.{ext}
+    public static final String CONTENT_DIRECTORY = "content";
+
+    // mniejsze wersje obrazkow: renditions/{klucz oryginalu}/{rozmiar}.{ext} - znikaja razem z oryginalem
+    public static final String RENDITIONS_DIRECTORY = "renditions";
+
+    private final BlobStore blobStore;
     private final StorageKeyRepository storageKeyRepository;
+    private final boolean contentAddressed;
 
-    public StorageService(@Value("${app.storage.root:./data}") String rootStr, StorageKeyRepository storageKeyRepository) {
-        try {
-            this.rootPath = Paths.get(rootStr).toAbsolutePath().normalize();
-            Files.createDirectories(this.rootPath);
-        } catch (IOException e) {
-            throw new StorageException("Nie można zainicjować folderu storage", e);
-        }
+    public StorageService(BlobStore blobStore, StorageKeyRepository storageKeyRepository,
+                          ApplicationConfigProperties.StorageConfig storageConfig) {
+        this.blobStore = blobStore;
         this.storageKeyRepository = storageKeyRepository;
+        this.contentAddressed = storageConfig.contentAddressed();
     }
 
     /**
-     * plik source -> storage i zwraca storageKey czyli path gdzie jest
+     * strumien (upload, przetworzony obrazek) -> storage razem z encja StorageKey, w jednym przejsciu:
+     * bajty ida prosto pod docelowy klucz, a SHA-256 i rozmiar licza sie w locie, bez pliku tymczasowego.
+     * jezeli zapis sie wywali w trakcie, to co zdazylo sie zapisac jest od razu usuwane.
+     * <p>
+     * domyslnie kazdy zapis to nowy plik pod UUID. przy app.storage.content-addressed plik trafia pod
+     * content/{ownerId}/{sha256}.{ext} - hash jest znany dopiero po zapisie, wiec bajty ida pod tymczasowy klucz
+     * w tym samym katalogu i na koniec sa przenoszone (lokalnie rename). jezeli ten sam wlasciciel wrzuci drugi raz
+     * te sama tresc (np. ta sama okladka do albumu i playlisty), dostaje istniejacy StorageKey z ref_count + 1.
+     * klucz jest per wlasciciel, wiec deleteAllUserFiles dalej moze usunac caly jego katalog
      */
-    public String saveFromPath(Path source, Long ownerId, String extension, String subDirectory) throws IOException {
-        String key = String.format("%s/%d/%s.%s", subDirectory, ownerId == null ? 0 : ownerId, UUID.randomUUID(), extension);
-        Path target = rootPath.resolve(key).normalize();
-        Files.createDirectories(target.getParent());
-        try {
-            Files.createDirectories(target.getParent());
-            try {
-                Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
-            } catch (AtomicMoveNotSupportedException e) {
-                Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
-            }
-            return key;
-        } catch (IOException e) {
-            throw new StorageException("Nie udało się zapisać pliku w storage", e);
+    public StorageKey store(InputStream in, long contentLength, Long ownerId, String extension, String subDirectory, String mimeType) throws IOException {
+        long owner = ownerId == null ? 0 : ownerId;
+        String key = contentAddressed
+                ? String.format("%s/%d/.upload-%s.%s", CONTENT_DIRECTORY, owner, UUID.randomUUID(), extension)
+                : String.format("%s/%d/%s.%s", subDirectory, owner, UUID.randomUUID(), extension);
+
+        MessageDigest digest = sha256();
+        long sizeBytes;
+        try (DigestInputStream digestIn = new DigestInputStream(in, digest)) {
+            sizeBytes = blobStore.save(key, digestIn, contentLength);
+        } catch (IOException | RuntimeException e) {
+            deleteQuietly(key);
+            throw e;
+        }
+        String sha256 = HexFormat.of().formatHex(digest.digest());
+
+        if (!contentAddressed) {
+            return storageKeyRepository.save(newStorageKey(key, mimeType, sizeBytes, sha256));
+        }
+
+        String contentKey = String.format("%s/%d/%s.%s", CONTENT_DIRECTORY, owner, sha256, extension);
+        Optional<StorageKey> existing = storageKeyRepository.findByKeyStr(contentKey);
+        if (existing.isEmpty()) {
+            blobStore.move(key, contentKey);
+            return storageKeyRepository.save(newStorageKey(contentKey, mimeType, sizeBytes, sha256));
+        }
+
+        // wpis jest, a pliku nie ma (np. usuniety recznie) - tresc jest ta sama, wiec po prostu wraca na miejsce
+        if (blobStore.exists(contentKey)) deleteQuietly(key);
+        else blobStore.move(key, contentKey);
+
+        storageKeyRepository.incrementRefCount(existing.get().getId());
+        log.debug("Deduplikacja pliku: key={}", contentKey);
+        return existing.get();
+    }
+
+    /**
+     * zwolnienie referencji do pliku - plik i wpis StorageKey znikaja dopiero przy ostatniej referencji.
+     * bez content-addressed ref_count zawsze = 1, wiec dziala jak dotychczasowe delete + usuniecie wpisu
+     */
+    public void release(StorageKey storageKey) throws IOException {
+        if (storageKeyRepository.decrementRefCountIfShared(storageKey.getId()) > 0) {
+            log.debug("Zmniejszono ref_count pliku: key={}", storageKey.getKeyStr());
+            return;
+        }
+
+        delete(storageKey.getKeyStr());
+        if (storageKey.getMimeType() != null && storageKey.getMimeType().startsWith("image/")) {
+            deleteRenditions(storageKey.getKeyStr());
+        }
+        storageKeyRepository.deleteById(storageKey.getId());
+    }
+
+    /**
+     * plik zapisany przez store() w transakcji, ktora potem zostala wycofana - wpis StorageKey zniknal razem z nia,
+     * wiec plik jest usuwany. przy content-addressed ten sam plik mogl juz miec zapisany wpis innej encji - wtedy zostaje
+     */
+    public void discardUncommitted(StorageKey storageKey) {
+        if (storageKeyRepository.findByKeyStr(storageKey.getKeyStr()).isPresent()) return;
+        deleteQuietly(storageKey.getKeyStr());
+    }
+
+    public static String renditionKey(String originalKey, int size, String extension) {
+        return RENDITIONS_DIRECTORY + "/" + originalKey + "/" + size + "." + extension;
+    }
+
+    /**
+     * zapis pliku pochodnego (bez encji StorageKey, np. rendition obrazka) - najpierw pod tymczasowy klucz obok,
+     * potem rename, zeby rownolegly odczyt nigdy nie trafil na niedopisany plik
+     */
+    public void storeDerived(String key, byte[] bytes) throws IOException {
+        String tmpKey = key + ".tmp-" + UUID.randomUUID();
+        try (InputStream in = new ByteArrayInputStream(bytes)) {
+            blobStore.save(tmpKey, in, bytes.length);
+            blobStore.move(tmpKey, key);
+        } catch (IOException | RuntimeException e) {
+            deleteQuietly(tmpKey);
+            throw e;
         }
     }
 
+    public boolean exists(String storageKey) {
+        return blobStore.exists(storageKey);
+    }
+
     public Resource loadAsResource(String storageKey) {
         try {
-            Path file = rootPath.resolve(storageKey).normalize();
-            Resource resource = new UrlResource(file.toUri());
+            Optional<Path> localPath = blobStore.localPath(storageKey);
+            Resource resource = localPath.isPresent()
+                    ? new UrlResource(localPath.get().toUri())
+                    : new BlobResource(blobStore, storageKey, blobStore.size(storageKey));
 
             if (resource.exists() || resource.isReadable()) {
                 return resource;
@@ -70,14 +159,31 @@ public class StorageService {
         }
     }
 
-    public Path resolvePath(String storageKey) {
-        return rootPath.resolve(storageKey).normalize();
+    /**
+     * fragment pliku do odpowiedzi 206. lokalnie zwykly plik, przy S3 resource otwiera ranged GET
+     * dokladnie na ten fragment (bez sciagania calego pliku)
+     */
+    public ResourceRegion loadRegion(String storageKey, long start, long length, long totalLength) throws IOException {
+        Optional<Path> localPath = blobStore.localPath(storageKey);
+        Resource resource = localPath.isPresent()
+                ? new UrlResource(localPath.get().toUri())
+                : new BlobResource(blobStore, storageKey, totalLength, start + length);
+        return new ResourceRegion(resource, start, length);
+    }
+
+    /// lokalna sciezka pliku (tylko lokalny store) - do wysylki przez sendfile
+    public Optional<Path> localPath(String storageKey) {
+        return blobStore.localPath(storageKey);
+    }
+
+    /// rozmiar pliku w storage (stat albo HEAD), NoSuchFileException gdy pliku nie ma
+    public long size(String storageKey) throws IOException {
+        return blobStore.size(storageKey);
     }
 
     public void delete(String storageKey) throws IOException {
-        Path file = resolvePath(storageKey);
         try {
-            Files.deleteIfExists(file);
+            blobStore.delete(storageKey);
         } catch (IOException e) {
             throw new StorageException("Nie udało się usunąć pliku: " + storageKey, e);
         }
@@ -97,24 +203,61 @@ public class StorageService {
                 "albums/covers",
                 "playlists/covers",
                 "songs/covers",
-                "songs/audio"
+                "songs/audio",
+                CONTENT_DIRECTORY,
+                RENDITIONS_DIRECTORY + "/users/avatars",
+                RENDITIONS_DIRECTORY + "/albums/covers",
+                RENDITIONS_DIRECTORY + "/playlists/covers",
+                RENDITIONS_DIRECTORY + "/songs/covers",
+                RENDITIONS_DIRECTORY + "/" + CONTENT_DIRECTORY
         );
 
         for (String dir : userDirectories) {
             try {
-                // np data/users/avatars/{id usera}
-                Path userDir = rootPath.resolve(dir).resolve(String.valueOf(userId)).normalize();
-
-                // FileSystemUtils.deleteRecursively usuwa folder razem z zawartością (rm -rf)
-                boolean deleted = FileSystemUtils.deleteRecursively(userDir);
+                // np users/avatars/{id usera}/
+                String userPrefix = dir + "/" + userId + "/";
+                blobStore.deleteAll(userPrefix);
+                log.debug("Usunięto pliki pod: {}", userPrefix);
 
-                if (deleted) {
-                     log.debug("Usunięto folder: {}", userDir);
-                }
             } catch (IOException e) {
                 log.warn("Nie udało się usunąć folderu usera: {}", dir, e);
             }
         }
     }
 
+    /// HELPERY
+
+    private void deleteRenditions(String originalKey) {
+        try {
+            blobStore.deleteAll(RENDITIONS_DIRECTORY + "/" + originalKey + "/");
+        } catch (IOException e) {
+            log.warn("Nie udało się usunąć mniejszych wersji obrazka: {}", originalKey, e);
+        }
+    }
+
+    // rollback zapisu bez temp file - usuwa to, co zdazylo trafic do storage
+    private void deleteQuietly(String key) {
+        try {
+            blobStore.delete(key);
+        } catch (Exception e) {
+            log.warn("Nie udało się usunąć niedokończonego pliku ze storage: {}", key, e);
+        }
+    }
+
+    private StorageKey newStorageKey(String key, String mimeType, long sizeBytes, String sha256) {
+        StorageKey storageKey = new StorageKey();
+        storageKey.setKeyStr(key);
+        storageKey.setMimeType(mimeType);
+        storageKey.setSizeBytes(sizeBytes);
+        storageKey.setContentHash(sha256);
+        return storageKey;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Brak SHA-256 w JVM", e);
+        }
+    }
 }
@@ -7,6 +7,7 @@ import com.soundspace.service.storage.StorageService;
 import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
@@ -24,6 +25,8 @@ public class AppUserDeletionService {
     private final PlaylistRepository playlistRepository;
     private final SongReactionRepository songReactionRepository;
     private final SongViewRepository songViewRepository;
+    private final SongViewDailyRepository songViewDailyRepository;
+    private final UserTasteProfileRepository userTasteProfileRepository;
     private final SongRepository songRepository;
     private final AlbumRepository albumRepository;
     private final AppUserRepository appUserRepository;
@@ -33,6 +36,7 @@ public class AppUserDeletionService {
 
     // BULK DELETE -> 15 zapytań do bazy
     @Transactional
+    @CacheEvict(value = {"stream-descriptor", "song-exists"}, allEntries = true)
     public void deleteUser(String requesterEmail) {
         AppUser appUser = appUserService.getUserByEmail(requesterEmail);
         Long appUserId = appUser.getId();
@@ -55,11 +59,15 @@ public class AppUserDeletionService {
         // usuniecie wszystkich statystyk piosenek nalezacych do uzytkownika
         songStatisticsRepository.deleteAllByUserId(appUserId);
 
+        // usuniecie profilu gustu (rekomendacje) uzytkownika
+        userTasteProfileRepository.deleteByUserId(appUserId);
+
         // usuniecie wszystkich reakcji uzytkownika i reakcji dotyczacych piosenek uzytkownika
         songReactionRepository.deleteAllRelatedToUser(appUserId);
 
         // usuniecie wszystkich wyswietlen na piosenkach uzytkownika i odpiecie uzytkownika od jego wyswietlen na innych piosenkach
         songViewRepository.deleteAllBySongAuthorId(appUserId);
+        songViewDailyRepository.deleteAllBySongAuthorId(appUserId);
         songViewRepository.detachUserFromViews(appUserId);
 
         // usunięcie wszystkich piosenek i następnie albumów uzytkownika
@@ -86,6 +94,7 @@ public class AppUserDeletionService {
     }
 
     @Transactional
+    @CacheEvict(value = {"stream-descriptor", "song-exists"}, allEntries = true) // deleteUser wolany wewnatrz klasy, wiec evict z niego nie zadziala
     public void deleteUserByAdmin(Long userId, String requesterEmail){
         AppUser sadUserSentencedForEternalDeletion = appUserService.getUserById(userId);
         AppUser requester = null;
@@ -14,6 +14,7 @@ import com.soundspace.service.storage.StorageService;
 import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.http.HttpStatus;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
@@ -25,9 +26,8 @@ import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.server.ResponseStatusException;
 import java.util.List;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
 
 @Service
 @Slf4j
@@ -37,7 +37,6 @@ public class AppUserService {
     private final PasswordEncoder passwordEncoder;
     private final StorageService storageService;
     private final ImageService imageService;
-    private final StorageKeyRepository storageKeyRepository;
     private final ApplicationConfigProperties.MediaConfig.AvatarConfig avatarConfig;
 
     public AppUserDto getAppUser(Long userId) {
@@ -54,6 +53,7 @@ public class AppUserService {
     }
 
     @Transactional
+    @CacheEvict(value = "song-base", allEntries = true, condition = "#request.username() != null") // login autora w SongBaseDto
     public AppUserDto update(AppUserUpdateRequest request, UserDetails userDetails) {
 
         // user details subject to email zamiast username -> getUsername() zwraca email
@@ -136,27 +136,16 @@ public class AppUserService {
     // ///////////////////////// HELPERS ////////////////////////// //
 
     private AppUser processAndSaveNewAvatar(MultipartFile avatar, AppUser updatedUser) {
-        Path tmpAvatar = null;
         StorageKey previous = updatedUser.getAvatarStorageKey(); // może być placeholder
 
         try {
             // resize/convert -> ProcessedImage
             var processed = imageService.resizeImageAndConvert(avatar, avatarConfig.width(), avatarConfig.height(), avatarConfig.targetExtension(), avatarConfig.quality());
 
-            // zapis do temp file
-            tmpAvatar = Files.createTempFile("avatar-", "." + avatarConfig.targetExtension());
-            Files.write(tmpAvatar, processed.bytes());
-
-            // zapis do storage
-            String storageKey = storageService.saveFromPath(tmpAvatar, updatedUser.getId(), avatarConfig.targetExtension(), avatarConfig.directory());
-            log.info("Zapisano avatar do storage: {}", storageKey);
-
-            // zapis encji StorageKey
-            StorageKey sk = new StorageKey();
-            sk.setKeyStr(storageKey);
-            sk.setMimeType(processed.contentType());
-            sk.setSizeBytes(processed.bytes().length);
-            sk = storageKeyRepository.save(sk);
+            // zapis do storage (bez temp file) + encja StorageKey
+            StorageKey sk = storageService.store(new ByteArrayInputStream(processed.bytes()), processed.bytes().length,
+                    updatedUser.getId(), avatarConfig.targetExtension(), avatarConfig.directory(), processed.contentType());
+            log.info("Zapisano avatar do storage: {}", sk.getKeyStr());
 
             // docelowy zapis update
             updatedUser.setAvatarStorageKey(sk);
@@ -171,15 +160,6 @@ public class AppUserService {
 
         } catch (IOException e) {
             throw new StorageException("Błąd zapisu pliku avatara", e);
-
-        } finally {
-            if (tmpAvatar != null) {
-                try {
-                    Files.deleteIfExists(tmpAvatar);
-                } catch (IOException ex) {
-                    log.warn("Nie udalo sie usunac temp file avatara", ex);
-                }
-            }
         }
     }
 
@@ -187,15 +167,10 @@ public class AppUserService {
         // usuwanie poprzedniego avatara jezeli to nie devault
         if (previous != null && !previous.getId().equals(avatarConfig.defaultAvatarId())) {
             try {
-                storageService.delete(previous.getKeyStr());
+                storageService.release(previous);
             } catch (Exception ex) {
                 log.warn("Nie udało się usunąć pliku starego avatara z storage: {}", previous.getKeyStr(), ex);
             }
-            try {
-                storageKeyRepository.delete(previous);
-            } catch (Exception ex) {
-                log.warn("Nie udało się usunąć wpisu StorageKey starego avatara: id={}", previous.getId(), ex);
-            }
         }
     }
 
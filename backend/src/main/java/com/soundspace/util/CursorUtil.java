@@ -0,0 +1,57 @@
+package com.soundspace.util;
+
+import com.soundspace.dto.CursorPage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Kursor paginacji keyset: klucz sortowania + id ostatniego elementu strony, zakodowane w base64url,
+ * zeby klient traktowal go jako nieprzezroczysty token i nie skladal go sam.
+ */
+public class CursorUtil {
+
+    public static final int DEFAULT_SIZE = 20;
+    public static final int MAX_SIZE = 100;
+
+    private CursorUtil() {}
+
+    public static String encode(long... keys) {
+        String raw = String.join(":", Arrays.stream(keys).mapToObj(Long::toString).toList());
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /// brak kursora = pierwsza strona, wtedy kazdy klucz to Long.MAX_VALUE (wszystko jest "przed" nim)
+    public static long[] decode(String cursor, int keyCount) {
+        if (cursor == null || cursor.isBlank()) {
+            long[] first = new long[keyCount];
+            Arrays.fill(first, Long.MAX_VALUE);
+            return first;
+        }
+
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.US_ASCII);
+            long[] keys = Arrays.stream(raw.split(":")).mapToLong(Long::parseLong).toArray();
+            if (keys.length != keyCount) throw new IllegalArgumentException();
+            return keys;
+        } catch (IllegalArgumentException e) { // NumberFormatException tez
+            throw new IllegalArgumentException("Nieprawidłowy kursor paginacji");
+        }
+    }
+
+    public static int size(Integer requested) {
+        if (requested == null) return DEFAULT_SIZE;
+        return Math.max(1, Math.min(requested, MAX_SIZE));
+    }
+
+    /// zapytania pobieraja size + 1 wierszy - nadmiarowy oznacza, ze jest kolejna strona
+    public static <T> CursorPage<T> toCursorPage(List<T> rows, int size, Function<T, String> cursorOf) {
+        if (rows.size() <= size) return new CursorPage<>(rows, null, false);
+
+        List<T> content = rows.subList(0, size);
+        return new CursorPage<>(List.copyOf(content), cursorOf.apply(content.getLast()), true);
+    }
+}
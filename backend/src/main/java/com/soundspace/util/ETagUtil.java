@@ -0,0 +1,39 @@
+package com.soundspace.util;
+
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+public class ETagUtil {
+
+    /// silny ETag z StorageKey - plik pod danym storageKeyId nigdy sie nie zmienia (nowy upload = nowy StorageKey),
+    /// wiec id + rozmiar wystarczy i nie trzeba czytac pliku zeby go policzyc
+    public static String fromStorageKey(Long storageKeyId, long sizeBytes) {
+        return "\"" + storageKeyId + "-" + sizeBytes + "\"";
+    }
+
+    /// ETag mniejszej wersji obrazka - inne bajty niz oryginal, wiec i inny tag (0 = oryginal)
+    public static String fromStorageKey(Long storageKeyId, long sizeBytes, int renditionSize) {
+        if (renditionSize <= 0) return fromStorageKey(storageKeyId, sizeBytes);
+        return "\"" + storageKeyId + "-" + sizeBytes + "-r" + renditionSize + "\"";
+    }
+
+    /// If-Range: ETag porownywany silnie (W/ nigdy nie pasuje), data musi byc rowna Last-Modified (co do sekundy).
+    /// brak naglowka = Range obowiazuje normalnie
+    public static boolean isIfRangeSatisfied(String ifRangeHeader, String eTag, Instant lastModified) {
+        if (ifRangeHeader == null || ifRangeHeader.isBlank()) return true;
+
+        String value = ifRangeHeader.trim();
+        if (value.startsWith("\"") || value.startsWith("W/")) {
+            return value.equals(eTag);
+        }
+
+        try {
+            Instant date = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+            return lastModified != null && date.getEpochSecond() == lastModified.getEpochSecond();
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+}
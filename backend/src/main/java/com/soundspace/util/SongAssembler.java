@@ -23,7 +23,8 @@ public class SongAssembler {
 
     /**
      * Przyjmuje listę DTO (np. z Cache'a) i zwraca nową listę
-     * ze zaktualizowanymi licznikami lajków i wyświetleń pobranymi prosto z bazy.
+     * ze zaktualizowanymi licznikami lajków i wyświetleń pobranymi prosto z bazy
+     * (razem ze slotami licznikow, ktorych kompaktor jeszcze nie przeniosl).
      * Piosenki zachowują swoją kolejność
      */
     @Transactional(readOnly = true)
@@ -36,7 +37,7 @@ public class SongAssembler {
                 .map(SongStatslessDto::id)
                 .toList();
 
-        List<SongStatistics> statistics = songStatisticsRepository.findAllById(songIds);
+        List<SongStatistics> statistics = songStatisticsRepository.findAllByIdWithShards(songIds);
 
         Map<Long, SongStatistics> statsMap = statistics.stream()
                 .collect(Collectors.toMap(SongStatistics::getId, Function.identity()));
@@ -57,7 +58,8 @@ public class SongAssembler {
     public SongDtoWithDetails addStatistics(SongStatslessDto cachedDto) {
         if (cachedDto == null) return null;
 
-        return songStatisticsRepository.findById(cachedDto.id())
+        return songStatisticsRepository.findAllByIdWithShards(List.of(cachedDto.id())).stream()
+                .findFirst()
                 .map(cachedDto::withStatistics)
                 .orElse(cachedDto.withStatistics(null));
     }
@@ -0,0 +1,68 @@
+package com.soundspace.util;
+
+/**
+ * Top-k na tablicach prymitywow (ids[i], scores[i]) - min-kopiec na int[] zamiast sortowania wszystkich wynikow
+ * i bez pudelkowania. Uzywane przez ranking trending i scoring rekomendacji.
+ */
+public final class TopK {
+
+    private TopK() {}
+
+    /// indeksy k najwiekszych wynikow sposrod pierwszych n, malejaco (remis = nowsza piosenka, czyli wieksze id)
+    public static int[] indices(long[] ids, double[] scores, int n, int k) {
+        k = Math.min(k, n);
+        int[] heap = new int[k]; // min-kopiec: na szczycie najslabszy z najlepszych
+        int size = 0;
+        for (int i = 0; i < n; i++) {
+            if (size < k) {
+                heap[size] = i;
+                siftUp(heap, size++, ids, scores);
+            } else if (k > 0 && better(i, heap[0], ids, scores)) {
+                heap[0] = i;
+                siftDown(heap, size, ids, scores);
+            }
+        }
+
+        // zdejmowanie z min-kopca daje kolejnosc rosnaca - wpisujemy od konca
+        int[] result = new int[size];
+        for (int i = size - 1; i >= 0; i--) {
+            result[i] = heap[0];
+            heap[0] = heap[--size];
+            siftDown(heap, size, ids, scores);
+        }
+        return result;
+    }
+
+    private static boolean better(int a, int b, long[] ids, double[] scores) {
+        return scores[a] > scores[b] || (scores[a] == scores[b] && ids[a] > ids[b]);
+    }
+
+    private static void siftUp(int[] heap, int index, long[] ids, double[] scores) {
+        while (index > 0) {
+            int parent = (index - 1) / 2;
+            if (!better(heap[parent], heap[index], ids, scores)) return;
+            swap(heap, parent, index);
+            index = parent;
+        }
+    }
+
+    private static void siftDown(int[] heap, int size, long[] ids, double[] scores) {
+        int index = 0;
+        while (true) {
+            int left = 2 * index + 1;
+            int right = left + 1;
+            int weakest = index;
+            if (left < size && better(heap[weakest], heap[left], ids, scores)) weakest = left;
+            if (right < size && better(heap[weakest], heap[right], ids, scores)) weakest = right;
+            if (weakest == index) return;
+            swap(heap, weakest, index);
+            index = weakest;
+        }
+    }
+
+    private static void swap(int[] heap, int a, int b) {
+        int tmp = heap[a];
+        heap[a] = heap[b];
+        heap[b] = tmp;
+    }
+}
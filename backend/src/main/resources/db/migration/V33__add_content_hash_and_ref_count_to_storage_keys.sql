@@ -0,0 +1,5 @@
+ALTER TABLE storage_keys
+    ADD COLUMN content_hash VARCHAR(64);
+
+ALTER TABLE storage_keys
+    ADD COLUMN ref_count INTEGER NOT NULL DEFAULT 1;
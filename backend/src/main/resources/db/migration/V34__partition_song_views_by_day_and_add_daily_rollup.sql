@@ -0,0 +1,81 @@
+-- song_views dzielone na dzienne partycje (po viewed_at), stare partycje sa agregowane do song_view_daily
+-- i dropowane przez SongViewMaintenanceService zamiast rosnac w nieskonczonosc.
+-- dni liczone w strefie sesji - sterownik JDBC ustawia ja na strefe JVM, w ktorej Hibernate zapisuje viewed_at.
+-- bez partycji DEFAULT: DETACH PARTITION ... CONCURRENTLY jej nie dopuszcza, a wiersze w niej blokowalyby
+-- tworzenie partycji na ich dzien
+
+BEGIN;
+
+ALTER TABLE song_views RENAME TO song_views_legacy;
+ALTER TABLE song_views_legacy RENAME CONSTRAINT pk_song_views TO pk_song_views_legacy;
+
+CREATE TABLE song_view_daily
+(
+    view_day   DATE   NOT NULL,
+    song_id    BIGINT NOT NULL,
+    view_count BIGINT NOT NULL DEFAULT 0,
+    CONSTRAINT pk_song_view_daily PRIMARY KEY (view_day, song_id),
+    CONSTRAINT FK_SONG_VIEW_DAILY_ON_SONG FOREIGN KEY (song_id) REFERENCES songs (id)
+);
+
+CREATE INDEX idx_song_view_daily_song ON song_view_daily (song_id);
+
+-- identity na tabeli partycjonowanej dopiero od PG 17, wiec zwykla sekwencja
+CREATE SEQUENCE song_views_partitioned_id_seq;
+
+CREATE TABLE song_views
+(
+    id         BIGINT                      NOT NULL DEFAULT nextval('song_views_partitioned_id_seq'),
+    user_id    BIGINT,
+    song_id    BIGINT,
+    ip_address VARCHAR(255),
+    viewed_at  TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+    CONSTRAINT pk_song_views PRIMARY KEY (id, viewed_at), -- klucz partycji musi byc w PK
+    CONSTRAINT FK_SONG_VIEWS_ON_SONG FOREIGN KEY (song_id) REFERENCES songs (id),
+    CONSTRAINT FK_SONG_VIEWS_ON_USER FOREIGN KEY (user_id) REFERENCES app_users (id),
+    CONSTRAINT chk_user_or_ip_required CHECK (user_id IS NOT NULL OR ip_address IS NOT NULL)
+) PARTITION BY RANGE (viewed_at);
+
+ALTER SEQUENCE song_views_partitioned_id_seq OWNED BY song_views.id;
+
+-- indeksy na rodzicu - kazda partycja dostaje swoje (male, dropowane razem z partycja)
+CREATE INDEX idx_song_views_song_viewed_at ON song_views (song_id, viewed_at);
+CREATE INDEX idx_song_views_user ON song_views (user_id);
+
+-- partycje od poczatku okna retencji (app.views.retention.raw-days = 3) do tygodnia w przod, plus dni
+-- przenoszonych wierszy spoza tego zakresu (np. z przyszlosci). kolejne dokladane codziennie przez SongViewMaintenanceService
+DO
+$$
+    DECLARE
+        d DATE;
+    BEGIN
+        FOR d IN SELECT generate_series(CURRENT_DATE - 3, CURRENT_DATE + 7, INTERVAL '1 day')::date
+                 UNION
+                 SELECT DISTINCT viewed_at::date FROM song_views_legacy WHERE viewed_at >= CURRENT_DATE - 3
+            LOOP
+                EXECUTE format('CREATE TABLE %I PARTITION OF song_views FOR VALUES FROM (%L) TO (%L)',
+                               'song_views_p' || to_char(d, 'YYYYMMDD'), d, d + 1);
+            END LOOP;
+    END
+$$;
+
+-- wszystkie zakonczone dni z historii do agregatu
+INSERT INTO song_view_daily (view_day, song_id, view_count)
+SELECT viewed_at::date, song_id, COUNT(*)
+FROM song_views_legacy
+WHERE viewed_at < CURRENT_DATE
+  AND viewed_at IS NOT NULL
+  AND song_id IS NOT NULL
+GROUP BY viewed_at::date, song_id;
+
+-- surowe wiersze tylko z okna retencji
+INSERT INTO song_views (id, user_id, song_id, ip_address, viewed_at)
+SELECT id, user_id, song_id, ip_address, viewed_at
+FROM song_views_legacy
+WHERE viewed_at >= CURRENT_DATE - 3;
+
+SELECT setval('song_views_partitioned_id_seq', COALESCE((SELECT MAX(id) FROM song_views_legacy), 0) + 1, false);
+
+DROP TABLE song_views_legacy;
+
+COMMIT;
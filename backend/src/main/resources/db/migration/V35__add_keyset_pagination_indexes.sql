@@ -0,0 +1,13 @@
+-- indeksy pod paginacje kursorem: kolejna strona to zakres po indeksie, bez skanowania pominietych wierszy
+
+CREATE INDEX idx_songs_public_id_desc ON songs (id DESC) WHERE publicly_visible = true;
+
+CREATE INDEX idx_songs_user_id_desc ON songs (user_id, id DESC);
+
+CREATE INDEX idx_song_genres_genre_song_desc ON song_genres (genre, song_id DESC);
+
+CREATE INDEX idx_song_statistics_likes_views_song
+    ON song_statistics (likes_count DESC, view_count DESC, song_id DESC);
+
+CREATE INDEX idx_song_statistics_views_song
+    ON song_statistics (view_count DESC, song_id DESC);
@@ -0,0 +1,13 @@
+-- opcjonalne (app.statistics.sharded-counters) sloty licznikow dla song_statistics - zapisy z wielu nodow trafiaja
+-- do losowego slotu zamiast blokowac jeden wiersz popularnej piosenki, kompaktor przenosi sumy do song_statistics.
+-- bez klucza obcego: sloty usunietej piosenki kompaktor po prostu usuwa
+
+CREATE TABLE song_statistics_shards
+(
+    song_id        BIGINT  NOT NULL,
+    slot           INTEGER NOT NULL,
+    view_count     BIGINT  NOT NULL DEFAULT 0,
+    likes_count    BIGINT  NOT NULL DEFAULT 0,
+    dislikes_count BIGINT  NOT NULL DEFAULT 0,
+    CONSTRAINT pk_song_statistics_shards PRIMARY KEY (song_id, slot)
+);
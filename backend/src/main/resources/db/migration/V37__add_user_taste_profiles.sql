@@ -0,0 +1,14 @@
+-- przyrostowo aktualizowany profil gustu do rekomendacji (jeden wiersz na uzytkownika zamiast calej historii reakcji).
+-- pusta tabela jest ok - profil budowany jest z song_reactions przy pierwszych rekomendacjach uzytkownika
+
+CREATE TABLE user_taste_profiles
+(
+    user_id        BIGINT                      NOT NULL,
+    genre_weights  TEXT                        NOT NULL,
+    author_weights TEXT                        NOT NULL,
+    total_mass     DOUBLE PRECISION            NOT NULL,
+    built_at       TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+    updated_at     TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+    CONSTRAINT pk_user_taste_profiles PRIMARY KEY (user_id),
+    CONSTRAINT FK_USER_TASTE_PROFILES_ON_USER FOREIGN KEY (user_id) REFERENCES app_users (id)
+);
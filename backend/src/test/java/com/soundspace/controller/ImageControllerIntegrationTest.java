@@ -0,0 +1,88 @@
+package com.soundspace.controller;
+
+import com.soundspace.entity.StorageKey;
+import com.soundspace.repository.StorageKeyRepository;
+import com.soundspace.service.storage.StorageService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.FileSystemUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = {
+        "app.media.cover.width=1200",
+        "app.media.cover.height=1200",
+        "app.storage.root=${java.io.tmpdir}/soundspace-image-test"
+})
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+@Transactional
+class ImageControllerIntegrationTest {
+
+    private static final Path ROOT = Path.of(System.getProperty("java.io.tmpdir"), "soundspace-image-test");
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private StorageKeyRepository storageKeyRepository;
+
+    private StorageKey coverKey;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        String keyStr = "songs/covers/1/" + java.util.UUID.randomUUID() + ".jpg";
+        Path file = ROOT.resolve(keyStr);
+        Files.createDirectories(file.getParent());
+        ImageIO.write(new BufferedImage(1200, 1200, BufferedImage.TYPE_INT_RGB), "jpg", file.toFile());
+
+        coverKey = new StorageKey();
+        coverKey.setKeyStr(keyStr);
+        coverKey.setMimeType("image/jpeg");
+        coverKey.setSizeBytes(Files.size(file));
+        coverKey.setCreatedAt(Instant.now());
+        coverKey = storageKeyRepository.save(coverKey);
+    }
+
+    @AfterEach
+    void tearDown() {
+        FileSystemUtils.deleteRecursively(ROOT.toFile());
+    }
+
+    @Test
+    void sizeParameterServesNearestLargerRendition() throws Exception {
+        byte[] body = mockMvc.perform(get("/api/images/{id}", coverKey.getId()).param("size", "60"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"" + coverKey.getId() + "-" + coverKey.getSizeBytes() + "-r64\""))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        assertEquals(64, ImageIO.read(new ByteArrayInputStream(body)).getWidth());
+        assertTrue(Files.exists(ROOT.resolve(StorageService.renditionKey(coverKey.getKeyStr(), 64, "jpg"))));
+    }
+
+    @Test
+    void sizeLargerThanRenditionsServesOriginal() throws Exception {
+        mockMvc.perform(get("/api/images/{id}", coverKey.getId()).param("size", "1000"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"" + coverKey.getId() + "-" + coverKey.getSizeBytes() + "\""));
+    }
+}
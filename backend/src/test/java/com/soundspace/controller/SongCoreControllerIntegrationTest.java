@@ -14,6 +14,7 @@ import com.soundspace.repository.StorageKeyRepository;
 import com.soundspace.service.AlbumService;
 import com.soundspace.service.storage.ImageService;
 import com.soundspace.service.storage.StorageService;
+import com.jayway.jsonpath.JsonPath;
 import org.apache.tika.Tika;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
@@ -29,7 +30,7 @@ import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.transaction.annotation.Transactional;
 
-import java.io.File;
+import java.io.InputStream;
 import java.time.Instant;
 import java.util.List;
 
@@ -48,8 +49,7 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
         "app.media.cover.height=300",
         "app.media.cover.quality=0.8",
         "app.media.cover.target-extension=jpg",
-        "app.media.cover.song-directory=songs/covers",
-        "app.media.cover.default-cover-id=1"
+        "app.media.cover.song-directory=songs/covers"
 })
 @AutoConfigureMockMvc
 @ActiveProfiles("test")
@@ -86,11 +86,16 @@ class SongCoreControllerIntegrationTest {
 
     @BeforeEach
     void setUp() throws Exception {
-        given(storageService.saveFromPath(any(), any(), any(), any()))
-                .willAnswer(invocation -> "fake-s3-key-" +
-                                          java.util.UUID.randomUUID().toString());
+        given(storageService.store(any(), anyLong(), any(), any(), any(), any()))
+                .willAnswer(invocation -> {
+                    StorageKey key = new StorageKey();
+                    key.setKeyStr("fake-s3-key-" + java.util.UUID.randomUUID());
+                    key.setMimeType(invocation.getArgument(5));
+                    key.setSizeBytes(10);
+                    return storageKeyRepository.save(key);
+                });
 
-        given(tika.detect(any(File.class))).willReturn("audio/mp4");
+        given(tika.detect(any(InputStream.class))).willReturn("audio/mp4");
 
         ProcessedImage dummyProcessedImage = new ProcessedImage(
                 new byte[10],
@@ -101,6 +106,7 @@ class SongCoreControllerIntegrationTest {
         given(imageService.resizeImageAndConvert(any(), anyInt(),
                 anyInt(), any(), anyDouble()))
                 .willReturn(dummyProcessedImage);
+        given(imageService.readValidatedImage(any())).willReturn(new byte[10]);
 
         StorageKey dummyKey = new StorageKey();
         dummyKey.setKeyStr("avatar-key-" + java.util.UUID.randomUUID());
@@ -206,4 +212,28 @@ class SongCoreControllerIntegrationTest {
         mockMvc.perform(get("/api/songs/{id}", privateSong.getId()))
                 .andExpect(status().isForbidden());
     }
-}
\ No newline at end of file
+
+    @Test
+    @WithMockUser(username = "sigma@soundspace.com")
+    void getSongsByCursor_PagesThroughOwnedAndPublic() throws Exception {
+        String firstPage = mockMvc.perform(get("/api/songs/cursor").param("size", "1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content[0].id").value(privateSong.getId()))
+                .andExpect(jsonPath("$.hasNext").value(true))
+                .andReturn().getResponse().getContentAsString();
+
+        String cursor = JsonPath.read(firstPage, "$.nextCursor");
+
+        mockMvc.perform(get("/api/songs/cursor").param("size", "1").param("cursor", cursor))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content[0].id").value(publicSong.getId()))
+                .andExpect(jsonPath("$.hasNext").value(false))
+                .andExpect(jsonPath("$.nextCursor").doesNotExist());
+    }
+
+    @Test
+    void getSongsByCursor_InvalidCursor_BadRequest() throws Exception {
+        mockMvc.perform(get("/api/songs/cursor").param("cursor", "nie-kursor"))
+                .andExpect(status().isBadRequest());
+    }
+}
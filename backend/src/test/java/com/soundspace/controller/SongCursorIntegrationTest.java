@@ -0,0 +1,174 @@
+package com.soundspace.controller;
+
+import com.soundspace.entity.AppUser;
+import com.soundspace.entity.Song;
+import com.soundspace.entity.StorageKey;
+import com.soundspace.enums.Genre;
+import com.soundspace.enums.Role;
+import com.soundspace.enums.Sex;
+import com.soundspace.enums.UserAuthProvider;
+import com.soundspace.repository.AppUserRepository;
+import com.soundspace.repository.SongRepository;
+import com.soundspace.repository.StorageKeyRepository;
+import com.jayway.jsonpath.JsonPath;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/// przejscie kursorem po calej liscie malymi stronami - bez duplikatow i dziur, takze przy remisach liczby like/wyswietlen
+@SpringBootTest
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+@Transactional
+class SongCursorIntegrationTest {
+
+    private static final int PAGE_SIZE = 2;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private AppUserRepository appUserRepository;
+
+    @Autowired
+    private SongRepository songRepository;
+
+    @Autowired
+    private StorageKeyRepository storageKeyRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        StorageKey dummyKey = new StorageKey();
+        dummyKey.setKeyStr("test-key-" + UUID.randomUUID());
+        dummyKey.setMimeType("image/jpeg");
+        dummyKey.setSizeBytes(100L);
+        dummyKey.setCreatedAt(Instant.now());
+        storageKeyRepository.save(dummyKey);
+
+        AppUser author = appUserRepository.save(AppUser.builder()
+                .email("cursor@soundspace.com")
+                .login("cursor")
+                .passwordHash("pass-hash")
+                .role(Role.ROLE_USER)
+                .sex(Sex.MALE)
+                .authProvider(UserAuthProvider.LOCAL)
+                .emailVerified(true)
+                .createdAt(Instant.now())
+                .avatarStorageKey(dummyKey)
+                .build());
+
+        // duzo remisow: likes 0..2, views 0/10 - kolejnosc rozstrzyga dopiero id
+        List<Song> songs = new ArrayList<>();
+        for (int i = 0; i < 9; i++) {
+            songs.add(songRepository.save(song("jazz-" + i, author, dummyKey, Genre.JAZZ, true)));
+        }
+        songs.add(songRepository.save(song("rock", author, dummyKey, Genre.ROCK, true)));
+        songs.add(songRepository.save(song("private-jazz", author, dummyKey, Genre.JAZZ, false)));
+        songRepository.flush();
+
+        for (int i = 0; i < songs.size(); i++) {
+            songs.get(i).getStatistics().setLikesCount(i % 3);
+            songs.get(i).getStatistics().setViewCount(i % 2 * 10L);
+        }
+        songRepository.flush();
+    }
+
+    @Test
+    void genreCursorWalksAllPublicSongsOfGenre() throws Exception {
+        List<Long> expected = jdbcTemplate.queryForList("""
+                SELECT s.id FROM songs s JOIN song_genres g ON g.song_id = s.id
+                WHERE g.genre = 'JAZZ' AND s.publicly_visible = true
+                ORDER BY s.id DESC
+                """, Long.class);
+
+        List<Long> walked = walk("/api/songs/genre/JAZZ/cursor");
+
+        assertThat(expected).hasSizeGreaterThanOrEqualTo(9);
+        assertThat(walked).doesNotHaveDuplicates().containsExactlyElementsOf(expected);
+    }
+
+    @Test
+    void topLikedCursorWalksAllPublicSongs() throws Exception {
+        List<Long> expected = jdbcTemplate.queryForList("""
+                SELECT s.id FROM songs s JOIN song_statistics st ON st.song_id = s.id
+                WHERE s.publicly_visible = true
+                ORDER BY st.likes_count DESC, st.view_count DESC, s.id DESC
+                """, Long.class);
+
+        List<Long> walked = walk("/api/songs/top/liked/cursor");
+
+        assertThat(walked).doesNotHaveDuplicates().containsExactlyElementsOf(expected);
+    }
+
+    @Test
+    void topViewedCursorWalksAllPublicSongs() throws Exception {
+        List<Long> expected = jdbcTemplate.queryForList("""
+                SELECT s.id FROM songs s JOIN song_statistics st ON st.song_id = s.id
+                WHERE s.publicly_visible = true
+                ORDER BY st.view_count DESC, s.id DESC
+                """, Long.class);
+
+        List<Long> walked = walk("/api/songs/top/viewed/cursor");
+
+        assertThat(walked).doesNotHaveDuplicates().containsExactlyElementsOf(expected);
+    }
+
+    /// HELPERY
+
+    private List<Long> walk(String url) throws Exception {
+        List<Long> ids = new ArrayList<>();
+        HashSet<String> cursors = new HashSet<>();
+        String cursor = null;
+
+        while (true) {
+            MockHttpServletRequestBuilder request = get(url).param("size", String.valueOf(PAGE_SIZE));
+            if (cursor != null) request.param("cursor", cursor);
+
+            String body = mockMvc.perform(request)
+                    .andExpect(status().isOk())
+                    .andReturn().getResponse().getContentAsString();
+
+            List<Number> pageIds = JsonPath.read(body, "$.content[*].id");
+            assertThat(pageIds).hasSizeLessThanOrEqualTo(PAGE_SIZE);
+            pageIds.forEach(id -> ids.add(id.longValue()));
+
+            if (!Boolean.TRUE.equals(JsonPath.read(body, "$.hasNext"))) return ids;
+
+            cursor = JsonPath.read(body, "$.nextCursor");
+            // kursor ktory sie powtarza = petla bez konca
+            assertThat(cursors.add(cursor)).as("powtorzony kursor %s", cursor).isTrue();
+        }
+    }
+
+    private Song song(String title, AppUser author, StorageKey key, Genre genre, boolean publiclyVisible) {
+        return Song.builder()
+                .title(title)
+                .author(author)
+                .publiclyVisible(publiclyVisible)
+                .genres(List.of(genre))
+                .audioStorageKey(key)
+                .coverStorageKey(key)
+                .createdAt(Instant.now())
+                .build();
+    }
+}
@@ -0,0 +1,215 @@
+package com.soundspace.controller;
+
+import com.soundspace.entity.AppUser;
+import com.soundspace.entity.Song;
+import com.soundspace.entity.StorageKey;
+import com.soundspace.enums.Genre;
+import com.soundspace.enums.Role;
+import com.soundspace.enums.Sex;
+import com.soundspace.enums.UserAuthProvider;
+import com.soundspace.repository.AppUserRepository;
+import com.soundspace.repository.SongRepository;
+import com.soundspace.repository.StorageKeyRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+
+import static org.hamcrest.Matchers.startsWith;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = {
+        "app.streaming.initial-chunk-bytes=1024",
+        "app.streaming.max-chunk-bytes=4096",
+        "app.streaming.multi-range-max-bytes=2048",
+        "app.storage.root=${java.io.tmpdir}/soundspace-stream-test"
+})
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+@Transactional
+class SongStreamControllerIntegrationTest {
+
+    private static final int FILE_SIZE = 64 * 1024;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private SongRepository songRepository;
+
+    @Autowired
+    private AppUserRepository appUserRepository;
+
+    @Autowired
+    private StorageKeyRepository storageKeyRepository;
+
+    private Path audioFile;
+    private Song song;
+    private AppUser author;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        String audioKeyStr = "songs/audio/1/" + java.util.UUID.randomUUID() + ".m4a";
+        audioFile = Path.of(System.getProperty("java.io.tmpdir"), "soundspace-stream-test").resolve(audioKeyStr);
+        Files.createDirectories(audioFile.getParent());
+        Files.write(audioFile, new byte[FILE_SIZE]);
+
+        StorageKey audioKey = new StorageKey();
+        audioKey.setKeyStr(audioKeyStr);
+        audioKey.setMimeType("audio/mp4");
+        audioKey.setSizeBytes(FILE_SIZE);
+        audioKey.setCreatedAt(Instant.now());
+        storageKeyRepository.save(audioKey);
+
+        author = appUserRepository.save(AppUser.builder()
+                .email("stream@soundspace.com")
+                .login("stream")
+                .passwordHash("hashed_password")
+                .role(Role.ROLE_USER)
+                .sex(Sex.MALE)
+                .authProvider(UserAuthProvider.LOCAL)
+                .emailVerified(true)
+                .createdAt(Instant.now())
+                .avatarStorageKey(audioKey)
+                .build());
+
+        song = songRepository.save(Song.builder()
+                .title("stream")
+                .author(author)
+                .publiclyVisible(true)
+                .genres(List.of(Genre.POP))
+                .audioStorageKey(audioKey)
+                .coverStorageKey(audioKey)
+                .createdAt(Instant.now())
+                .build());
+
+        songRepository.flush();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        Files.deleteIfExists(audioFile);
+    }
+
+    @Test
+    void viewIsRegisteredOnlyForExistingSong() throws Exception {
+        mockMvc.perform(post("/api/songs/{id}/registerView", song.getId())
+                        .with(request -> { request.setRemoteAddr("10.0.0.7"); return request; }))
+                .andExpect(status().isOk());
+        mockMvc.perform(post("/api/songs/{id}/registerView", song.getId())
+                        .with(request -> { request.setRemoteAddr("10.0.0.7"); return request; }))
+                .andExpect(status().isNoContent());
+
+        mockMvc.perform(post("/api/songs/{id}/registerView", song.getId() + 1_000)
+                        .with(request -> { request.setRemoteAddr("10.0.0.7"); return request; }))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void firstRequestGetsInitialChunk() throws Exception {
+        mockMvc.perform(get("/api/songs/stream/{id}", song.getId())
+                        .header(HttpHeaders.RANGE, "bytes=0-"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 0-1023/" + FILE_SIZE));
+    }
+
+    @Test
+    void sequentialRequestsGrowChunkAndSeekResetsIt() throws Exception {
+        mockMvc.perform(get("/api/songs/stream/{id}", song.getId())
+                        .header(HttpHeaders.RANGE, "bytes=0-"))
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 0-1023/" + FILE_SIZE));
+
+        mockMvc.perform(get("/api/songs/stream/{id}", song.getId())
+                        .header(HttpHeaders.RANGE, "bytes=1024-"))
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 1024-3071/" + FILE_SIZE));
+
+        mockMvc.perform(get("/api/songs/stream/{id}", song.getId())
+                        .header(HttpHeaders.RANGE, "bytes=3072-"))
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 3072-7167/" + FILE_SIZE));
+
+        // seek
+        mockMvc.perform(get("/api/songs/stream/{id}", song.getId())
+                        .header(HttpHeaders.RANGE, "bytes=30000-"))
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 30000-31023/" + FILE_SIZE));
+    }
+
+    @Test
+    void multipleRangesAreReturnedAsByteranges() throws Exception {
+        mockMvc.perform(get("/api/songs/stream/{id}", song.getId())
+                        .header(HttpHeaders.RANGE, "bytes=0-99, -5000"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_TYPE, startsWith("multipart/byteranges")));
+    }
+
+    @Test
+    void matchingIfNoneMatchReturnsNotModified() throws Exception {
+        String eTag = mockMvc.perform(get("/api/songs/stream/{id}", song.getId())
+                        .header(HttpHeaders.RANGE, "bytes=0-"))
+                .andExpect(header().stringValues(HttpHeaders.ETAG, org.hamcrest.Matchers.<String>iterableWithSize(1)))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        mockMvc.perform(get("/api/songs/stream/{id}", song.getId())
+                        .header(HttpHeaders.RANGE, "bytes=0-")
+                        .header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().isNotModified());
+    }
+
+    @Test
+    void staleIfRangeIgnoresRange() throws Exception {
+        mockMvc.perform(get("/api/songs/stream/{id}", song.getId())
+                        .header(HttpHeaders.RANGE, "bytes=30000-")
+                        .header(HttpHeaders.IF_RANGE, "\"stale-etag\""))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, startsWith("bytes 0-")));
+    }
+
+    @Test
+    void privateSongAccessFollowsAuthorAfterEmailChange() throws Exception {
+        song.setPubliclyVisible(false);
+        songRepository.flush();
+
+        // descriptor trafia do cache przed zmiana emaila
+        mockMvc.perform(get("/api/songs/stream/{id}", song.getId())
+                        .header(HttpHeaders.RANGE, "bytes=0-")
+                        .with(user(author)))
+                .andExpect(status().isPartialContent());
+
+        author.setEmail("stream-new@soundspace.com");
+        appUserRepository.flush();
+        AppUser newOwnerOfOldEmail = appUserRepository.saveAndFlush(AppUser.builder()
+                .email("stream@soundspace.com")
+                .login("stream2")
+                .passwordHash("hashed_password")
+                .role(Role.ROLE_USER)
+                .sex(Sex.MALE)
+                .authProvider(UserAuthProvider.LOCAL)
+                .emailVerified(true)
+                .createdAt(Instant.now())
+                .avatarStorageKey(author.getAvatarStorageKey())
+                .build());
+
+        mockMvc.perform(get("/api/songs/stream/{id}", song.getId())
+                        .header(HttpHeaders.RANGE, "bytes=0-")
+                        .with(user(author)))
+                .andExpect(status().isPartialContent());
+        mockMvc.perform(get("/api/songs/stream/{id}", song.getId())
+                        .header(HttpHeaders.RANGE, "bytes=0-")
+                        .with(user(newOwnerOfOldEmail)))
+                .andExpect(status().isForbidden());
+    }
+}
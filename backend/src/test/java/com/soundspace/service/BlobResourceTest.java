@@ -0,0 +1,92 @@
+package com.soundspace.service;
+
+import com.soundspace.service.storage.BlobResource;
+import com.soundspace.service.storage.BlobStore;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.support.ResourceRegion;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.ResourceRegionHttpMessageConverter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/// fragment z BlobStore bez lokalnej sciezki (S3) ma byc jednym ranged GETem na dokladnie ten zakres
+class BlobResourceTest {
+
+    private static final int SIZE = 10_000;
+
+    @Test
+    void regionIsReadWithSingleRangedRead() throws Exception {
+        byte[] content = new byte[SIZE];
+        for (int i = 0; i < SIZE; i++) content[i] = (byte) i;
+        RecordingBlobStore blobStore = new RecordingBlobStore(content);
+
+        ResourceRegion region = new ResourceRegion(new BlobResource(blobStore, "songs/audio/1/a.m4a", SIZE, 6000), 5000, 1000);
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        new ResourceRegionHttpMessageConverter().write(region, MediaType.parseMediaType("audio/mp4"), new BodyOutputMessage(body));
+
+        assertEquals(List.of("5000+1000"), blobStore.reads);
+        assertArrayEquals(Arrays.copyOfRange(content, 5000, 6000), body.toByteArray());
+    }
+
+    private static class RecordingBlobStore implements BlobStore {
+        private final byte[] content;
+        private final List<String> reads = new ArrayList<>();
+
+        RecordingBlobStore(byte[] content) {
+            this.content = content;
+        }
+
+        @Override
+        public InputStream openRange(String key, long start, long length) {
+            reads.add(start + "+" + length);
+            return new ByteArrayInputStream(content, (int) start, (int) length);
+        }
+
+        @Override
+        public long size(String key) {
+            return content.length;
+        }
+
+        @Override
+        public boolean exists(String key) {
+            return true;
+        }
+
+        @Override
+        public long save(String key, InputStream in, long contentLength) {
+            return 0;
+        }
+
+        @Override
+        public void move(String fromKey, String toKey) {}
+
+        @Override
+        public void delete(String key) {}
+
+        @Override
+        public void deleteAll(String prefix) {}
+    }
+
+    private record BodyOutputMessage(OutputStream body) implements HttpOutputMessage {
+        @Override
+        public OutputStream getBody() {
+            return body;
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return new HttpHeaders();
+        }
+    }
+}
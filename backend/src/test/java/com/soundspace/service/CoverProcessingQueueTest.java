@@ -0,0 +1,212 @@
+package com.soundspace.service;
+
+import com.soundspace.config.ApplicationConfigProperties;
+import com.soundspace.dto.ProcessedImage;
+import com.soundspace.entity.StorageKey;
+import com.soundspace.exception.ImageProcessingQueueFullException;
+import com.soundspace.repository.AlbumRepository;
+import com.soundspace.repository.PlaylistRepository;
+import com.soundspace.repository.SongRepository;
+import com.soundspace.repository.StorageKeyRepository;
+import com.soundspace.service.storage.CoverProcessingQueue;
+import com.soundspace.service.storage.ImageService;
+import com.soundspace.service.storage.StorageService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.cache.support.NoOpCacheManager;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionSystemException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/// limit kolejki, wznawianie jobow ze spoola po restarcie i sprzatanie plikow dopiero po wyniku transakcji
+class CoverProcessingQueueTest {
+
+    private static final ProcessedImage PROCESSED = new ProcessedImage(new byte[5], "cover.jpg", "image/jpeg");
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final List<CoverProcessingQueue> queues = new ArrayList<>();
+    private final MockMultipartFile cover = new MockMultipartFile("coverFile", "cover.jpg", "image/jpeg", new byte[10]);
+
+    @TempDir
+    Path spoolDir;
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        queues.forEach(CoverProcessingQueue::shutdown);
+    }
+
+    @Test
+    void rejectsWhenQueueIsFull() throws Exception {
+        ImageService imageService = mock(ImageService.class);
+        when(imageService.readValidatedImage(any())).thenReturn(new byte[10]);
+
+        CountDownLatch started = new CountDownLatch(1);
+        when(imageService.resizeImageAndConvert(any(byte[].class), any(), anyInt(), anyInt(), any(), anyDouble()))
+                .thenAnswer(invocation -> {
+                    started.countDown();
+                    release.await(10, TimeUnit.SECONDS);
+                    throw new IllegalStateException("test");
+                });
+
+        CoverProcessingQueue queue = queue(imageService, mock(StorageService.class), mock(SongRepository.class));
+
+        queue.submit(CoverProcessingQueue.Target.SONG, 1L, 6767L, cover, 1L, "songs/covers");
+        started.await(10, TimeUnit.SECONDS);
+        queue.submit(CoverProcessingQueue.Target.SONG, 2L, 6767L, cover, 1L, "songs/covers");
+
+        assertEquals(1.0, meterRegistry.get("soundspace.image.queue.depth").gauge().value());
+        assertThrows(ImageProcessingQueueFullException.class,
+                () -> queue.submit(CoverProcessingQueue.Target.SONG, 3L, 6767L, cover, 1L, "songs/covers"));
+        assertEquals(1.0, meterRegistry.get("soundspace.image.queue.rejected").counter().count());
+    }
+
+    @Test
+    void jobInterruptedByRestartIsResumedFromSpool() throws Exception {
+        // pierwszy "node" przyjmuje upload i staje w trakcie joba (jak przy zabitym procesie)
+        ImageService stuckImageService = mock(ImageService.class);
+        when(stuckImageService.readValidatedImage(any())).thenReturn(new byte[10]);
+        CountDownLatch started = new CountDownLatch(1);
+        when(stuckImageService.resizeImageAndConvert(any(byte[].class), any(), anyInt(), anyInt(), any(), anyDouble()))
+                .thenAnswer(invocation -> {
+                    started.countDown();
+                    release.await(10, TimeUnit.SECONDS);
+                    throw new IllegalStateException("test");
+                });
+        queue(stuckImageService, mock(StorageService.class), mock(SongRepository.class))
+                .submit(CoverProcessingQueue.Target.SONG, 7L, 6767L, cover, 1L, "songs/covers");
+        started.await(10, TimeUnit.SECONDS);
+
+        // po restarcie job jest wznawiany z tego samego spoola
+        ImageService imageService = mock(ImageService.class);
+        when(imageService.resizeImageAndConvert(any(byte[].class), any(), anyInt(), anyInt(), any(), anyDouble()))
+                .thenReturn(PROCESSED);
+        StorageService storageService = mock(StorageService.class);
+        when(storageService.store(any(), anyLong(), any(), any(), any(), any())).thenReturn(storageKey("songs/covers/1/new.jpg"));
+        SongRepository songRepository = mock(SongRepository.class);
+        when(songRepository.swapCoverStorageKey(eq(7L), eq(6767L), any())).thenReturn(1);
+
+        queue(imageService, storageService, songRepository).resumeSpooledJobs();
+
+        verify(songRepository, timeout(5_000)).swapCoverStorageKey(eq(7L), eq(6767L), any());
+        release.countDown();
+        assertTrue(spoolIsEmptyWithin(5_000), "spool po zakonczonym jobie ma byc pusty");
+    }
+
+    @Test
+    void storedFileIsDiscardedWhenSwapTransactionFails() throws Exception {
+        ImageService imageService = mock(ImageService.class);
+        when(imageService.readValidatedImage(any())).thenReturn(new byte[10]);
+        when(imageService.resizeImageAndConvert(any(byte[].class), any(), anyInt(), anyInt(), any(), anyDouble()))
+                .thenReturn(PROCESSED);
+        StorageKey stored = storageKey("songs/covers/1/orphan.jpg");
+        StorageService storageService = mock(StorageService.class);
+        when(storageService.store(any(), anyLong(), any(), anyString(), anyString(), anyString())).thenReturn(stored);
+        SongRepository songRepository = mock(SongRepository.class);
+        when(songRepository.swapCoverStorageKey(any(), any(), any())).thenThrow(new IllegalStateException("baza padla"));
+
+        queue(imageService, storageService, songRepository)
+                .submit(CoverProcessingQueue.Target.SONG, 8L, 6767L, cover, 1L, "songs/covers");
+
+        verify(storageService, timeout(5_000)).discardUncommitted(stored);
+    }
+
+    @Test
+    void oldCoverIsNotReleasedWhenSwapCommitFails() throws Exception {
+        ImageService imageService = mock(ImageService.class);
+        when(imageService.readValidatedImage(any())).thenReturn(new byte[10]);
+        when(imageService.resizeImageAndConvert(any(byte[].class), any(), anyInt(), anyInt(), any(), anyDouble()))
+                .thenReturn(PROCESSED);
+        StorageKey stored = storageKey("songs/covers/1/new.jpg");
+        StorageService storageService = mock(StorageService.class);
+        when(storageService.store(any(), anyLong(), any(), anyString(), anyString(), anyString())).thenReturn(stored);
+        StorageKeyRepository storageKeyRepository = mock(StorageKeyRepository.class);
+        when(storageKeyRepository.findById(5L)).thenReturn(Optional.of(storageKey("songs/covers/1/old.jpg")));
+        SongRepository songRepository = mock(SongRepository.class);
+        when(songRepository.swapCoverStorageKey(any(), any(), any())).thenReturn(1);
+        PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+        doThrow(new TransactionSystemException("commit padl")).when(transactionManager).commit(any());
+
+        queue(imageService, storageService, storageKeyRepository, songRepository, transactionManager)
+                .submit(CoverProcessingQueue.Target.SONG, 8L, 5L, cover, 1L, "songs/covers");
+
+        // podmiana wycofana - encja dalej wskazuje na stara okladke, wiec jej plik musi zostac
+        verify(storageService, timeout(5_000)).discardUncommitted(stored);
+        verify(imageService, never()).cleanUpOldImage(any(), any());
+    }
+
+    /// HELPERY
+
+    private CoverProcessingQueue queue(ImageService imageService, StorageService storageService, SongRepository songRepository) {
+        return queue(imageService, storageService, mock(StorageKeyRepository.class), songRepository,
+                mock(PlatformTransactionManager.class));
+    }
+
+    private CoverProcessingQueue queue(ImageService imageService, StorageService storageService,
+                                       StorageKeyRepository storageKeyRepository, SongRepository songRepository,
+                                       PlatformTransactionManager transactionManager) {
+        CoverProcessingQueue queue = new CoverProcessingQueue(
+                imageService,
+                storageService,
+                storageKeyRepository,
+                songRepository,
+                mock(AlbumRepository.class),
+                mock(PlaylistRepository.class),
+                new ApplicationConfigProperties.MediaConfig.CoverConfig("jpg", 300, 300, 0.8, 6767L,
+                        "albums/covers", "playlists/covers", "songs/covers", List.of(64)),
+                new ApplicationConfigProperties.MediaConfig.ProcessingConfig(1, 1, spoolDir.toString()),
+                new NoOpCacheManager(),
+                transactionManager,
+                meterRegistry);
+        queues.add(queue);
+        return queue;
+    }
+
+    private static StorageKey storageKey(String keyStr) {
+        StorageKey key = new StorageKey();
+        key.setId(100L);
+        key.setKeyStr(keyStr);
+        key.setMimeType("image/jpeg");
+        return key;
+    }
+
+    private boolean spoolIsEmptyWithin(long millis) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + millis;
+        while (System.currentTimeMillis() < deadline) {
+            try (Stream<Path> files = Files.list(spoolDir)) {
+                if (files.findAny().isEmpty()) return true;
+            }
+            Thread.sleep(20);
+        }
+        return false;
+    }
+}
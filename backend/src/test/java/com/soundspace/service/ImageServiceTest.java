@@ -0,0 +1,80 @@
+package com.soundspace.service;
+
+import com.soundspace.config.ApplicationConfigProperties;
+import com.soundspace.entity.StorageKey;
+import com.soundspace.exception.ImageProcessingException;
+import com.soundspace.service.storage.ImageService;
+import com.soundspace.service.storage.StorageService;
+import org.apache.tika.Tika;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.AbstractResource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/// request czekajacy na cudze generowanie rendition dostaje ImageProcessingException, a nie surowy CompletionException
+class ImageServiceTest {
+
+    @Test
+    void waitingRequestGetsImageProcessingExceptionWhenRenditionFails() throws Exception {
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch fail = new CountDownLatch(1);
+
+        StorageService storageService = mock(StorageService.class);
+        when(storageService.exists(anyString())).thenReturn(false);
+        when(storageService.loadAsResource(anyString())).thenReturn(new AbstractResource() {
+            @Override
+            public String getDescription() {
+                return "oryginal";
+            }
+
+            @Override
+            public InputStream getInputStream() throws IOException {
+                reading.countDown();
+                try {
+                    fail.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new IOException("brak pliku");
+            }
+        });
+
+        ImageService imageService = new ImageService(mock(Tika.class), storageService,
+                new ApplicationConfigProperties.MediaConfig.CoverConfig("jpg", 300, 300, 0.8, 6767L,
+                        "albums/covers", "playlists/covers", "songs/covers", List.of(64)));
+        StorageKey key = new StorageKey();
+        key.setKeyStr("songs/covers/1/a.jpg");
+
+        CompletableFuture<Void> generating = CompletableFuture.runAsync(() -> imageService.loadImageResource(key, 64));
+        reading.await(10, TimeUnit.SECONDS);
+
+        AtomicReference<Throwable> waiterError = new AtomicReference<>();
+        Thread waiter = new Thread(() -> {
+            try {
+                imageService.loadImageResource(key, 64);
+            } catch (Throwable e) {
+                waiterError.set(e);
+            }
+        });
+        waiter.start();
+        while (waiter.getState() != Thread.State.WAITING && waiter.isAlive()) Thread.sleep(5);
+
+        fail.countDown();
+        waiter.join(10_000);
+
+        assertThatThrownBy(generating::join).hasCauseInstanceOf(ImageProcessingException.class);
+        assertThat(waiterError.get()).isInstanceOf(ImageProcessingException.class);
+    }
+}
@@ -0,0 +1,87 @@
+package com.soundspace.service;
+
+import com.soundspace.repository.SongStatisticsRepository;
+import com.soundspace.service.song.ReactionBufferingService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/// przeliczenie z song_reactions i reakcje w trakcie transakcji - zadna zmiana nie moze byc policzona dwa razy
+class ReactionBufferingServiceTest {
+
+    private final SongStatisticsRepository repository = mock(SongStatisticsRepository.class);
+    private final ReactionBufferingService service =
+            new ReactionBufferingService(repository, mock(PlatformTransactionManager.class), new SimpleMeterRegistry());
+
+    @AfterEach
+    void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) TransactionSynchronizationManager.clearSynchronization();
+    }
+
+    @Test
+    void reconcileWaitsForReactionInFlightAndDropsItsDelta() throws Exception {
+        // transakcja reakcji: zmiana licznika zgloszona, commit jeszcze nie nastapil
+        TransactionSynchronizationManager.initSynchronization();
+        service.bufferReaction(1L, 1, 0);
+
+        CompletableFuture<Void> reconcile = CompletableFuture.runAsync(service::reconcile);
+        verify(repository, after(200).never()).reconcileReactionCounts();
+
+        // commit - przeliczenie rusza dopiero po nim, wiec ta reakcja jest juz w song_reactions
+        completeTransaction();
+        reconcile.get(5, TimeUnit.SECONDS);
+        verify(repository).reconcileReactionCounts();
+
+        service.flushReactionsToDatabase();
+        verify(repository, never()).applyReactionDeltas(any(), any(), any());
+    }
+
+    @Test
+    void reactionCommittedAfterReconcileIsFlushed() throws Exception {
+        CountDownLatch reconciling = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(repository.reconcileReactionCounts()).thenAnswer(invocation -> {
+            reconciling.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return 0;
+        });
+
+        CompletableFuture<Void> reconcile = CompletableFuture.runAsync(service::reconcile);
+        assertThat(reconciling.await(5, TimeUnit.SECONDS)).isTrue();
+
+        // reakcja w trakcie przeliczania czeka (jeszcze niezacommitowana, wiec przeliczenie jej nie widzi)
+        CompletableFuture<Void> reaction = CompletableFuture.runAsync(() -> service.bufferReaction(2L, 1, 0));
+        Thread.sleep(100);
+        assertThat(reaction).isNotDone();
+
+        release.countDown();
+        reconcile.get(5, TimeUnit.SECONDS);
+        reaction.get(5, TimeUnit.SECONDS);
+
+        service.flushReactionsToDatabase();
+        verify(repository, timeout(5_000)).applyReactionDeltas(new long[]{2L}, new long[]{1L}, new long[]{0L});
+    }
+
+    private static void completeTransaction() {
+        var synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        TransactionSynchronizationManager.clearSynchronization();
+        synchronizations.forEach(TransactionSynchronization::afterCommit);
+        synchronizations.forEach(sync -> sync.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+    }
+}
@@ -0,0 +1,89 @@
+package com.soundspace.service;
+
+import com.soundspace.service.song.ReactionCounterBuffer;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/// zmiany reakcji tej samej piosenki maja sie sklejac, a drain w trakcie zapisu nie moze niczego zgubic
+class ReactionCounterBufferTest {
+
+    private static final int THREADS = 8;
+    private static final int REACTIONS_PER_THREAD = 100_000;
+    private static final int SONGS = 100;
+
+    @Test
+    void coalescesDeltasPerSong() {
+        ReactionCounterBuffer buffer = new ReactionCounterBuffer();
+
+        buffer.add(1L, 1, 0);  // like
+        buffer.add(1L, -1, 1); // swap like -> dislike
+        buffer.add(1L, 1, 0);  // like innego uzytkownika
+        buffer.add(2L, 1, 0);
+        buffer.add(2L, -1, 0); // like i cofniecie - nic do zapisania
+
+        Map<Long, ReactionCounterBuffer.Delta> drained = buffer.drain();
+
+        assertEquals(Map.of(1L, new ReactionCounterBuffer.Delta(1, 1)), drained);
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    void concurrentDrainsLoseNoDeltas() throws Exception {
+        ReactionCounterBuffer buffer = new ReactionCounterBuffer();
+        long[][] expected = new long[THREADS][SONGS + 1];
+        Map<Long, Long> flushed = new HashMap<>();
+
+        ExecutorService writers = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean writing = new AtomicBoolean(true);
+
+        Future<?>[] futures = new Future<?>[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            long[] likes = expected[t];
+            futures[t] = writers.submit(() -> {
+                start.await();
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < REACTIONS_PER_THREAD; i++) {
+                    int songId = 1 + random.nextInt(SONGS);
+                    int delta = random.nextBoolean() ? 1 : -1;
+                    buffer.add(songId, delta, 0);
+                    likes[songId] += delta;
+                }
+                return null;
+            });
+        }
+
+        start.countDown();
+        Thread flusher = new Thread(() -> {
+            while (writing.get()) drainInto(buffer, flushed);
+        });
+        flusher.start();
+
+        for (Future<?> future : futures) future.get();
+        writing.set(false);
+        flusher.join();
+        writers.shutdown();
+        drainInto(buffer, flushed);
+
+        for (int songId = 1; songId <= SONGS; songId++) {
+            long sum = 0;
+            for (long[] perThread : expected) sum += perThread[songId];
+            assertEquals(sum, flushed.getOrDefault((long) songId, 0L), "songId=" + songId);
+        }
+    }
+
+    private static void drainInto(ReactionCounterBuffer buffer, Map<Long, Long> flushed) {
+        buffer.drain().forEach((songId, delta) -> flushed.merge(songId, delta.likes(), Long::sum));
+    }
+}
@@ -0,0 +1,155 @@
+package com.soundspace.service;
+
+import com.soundspace.entity.AppUser;
+import com.soundspace.entity.SongReaction;
+import com.soundspace.enums.ReactionType;
+import com.soundspace.repository.SongReactionRepository;
+import com.soundspace.service.song.ReactionBufferingService;
+import com.soundspace.service.song.ReactionService;
+import com.soundspace.service.song.RecommendationsPrecomputer;
+import com.soundspace.service.song.SongCoreService;
+import com.soundspace.service.song.TasteProfileService;
+import com.soundspace.service.song.TasteProfileService.ReactionState;
+import com.soundspace.service.song.TrendingLeaderboard;
+import com.soundspace.service.user.AppUserService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/// kazda zmiana reakcji ma dac do bufora dokladnie taka roznice licznikow, jaka wyjdzie z przeliczenia song_reactions,
+/// a profilowi gustu pelny stan reakcji na piosence przed i po zmianie
+@ExtendWith(MockitoExtension.class)
+class ReactionServiceTest {
+
+    private static final long SONG_ID = 5L;
+    private static final long USER_ID = 7L;
+
+    @Mock
+    private SongReactionRepository songReactionRepository;
+
+    @Mock
+    private SongCoreService songCoreService;
+
+    @Mock
+    private AppUserService appUserService;
+
+    @Mock
+    private ReactionBufferingService reactionBufferingService;
+
+    @Mock
+    private TrendingLeaderboard trendingLeaderboard;
+
+    @Mock
+    private TasteProfileService tasteProfileService;
+
+    @Mock
+    private RecommendationsPrecomputer recommendationsPrecomputer;
+
+    @InjectMocks
+    private ReactionService reactionService;
+
+    private final UserDetails userDetails = new User("listener@soundspace.com", "pass", List.of());
+
+    @BeforeEach
+    void setUp() {
+        AppUser appUser = new AppUser();
+        appUser.setId(USER_ID);
+        when(appUserService.getUserByEmail(userDetails.getUsername())).thenReturn(appUser);
+    }
+
+    @Test
+    void newLikeAddsOneLike() {
+        when(songReactionRepository.findLikeOrDislikeBySongIdAndUserId(SONG_ID, USER_ID)).thenReturn(Optional.empty());
+
+        reactionService.addReaction(SONG_ID, ReactionType.LIKE, userDetails);
+
+        verify(reactionBufferingService).bufferReaction(SONG_ID, 1, 0);
+        verify(tasteProfileService).reactionChanged(USER_ID, SONG_ID, ReactionState.NONE, new ReactionState(ReactionType.LIKE, false));
+    }
+
+    @Test
+    void newDislikeAddsOneDislike() {
+        when(songReactionRepository.findLikeOrDislikeBySongIdAndUserId(SONG_ID, USER_ID)).thenReturn(Optional.empty());
+
+        reactionService.addReaction(SONG_ID, ReactionType.DISLIKE, userDetails);
+
+        verify(reactionBufferingService).bufferReaction(SONG_ID, 0, 1);
+    }
+
+    @Test
+    void swapLikeToDislikeMovesOneCount() {
+        when(songReactionRepository.findLikeOrDislikeBySongIdAndUserId(SONG_ID, USER_ID))
+                .thenReturn(Optional.of(reaction(ReactionType.LIKE)));
+
+        reactionService.addReaction(SONG_ID, ReactionType.DISLIKE, userDetails);
+
+        verify(reactionBufferingService).bufferReaction(SONG_ID, -1, 0);
+        verify(reactionBufferingService).bufferReaction(SONG_ID, 0, 1);
+        verify(tasteProfileService).reactionChanged(USER_ID, SONG_ID,
+                new ReactionState(ReactionType.LIKE, false), new ReactionState(ReactionType.DISLIKE, false));
+    }
+
+    @Test
+    void repeatedLikeChangesNothing() {
+        when(songReactionRepository.findLikeOrDislikeBySongIdAndUserId(SONG_ID, USER_ID))
+                .thenReturn(Optional.of(reaction(ReactionType.LIKE)));
+
+        reactionService.addReaction(SONG_ID, ReactionType.LIKE, userDetails);
+
+        verify(reactionBufferingService, never()).bufferReaction(anyLong(), anyInt(), anyInt());
+    }
+
+    @Test
+    void favouriteHasNoCounterButKeepsLikeInTasteTransition() {
+        when(songReactionRepository.findFavoriteBySongIdAndUserId(SONG_ID, USER_ID)).thenReturn(Optional.empty());
+        when(songReactionRepository.findLikeOrDislikeBySongIdAndUserId(SONG_ID, USER_ID))
+                .thenReturn(Optional.of(reaction(ReactionType.LIKE)));
+
+        reactionService.addReaction(SONG_ID, ReactionType.FAVOURITE, userDetails);
+
+        verify(reactionBufferingService, never()).bufferReaction(anyLong(), anyInt(), anyInt());
+        verify(tasteProfileService).reactionChanged(USER_ID, SONG_ID,
+                new ReactionState(ReactionType.LIKE, false), new ReactionState(ReactionType.LIKE, true));
+    }
+
+    @Test
+    void deletedFavouriteKeepsDislikeInTasteTransition() {
+        when(songReactionRepository.deleteFavouriteBySongIdAndUserId(SONG_ID, USER_ID)).thenReturn(1);
+        when(songReactionRepository.findLikeOrDislikeBySongIdAndUserId(SONG_ID, USER_ID))
+                .thenReturn(Optional.of(reaction(ReactionType.DISLIKE)));
+
+        reactionService.deleteFavourite(SONG_ID, userDetails);
+
+        verify(tasteProfileService).reactionChanged(USER_ID, SONG_ID,
+                new ReactionState(ReactionType.DISLIKE, true), new ReactionState(ReactionType.DISLIKE, false));
+    }
+
+    @Test
+    void deletedDislikeRemovesOneDislike() {
+        when(songReactionRepository.findTypeBySongIdAndUserId(SONG_ID, USER_ID)).thenReturn(Optional.of(ReactionType.DISLIKE));
+
+        reactionService.deleteLikeOrDislike(SONG_ID, userDetails);
+
+        verify(reactionBufferingService).bufferReaction(SONG_ID, 0, -1);
+    }
+
+    private static SongReaction reaction(ReactionType type) {
+        SongReaction reaction = new SongReaction();
+        reaction.setReactionType(type);
+        return reaction;
+    }
+}
@@ -0,0 +1,63 @@
+package com.soundspace.service;
+
+import com.soundspace.config.ApplicationConfigProperties;
+import com.soundspace.service.song.RecommendationsPrecomputer;
+import com.soundspace.service.song.RecommendationsService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/// seria reakcji w trakcie liczenia daje jedno kolejne przeliczenie, a nie po jednym na reakcje
+class RecommendationsPrecomputerTest {
+
+    private final RecommendationsService recommendationsService = mock(RecommendationsService.class);
+    private final CountDownLatch computing = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private final RecommendationsPrecomputer precomputer = new RecommendationsPrecomputer(
+            recommendationsService,
+            mock(JdbcTemplate.class),
+            new ConcurrentMapCacheManager("recommendations"),
+            new ApplicationConfigProperties.RecommendationsConfig(60_000, 100, 10,
+                    new ApplicationConfigProperties.RecommendationsConfig.SimilarityConfig(
+                            "-", 20, 200, 0.3f, 10, "-"),
+                    new ApplicationConfigProperties.RecommendationsConfig.PrecomputeConfig(false, 60_000, 60_000, 24, 100, 1)),
+            new SimpleMeterRegistry());
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        precomputer.shutdown();
+    }
+
+    @Test
+    void reactionsDuringRefreshAreCoalescedIntoOneMoreRefresh() throws Exception {
+        when(recommendationsService.getRecommendedSongIds(1L)).thenAnswer(invocation -> {
+            computing.countDown();
+            release.await(10, TimeUnit.SECONDS);
+            return new long[]{42L};
+        });
+
+        precomputer.refreshAfterCommit(1L, "user@soundspace.com");
+        assertThat(computing.await(5, TimeUnit.SECONDS)).isTrue();
+
+        // pierwsze przeliczenie stoi - kolejne reakcje dolaczaja do jednego czekajacego
+        for (int i = 0; i < 5; i++) precomputer.refreshAfterCommit(1L, "user@soundspace.com");
+        release.countDown();
+
+        verify(recommendationsService, timeout(5_000).times(2)).getRecommendedSongIds(1L);
+        verify(recommendationsService, after(300).times(2)).getRecommendedSongIds(1L);
+    }
+}
@@ -16,11 +16,22 @@ import com.soundspace.repository.SongReactionRepository;
 import com.soundspace.repository.SongRepository;
 import com.soundspace.repository.SongStatisticsRepository;
 import com.soundspace.repository.StorageKeyRepository;
+import com.soundspace.repository.UserTasteProfileRepository;
+import com.soundspace.cache.facade.RecommendationsFacade;
+import com.soundspace.service.song.RecommendationsPrecomputer;
 import com.soundspace.service.song.RecommendationsService;
+import com.soundspace.service.song.SongCatalogSnapshot;
+import com.soundspace.service.song.SongSimilarityService;
+import com.soundspace.service.song.TasteProfileService;
+import com.soundspace.service.song.TasteProfileService.ReactionState;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.security.core.userdetails.User;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.test.context.ActiveProfiles;
@@ -31,6 +42,7 @@ import java.util.List;
 import java.util.UUID;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
 
 @SpringBootTest
 @ActiveProfiles("test")
@@ -55,6 +67,27 @@ class RecommendationsServiceIntegrationTest {
     @Autowired
     private SongStatisticsRepository songStatisticsRepository;
 
+    @Autowired
+    private TasteProfileService tasteProfileService;
+
+    @Autowired
+    private UserTasteProfileRepository userTasteProfileRepository;
+
+    @Autowired
+    private SongCatalogSnapshot songCatalogSnapshot;
+
+    @Autowired
+    private SongSimilarityService songSimilarityService;
+
+    @Autowired
+    private RecommendationsPrecomputer recommendationsPrecomputer;
+
+    @Autowired
+    private RecommendationsFacade recommendationsFacade;
+
+    @Autowired
+    private CacheManager cacheManager;
+
     private AppUser testUser;
     private StorageKey dummyKey;
 
@@ -92,7 +125,8 @@ class RecommendationsServiceIntegrationTest {
 
         UserDetails userDetails = createUserDetails();
 
-        List<SongBaseDto> recommendations = recommendationsService.getRecommendations(userDetails);
+        refreshCatalog();
+        List<SongBaseDto> recommendations = recommend(userDetails);
 
         assertThat(recommendations)
                 .extracting(SongBaseDto::title)
@@ -112,7 +146,8 @@ class RecommendationsServiceIntegrationTest {
 
         UserDetails userDetails = createUserDetails();
 
-        List<SongBaseDto> recommendations = recommendationsService.getRecommendations(userDetails);
+        refreshCatalog();
+        List<SongBaseDto> recommendations = recommend(userDetails);
 
         assertThat(recommendations)
                 .extracting(SongBaseDto::title)
@@ -131,7 +166,8 @@ class RecommendationsServiceIntegrationTest {
 
         UserDetails userDetails = User.withUsername(testUser.getEmail()).password("pass").roles("USER").build();
 
-        List<SongBaseDto> recommendations = recommendationsService.getRecommendations(userDetails);
+        refreshCatalog();
+        List<SongBaseDto> recommendations = recommend(userDetails);
 
         assertThat(recommendations)
                 .extracting(SongBaseDto::title)
@@ -152,23 +188,177 @@ class RecommendationsServiceIntegrationTest {
 
         UserDetails userDetails = createUserDetails();
 
-        List<SongBaseDto> recommendations = recommendationsService.getRecommendations(userDetails);
+        refreshCatalog();
+        List<SongBaseDto> recommendations = recommend(userDetails);
 
         assertThat(recommendations)
                 .extracting(SongBaseDto::title)
                 .containsSubsequence("New Single by Liked", "New Single by Random");
     }
 
+    @Test
+    void shouldRecommendSongsLikedByTheSameListeners() {
+        AppUser otherArtist = createUser("other_artist");
+        Song rockHistory = createSong("Rock History", Genre.ROCK, null, 0);
+        createReaction(testUser, rockHistory, ReactionType.LIKE);
+
+        // inny gatunek i autor niz w profilu - bez modelu podobienstwa bylby tylko backfillem jak "Unrelated Jazz"
+        Song coListened = createSong("Jazz Liked By Rock Fans", Genre.JAZZ, otherArtist, 0);
+        for (int i = 0; i < 3; i++) {
+            AppUser listener = createUser("listener_" + i);
+            createReaction(listener, rockHistory, ReactionType.LIKE);
+            createReaction(listener, coListened, ReactionType.LIKE);
+        }
+        createSong("Unrelated Jazz", Genre.JAZZ, otherArtist, 0);
+
+        songReactionRepository.flush();
+        songSimilarityService.rebuild();
+        refreshCatalog();
+
+        List<SongBaseDto> recommendations = recommend(createUserDetails());
+
+        assertThat(recommendations)
+                .extracting(SongBaseDto::title)
+                .containsSubsequence("Jazz Liked By Rock Fans", "Unrelated Jazz");
+        assertThat(songSimilarityService.getRelatedSongs(rockHistory.getId(), 10))
+                .extracting(SongBaseDto::title)
+                .containsExactly("Jazz Liked By Rock Fans");
+    }
+
+    @Test
+    void reactedSongsAreLeftOutEvenWhenTheyScoreHighest() {
+        Song likedHit = createSong("Liked Rock Hit", Genre.ROCK, null, 1_000_000);
+        createReaction(testUser, likedHit, ReactionType.LIKE);
+        Song dislikedHit = createSong("Disliked Rock Hit", Genre.ROCK, null, 1_000_000);
+        createReaction(testUser, dislikedHit, ReactionType.DISLIKE);
+        Song favouriteHit = createSong("Favourite Rock Hit", Genre.ROCK, null, 1_000_000);
+        createReaction(testUser, favouriteHit, ReactionType.FAVOURITE);
+        createSong("Fresh Rock", Genre.ROCK, null, 10);
+        recommendationsService.updateViewCap();
+
+        refreshCatalog();
+        List<SongBaseDto> recommendations = recommend(createUserDetails());
+
+        assertThat(recommendations)
+                .extracting(SongBaseDto::title)
+                .contains("Fresh Rock")
+                .doesNotContain("Liked Rock Hit", "Disliked Rock Hit", "Favourite Rock Hit");
+    }
+
+    @Test
+    void precomputedIdsServeRecommendationPagesFromCache() {
+        Song rockHistory = createSong("Rock History", Genre.ROCK, null, 0);
+        createReaction(testUser, rockHistory, ReactionType.LIKE);
+        Song rockSong = createSong("Rock Song", Genre.ROCK, null, 0);
+        Song popSong = createSong("Pop Song", Genre.POP, null, 0);
+        refreshCatalog();
+
+        Cache cache = cacheManager.getCache("recommendations");
+        try {
+            assertThat(recommendationsPrecomputer.refresh(testUser.getId(), testUser.getEmail())).isTrue();
+            long[] cached = cache.get(testUser.getEmail(), long[].class);
+            assertThat(cached).startsWith(rockSong.getId());
+
+            // strona leci z id w cache - bez liczenia rekomendacji w requescie
+            cache.put(testUser.getEmail(), new long[]{popSong.getId(), rockSong.getId()});
+            Page<SongBaseDto> page = recommendationsFacade.getRecommendations(createUserDetails(), PageRequest.of(0, 1));
+
+            assertThat(page.getTotalElements()).isEqualTo(2);
+            assertThat(page.getContent()).extracting(SongBaseDto::title).containsExactly("Pop Song");
+        } finally {
+            cache.evict(testUser.getEmail());
+        }
+    }
+
+    @Test
+    void recommendationPagesReuseSongDtosButRecheckVisibility() {
+        Song rockSong = createSong("Rock Song", Genre.ROCK, null, 0);
+        Song popSong = createSong("Pop Song", Genre.POP, null, 0);
+        songRepository.flush();
+
+        Cache recommendations = cacheManager.getCache("recommendations");
+        Cache songBase = cacheManager.getCache("song-base");
+        try {
+            recommendations.put(testUser.getEmail(), new long[]{popSong.getId(), rockSong.getId()});
+            Page<SongBaseDto> page = recommendationsFacade.getRecommendations(createUserDetails(), PageRequest.of(0, 2));
+
+            assertThat(page.getContent()).extracting(SongBaseDto::title).containsExactly("Pop Song", "Rock Song");
+            assertThat(songBase.get(rockSong.getId(), SongBaseDto.class)).isNotNull();
+
+            // DTO zostaje w cache, ale ukryta piosenka ma zniknac z kolejnej strony od razu
+            rockSong.setPubliclyVisible(false);
+            songRepository.flush();
+            page = recommendationsFacade.getRecommendations(createUserDetails(), PageRequest.of(0, 2));
+
+            assertThat(page.getContent()).extracting(SongBaseDto::title).containsExactly("Pop Song");
+        } finally {
+            recommendations.evict(testUser.getEmail());
+            songBase.clear();
+        }
+    }
+
     @Test
     void shouldReturnEmptyListForColdStart() {
-        UserDetails userDetails = createUserDetails();
-        List<SongBaseDto> recommendations = recommendationsService.getRecommendations(userDetails);
+        refreshCatalog();
 
-        assertThat(recommendations).isEmpty();
+        // pusta lista - RecommendationsFacade pokaze wtedy globalny top
+        assertThat(recommendationsService.getRecommendedSongIds(testUser.getId())).isEmpty();
+    }
+
+    @Test
+    void incrementalTasteProfileMatchesRebuildFromHistory() {
+        AppUser otherArtist = createUser("other_artist");
+        Song pop = createSong("Pop", Genre.POP, null, 0);
+        Song jazz = createSong("Jazz", Genre.JAZZ, otherArtist, 0);
+        Song rock = createSong("Rock", Genre.ROCK, otherArtist, 0);
+
+        // pusty profil zapisany przed reakcjami - dalej tylko zmiany przyrostowe
+        assertThat(tasteProfileService.getProfile(testUser.getId()).isEmpty()).isTrue();
+
+        createReaction(testUser, pop, ReactionType.LIKE);
+        tasteProfileService.applyReaction(testUser.getId(), pop.getId(), ReactionState.NONE, new ReactionState(ReactionType.LIKE, false));
+        createReaction(testUser, pop, ReactionType.FAVOURITE);
+        tasteProfileService.applyReaction(testUser.getId(), pop.getId(),
+                new ReactionState(ReactionType.LIKE, false), new ReactionState(ReactionType.LIKE, true));
+        createReaction(testUser, jazz, ReactionType.DISLIKE);
+        tasteProfileService.applyReaction(testUser.getId(), jazz.getId(), ReactionState.NONE, new ReactionState(ReactionType.DISLIKE, false));
+        createReaction(testUser, rock, ReactionType.LIKE);
+        tasteProfileService.applyReaction(testUser.getId(), rock.getId(), ReactionState.NONE, new ReactionState(ReactionType.LIKE, false));
+        songReactionRepository.deleteLikeOrDislikeBySongIdAndUserId(rock.getId(), testUser.getId());
+        tasteProfileService.applyReaction(testUser.getId(), rock.getId(), new ReactionState(ReactionType.LIKE, false), ReactionState.NONE);
+
+        TasteProfileService.TasteProfile incremental = tasteProfileService.getProfile(testUser.getId());
+
+        userTasteProfileRepository.deleteByUserId(testUser.getId());
+        TasteProfileService.TasteProfile rebuilt = tasteProfileService.getProfile(testUser.getId());
+
+        assertThat(incremental.genreWeights()).containsOnlyKeys(Genre.POP, Genre.JAZZ);
+        assertThat(incremental.genreWeights().get(Genre.POP)).isCloseTo(rebuilt.genreWeights().get(Genre.POP), within(1e-9));
+        assertThat(incremental.genreWeights().get(Genre.JAZZ)).isCloseTo(rebuilt.genreWeights().get(Genre.JAZZ), within(1e-9));
+        assertThat(incremental.authorWeights()).containsOnlyKeys(rebuilt.authorWeights().keySet().toArray(Long[]::new));
+        assertThat(incremental.authorWeights().get(otherArtist.getId()))
+                .isCloseTo(rebuilt.authorWeights().get(otherArtist.getId()), within(1e-9));
     }
 
     // HELPERY
 
+    // katalog laduje sie przy starcie - piosenki z testu (jeszcze niezacommitowane) widzi dopiero po odswiezeniu
+    private void refreshCatalog() {
+        songRepository.flush();
+        songCatalogSnapshot.refresh();
+    }
+
+    /// ta sama sciezka co strona glowna: id z RecommendationsService przez cache "recommendations", DTO z "song-base"
+    private List<SongBaseDto> recommend(UserDetails userDetails) {
+        Cache cache = cacheManager.getCache("recommendations");
+        cache.evict(userDetails.getUsername());
+        try {
+            return recommendationsFacade.getRecommendations(userDetails, PageRequest.of(0, 50)).getContent();
+        } finally {
+            cache.evict(userDetails.getUsername());
+        }
+    }
+
     private UserDetails createUserDetails() {
         return User.withUsername(testUser.getEmail())
                 .password("pass")
@@ -0,0 +1,107 @@
+package com.soundspace.service;
+
+import com.soundspace.service.storage.S3BlobStore;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.testcontainers.containers.MinIOContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.NoSuchFileException;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/// S3BlobStore na prawdziwym MinIO (jak docker compose --profile s3). bez dockera test jest pomijany
+@Testcontainers(disabledWithoutDocker = true)
+class S3BlobStoreTest {
+
+    @Container
+    private static final MinIOContainer MINIO = new MinIOContainer("minio/minio:RELEASE.2025-04-22T22-12-26Z");
+
+    private static S3BlobStore blobStore;
+
+    @BeforeAll
+    static void setUp() {
+        S3Client s3 = S3Client.builder()
+                .endpointOverride(URI.create(MINIO.getS3URL()))
+                .region(Region.US_EAST_1)
+                .forcePathStyle(true)
+                .credentialsProvider(StaticCredentialsProvider.create(
+                        AwsBasicCredentials.create(MINIO.getUserName(), MINIO.getPassword())))
+                .build();
+        blobStore = new S3BlobStore(s3, "soundspace-test"); // bucket tworzony przy starcie
+    }
+
+    @AfterAll
+    static void tearDown() {
+        if (blobStore != null) blobStore.close();
+    }
+
+    @Test
+    void savedObjectCanBeReadWholeAndByRange() throws IOException {
+        byte[] bytes = bytes(10_000);
+
+        assertThat(blobStore.save("songs/audio/1/a.m4a", new ByteArrayInputStream(bytes), bytes.length)).isEqualTo(bytes.length);
+
+        assertThat(blobStore.exists("songs/audio/1/a.m4a")).isTrue();
+        assertThat(blobStore.size("songs/audio/1/a.m4a")).isEqualTo(bytes.length);
+        assertThat(read("songs/audio/1/a.m4a", 0, bytes.length)).isEqualTo(bytes);
+        assertThat(read("songs/audio/1/a.m4a", 4_000, 100)).isEqualTo(Arrays.copyOfRange(bytes, 4_000, 4_100));
+        assertThat(read("songs/audio/1/a.m4a", 0, 0)).isEmpty();
+    }
+
+    @Test
+    void movedObjectIsOnlyUnderNewKey() throws IOException {
+        byte[] bytes = bytes(1_000);
+        blobStore.save("content/2/.upload-x.jpg", new ByteArrayInputStream(bytes), bytes.length);
+
+        blobStore.move("content/2/.upload-x.jpg", "content/2/hash.jpg");
+
+        assertThat(blobStore.exists("content/2/.upload-x.jpg")).isFalse();
+        assertThat(read("content/2/hash.jpg", 0, bytes.length)).isEqualTo(bytes);
+    }
+
+    @Test
+    void deleteRemovesSingleObjectAndDeleteAllWholePrefix() throws IOException {
+        byte[] bytes = bytes(100);
+        blobStore.save("songs/covers/3/a.jpg", new ByteArrayInputStream(bytes), bytes.length);
+        blobStore.save("songs/covers/3/b.jpg", new ByteArrayInputStream(bytes), bytes.length);
+        blobStore.save("songs/covers/4/c.jpg", new ByteArrayInputStream(bytes), bytes.length);
+
+        blobStore.delete("songs/covers/3/a.jpg");
+        assertThat(blobStore.exists("songs/covers/3/a.jpg")).isFalse();
+        assertThat(blobStore.exists("songs/covers/3/b.jpg")).isTrue();
+
+        blobStore.deleteAll("songs/covers/3/");
+        assertThat(blobStore.exists("songs/covers/3/b.jpg")).isFalse();
+        assertThat(blobStore.exists("songs/covers/4/c.jpg")).isTrue();
+
+        assertThatThrownBy(() -> blobStore.size("songs/covers/3/b.jpg")).isInstanceOf(NoSuchFileException.class);
+        assertThatThrownBy(() -> blobStore.openRange("songs/covers/3/b.jpg", 0, 10)).isInstanceOf(NoSuchFileException.class);
+    }
+
+    /// HELPERY
+
+    private static byte[] read(String key, long start, long length) throws IOException {
+        try (InputStream in = blobStore.openRange(key, start, length)) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static byte[] bytes(int size) {
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) bytes[i] = (byte) (i * 31);
+        return bytes;
+    }
+}
@@ -0,0 +1,100 @@
+package com.soundspace.service;
+
+import com.soundspace.service.song.SongSimilarityBuilder;
+import com.soundspace.service.song.SongSimilarityIndex;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/// Czas i pamiec budowania modelu podobienstwa dla miliona reakcji (popularnosc piosenek ~ Zipf, jak w prawdziwym
+/// katalogu) oraz koszt odczytu sasiadow ze zmapowanego pliku.
+/// Odpalane tylko recznie: mvn test -Dtest=SongSimilarityBenchmarkTest -Dbenchmark=true
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+@Slf4j
+class SongSimilarityBenchmarkTest {
+
+    private static final int REACTIONS = 1_000_000;
+    private static final int VIEWS = 1_000_000;
+    private static final int USERS = 100_000;
+    private static final int SONGS = 50_000;
+    private static final int NEIGHBOURS = 50;
+    private static final int MAX_ITEMS_PER_USER = 200;
+    private static final int LOOKUPS = 1_000_000;
+
+    private final com.sun.management.ThreadMXBean threadMXBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void buildFromMillionReactions() throws IOException {
+        Random random = new Random(42);
+        long[] songByRank = zipfSongs(random);
+
+        SongSimilarityBuilder builder = new SongSimilarityBuilder();
+        for (int i = 0; i < REACTIONS; i++) builder.addReaction(1 + random.nextInt(USERS), songByRank[random.nextInt(songByRank.length)]);
+        for (int i = 0; i < VIEWS; i++) builder.addView(1 + random.nextInt(USERS), songByRank[random.nextInt(songByRank.length)]);
+
+        System.gc();
+        long heapBefore = usedHeap();
+        long allocatedBefore = threadMXBean.getCurrentThreadAllocatedBytes();
+        long started = System.nanoTime();
+
+        SongSimilarityIndex.Table table = builder.build(NEIGHBOURS, MAX_ITEMS_PER_USER, 0.3f);
+
+        long buildMs = (System.nanoTime() - started) / 1_000_000;
+        long allocated = threadMXBean.getCurrentThreadAllocatedBytes() - allocatedBefore;
+        long retained = usedHeap() - heapBefore;
+
+        Path file = tempDir.resolve("similarity.bin");
+        long writeStarted = System.nanoTime();
+        SongSimilarityIndex.write(table, file);
+        long writeMs = (System.nanoTime() - writeStarted) / 1_000_000;
+        SongSimilarityIndex index = SongSimilarityIndex.open(file);
+
+        long lookupStarted = System.nanoTime();
+        long found = 0;
+        for (int i = 0; i < LOOKUPS; i++) found += index.neighbours(1 + random.nextInt(SONGS), 20).size();
+        long lookupNs = (System.nanoTime() - lookupStarted) / LOOKUPS;
+
+        log.info("interakcje: {} (po deduplikacji i probkowaniu), piosenki: {}, sasiedzi: {}",
+                table.interactions(), table.songIds().length, table.neighbourIds().length);
+        log.info("budowanie: {} ms, zaalokowane: {} MB, wynik na heapie: {} MB, zapis: {} ms",
+                buildMs, allocated / (1024 * 1024), retained / (1024 * 1024), writeMs);
+        log.info("plik: {} MB, odczyt 20 sasiadow: {} ns", index.sizeBytes() / (1024 * 1024), lookupNs);
+
+        assertTrue(found > 0);
+    }
+
+    /// HELPERY
+
+    // tablica losowania: piosenka o randze r wystepuje ~ 1/r razy
+    private static long[] zipfSongs(Random random) {
+        int[] weights = new int[SONGS];
+        int total = 0;
+        for (int rank = 1; rank <= SONGS; rank++) {
+            weights[rank - 1] = Math.max(1, 20_000 / rank);
+            total += weights[rank - 1];
+        }
+        long[] table = new long[total];
+        int at = 0;
+        for (int rank = 0; rank < SONGS; rank++) {
+            for (int i = 0; i < weights[rank]; i++) table[at++] = rank + 1;
+        }
+        return table;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
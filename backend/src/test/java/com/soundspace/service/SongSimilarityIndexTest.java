@@ -0,0 +1,71 @@
+package com.soundspace.service;
+
+import com.soundspace.service.song.SongSimilarityBuilder;
+import com.soundspace.service.song.SongSimilarityIndex;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/// sasiedzi z pliku maja byc posortowani po ilosci wspolnych sluchaczy, a ta sama piosenka jednego usera liczy sie raz
+class SongSimilarityIndexTest {
+
+    private static final long A = 10L, B = 20L, C = 30L, D = 40L, E = 50L;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void neighboursAreRankedBySharedListeners() throws IOException {
+        SongSimilarityBuilder builder = new SongSimilarityBuilder();
+        // A i B lubi trzech tych samych, A i C jeden, D tylko sam
+        for (long user = 1; user <= 3; user++) {
+            builder.addReaction(user, A);
+            builder.addReaction(user, B);
+        }
+        builder.addReaction(4L, A);
+        builder.addReaction(4L, C);
+        builder.addReaction(5L, D);
+        // wyswietlenie i like tej samej piosenki - jedna interakcja z waga like
+        builder.addView(1L, A);
+
+        Path file = tempDir.resolve("similarity.bin");
+        SongSimilarityIndex.write(builder.build(10, 100, 0.3f), file);
+        SongSimilarityIndex index = SongSimilarityIndex.open(file);
+
+        assertEquals(4, index.songCount());
+        assertArrayEquals(new long[]{B, C}, index.neighbours(A, 10).ids());
+        assertArrayEquals(new long[]{B}, index.neighbours(A, 1).ids());
+        assertArrayEquals(new long[]{A}, index.neighbours(B, 10).ids());
+        assertEquals(0, index.neighbours(D, 10).size());
+        assertEquals(0, index.neighbours(E, 10).size());
+
+        float[] scores = index.neighbours(A, 10).scores();
+        assertTrue(scores[0] > scores[1]);
+    }
+
+    @Test
+    void rewrittenFileReplacesPreviousModel() throws IOException {
+        Path file = tempDir.resolve("similarity.bin");
+
+        SongSimilarityBuilder first = new SongSimilarityBuilder();
+        first.addReaction(1L, A);
+        first.addReaction(1L, B);
+        SongSimilarityIndex.write(first.build(10, 100, 0.3f), file);
+        SongSimilarityIndex old = SongSimilarityIndex.open(file);
+
+        SongSimilarityBuilder second = new SongSimilarityBuilder();
+        second.addReaction(1L, A);
+        second.addReaction(1L, C);
+        SongSimilarityIndex.write(second.build(10, 100, 0.3f), file);
+
+        // stare mapowanie dalej czyta swoja wersje pliku
+        assertArrayEquals(new long[]{B}, old.neighbours(A, 10).ids());
+        assertArrayEquals(new long[]{C}, SongSimilarityIndex.open(file).neighbours(A, 10).ids());
+    }
+}
@@ -0,0 +1,74 @@
+package com.soundspace.service;
+
+import com.soundspace.cache.provider.CachedSongBaseProvider;
+import com.soundspace.config.ApplicationConfigProperties;
+import com.soundspace.service.song.SongSimilarityService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+/// bez pliku modelu start aplikacji nie czeka na budowanie - do jego konca powiazanych piosenek po prostu nie ma
+class SongSimilarityServiceTest {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @TempDir
+    Path tempDir;
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+    }
+
+    @Test
+    void initialBuildRunsInBackgroundAndServesEmptyNeighboursUntilDone() throws Exception {
+        JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+        CountDownLatch loading = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            loading.countDown();
+            release.await(10, TimeUnit.SECONDS);
+            return null;
+        }).when(jdbcTemplate).query(anyString(), any(RowCallbackHandler.class));
+
+        Path file = tempDir.resolve("song-similarity.bin");
+        SongSimilarityService service = new SongSimilarityService(jdbcTemplate, mock(CachedSongBaseProvider.class),
+                new ApplicationConfigProperties.RecommendationsConfig(60_000, 100, 10,
+                        new ApplicationConfigProperties.RecommendationsConfig.SimilarityConfig(
+                                file.toString(), 20, 200, 0.3f, 10, "-"),
+                        new ApplicationConfigProperties.RecommendationsConfig.PrecomputeConfig(false, 60_000, 60_000, 24, 100, 1)),
+                new SimpleMeterRegistry());
+
+        service.onStartup();
+
+        // budowanie stoi na zapytaniu, a start juz sie skonczyl
+        assertThat(loading.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(service.neighbours(1L, 10).size()).isZero();
+        assertThat(file).doesNotExist();
+
+        release.countDown();
+        assertThat(existsWithin(file, 5_000)).isTrue();
+    }
+
+    private static boolean existsWithin(Path file, long millis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + millis;
+        while (System.currentTimeMillis() < deadline) {
+            if (Files.exists(file)) return true;
+            Thread.sleep(20);
+        }
+        return false;
+    }
+}
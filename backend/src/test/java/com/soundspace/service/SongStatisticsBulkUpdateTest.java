@@ -0,0 +1,128 @@
+package com.soundspace.service;
+
+import com.soundspace.config.ApplicationConfigProperties;
+import com.soundspace.repository.SongStatisticsRepositoryCustomImpl;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import javax.sql.DataSource;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+/// zbiorczy zapis licznikow (wyswietlenia i zmiany reakcji) i sloty shardingu - tu przez batch JDBC i MERGE (H2),
+/// w SongStatisticsPostgresTest te same przypadki ida przez UPDATE ... FROM unnest, ON CONFLICT i DELETE ... RETURNING
+/// na prawdziwym PostgreSQL
+class SongStatisticsBulkUpdateTest {
+
+    protected JdbcTemplate jdbcTemplate;
+    protected SongStatisticsRepositoryCustomImpl repository;
+
+    protected DataSource dataSource() {
+        return new DriverManagerDataSource("jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=PostgreSQL;DB_CLOSE_DELAY=-1", "sa", "");
+    }
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate = new JdbcTemplate(dataSource());
+        // jak V31 i V36
+        jdbcTemplate.execute("DROP TABLE IF EXISTS song_statistics_shards");
+        jdbcTemplate.execute("DROP TABLE IF EXISTS song_statistics");
+        jdbcTemplate.execute("""
+                CREATE TABLE song_statistics (
+                    song_id BIGINT NOT NULL PRIMARY KEY,
+                    likes_count INTEGER NOT NULL DEFAULT 0,
+                    dislikes_count INTEGER NOT NULL DEFAULT 0,
+                    view_count BIGINT NOT NULL DEFAULT 0
+                )""");
+        jdbcTemplate.execute("""
+                CREATE TABLE song_statistics_shards (
+                    song_id BIGINT NOT NULL,
+                    slot INTEGER NOT NULL,
+                    view_count BIGINT NOT NULL DEFAULT 0,
+                    likes_count BIGINT NOT NULL DEFAULT 0,
+                    dislikes_count BIGINT NOT NULL DEFAULT 0,
+                    PRIMARY KEY (song_id, slot)
+                )""");
+        jdbcTemplate.update("INSERT INTO song_statistics (song_id, view_count) VALUES (1, 10), (2, 0), (3, 0)");
+
+        repository = new SongStatisticsRepositoryCustomImpl(jdbcTemplate, null, null);
+    }
+
+    @Test
+    void viewsAreAddedToEverySongOfTheSnapshot() {
+        assertThat(repository.incrementViewCounts(new long[]{1, 2}, new long[]{5, 7})).isEqualTo(2);
+        assertThat(repository.incrementViewCounts(new long[]{1}, new long[]{1})).isEqualTo(1);
+
+        assertThat(viewCount(1)).isEqualTo(16);
+        assertThat(viewCount(2)).isEqualTo(7);
+        assertThat(viewCount(3)).isZero();
+    }
+
+    @Test
+    void missingSongsAreSkipped() {
+        assertThat(repository.incrementViewCounts(new long[]{2, 999}, new long[]{3, 4})).isEqualTo(1);
+        assertThat(viewCount(2)).isEqualTo(3);
+    }
+
+    @Test
+    void emptySnapshotIsNoop() {
+        assertThat(repository.incrementViewCounts(new long[0], new long[0])).isZero();
+    }
+
+    @Test
+    void reactionDeltasAreAppliedAndNeverGoBelowZero() {
+        jdbcTemplate.update("UPDATE song_statistics SET likes_count = 3, dislikes_count = 1 WHERE song_id = 1");
+
+        assertThat(repository.applyReactionDeltas(new long[]{1, 2}, new long[]{2, 1}, new long[]{-1, 4})).isEqualTo(2);
+        assertThat(repository.applyReactionDeltas(new long[]{1, 999}, new long[]{-10, 1}, new long[]{0, 0})).isEqualTo(1);
+
+        assertThat(reactionCounts(1)).containsExactly(0L, 0L);
+        assertThat(reactionCounts(2)).containsExactly(1L, 4L);
+        assertThat(reactionCounts(3)).containsExactly(0L, 0L);
+        assertThat(viewCount(1)).isEqualTo(10);
+    }
+
+    @Test
+    void shardedWritesAreCompactedIntoSongStatistics() {
+        SongStatisticsRepositoryCustomImpl sharded = new SongStatisticsRepositoryCustomImpl(jdbcTemplate,
+                mock(EntityManager.class), new ApplicationConfigProperties.StatisticsConfig(true, 4, 1000));
+
+        for (int i = 0; i < 10; i++) sharded.incrementViewCounts(new long[]{1, 2}, new long[]{1, 2});
+        sharded.applyReactionDeltas(new long[]{1}, new long[]{3}, new long[]{1});
+        sharded.applyReactionDeltas(new long[]{1}, new long[]{-1}, new long[]{0});
+
+        // song_statistics nietkniete, sumy slotow = wszystkie zapisy
+        assertThat(viewCount(1)).isEqualTo(10);
+        assertThat(shardTotal("view_count")).isEqualTo(30);
+        assertThat(shardTotal("likes_count")).isEqualTo(2);
+
+        assertThat(sharded.compactShards()).isEqualTo(2);
+
+        assertThat(viewCount(1)).isEqualTo(20);
+        assertThat(viewCount(2)).isEqualTo(20);
+        assertThat(reactionCounts(1)).containsExactly(2L, 1L);
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM song_statistics_shards", Long.class)).isZero();
+
+        // drugi przebieg bez nowych zapisow niczego nie dodaje
+        assertThat(sharded.compactShards()).isZero();
+        assertThat(viewCount(1)).isEqualTo(20);
+    }
+
+    protected long shardTotal(String column) {
+        return jdbcTemplate.queryForObject("SELECT COALESCE(SUM(" + column + "), 0) FROM song_statistics_shards", Long.class);
+    }
+
+    protected long[] reactionCounts(long songId) {
+        return jdbcTemplate.queryForObject("SELECT likes_count, dislikes_count FROM song_statistics WHERE song_id = ?",
+                (rs, row) -> new long[]{rs.getLong(1), rs.getLong(2)}, songId);
+    }
+
+    protected long viewCount(long songId) {
+        return jdbcTemplate.queryForObject("SELECT view_count FROM song_statistics WHERE song_id = ?", Long.class, songId);
+    }
+}
@@ -0,0 +1,22 @@
+package com.soundspace.service;
+
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import javax.sql.DataSource;
+
+/// przypadki z SongStatisticsBulkUpdateTest na PostgreSQL (jak w docker compose) - sciezka UPDATE ... FROM unnest.
+/// bez dockera test jest pomijany
+@Testcontainers(disabledWithoutDocker = true)
+class SongStatisticsPostgresTest extends SongStatisticsBulkUpdateTest {
+
+    @Container
+    private static final PostgreSQLContainer<?> POSTGRES = new PostgreSQLContainer<>("postgres:16-alpine");
+
+    @Override
+    protected DataSource dataSource() {
+        return new DriverManagerDataSource(POSTGRES.getJdbcUrl(), POSTGRES.getUsername(), POSTGRES.getPassword());
+    }
+}
@@ -0,0 +1,140 @@
+package com.soundspace.service;
+
+import com.soundspace.entity.AppUser;
+import com.soundspace.entity.Song;
+import com.soundspace.entity.SongStatistics;
+import com.soundspace.entity.StorageKey;
+import com.soundspace.enums.Genre;
+import com.soundspace.enums.Role;
+import com.soundspace.enums.Sex;
+import com.soundspace.enums.UserAuthProvider;
+import com.soundspace.repository.AppUserRepository;
+import com.soundspace.repository.SongRepository;
+import com.soundspace.repository.SongStatisticsRepository;
+import com.soundspace.repository.StorageKeyRepository;
+import com.soundspace.service.song.ReactionBufferingService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/// przy shardingu zapisy ida do slotow, odczyty je doliczaja, a kompaktor przenosi je do song_statistics
+@SpringBootTest(properties = {
+        "app.statistics.sharded-counters=true",
+        "app.statistics.shard-slots=4"
+})
+@ActiveProfiles("test")
+@Transactional
+class SongStatisticsShardsIntegrationTest {
+
+    @Autowired
+    private SongStatisticsRepository songStatisticsRepository;
+
+    @Autowired
+    private AppUserRepository appUserRepository;
+
+    @Autowired
+    private SongRepository songRepository;
+
+    @Autowired
+    private StorageKeyRepository storageKeyRepository;
+
+    @Autowired
+    private ReactionBufferingService reactionBufferingService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private AppUser author;
+    private Song song;
+
+    @BeforeEach
+    void setUp() {
+        StorageKey dummyKey = new StorageKey();
+        dummyKey.setKeyStr("test-key-" + UUID.randomUUID());
+        dummyKey.setMimeType("image/jpeg");
+        dummyKey.setSizeBytes(100L);
+        dummyKey.setCreatedAt(Instant.now());
+        storageKeyRepository.save(dummyKey);
+
+        author = appUserRepository.save(AppUser.builder()
+                .email("shards@soundspace.com")
+                .login("shards")
+                .passwordHash("pass-hash")
+                .role(Role.ROLE_USER)
+                .sex(Sex.FEMALE)
+                .authProvider(UserAuthProvider.LOCAL)
+                .emailVerified(true)
+                .createdAt(Instant.now())
+                .avatarStorageKey(dummyKey)
+                .build());
+
+        song = songRepository.saveAndFlush(Song.builder()
+                .title("hot")
+                .author(author)
+                .publiclyVisible(true)
+                .genres(List.of(Genre.POP))
+                .audioStorageKey(dummyKey)
+                .coverStorageKey(dummyKey)
+                .createdAt(Instant.now())
+                .build());
+    }
+
+    @Test
+    void shardedWritesAreVisibleBeforeAndAfterCompaction() {
+        long[] ids = {song.getId()};
+        for (int i = 0; i < 20; i++) songStatisticsRepository.incrementViewCounts(ids, new long[]{5});
+        songStatisticsRepository.applyReactionDeltas(ids, new long[]{3}, new long[]{1});
+        songStatisticsRepository.applyReactionDeltas(ids, new long[]{-1}, new long[]{0});
+
+        // wiersz piosenki nietkniety, wszystko siedzi w slotach
+        assertThat(storedViewCount()).isZero();
+        assertThat(shardRows()).isBetween(1L, 4L);
+        assertCounts(100, 2, 1);
+
+        songStatisticsRepository.compactShards();
+
+        assertThat(storedViewCount()).isEqualTo(100);
+        assertThat(shardRows()).isZero();
+        assertCounts(100, 2, 1);
+    }
+
+    @Test
+    void reconcileRecountsReactionsAndDropsTheirDeltasFromSlots() {
+        long[] ids = {song.getId()};
+        songStatisticsRepository.incrementViewCounts(ids, new long[]{4});
+        songStatisticsRepository.applyReactionDeltas(ids, new long[]{3}, new long[]{2});
+        jdbcTemplate.update("UPDATE song_statistics SET likes_count = 5, dislikes_count = 1 WHERE song_id = ?", song.getId());
+        jdbcTemplate.update("INSERT INTO song_reactions (user_id, song_id, reaction_type, reacted_at) VALUES (?, ?, 'LIKE', ?)",
+                author.getId(), song.getId(), Instant.now());
+
+        reactionBufferingService.reconcile();
+
+        // liczniki reakcji wprost z song_reactions, wyswietlenia w slotach nietkniete
+        assertCounts(4, 1, 0);
+    }
+
+    private void assertCounts(long views, int likes, int dislikes) {
+        SongStatistics stats = songStatisticsRepository.findAllByIdWithShards(List.of(song.getId())).getFirst();
+        assertThat(stats.getViewCount()).isEqualTo(views);
+        assertThat(stats.getLikesCount()).isEqualTo(likes);
+        assertThat(stats.getDislikesCount()).isEqualTo(dislikes);
+    }
+
+    private long storedViewCount() {
+        return jdbcTemplate.queryForObject("SELECT view_count FROM song_statistics WHERE song_id = ?", Long.class, song.getId());
+    }
+
+    private long shardRows() {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM song_statistics_shards", Long.class);
+    }
+}
@@ -0,0 +1,148 @@
+package com.soundspace.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.core.io.UrlResource;
+import org.springframework.core.io.support.ResourceRegion;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.ResourceRegionHttpMessageConverter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/// Porownanie starej sciezki streamingu (ResourceRegion -> ResourceRegionHttpMessageConverter, kopiowanie przez heap)
+/// z zero-copy (FileChannel.transferTo - to samo robi tomcat przy sendfile).
+/// Odpalane tylko recznie: mvn test -Dtest=SongStreamingBenchmarkTest -Dbenchmark=true
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class SongStreamingBenchmarkTest {
+
+    private static final long FILE_SIZE = 64L * 1024 * 1024; // 64MB
+    private static final long CHUNK_SIZE = 1024 * 1024; // 1MB - tyle co SongStreamingService
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int ROUNDS = 10;
+
+    private final com.sun.management.ThreadMXBean threadMXBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private Path audioFile;
+    private Path sinkFile;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        audioFile = Files.createTempFile("bench-audio-", ".m4a");
+        sinkFile = Files.createTempFile("bench-sink-", ".bin");
+
+        byte[] block = new byte[(int) CHUNK_SIZE];
+        new Random(42).nextBytes(block);
+        try (OutputStream out = Files.newOutputStream(audioFile)) {
+            for (long written = 0; written < FILE_SIZE; written += block.length) {
+                out.write(block);
+            }
+        }
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        Files.deleteIfExists(audioFile);
+        Files.deleteIfExists(sinkFile);
+    }
+
+    @Test
+    void compareResourceRegionWithTransferTo() throws IOException {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            streamWithResourceRegion();
+            streamWithTransferTo();
+        }
+
+        Result resourceRegion = measure(this::streamWithResourceRegion);
+        Result transferTo = measure(this::streamWithTransferTo);
+
+        System.out.printf("ResourceRegion: %.1f MB/s, %d B heap / request%n", resourceRegion.mbPerSecond(), resourceRegion.bytesAllocatedPerRequest());
+        System.out.printf("transferTo:     %.1f MB/s, %d B heap / request%n", transferTo.mbPerSecond(), transferTo.bytesAllocatedPerRequest());
+
+        assertEquals(FILE_SIZE, Files.size(sinkFile));
+    }
+
+    /// HELPERY
+
+    // kazdy chunk to osobny "request" - tak jak przy odtwarzaniu w przegladarce
+    private long streamWithResourceRegion() throws IOException {
+        ResourceRegionHttpMessageConverter converter = new ResourceRegionHttpMessageConverter();
+        UrlResource resource = new UrlResource(audioFile.toUri());
+        long requests = 0;
+
+        try (OutputStream sink = Files.newOutputStream(sinkFile)) {
+            HttpOutputMessage message = new SinkOutputMessage(sink);
+            for (long start = 0; start < FILE_SIZE; start += CHUNK_SIZE) {
+                converter.write(new ResourceRegion(resource, start, Math.min(CHUNK_SIZE, FILE_SIZE - start)), MediaType.parseMediaType("audio/mp4"), message);
+                requests++;
+            }
+        }
+        return requests;
+    }
+
+    private long streamWithTransferTo() throws IOException {
+        long requests = 0;
+
+        try (FileChannel sink = FileChannel.open(sinkFile, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (long start = 0; start < FILE_SIZE; start += CHUNK_SIZE) {
+                try (FileChannel source = FileChannel.open(audioFile, StandardOpenOption.READ)) {
+                    long length = Math.min(CHUNK_SIZE, FILE_SIZE - start);
+                    long position = start;
+                    while (position < start + length) {
+                        position += source.transferTo(position, start + length - position, sink);
+                    }
+                }
+                requests++;
+            }
+        }
+        return requests;
+    }
+
+    private Result measure(StreamingRun run) throws IOException {
+        long threadId = Thread.currentThread().threadId();
+        long requests = 0;
+
+        long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            requests += run.stream();
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+        long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        double mbPerSecond = (FILE_SIZE * ROUNDS / (1024.0 * 1024.0)) / (elapsedNanos / 1_000_000_000.0);
+        return new Result(mbPerSecond, allocated / requests);
+    }
+
+    @FunctionalInterface
+    private interface StreamingRun {
+        long stream() throws IOException;
+    }
+
+    private record Result(double mbPerSecond, long bytesAllocatedPerRequest) {}
+
+    private record SinkOutputMessage(OutputStream body) implements HttpOutputMessage {
+        @Override
+        public OutputStream getBody() {
+            return body;
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return new HttpHeaders();
+        }
+    }
+}
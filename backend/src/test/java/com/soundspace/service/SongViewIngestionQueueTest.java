@@ -0,0 +1,91 @@
+package com.soundspace.service;
+
+import com.soundspace.config.ApplicationConfigProperties;
+import com.soundspace.service.song.SongViewIngestionQueue;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/// wyswietlenia maja isc do bazy paczkami (jeden INSERT na paczke), a przy pelnej kolejce byc odrzucane i liczone
+class SongViewIngestionQueueTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+    private final List<Integer> insertedRows = new CopyOnWriteArrayList<>();
+    private SongViewIngestionQueue queue;
+
+    @AfterEach
+    void tearDown() throws Exception {
+        queue.shutdown();
+    }
+
+    @Test
+    void writesEventsInMultiRowBatches() throws Exception {
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(jdbcTemplate.update(anyString(), any(PreparedStatementSetter.class))).thenAnswer(invocation -> {
+            insertedRows.add(rows(invocation.getArgument(0)));
+            blocked.countDown();
+            release.await(10, TimeUnit.SECONDS);
+            return 1;
+        });
+        queue = queue(2_000, 500);
+
+        // pierwsze zdarzenie blokuje writer, reszta czeka w kolejce i ma pojsc paczkami
+        queue.enqueue(1L, 1L, "10.0.0.1");
+        assertTrue(blocked.await(10, TimeUnit.SECONDS));
+        for (long i = 0; i < 1_200; i++) queue.enqueue(i, null, "10.0.0.1");
+        release.countDown();
+        queue.shutdown();
+
+        assertEquals(List.of(1, 500, 500, 200), insertedRows);
+        assertEquals(1_201.0, meterRegistry.get("soundspace.views.ingestion.written").counter().count());
+    }
+
+    @Test
+    void dropsEventsWhenQueueIsFull() throws Exception {
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(jdbcTemplate.update(anyString(), any(PreparedStatementSetter.class))).thenAnswer(invocation -> {
+            blocked.countDown();
+            release.await(10, TimeUnit.SECONDS);
+            return 1;
+        });
+        queue = queue(2, 10);
+
+        queue.enqueue(1L, null, "10.0.0.1");
+        assertTrue(blocked.await(10, TimeUnit.SECONDS));
+        assertTrue(queue.enqueue(2L, null, "10.0.0.1"));
+        assertTrue(queue.enqueue(3L, null, "10.0.0.1"));
+        assertFalse(queue.enqueue(4L, null, "10.0.0.1"));
+        release.countDown();
+
+        assertEquals(1.0, meterRegistry.get("soundspace.views.ingestion.dropped").counter().count());
+    }
+
+    private SongViewIngestionQueue queue(int capacity, int batchSize) {
+        return new SongViewIngestionQueue(jdbcTemplate,
+                new ApplicationConfigProperties.ViewsConfig(900, 1_000, 20_000, null,
+                        new ApplicationConfigProperties.ViewsConfig.IngestionConfig(capacity, batchSize, 1), null),
+                meterRegistry);
+    }
+
+    private static int rows(String sql) {
+        return sql.split("\\(\\?, \\?, \\?, \\?\\)", -1).length - 1;
+    }
+}
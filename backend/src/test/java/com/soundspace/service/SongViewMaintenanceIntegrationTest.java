@@ -0,0 +1,178 @@
+package com.soundspace.service;
+
+import com.soundspace.dto.SongBaseDto;
+import com.soundspace.entity.AppUser;
+import com.soundspace.entity.Song;
+import com.soundspace.entity.StorageKey;
+import com.soundspace.enums.Genre;
+import com.soundspace.enums.Role;
+import com.soundspace.enums.Sex;
+import com.soundspace.enums.UserAuthProvider;
+import com.soundspace.repository.AppUserRepository;
+import com.soundspace.repository.SongRepository;
+import com.soundspace.repository.StorageKeyRepository;
+import com.soundspace.service.song.SongStatisticsService;
+import com.soundspace.service.song.SongViewMaintenanceService;
+import com.soundspace.service.song.TrendingLeaderboard;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/// stare dni maja zostac zagregowane i usuniete z song_views, a ranking trending ma sie z nich odbudowac
+@SpringBootTest
+@ActiveProfiles("test")
+@Transactional
+class SongViewMaintenanceIntegrationTest {
+
+    @Autowired
+    private SongViewMaintenanceService maintenanceService;
+
+    @Autowired
+    private SongStatisticsService songStatisticsService;
+
+    @Autowired
+    private TrendingLeaderboard trendingLeaderboard;
+
+    @Autowired
+    private AppUserRepository appUserRepository;
+
+    @Autowired
+    private SongRepository songRepository;
+
+    @Autowired
+    private StorageKeyRepository storageKeyRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private final LocalDate today = LocalDate.now();
+    private Song trending;
+    private Song forgotten;
+
+    @BeforeEach
+    void setUp() {
+        StorageKey dummyKey = new StorageKey();
+        dummyKey.setKeyStr("test-key-" + UUID.randomUUID());
+        dummyKey.setMimeType("image/jpeg");
+        dummyKey.setSizeBytes(100L);
+        dummyKey.setCreatedAt(Instant.now());
+        storageKeyRepository.save(dummyKey);
+
+        AppUser author = appUserRepository.save(AppUser.builder()
+                .email("views@soundspace.com")
+                .login("views")
+                .passwordHash("pass-hash")
+                .role(Role.ROLE_USER)
+                .sex(Sex.MALE)
+                .authProvider(UserAuthProvider.LOCAL)
+                .emailVerified(true)
+                .createdAt(Instant.now())
+                .avatarStorageKey(dummyKey)
+                .build());
+
+        trending = songRepository.save(song("trending", author, dummyKey));
+        forgotten = songRepository.save(song("forgotten", author, dummyKey));
+        songRepository.flush();
+
+        // trending: 2 wyswietlenia 5 dni temu (poza surowa retencja), 1 wczoraj, 1 dzisiaj = 4 w tygodniu
+        insertView(trending, today.minusDays(5), 2);
+        insertView(trending, today.minusDays(1), 1);
+        insertView(trending, today, 1);
+        // forgotten: 3 wyswietlenia sprzed 10 dni - poza oknem trendingu
+        insertView(forgotten, today.minusDays(10), 3);
+    }
+
+    @Test
+    void expiredDaysAreRolledUpAndRemovedFromRawTable() {
+        maintenanceService.maintain();
+
+        assertThat(dailyViews(trending, today.minusDays(5))).isEqualTo(2);
+        assertThat(dailyViews(trending, today.minusDays(1))).isEqualTo(1);
+        assertThat(dailyViews(forgotten, today.minusDays(10))).isEqualTo(3);
+
+        // w surowej tabeli zostaja tylko dni z okna retencji
+        assertThat(rawViews(trending)).isEqualTo(2);
+        assertThat(rawViews(forgotten)).isZero();
+    }
+
+    @Test
+    void trendingIsRebuiltFromRolledUpAndRawViews() {
+        maintenanceService.maintain();
+        trendingLeaderboard.rebuild();
+        trendingLeaderboard.refresh();
+
+        List<SongBaseDto> songs = songStatisticsService.getTrendingSongs(PageRequest.of(0, 10)).getContent();
+
+        // forgotten ma wiecej wyswietlen, ale sprzed 10 dni - wygaszone i spoza okna odbudowy
+        assertThat(songs).extracting(SongBaseDto::id).containsExactly(trending.getId());
+    }
+
+    @Test
+    void liveViewsReorderTrending() {
+        trendingLeaderboard.rebuild();
+        for (int i = 0; i < 10; i++) trendingLeaderboard.recordView(forgotten.getId());
+        trendingLeaderboard.refresh();
+
+        List<SongBaseDto> songs = songStatisticsService.getTrendingSongs(PageRequest.of(0, 10)).getContent();
+
+        assertThat(songs).extracting(SongBaseDto::id).containsExactly(forgotten.getId(), trending.getId());
+    }
+
+    @Test
+    void songHiddenAfterRefreshIsLeftOutOfTotal() {
+        trendingLeaderboard.rebuild();
+        for (int i = 0; i < 10; i++) trendingLeaderboard.recordView(forgotten.getId());
+        trendingLeaderboard.refresh();
+
+        forgotten.setPubliclyVisible(false);
+        songRepository.flush();
+
+        Page<SongBaseDto> page = songStatisticsService.getTrendingSongs(PageRequest.of(0, 10));
+        assertThat(page.getContent()).extracting(SongBaseDto::id).containsExactly(trending.getId());
+        assertThat(page.getTotalElements()).isEqualTo(1);
+        assertThat(songStatisticsService.getTrendingSongs(PageRequest.of(0, 10)).getTotalElements()).isEqualTo(1);
+    }
+
+    private Song song(String title, AppUser author, StorageKey key) {
+        return Song.builder()
+                .title(title)
+                .author(author)
+                .publiclyVisible(true)
+                .genres(List.of(Genre.POP))
+                .audioStorageKey(key)
+                .coverStorageKey(key)
+                .createdAt(Instant.now())
+                .build();
+    }
+
+    private void insertView(Song song, LocalDate day, int count) {
+        for (int i = 0; i < count; i++) {
+            jdbcTemplate.update("INSERT INTO song_views (song_id, ip_address, viewed_at) VALUES (?, ?, ?)",
+                    song.getId(), "10.0.0." + i, LocalDateTime.of(day, LocalTime.NOON));
+        }
+    }
+
+    private long dailyViews(Song song, LocalDate day) {
+        return jdbcTemplate.queryForObject("SELECT view_count FROM song_view_daily WHERE song_id = ? AND view_day = ?",
+                Long.class, song.getId(), day);
+    }
+
+    private long rawViews(Song song) {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM song_views WHERE song_id = ?", Long.class, song.getId());
+    }
+}
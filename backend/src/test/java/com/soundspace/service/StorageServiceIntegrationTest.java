@@ -0,0 +1,130 @@
+package com.soundspace.service;
+
+import com.soundspace.entity.StorageKey;
+import com.soundspace.repository.StorageKeyRepository;
+import com.soundspace.service.storage.StorageService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/// tryb content-addressed: deduplikacja per wlasciciel, licznik referencji i sprzatanie po nieudanym zapisie
+@SpringBootTest(properties = "app.storage.content-addressed=true")
+@ActiveProfiles("test")
+@Transactional
+class StorageServiceIntegrationTest {
+
+    private static final long OWNER = 4242L;
+
+    @TempDir
+    static Path storageRoot;
+
+    @DynamicPropertySource
+    static void storageProperties(DynamicPropertyRegistry registry) {
+        registry.add("app.storage.root", storageRoot::toString);
+    }
+
+    @Autowired
+    private StorageService storageService;
+
+    @Autowired
+    private StorageKeyRepository storageKeyRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void sameContentFromSameOwnerIsStoredOnce() throws IOException {
+        StorageKey first = store(OWNER, "okladka");
+        StorageKey second = store(OWNER, "okladka");
+        StorageKey otherContent = store(OWNER, "inna okladka");
+        StorageKey otherOwner = store(OWNER + 1, "okladka");
+
+        assertThat(second.getId()).isEqualTo(first.getId());
+        assertThat(refCount(first)).isEqualTo(2);
+        assertThat(first.getKeyStr()).isEqualTo("content/" + OWNER + "/" + first.getContentHash() + ".jpg");
+
+        assertThat(otherContent.getId()).isNotEqualTo(first.getId());
+        assertThat(otherOwner.getId()).isNotEqualTo(first.getId());
+        assertThat(refCount(otherContent)).isEqualTo(1);
+
+        // dwa rozne pliki u wlasciciela, bez tymczasowych .upload-*
+        assertThat(filesOf(OWNER)).containsExactlyInAnyOrder(
+                first.getContentHash() + ".jpg", otherContent.getContentHash() + ".jpg");
+    }
+
+    @Test
+    void blobIsDeletedWithLastReference() throws IOException {
+        StorageKey key = store(OWNER, "wspolna okladka");
+        store(OWNER, "wspolna okladka");
+
+        storageService.release(key);
+        assertThat(refCount(key)).isEqualTo(1);
+        assertThat(storageService.exists(key.getKeyStr())).isTrue();
+
+        storageService.release(key);
+        assertThat(storageKeyRepository.existsById(key.getId())).isFalse();
+        assertThat(storageService.exists(key.getKeyStr())).isFalse();
+    }
+
+    @Test
+    void failedUploadLeavesNoFileAndNoRow() {
+        int rowsBefore = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM storage_keys", Integer.class);
+
+        InputStream broken = new InputStream() {
+            private int read;
+
+            @Override
+            public int read() throws IOException {
+                if (read++ >= 1000) throw new IOException("zerwane polaczenie");
+                return 'x';
+            }
+        };
+
+        assertThatThrownBy(() -> storageService.store(broken, -1, OWNER + 2, "jpg", "albums/covers", "image/jpeg"))
+                .isInstanceOf(IOException.class);
+
+        assertThat(filesOf(OWNER + 2)).isEmpty();
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM storage_keys", Integer.class)).isEqualTo(rowsBefore);
+    }
+
+    /// HELPERY
+
+    private StorageKey store(long owner, String content) throws IOException {
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        return storageService.store(new ByteArrayInputStream(bytes), bytes.length, owner, "jpg", "albums/covers", "image/jpeg");
+    }
+
+    // bulk UPDATE ref_count omija persistence context, wiec stan prosto z bazy
+    private int refCount(StorageKey key) {
+        return jdbcTemplate.queryForObject("SELECT ref_count FROM storage_keys WHERE id = ?", Integer.class, key.getId());
+    }
+
+    private static List<String> filesOf(long owner) {
+        Path dir = storageRoot.resolve(StorageService.CONTENT_DIRECTORY).resolve(String.valueOf(owner));
+        if (!Files.isDirectory(dir)) return List.of();
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.map(file -> file.getFileName().toString()).toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.soundspace.service;
+
+import com.soundspace.entity.AppUser;
+import com.soundspace.entity.Song;
+import com.soundspace.entity.StorageKey;
+import com.soundspace.enums.Genre;
+import com.soundspace.enums.ReactionType;
+import com.soundspace.enums.Role;
+import com.soundspace.enums.Sex;
+import com.soundspace.enums.UserAuthProvider;
+import com.soundspace.repository.AppUserRepository;
+import com.soundspace.repository.SongRepository;
+import com.soundspace.repository.StorageKeyRepository;
+import com.soundspace.repository.UserTasteProfileRepository;
+import com.soundspace.service.song.ReactionService;
+import com.soundspace.service.song.TasteProfileService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+/// profil gustu zmieniany przez ReactionService po commicie (bez @Transactional na tescie - inaczej afterCommit
+/// nigdy by nie ruszyl) ma wyjsc taki sam jak zbudowany od nowa z historii reakcji
+@SpringBootTest
+@ActiveProfiles("test")
+class TasteProfileReactionIntegrationTest {
+
+    @Autowired
+    private ReactionService reactionService;
+
+    @Autowired
+    private TasteProfileService tasteProfileService;
+
+    @Autowired
+    private UserTasteProfileRepository userTasteProfileRepository;
+
+    @Autowired
+    private AppUserRepository appUserRepository;
+
+    @Autowired
+    private SongRepository songRepository;
+
+    @Autowired
+    private StorageKeyRepository storageKeyRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private StorageKey dummyKey;
+    private AppUser listener;
+    private AppUser artist;
+    private Song pop;
+    private Song jazz;
+    private UserDetails userDetails;
+
+    @BeforeEach
+    void setUp() {
+        String suffix = UUID.randomUUID().toString().substring(0, 8);
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            dummyKey = new StorageKey();
+            dummyKey.setKeyStr("test-key-" + suffix);
+            dummyKey.setMimeType("image/jpeg");
+            dummyKey.setSizeBytes(100L);
+            dummyKey.setCreatedAt(Instant.now());
+            storageKeyRepository.save(dummyKey);
+
+            listener = appUserRepository.save(user("listener-" + suffix));
+            artist = appUserRepository.save(user("artist-" + suffix));
+            pop = songRepository.save(song("Pop", Genre.POP));
+            jazz = songRepository.save(song("Jazz", Genre.JAZZ));
+        });
+        userDetails = User.withUsername(listener.getEmail()).password("pass").roles("USER").build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        List<Long> songIds = List.of(pop.getId(), jazz.getId());
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            jdbcTemplate.update("DELETE FROM song_reactions WHERE user_id = ?", listener.getId());
+            jdbcTemplate.update("DELETE FROM user_taste_profiles WHERE user_id = ?", listener.getId());
+            for (Long songId : songIds) {
+                jdbcTemplate.update("DELETE FROM song_statistics WHERE song_id = ?", songId);
+                jdbcTemplate.update("DELETE FROM song_genres WHERE song_id = ?", songId);
+                jdbcTemplate.update("DELETE FROM songs WHERE id = ?", songId);
+            }
+            jdbcTemplate.update("DELETE FROM app_users WHERE id IN (?, ?)", listener.getId(), artist.getId());
+            jdbcTemplate.update("DELETE FROM storage_keys WHERE id = ?", dummyKey.getId());
+        });
+    }
+
+    @Test
+    void reactionsUpdateProfileAfterCommitLikeRebuildFromHistory() {
+        // pusty profil zapisany przed reakcjami - dalej tylko zmiany po commicie
+        assertThat(tasteProfileService.getProfile(listener.getId()).isEmpty()).isTrue();
+
+        reactionService.addReaction(pop.getId(), ReactionType.LIKE, userDetails);
+        reactionService.addReaction(pop.getId(), ReactionType.FAVOURITE, userDetails);
+        reactionService.addReaction(jazz.getId(), ReactionType.DISLIKE, userDetails);
+        reactionService.addReaction(jazz.getId(), ReactionType.LIKE, userDetails);   // swap
+        reactionService.deleteFavourite(pop.getId(), userDetails);                    // zostaje like
+        reactionService.addReaction(jazz.getId(), ReactionType.FAVOURITE, userDetails);
+
+        TasteProfileService.TasteProfile incremental = tasteProfileService.getProfile(listener.getId());
+
+        new TransactionTemplate(transactionManager).executeWithoutResult(status ->
+                userTasteProfileRepository.deleteByUserId(listener.getId()));
+        TasteProfileService.TasteProfile rebuilt = tasteProfileService.getProfile(listener.getId());
+
+        assertThat(incremental.genreWeights()).containsOnlyKeys(Genre.POP, Genre.JAZZ);
+        assertThat(incremental.genreWeights().get(Genre.POP)).isCloseTo(rebuilt.genreWeights().get(Genre.POP), within(1e-9));
+        assertThat(incremental.genreWeights().get(Genre.JAZZ)).isCloseTo(rebuilt.genreWeights().get(Genre.JAZZ), within(1e-9));
+        assertThat(incremental.authorWeights().get(artist.getId()))
+                .isCloseTo(rebuilt.authorWeights().get(artist.getId()), within(1e-9));
+    }
+
+    private AppUser user(String login) {
+        return AppUser.builder()
+                .email(login + "@test.com")
+                .login(login)
+                .passwordHash("pass")
+                .role(Role.ROLE_USER)
+                .sex(Sex.MALE)
+                .authProvider(UserAuthProvider.LOCAL)
+                .emailVerified(true)
+                .createdAt(Instant.now())
+                .avatarStorageKey(dummyKey)
+                .build();
+    }
+
+    private Song song(String title, Genre genre) {
+        return Song.builder()
+                .title(title)
+                .author(artist)
+                .publiclyVisible(true)
+                .genres(List.of(genre))
+                .audioStorageKey(dummyKey)
+                .coverStorageKey(dummyKey)
+                .createdAt(Instant.now())
+                .build();
+    }
+}
@@ -0,0 +1,87 @@
+package com.soundspace.service;
+
+import com.soundspace.config.ApplicationConfigProperties;
+import com.soundspace.service.song.ViewCooldownIndex;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/// drugie wyswietlenie w oknie cooldownu ma byc odrzucone bez bazy, a baza ma byc pytana tylko w pierwszym oknie po starcie
+class ViewCooldownIndexTest {
+
+    private final MutableClock clock = new MutableClock(Instant.parse("2026-01-01T00:00:00Z"));
+    private final ViewCooldownIndex index = new ViewCooldownIndex(
+            new ApplicationConfigProperties.ViewsConfig(900, 1_000, 20_000, null, null, null),
+            new SimpleMeterRegistry(),
+            clock);
+
+    @Test
+    void secondViewInCooldownIsRejected() {
+        String key = ViewCooldownIndex.userKey(1L, 2L);
+
+        assertTrue(index.tryClaim(key));
+        assertFalse(index.tryClaim(key));
+        assertTrue(index.tryClaim(ViewCooldownIndex.userKey(1L, 3L)));
+        assertTrue(index.tryClaim(ViewCooldownIndex.ipKey(1L, "10.0.0.1")));
+    }
+
+    @Test
+    void viewIsCountedAgainInNextCooldownWindow() {
+        String key = ViewCooldownIndex.userKey(1L, 2L);
+        assertTrue(index.tryClaim(key));
+
+        clock.now = clock.now.plusSeconds(899);
+        assertFalse(index.tryClaim(key));
+
+        clock.now = clock.now.plusSeconds(2);
+        assertTrue(index.tryClaim(key));
+        assertFalse(index.tryClaim(key));
+    }
+
+    @Test
+    void releasedKeyCanBeClaimedAgain() {
+        String key = ViewCooldownIndex.ipKey(1L, "10.0.0.1");
+
+        assertTrue(index.tryClaim(key));
+        index.release(key);
+        assertTrue(index.tryClaim(key));
+    }
+
+    @Test
+    void databaseIsNeededOnlyDuringFirstCooldownWindow() {
+        assertFalse(index.isComplete());
+
+        clock.now = clock.now.plusSeconds(901);
+        assertTrue(index.isComplete());
+    }
+
+    private static final class MutableClock extends Clock {
+        private Instant now;
+
+        private MutableClock(Instant now) {
+            this.now = now;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
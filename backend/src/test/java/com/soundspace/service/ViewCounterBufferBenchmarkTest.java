@@ -0,0 +1,73 @@
+package com.soundspace.service;
+
+import com.soundspace.service.song.ViewCounterBuffer;
+import com.soundspace.service.song.ViewJournal;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/// Przepustowosc bufora wyswietlen z dziennikiem: 8 watkow pisze, flusher drenuje w petli.
+/// Odpalane tylko recznie: mvn test -Dtest=ViewCounterBufferBenchmarkTest -Dbenchmark=true
+@Slf4j
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class ViewCounterBufferBenchmarkTest {
+
+    private static final int THREADS = 8;
+    private static final int VIEWS_PER_THREAD = 1_000_000;
+    private static final int SONGS = 10_000;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void incrementThroughputWithConcurrentFlushes() throws Exception {
+        ViewCounterBuffer buffer = new ViewCounterBuffer(new ViewJournal(directory, 1 << 20));
+        ExecutorService writers = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean writing = new AtomicBoolean(true);
+
+        Future<?>[] futures = new Future<?>[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            futures[t] = writers.submit(() -> {
+                start.await();
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < VIEWS_PER_THREAD; i++) buffer.increment(1 + random.nextInt(SONGS));
+                return null;
+            });
+        }
+
+        Thread flusher = new Thread(() -> {
+            while (writing.get()) {
+                try {
+                    buffer.commit(buffer.drain());
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        flusher.start();
+
+        long started = System.nanoTime();
+        start.countDown();
+        for (Future<?> future : futures) future.get(10, TimeUnit.MINUTES);
+        long elapsedNanos = System.nanoTime() - started;
+        writing.set(false);
+        flusher.join();
+        writers.shutdown();
+        buffer.close();
+
+        long total = (long) THREADS * VIEWS_PER_THREAD;
+        log.info("Bufor wyświetleń: {} wyświetleń w {} ms = {} wyświetleń/min",
+                total, elapsedNanos / 1_000_000, String.format("%,.0f", total * 60e9 / elapsedNanos));
+    }
+}
@@ -0,0 +1,150 @@
+package com.soundspace.service;
+
+import com.soundspace.service.song.ViewCounterBuffer;
+import com.soundspace.service.song.ViewJournal;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/// flush nie moze zgubic ani policzyc dwa razy zadnego wyswietlenia, a dziennik ma oddac po restarcie tylko niezapisane
+class ViewCounterBufferTest {
+
+    private static final int THREADS = 8;
+    private static final int VIEWS_PER_THREAD = 50_000;
+    private static final int SONGS = 1_000;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void concurrentFlushesLoseNoIncrements() throws Exception {
+        ViewCounterBuffer buffer = new ViewCounterBuffer(new ViewJournal(directory, 1 << 16));
+        long[] expected = new long[SONGS + 1];
+        long[][] perThread = new long[THREADS][SONGS + 1];
+        Map<Long, Long> flushed = new HashMap<>();
+
+        ExecutorService writers = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean writing = new AtomicBoolean(true);
+
+        Future<?>[] futures = new Future<?>[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            long[] counts = perThread[t];
+            futures[t] = writers.submit(() -> {
+                start.await();
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < VIEWS_PER_THREAD; i++) {
+                    long songId = 1 + random.nextInt(SONGS);
+                    buffer.increment(songId);
+                    counts[(int) songId]++;
+                }
+                return null;
+            });
+        }
+
+        // flusher w petli przez caly czas pisania - co drugi "zapis do bazy" sie nie udaje
+        Thread flusher = new Thread(() -> {
+            boolean fail = false;
+            while (writing.get()) {
+                drainInto(buffer, flushed, fail);
+                fail = !fail;
+            }
+        });
+        flusher.start();
+
+        start.countDown();
+        for (Future<?> future : futures) future.get(60, TimeUnit.SECONDS);
+        writing.set(false);
+        flusher.join();
+        writers.shutdown();
+
+        drainInto(buffer, flushed, false);
+
+        for (long[] counts : perThread)
+            for (int songId = 1; songId <= SONGS; songId++) expected[songId] += counts[songId];
+
+        long total = 0;
+        for (int songId = 1; songId <= SONGS; songId++) {
+            assertEquals(expected[songId], flushed.getOrDefault((long) songId, 0L), "songId=" + songId);
+            total += flushed.getOrDefault((long) songId, 0L);
+        }
+        assertEquals((long) THREADS * VIEWS_PER_THREAD, total);
+
+        // wszystko zapisane - dziennik po restarcie jest pusty
+        buffer.close();
+        assertTrue(new ViewJournal(directory, 1 << 16).recovered().isEmpty());
+    }
+
+    @Test
+    void unflushedViewsAreReplayedAfterRestart() throws Exception {
+        ViewCounterBuffer buffer = new ViewCounterBuffer(new ViewJournal(directory, 4));
+        for (int i = 0; i < 3; i++) buffer.increment(1L);
+        buffer.commit(buffer.drain());
+
+        for (int i = 0; i < 5; i++) buffer.increment(1L); // 5 > 4 - kolejny segment w tej samej epoce
+        buffer.increment(2L);
+        buffer.rollback(buffer.drain());
+        buffer.increment(2L);
+        buffer.close();
+
+        assertEquals(Map.of(1L, 5L, 2L, 2L), new ViewJournal(directory, 4).recovered());
+    }
+
+    @Test
+    void viewsFromCrashedNodeAreFlushedOnceAfterRestart() throws Exception {
+        ViewCounterBuffer crashed = new ViewCounterBuffer(new ViewJournal(directory, 16));
+        for (int i = 0; i < 3; i++) crashed.increment(1L);
+        crashed.increment(2L);
+        // crash: bez drain i bez close - zostaja tylko zmapowane segmenty na dysku
+
+        ViewCounterBuffer restarted = new ViewCounterBuffer(new ViewJournal(directory, 16));
+        assertFalse(restarted.isEmpty());
+        restarted.increment(2L);
+
+        Map<Long, Long> flushed = new HashMap<>();
+        drainInto(restarted, flushed, false);
+        assertEquals(Map.of(1L, 3L, 2L, 2L), flushed);
+        assertTrue(restarted.isEmpty());
+
+        // po udanym flushu odtworzone segmenty sa usuniete - kolejny restart niczego nie dolicza
+        restarted.close();
+        assertTrue(new ViewJournal(directory, 16).recovered().isEmpty());
+    }
+
+    @Test
+    void batchCommittedInDatabaseButNotInJournalIsReplayed() throws Exception {
+        ViewCounterBuffer buffer = new ViewCounterBuffer(new ViewJournal(directory, 16));
+        buffer.increment(1L);
+        buffer.drain(); // crash po commicie w bazie, przed commit(batch) - at-least-once
+
+        assertEquals(Map.of(1L, 1L), new ViewJournal(directory, 16).recovered());
+    }
+
+    private static void drainInto(ViewCounterBuffer buffer, Map<Long, Long> flushed, boolean fail) {
+        try {
+            ViewCounterBuffer.Batch batch = buffer.drain();
+            if (fail) {
+                buffer.rollback(batch);
+                return;
+            }
+            batch.forEach((songId, count) -> flushed.merge(songId, count, Long::sum));
+            buffer.commit(batch);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
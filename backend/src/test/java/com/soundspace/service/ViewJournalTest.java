@@ -0,0 +1,57 @@
+package com.soundspace.service;
+
+import com.soundspace.service.song.ViewJournal;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/// rekordy z segmentow maja przezyc restart (bez close - jak przy crashu), a usuniete segmenty juz nie wracac
+class ViewJournalTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void recordsOfUnclosedSegmentsAreReplayedAfterRestart() throws Exception {
+        ViewJournal journal = new ViewJournal(directory, 4);
+        ViewJournal.Segment first = journal.newSegment();
+        for (int i = 0; i < 4; i++) assertTrue(first.tryAppend(1L));
+        assertFalse(first.tryAppend(1L)); // pelny segment - bufor przechodzi na kolejny
+        ViewJournal.Segment second = journal.newSegment();
+        second.tryAppend(1L);
+        second.tryAppend(2L);
+
+        ViewJournal reopened = new ViewJournal(directory, 4);
+        assertEquals(Map.of(1L, 5L, 2L, 1L), reopened.recovered());
+        assertEquals(2, reopened.recoveredSegments().size());
+    }
+
+    @Test
+    void deletedSegmentsAreNotReplayed() throws Exception {
+        ViewJournal journal = new ViewJournal(directory, 16);
+        ViewJournal.Segment flushed = journal.newSegment();
+        flushed.tryAppend(1L);
+        ViewJournal.Segment pending = journal.newSegment();
+        pending.tryAppend(2L);
+
+        flushed.delete();
+
+        assertEquals(Map.of(2L, 1L), new ViewJournal(directory, 16).recovered());
+    }
+
+    @Test
+    void segmentsCreatedAfterRecoveryDoNotOverwriteRecoveredOnes() throws Exception {
+        new ViewJournal(directory, 16).newSegment().tryAppend(1L);
+
+        ViewJournal reopened = new ViewJournal(directory, 16);
+        reopened.newSegment().tryAppend(2L);
+
+        assertEquals(Map.of(1L, 1L, 2L, 1L), new ViewJournal(directory, 16).recovered());
+    }
+}
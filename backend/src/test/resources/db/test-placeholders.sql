@@ -0,0 +1,3 @@
+-- te same domyslne pliki co V13 (app.media.cover.default-cover-id / app.media.audio.default-audio-id) - w testach schemat robi hibernate, nie flyway
+INSERT INTO storage_keys (id, key_str, mime_type, size_bytes, created_at, ref_count) VALUES (6767, 'placeholders/cover_placeholder.jpg', 'image/jpg', 185168, CURRENT_TIMESTAMP, 1);
+INSERT INTO storage_keys (id, key_str, mime_type, size_bytes, created_at, ref_count) VALUES (5000, 'placeholders/audio_placeholder.m4a', 'audio/mp4', 1745574, CURRENT_TIMESTAMP, 1);
@@ -0,0 +1,2 @@
+-- tabele bez encji JPA (hibernate ich nie tworzy) - jak w migracjach flyway, jedno polecenie w linii
+CREATE TABLE IF NOT EXISTS song_statistics_shards (song_id BIGINT NOT NULL, slot INTEGER NOT NULL, view_count BIGINT NOT NULL DEFAULT 0, likes_count BIGINT NOT NULL DEFAULT 0, dislikes_count BIGINT NOT NULL DEFAULT 0, PRIMARY KEY (song_id, slot));
@@ -61,7 +61,7 @@ function TopBar() {
                 {currentUser ? (
                     <Link to="/profile">
                         <img
-                            src={getImageUrl(currentUser.avatarStorageKeyId) || defaultAvatar}
+                            src={getImageUrl(currentUser.avatarStorageKeyId, 64) || defaultAvatar}
                             alt="Mój profil"
                             className="topbar-avatar"
                         />
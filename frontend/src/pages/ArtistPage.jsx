@@ -206,7 +206,7 @@ function ArtistPage() {
                                     <MediaCard
                                         key={song.id}
                                         linkTo={`/song/${song.id}`}
-                                        imageUrl={getImageUrl(song.coverStorageKeyId)}
+                                        imageUrl={getImageUrl(song.coverStorageKeyId, 300)}
                                         title={song.title}
                                         subtitle={`${getYearFromDate(song.createdAt)} • Utwór`}
                                         data={song}
@@ -237,7 +237,7 @@ function ArtistPage() {
                                     <MediaCard
                                         key={album.id}
                                         linkTo={`/album/${album.id}`}
-                                        imageUrl={getImageUrl(album.coverStorageKeyId)}
+                                        imageUrl={getImageUrl(album.coverStorageKeyId, 300)}
                                         title={album.title}
                                         subtitle={`${getYearFromDate(album.createdAt)} • Album`}
                                     />
@@ -267,7 +267,7 @@ function ArtistPage() {
                                     <MediaCard
                                         key={playlist.id}
                                         linkTo={`/playlist/${playlist.id}`}
-                                        imageUrl={playlist.coverStorageKeyId ? getImageUrl(playlist.coverStorageKeyId) : defaultAvatar}
+                                        imageUrl={playlist.coverStorageKeyId ? getImageUrl(playlist.coverStorageKeyId, 300) : defaultAvatar}
                                         title={playlist.title}
                                         subtitle={`• Playlista`}
                                     />
@@ -90,7 +90,7 @@ function FavoritesPage() {
                                 <MediaCard
                                     key={song.id}
                                     linkTo={`/song/${song.id}`}
-                                    imageUrl={getImageUrl(song.coverStorageKeyId)}
+                                    imageUrl={getImageUrl(song.coverStorageKeyId, 300)}
                                     title={song.title}
                                     subtitle={song.authorUsername || "Nieznany artysta"}
                                     data={song}
@@ -203,7 +203,7 @@ function GenrePage() {
                                     key={item.id}
                                     title={item.title}
                                     subtitle={item.authorUsername || "Nieznany artysta"}
-                                    imageUrl={getImageUrl(item.coverStorageKeyId)}
+                                    imageUrl={getImageUrl(item.coverStorageKeyId, 300)}
                                     linkTo={`/song/${item.id}`}
                                     data={item}
                                 />
@@ -229,7 +229,7 @@ function GenrePage() {
                                     key={item.id}
                                     title={item.title}
                                     subtitle={`Album • ${item.authorName || "Artysta"}`}
-                                    imageUrl={getImageUrl(item.coverStorageKeyId)}
+                                    imageUrl={getImageUrl(item.coverStorageKeyId, 300)}
                                     linkTo={`/album/${item.id}`}
                                 />
                             ))}
@@ -240,7 +240,7 @@ function HomePage() {
                                 subtitle={type === 'playlist'
                                     ? `${item.songsCount || 0} utworów • ${item.creatorUsername || 'Nieznany'}`
                                     : item.artist || item.authorUsername || item.creatorUsername}
-                                imageUrl={getImageUrl(item.coverStorageKeyId)}
+                                imageUrl={getImageUrl(item.coverStorageKeyId, 300)}
                                 linkTo={`/${type}/${item.id}`}
                                 data={type === 'song' ? item : null}
                             />
@@ -196,7 +196,7 @@ function ProfilePage() {
                                     <MediaCard
                                         key={song.id}
                                         linkTo={`/song/${song.id}`}
-                                        imageUrl={getImageUrl(song.coverStorageKeyId)}
+                                        imageUrl={getImageUrl(song.coverStorageKeyId, 300)}
                                         title={song.title}
                                         subtitle={`${new Date(song.createdAt).getFullYear()} • Utwór`}
                                         data={song}
@@ -227,7 +227,7 @@ function ProfilePage() {
                                     <MediaCard
                                         key={album.id}
                                         linkTo={`/album/${album.id}`}
-                                        imageUrl={album.coverStorageKeyId ? getImageUrl(album.coverStorageKeyId) : defaultAvatar}
+                                        imageUrl={album.coverStorageKeyId ? getImageUrl(album.coverStorageKeyId, 300) : defaultAvatar}
                                         title={album.title}
                                         subtitle={`${new Date(album.createdAt).getFullYear()} • Album`}
                                     />
@@ -257,7 +257,7 @@ function ProfilePage() {
                                     <MediaCard
                                         key={playlist.id}
                                         linkTo={`/playlist/${playlist.id}`}
-                                        imageUrl={playlist.coverStorageKeyId ? getImageUrl(playlist.coverStorageKeyId) : defaultAvatar}
+                                        imageUrl={playlist.coverStorageKeyId ? getImageUrl(playlist.coverStorageKeyId, 300) : defaultAvatar}
                                         title={playlist.title || playlist.name}
                                         subtitle={`${playlist.songsCount || 0} utworów • Playlista`}
                                     />
@@ -90,7 +90,7 @@ function SearchPage() {
                             <MediaCard
                                 key={album.id}
                                 linkTo={`/album/${album.id}`}
-                                imageUrl={getImageUrl(album.coverStorageKeyId)}
+                                imageUrl={getImageUrl(album.coverStorageKeyId, 300)}
                                 title={album.title}
                                 subtitle={album.authorUsername}
                             />
@@ -107,7 +107,7 @@ function SearchPage() {
                             <MediaCard
                                 key={playlist.id}
                                 linkTo={`/playlist/${playlist.id}`}
-                                imageUrl={getImageUrl(playlist.coverStorageKeyId)}
+                                imageUrl={getImageUrl(playlist.coverStorageKeyId, 300)}
                                 title={playlist.title}
                                 subtitle={`Autor: ${playlist.creatorUsername}`}
                             />
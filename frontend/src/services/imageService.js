@@ -1,6 +1,7 @@
 import defaultAvatar from "../assets/images/default-avatar.png";
 
-export const getImageUrl = (storageKeyId) => {
+// size - szerokosc w px, backend oddaje najblizsza wieksza miniature (np. 64/300), bez size oryginal
+export const getImageUrl = (storageKeyId, size) => {
     if (!storageKeyId) return defaultAvatar;
-    return `/api/images/${storageKeyId}`;
-}
\ No newline at end of file
+    return size ? `/api/images/${storageKeyId}?size=${size}` : `/api/images/${storageKeyId}`;
+}